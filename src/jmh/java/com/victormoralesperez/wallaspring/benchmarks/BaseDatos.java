@@ -0,0 +1,60 @@
+package com.victormoralesperez.wallaspring.benchmarks;
+
+import java.util.List;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.victormoralesperez.wallaspring.WallaSpringApplication;
+
+/**
+ * Contexto de Spring sobre una Base de Datos H2 en memoria con el
+ * esquema de Flyway y el juego de datos de GeneradorDatos (perfil "local"): con la misma
+ * semilla y el mismo numero de productos, todos los forks miden sobre los mismos datos.
+ *
+ * El servidor web arranca en un puerto libre y no recibe peticiones: se levanta solo porque
+ * los Controladores necesitan la HttpSession.
+ *
+ * Aproximadamente un 40% de los productos quedan vendidos (productos / 5 compras de 1 a 3
+ * productos) y cada usuario tiene unos 100 productos.
+ */
+final class BaseDatos {
+
+    private BaseDatos() {
+    }
+
+    static ConfigurableApplicationContext arrancar(int productos) {
+        String directorio = "target/jmh/datos-" + productos;
+        return new SpringApplicationBuilder(WallaSpringApplication.class)
+                .profiles("local")
+                .run("--spring.datasource.url=jdbc:h2:mem:jmh-" + productos + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                        "--server.port=0",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--storage.location=" + directorio + "/upload-dir",
+                        "--storage.images.location=" + directorio + "/upload-dir-variants",
+                        "--reports.cache.location=" + directorio + "/invoice-cache",
+                        "--generador.enabled=true",
+                        "--generador.users=" + Math.max(10, productos / 100),
+                        "--generador.products=" + productos,
+                        "--generador.purchases=" + productos / 5,
+                        "--generador.images=0",
+                        "--generador.base-url=http://localhost");
+    }
+
+    /**
+     * E-mails de los usuarios generados que han comprado y vendido algo, para que los
+     * totales del perfil no salgan vacios
+     */
+    static List<String> compradores(ConfigurableApplicationContext contexto) {
+        return contexto.getBean(JdbcTemplate.class).queryForList("select u.email from usuario u"
+                + " where exists (select 1 from compra c where c.comprador_id = u.id)"
+                + " and exists (select 1 from producto p where p.vendedor_id = u.id and p.compra_id is not null)"
+                + " order by u.id", String.class);
+    }
+
+    static List<Long> disponibles(ConfigurableApplicationContext contexto) {
+        return contexto.getBean(JdbcTemplate.class).queryForList("select id from producto where estado = 'D' order by id", Long.class);
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.victormoralesperez.wallaspring.benchmarks;
+
+import java.io.File;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Lanza los benchmarks una vez por cada numero de hilos de -Djmh.threads (por defecto
+ * 1,4), con el profiler de GC, y deja los resultados en target/jmh/*-t{hilos}.json.
+ * Los argumentos son los de JMH (filtro de benchmarks, -p, -f, -wi, -i, ...).
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="FacturaBenchmark -p lineas=200"
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions linea = new CommandLineOptions(args);
+        String[] hilos = System.getProperty("jmh.threads", "1,4").split(",");
+        new File("target/jmh").mkdirs();
+        for (String h : hilos) {
+            int threads = Integer.parseInt(h.trim());
+            Options options = new OptionsBuilder()
+                    .parent(linea)
+                    .threads(threads)
+                    .jvmArgsAppend("-Dlogback.configurationFile=" + System.getProperty("logback.configurationFile", "src/jmh/logback-jmh.xml"))
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh/resultados-t" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.victormoralesperez.wallaspring.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.services.IProductoServicio;
+import com.victormoralesperez.wallaspring.services.IUsuarioServicio;
+
+/**
+ * Rutas de lectura de los servicios, sobre el juego de datos de BaseDatos:
+ *
+ * - catalogo: productosSinVender(), la portada de /public/
+ * - busqueda: buscar(q) con una palabra del catalogo generado
+ * - busquedaSinResultados: buscar(q) con una que no sale, el recorrido sin filas que devolver
+ * - perfil: los totales de /app/mi_perfil (buscarPorEMail, ventas, compras y ventas archivadas)
+ *
+ * Se llama a los servicios a traves de sus proxies de Spring, con sus transacciones de
+ * solo lectura. Con -prof gc (lo anyade BenchmarkRunner) gc.alloc.rate.norm da la memoria
+ * asignada por operacion, que crece con el numero de productos devueltos.
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="CatalogoBenchmark -p productos=10000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogoBenchmark {
+
+    @Param({ "1000", "10000" })
+    private int productos;
+
+    private ConfigurableApplicationContext contexto;
+
+    private IProductoServicio productoServicio;
+
+    private IUsuarioServicio usuarioServicio;
+
+    private List<String> compradores;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        contexto = BaseDatos.arrancar(productos);
+        productoServicio = contexto.getBean(IProductoServicio.class);
+        usuarioServicio = contexto.getBean(IUsuarioServicio.class);
+        compradores = BaseDatos.compradores(contexto);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        contexto.close();
+    }
+
+    /**
+     * Usuario del perfil: cada hilo va recorriendo los compradores
+     */
+    @State(Scope.Thread)
+    public static class Sesion {
+
+        private int siguiente;
+
+        String email(List<String> compradores) {
+            return compradores.get(siguiente++ % compradores.size());
+        }
+
+    }
+
+    @Benchmark
+    public List<Producto> catalogo() {
+        return productoServicio.productosSinVender();
+    }
+
+    @Benchmark
+    public List<Producto> busqueda() {
+        return productoServicio.buscar("bicicleta");
+    }
+
+    @Benchmark
+    public List<Producto> busquedaSinResultados() {
+        return productoServicio.buscar("sin resultados");
+    }
+
+    /**
+     * Lo mismo que calcula UsuarioController para /app/mi_perfil
+     */
+    @Benchmark
+    public float perfil(Sesion sesion) {
+        Usuario usuario = usuarioServicio.buscarPorEMail(sesion.email(compradores));
+        float totalVentas = productoServicio.totalVentasArchivadas(usuario);
+        for (Producto producto : productoServicio.productosDeUnPropietario(usuario)) {
+            if (producto.getCompra() != null) {
+                totalVentas += producto.getPrecio();
+            }
+        }
+        float totalCompras = 0f;
+        for (Producto comprado : productoServicio.productosCompradosPor(usuario)) {
+            totalCompras += comprado.getPrecio();
+        }
+        return totalVentas + totalCompras;
+    }
+
+}
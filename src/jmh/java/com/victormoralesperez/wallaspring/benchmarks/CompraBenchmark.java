@@ -0,0 +1,133 @@
+package com.victormoralesperez.wallaspring.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.services.ICompraServicio;
+import com.victormoralesperez.wallaspring.services.IProductoServicio;
+import com.victormoralesperez.wallaspring.services.IUsuarioServicio;
+
+/**
+ * El carrito, segun el numero de articulos, sobre el juego de datos de BaseDatos:
+ *
+ * - carrito: buscarProductosPorId(ids), lo que pinta /app/carrito
+ * - finalizarCompra: finalizarCompra(usuario, ids), la Compra y el UPDATE de sus productos
+ *
+ * finalizarCompra se ejecuta dentro de una transaccion que se deshace al final, despues de
+ * un flush() para que el INSERT y los UPDATE lleguen a la Base de Datos: asi cada
+ * invocacion compra los mismos productos disponibles y el juego de datos no cambia. La
+ * medida incluye el rollback en lugar del commit.
+ * Cada hilo compra sus propios productos, para que los hilos no se bloqueen entre ellos.
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="CompraBenchmark -p articulos=10"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompraBenchmark {
+
+    @Param({ "10000" })
+    private int productos;
+
+    @Param({ "1", "10", "50" })
+    private int articulos;
+
+    private ConfigurableApplicationContext contexto;
+
+    private IProductoServicio productoServicio;
+
+    private ICompraServicio compraServicio;
+
+    private TransactionTemplate transaccion;
+
+    private EntityManager entityManager;
+
+    private List<Long> disponibles;
+
+    private List<String> compradores;
+
+    private final AtomicInteger hilos = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        contexto = BaseDatos.arrancar(productos);
+        productoServicio = contexto.getBean(IProductoServicio.class);
+        compraServicio = contexto.getBean(ICompraServicio.class);
+        transaccion = new TransactionTemplate(contexto.getBean(PlatformTransactionManager.class));
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(contexto.getBean(EntityManagerFactory.class));
+        disponibles = BaseDatos.disponibles(contexto);
+        compradores = BaseDatos.compradores(contexto);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        contexto.close();
+    }
+
+    /**
+     * Carrito de cada hilo: articulos productos disponibles que no tiene ningun otro hilo
+     */
+    @State(Scope.Thread)
+    public static class Carrito {
+
+        private Usuario usuario;
+
+        private List<Long> ids;
+
+        @Setup(Level.Trial)
+        public void setUp(CompraBenchmark benchmark) {
+            int hilo = benchmark.hilos.getAndIncrement();
+            int desde = hilo * benchmark.articulos;
+            if (desde + benchmark.articulos > benchmark.disponibles.size()) {
+                throw new IllegalStateException("NO HAY PRODUCTOS DISPONIBLES PARA EL HILO " + hilo);
+            }
+            ids = new ArrayList<>(benchmark.disponibles.subList(desde, desde + benchmark.articulos));
+            usuario = benchmark.contexto.getBean(IUsuarioServicio.class)
+                    .buscarPorEMail(benchmark.compradores.get(hilo % benchmark.compradores.size()));
+        }
+
+    }
+
+    @Benchmark
+    public List<Producto> carrito(Carrito carrito) {
+        return productoServicio.buscarProductosPorId(carrito.ids);
+    }
+
+    @Benchmark
+    public Compra finalizarCompra(Carrito carrito) {
+        return transaccion.execute(estado -> {
+            Compra compra = compraServicio.finalizarCompra(carrito.usuario, carrito.ids);
+            entityManager.flush();
+            estado.setRollbackOnly();
+            return compra;
+        });
+    }
+
+}
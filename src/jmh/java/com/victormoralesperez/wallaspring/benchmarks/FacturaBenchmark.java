@@ -0,0 +1,98 @@
+package com.victormoralesperez.wallaspring.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.reports.GeneradorPDF;
+import com.victormoralesperez.wallaspring.reports.Html2PdfServiceImpl;
+
+/**
+ * Coste de generar una factura con cada implementacion, segun el numero de lineas:
+ *
+ * - itext: GeneradorPDF.factura2PDF (iText 5, documento construido en codigo)
+ * - html2pdf: plantilla Thymeleaf + conversion html2pdf (iText 7), como FacturaServicioImpl
+ * - html: solo el renderizado de la plantilla, para separar su coste del de la conversion
+ *
+ * SampleTime da la latencia con percentiles (p50, p90, p99...) y, como el numero de
+ * operaciones por segundo de cada hilo, el rendimiento. Con -prof gc (lo anyade
+ * BenchmarkRunner) se mide tambien la memoria asignada por factura (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FacturaBenchmark {
+
+    @Param({ "1", "20", "200" })
+    private int lineas;
+
+    private Html2PdfServiceImpl html2PdfService;
+
+    private Compra compra;
+
+    private List<Producto> productos;
+
+    private float total;
+
+    private Map<String, Object> datos;
+
+    private String html;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        html2PdfService = Fixtures.html2PdfService();
+        compra = Fixtures.compra(1);
+        productos = Fixtures.productos(lineas);
+        total = Fixtures.total(productos);
+        datos = Fixtures.datos(compra, productos);
+        html = html2PdfService.html(datos);
+    }
+
+    @Benchmark
+    public long itext() throws IOException {
+        NullOutputStream out = new NullOutputStream();
+        GeneradorPDF.factura2PDF(compra, productos, total, out);
+        return out.getBytes();
+    }
+
+    @Benchmark
+    public long html2pdf() throws IOException {
+        NullOutputStream out = new NullOutputStream();
+        html2PdfService.html2PdfGenerator(datos, out);
+        return out.getBytes();
+    }
+
+    @Benchmark
+    public String html() {
+        return html2PdfService.html(datos);
+    }
+
+    /**
+     * Solo la conversion a PDF de un HTML ya renderizado
+     */
+    @Benchmark
+    public long conversion() throws IOException {
+        NullOutputStream out = new NullOutputStream();
+        html2PdfService.html2Pdf(html, out);
+        return out.getBytes();
+    }
+
+}
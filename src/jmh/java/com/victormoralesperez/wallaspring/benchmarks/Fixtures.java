@@ -0,0 +1,84 @@
+package com.victormoralesperez.wallaspring.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.thymeleaf.spring5.SpringTemplateEngine;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.reports.Html2PdfServiceImpl;
+
+/**
+ * Datos sinteticos para los benchmarks: Compras con el numero de productos que se
+ * pida, sin Base de Datos ni contexto de Spring.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static Usuario comprador() {
+        return new Usuario("Ana", "Garcia Lopez", null, "ana@wallaspring.com", "secreto");
+    }
+
+    static Compra compra(long id) {
+        Compra compra = new Compra(comprador());
+        compra.setId(id);
+        compra.setFechaCompra(new Date(1_577_836_800_000L));
+        return compra;
+    }
+
+    static List<Producto> productos(int lineas) {
+        Usuario vendedor = new Usuario("Luis", "Perez", null, "luis@wallaspring.com", "secreto");
+        List<Producto> productos = new ArrayList<>(lineas);
+        for (int i = 1; i <= lineas; i++) {
+            Producto producto = new Producto("Producto de segunda mano " + i, 5f + (i % 97), null, vendedor);
+            producto.setId(i);
+            productos.add(producto);
+        }
+        return productos;
+    }
+
+    static float total(List<Producto> productos) {
+        float total = 0f;
+        for (Producto producto : productos) {
+            total += producto.getPrecio();
+        }
+        return total;
+    }
+
+    /**
+     * Los mismos datos que FacturaServicioImpl pasa a la plantilla de la factura
+     */
+    static Map<String, Object> datos(Compra compra, List<Producto> productos) {
+        float total = total(productos);
+        Map<String, Object> data = new TreeMap<>();
+        data.put("factura", "factura_" + compra.getId());
+        data.put("compra", compra);
+        data.put("productos", productos);
+        data.put("total", total);
+        data.put("subtotal", total / 1.21);
+        data.put("iva", total - total / 1.21);
+        return data;
+    }
+
+    /**
+     * Html2PdfServiceImpl con las plantillas del classpath, ya inicializado (fuentes cargadas)
+     */
+    static Html2PdfServiceImpl html2PdfService() {
+        ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+        resolver.setPrefix("templates/");
+        resolver.setSuffix(".html");
+        SpringTemplateEngine templateEngine = new SpringTemplateEngine();
+        templateEngine.setTemplateResolver(resolver);
+        Html2PdfServiceImpl html2PdfService = new Html2PdfServiceImpl(templateEngine);
+        html2PdfService.init();
+        return html2PdfService;
+    }
+
+}
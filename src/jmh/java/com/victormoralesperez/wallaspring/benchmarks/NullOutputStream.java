@@ -0,0 +1,27 @@
+package com.victormoralesperez.wallaspring.benchmarks;
+
+import java.io.OutputStream;
+
+/**
+ * Destino de los PDF en los benchmarks: solo cuenta los bytes, para medir la
+ * generacion y no la copia a memoria o a disco.
+ */
+final class NullOutputStream extends OutputStream {
+
+    private long bytes;
+
+    @Override
+    public void write(int b) {
+        bytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        bytes += len;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+}
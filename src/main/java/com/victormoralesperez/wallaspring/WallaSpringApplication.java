@@ -9,14 +9,25 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 
+import com.victormoralesperez.wallaspring.consultas.ConsultasProperties;
+import com.victormoralesperez.wallaspring.generador.GeneradorProperties;
 import com.victormoralesperez.wallaspring.models.Producto;
 import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.reports.FacturaCacheProperties;
+import com.victormoralesperez.wallaspring.reports.LimitadorPDFProperties;
+import com.victormoralesperez.wallaspring.replicas.ReplicasProperties;
+import com.victormoralesperez.wallaspring.services.ArchivoProperties;
 import com.victormoralesperez.wallaspring.services.IProductoServicio;
+import com.victormoralesperez.wallaspring.services.ImportacionProperties;
 import com.victormoralesperez.wallaspring.services.IUsuarioServicio;
 import com.victormoralesperez.wallaspring.services.ProductoServicioImpl;
 import com.victormoralesperez.wallaspring.services.UsuarioServicioImpl;
+import com.victormoralesperez.wallaspring.storageservice.HotFileCacheProperties;
+import com.victormoralesperez.wallaspring.storageservice.ImageProperties;
+import com.victormoralesperez.wallaspring.storageservice.OrphanCollectorProperties;
 import com.victormoralesperez.wallaspring.storageservice.StorageProperties;
 import com.victormoralesperez.wallaspring.storageservice.StorageService;
+import com.victormoralesperez.wallaspring.storageservice.UploadProperties;
 
 /**
  * CLASE WallaSpringApplication
@@ -38,13 +49,24 @@ import com.victormoralesperez.wallaspring.storageservice.StorageService;
  * @EnableConfigurationProperties : Esta anotación le dice a
  * SpringBoot que inyecte como Beans de Configuracion la 
  * configuracion del Servicio de Almacenamiento
- * (Basicamente la ruta donde vamos a almacenar los ficheros)
+ * (Basicamente la ruta donde vamos a almacenar los ficheros),
+ * la de las variantes de tamanyo de las imagenes subidas,
+ * la de la cache en memoria de los ficheros mas solicitados,
+ * los limites de las subidas de ficheros, la del recolector
+ * de ficheros huerfanos, la de la cache de facturas en PDF
+ * la de la importacion masiva de Productos, la de las replicas
+ * de lectura de la Base de Datos, la del archivado de las
+ * ventas antiguas, la del registro de las sentencias SQL y
+ * la del generador de datos sinteticos del perfil "local"
  * 
  * @author Victor Morales Perez
  * 
  */
 
-@EnableConfigurationProperties(StorageProperties.class)
+@EnableConfigurationProperties({ StorageProperties.class, ImageProperties.class, HotFileCacheProperties.class,
+		UploadProperties.class, OrphanCollectorProperties.class, FacturaCacheProperties.class,
+		LimitadorPDFProperties.class, ImportacionProperties.class, ReplicasProperties.class, ArchivoProperties.class,
+		ConsultasProperties.class, GeneradorProperties.class })
 @SpringBootApplication
 public class WallaSpringApplication {
 
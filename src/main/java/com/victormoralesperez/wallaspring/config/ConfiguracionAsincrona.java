@@ -0,0 +1,146 @@
+package com.victormoralesperez.wallaspring.config;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.task.TaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.AsyncAnnotationBeanPostProcessor;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.victormoralesperez.wallaspring.storageservice.StorageProperties;
+
+/**
+ * CLASE ConfiguracionAsincrona
+ * -------------------------------------------------------------------------------------------
+ * Clase de CONFIGURACION de la Aplicacion.
+ * Habilita la ejecucion de metodos en segundo plano (@Async) y declara los
+ * pools de hilos en los que se ejecutan. Cada tipo de tarea tiene su propio
+ * pool ACOTADO, de forma que una avalancha de tareas de un tipo no pueda
+ * acaparar todos los hilos ni toda la memoria del servidor.
+ * Habilita tambien las tareas periodicas (@Scheduled), como la compactacion
+ * del almacen pack.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Configuration
+@EnableAsync
+@EnableScheduling
+public class ConfiguracionAsincrona {
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Pool de hilos POR DEFECTO de la aplicacion (@Async sin nombre, peticiones
+	 * asincronas de Spring MVC...). Spring Boot solo lo crea si no hay ningun otro
+	 * Executor declarado, asi que al declarar los nuestros lo creamos igual que el,
+	 * configurable con las propiedades spring.task.execution.*
+	 *
+	 * @param builder
+	 * @return
+	 */
+
+	@Lazy
+	@Primary
+	@Bean(name = { TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME,
+			AsyncAnnotationBeanPostProcessor.DEFAULT_TASK_EXECUTOR_BEAN_NAME })
+	public ThreadPoolTaskExecutor applicationTaskExecutor(TaskExecutorBuilder builder) {
+		return builder.build();
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Pool de hilos para la generacion de variantes de imagenes. Decodificar
+	 * imagenes consume mucha CPU y memoria, asi que se limitan a 2 a la vez.
+	 * Si la cola se llena, la tarea la ejecuta el propio hilo que sube la imagen
+	 * (se frena al que sube en lugar de perder variantes o acumular memoria).
+	 *
+	 * @return
+	 */
+
+	@Bean
+	public Executor imageExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(2);
+		executor.setMaxPoolSize(2);
+		executor.setQueueCapacity(100);
+		executor.setThreadNamePrefix("imagenes-");
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.initialize();
+		return executor;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Pool de hilos para la generacion de facturas en PDF (FacturaServicioImpl).
+	 * Si la cola se llena la tarea se RECHAZA: el trabajo sigue guardado como
+	 * pendiente en la Base de Datos y se reintenta en la siguiente consulta, sin
+	 * que el hilo de la peticion tenga que generar el PDF.
+	 *
+	 * @return
+	 */
+
+	@Bean
+	public Executor facturaExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(2);
+		executor.setMaxPoolSize(2);
+		executor.setQueueCapacity(100);
+		executor.setThreadNamePrefix("facturas-");
+		executor.initialize();
+		return executor;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Pool fork-join para la exportacion de facturas en ZIP (FacturaServicioImpl).
+	 * Su paralelismo limita cuantas facturas se generan a la vez entre TODAS las
+	 * exportaciones en curso, como mucho 4 (o los nucleos del servidor si son menos).
+	 *
+	 * @return
+	 */
+
+	@Bean(destroyMethod = "shutdown")
+	public ForkJoinPool exportacionPool() {
+		return new ForkJoinPool(Math.min(4, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Pool de hilos de E/S del almacen (AsyncStorageService), para que un disco
+	 * lento no bloquee los hilos de Tomcat. Tamanyo y cola configurables con
+	 * storage.io.*; con la cola llena la operacion la ejecuta el hilo que la pide.
+	 * Al parar la aplicacion se esperan las operaciones pendientes (borrados
+	 * ya confirmados en la Base de Datos que no se deben perder).
+	 *
+	 * @param properties
+	 * @return
+	 */
+
+	@Bean
+	public Executor storageExecutor(StorageProperties properties) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(properties.getIo().getThreads());
+		executor.setMaxPoolSize(properties.getIo().getThreads());
+		executor.setQueueCapacity(properties.getIo().getQueueCapacity());
+		executor.setThreadNamePrefix("almacen-");
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(30);
+		executor.initialize();
+		return executor;
+	}
+
+}
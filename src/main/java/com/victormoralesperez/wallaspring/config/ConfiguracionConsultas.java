@@ -0,0 +1,89 @@
+package com.victormoralesperez.wallaspring.config;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import com.victormoralesperez.wallaspring.consultas.ConsultasFilter;
+import com.victormoralesperez.wallaspring.consultas.ConsultasProperties;
+import com.victormoralesperez.wallaspring.consultas.RegistroConsultasListener;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+/**
+ * CLASE ConfiguracionConsultas
+ * -------------------------------------------------------------------------------------------
+ * Clase de Configuracion que, con consultas.enabled=true (por defecto), envuelve el
+ * DataSource con datasource-proxy para contar y medir las sentencias SQL de cada peticion
+ * (ver RegistroConsultasListener y ConsultasFilter).
+ * Se envuelve el DataSource final (con replicas, el LazyConnectionDataSourceProxy), asi que
+ * se cuenta lo mismo vaya la sentencia a la principal o a una replica. unwrap() sigue
+ * llegando al DataSource real.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Configuration
+@ConditionalOnProperty(prefix = "consultas", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ConfiguracionConsultas {
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Envuelve cada Bean DataSource en un ProxyDataSource que avisa al listener de cada
+	 * sentencia. El listener se pide al envolver (no al crear este BeanPostProcessor) para no
+	 * adelantar la creacion del MeterRegistry.
+	 *
+	 * @param listener
+	 * @return
+	 */
+
+	@Bean
+	public static BeanPostProcessor registroConsultasDataSource(ObjectProvider<RegistroConsultasListener> listener) {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof DataSource && !(bean instanceof ProxyDataSource)) {
+					return ProxyDataSourceBuilder.create((DataSource) bean).name(beanName)
+							.listener(listener.getObject()).build();
+				}
+				return bean;
+			}
+
+		};
+	}
+
+	@Bean
+	public RegistroConsultasListener registroConsultasListener(ConsultasProperties properties, MeterRegistry registry) {
+		return new RegistroConsultasListener(properties, registry);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Registra ConsultasFilter antes que el de Spring Security, para contar tambien las
+	 * sentencias que lanza la autenticacion
+	 *
+	 * @param properties
+	 * @param registry
+	 * @return
+	 */
+
+	@Bean
+	public FilterRegistrationBean<ConsultasFilter> consultasFilter(ConsultasProperties properties, MeterRegistry registry) {
+		FilterRegistrationBean<ConsultasFilter> registro = new FilterRegistrationBean<>(new ConsultasFilter(properties, registry));
+		registro.setOrder(Ordered.HIGHEST_PRECEDENCE + 100);
+		return registro;
+	}
+
+}
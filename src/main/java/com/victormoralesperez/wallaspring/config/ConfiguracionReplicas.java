@@ -0,0 +1,103 @@
+package com.victormoralesperez.wallaspring.config;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.victormoralesperez.wallaspring.replicas.ComprobadorReplicas;
+import com.victormoralesperez.wallaspring.replicas.DataSourceEnrutado;
+import com.victormoralesperez.wallaspring.replicas.LecturaTrasEscrituraFilter;
+import com.victormoralesperez.wallaspring.replicas.ReplicasProperties;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * CLASE ConfiguracionReplicas
+ * -------------------------------------------------------------------------------------------
+ * Clase de Configuracion que, con replicas.enabled=true, reparte las lecturas entre las
+ * replicas de la Base de Datos (replicas.nodes) y deja las escrituras en la principal
+ * (spring.datasource.*). Ver DataSourceEnrutado.
+ * Para probarlo en local basta con dos Bases de Datos H2 embebidas, por ejemplo:
+ * spring.datasource.url=jdbc:h2:./wallaspring y replicas.nodes[0].url=jdbc:h2:./wallaspring-replica
+ * con replicas.max-lag=0 (entre dos H2 no hay replicacion, asi que no llega el latido).
+ * Los pools de la principal y de las replicas no se declaran como Beans: Spring Boot
+ * inicializa cada DataSource con el DataSource principal, y este los necesita a ellos.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Configuration
+@ConditionalOnProperty(prefix = "replicas", name = "enabled", havingValue = "true")
+public class ConfiguracionReplicas implements DisposableBean {
+
+	private DataSourceEnrutado dataSourceEnrutado;
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * El DataSource que usan JPA, Flyway, etc. Es un DataSourceEnrutado entre el pool de la
+	 * principal (el mismo que crearia Spring Boot con spring.datasource.* y
+	 * spring.datasource.hikari.*) y uno por replica, envuelto en un
+	 * LazyConnectionDataSourceProxy que pide la conexion real en la primera sentencia,
+	 * cuando ya se sabe si la transaccion es de solo lectura.
+	 *
+	 * @param properties
+	 * @param replicasProperties
+	 * @param entorno
+	 * @return
+	 */
+
+	@Bean
+	@Primary
+	public DataSource dataSource(DataSourceProperties properties, ReplicasProperties replicasProperties, Environment entorno) {
+		HikariDataSource primario = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		Binder.get(entorno).bind("spring.datasource.hikari", Bindable.ofInstance(primario));
+		if (primario.getPoolName() == null) {
+			primario.setPoolName(DataSourceEnrutado.PRIMARIO);
+		}
+		Map<String, DataSource> replicas = new LinkedHashMap<>();
+		for (int i = 0; i < replicasProperties.getNodes().size(); i++) {
+			ReplicasProperties.Nodo nodo = replicasProperties.getNodes().get(i);
+			HikariDataSource replica = DataSourceBuilder.create().type(HikariDataSource.class).url(nodo.getUrl())
+					.username(nodo.getUsername()).password(nodo.getPassword()).driverClassName(nodo.getDriverClassName()).build();
+			replica.setPoolName("replica-" + i);
+			replica.setReadOnly(true);
+			replicas.put(replica.getPoolName(), replica);
+		}
+		dataSourceEnrutado = new DataSourceEnrutado(primario, replicas);
+		return new LazyConnectionDataSourceProxy(dataSourceEnrutado);
+	}
+
+	@Bean
+	public ComprobadorReplicas comprobadorReplicas(DataSource dataSource, ReplicasProperties properties) throws SQLException {
+		DataSourceEnrutado enrutado = dataSource.unwrap(DataSourceEnrutado.class);
+		return new ComprobadorReplicas(enrutado.getPrimario(), enrutado, properties);
+	}
+
+	@Bean
+	public LecturaTrasEscrituraFilter lecturaTrasEscrituraFilter(ReplicasProperties properties) {
+		return new LecturaTrasEscrituraFilter(properties);
+	}
+
+	@Override
+	public void destroy() throws IOException {
+		if (dataSourceEnrutado != null) {
+			dataSourceEnrutado.close();
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.victormoralesperez.wallaspring.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import com.victormoralesperez.wallaspring.storageservice.StorageService;
+import com.victormoralesperez.wallaspring.storageservice.StreamingMultipartResolver;
+import com.victormoralesperez.wallaspring.storageservice.UploadProperties;
+
+/**
+ * CLASE ConfiguracionSubidas
+ * -------------------------------------------------------------------------------------------
+ * Clase de CONFIGURACION de la Aplicacion.
+ * Sustituye el procesado de peticiones Multipart del contenedor de servlets
+ * (que guarda cada fichero subido en un temporal o en memoria antes de que
+ * lo copiemos al almacen) por StreamingMultipartResolver, que escribe los
+ * ficheros directamente en el StorageService mientras se reciben.
+ * Para ello, en application.properties, spring.servlet.multipart.enabled=false
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Configuration
+public class ConfiguracionSubidas {
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * El DispatcherServlet usa el Bean con este nombre para procesar las peticiones Multipart.
+	 *
+	 * @param storageService
+	 * @param properties
+	 * @return
+	 */
+
+	@Bean(name = DispatcherServlet.MULTIPART_RESOLVER_BEAN_NAME)
+	public MultipartResolver multipartResolver(StorageService storageService, UploadProperties properties) {
+		return new StreamingMultipartResolver(storageService, properties);
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.victormoralesperez.wallaspring.consultas;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.WebUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * CLASE ConsultasFilter
+ * -------------------------------------------------------------------------------------------
+ * Filtro que cuenta las sentencias SQL de cada peticion (EstadisticasConsultas) y al
+ * terminar las registra por ruta del Controlador (la plantilla, /public/producto/{id}, no
+ * la URL) en las metricas wallaspring.sql.peticion.sentencias y wallaspring.sql.peticion.tiempo.
+ * Con consultas.header=true las devuelve ademas en las cabeceras X-Consultas-SQL y
+ * X-Tiempo-SQL, que es lo que miran los tests del presupuesto de consultas de cada ruta.
+ * Para eso la respuesta se guarda en memoria (como ShallowEtagHeaderFilter) y se envia
+ * al final, tambien en las peticiones asincronas (StreamingResponseBody).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class ConsultasFilter extends OncePerRequestFilter {
+
+	public static final String CABECERA_SENTENCIAS = "X-Consultas-SQL";
+
+	public static final String CABECERA_TIEMPO = "X-Tiempo-SQL";
+
+	private static final String SIN_RUTA = "NINGUNA";
+
+	private final boolean cabeceras;
+
+	private final MeterRegistry registry;
+
+	public ConsultasFilter(ConsultasProperties properties, MeterRegistry registry) {
+		this.cabeceras = properties.isHeader();
+		this.registry = registry;
+	}
+
+	@Override
+	protected boolean shouldNotFilterAsyncDispatch() {
+		return false;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		HttpServletResponse respuesta = response;
+		if (cabeceras && WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class) == null) {
+			respuesta = new ContentCachingResponseWrapper(response);
+		}
+		EstadisticasConsultas estadisticas = EstadisticasConsultas.iniciar();
+		try {
+			filterChain.doFilter(request, respuesta);
+		} finally {
+			EstadisticasConsultas.terminar();
+			if (!isAsyncDispatch(request)) {
+				registrar(request, estadisticas);
+			}
+		}
+		ContentCachingResponseWrapper cuerpo = WebUtils.getNativeResponse(respuesta, ContentCachingResponseWrapper.class);
+		if (cuerpo != null && !request.isAsyncStarted()) {
+			cuerpo.setHeader(CABECERA_SENTENCIAS, String.valueOf(estadisticas.getSentencias()));
+			cuerpo.setHeader(CABECERA_TIEMPO, String.valueOf(estadisticas.getTiempoMs()));
+			cuerpo.copyBodyToResponse();
+		}
+	}
+
+	private void registrar(HttpServletRequest request, EstadisticasConsultas estadisticas) {
+		Object patron = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String ruta = (patron != null) ? patron.toString() : SIN_RUTA;
+		DistributionSummary.builder("wallaspring.sql.peticion.sentencias").tag("uri", ruta)
+				.description("Sentencias SQL por peticion").register(registry).record(estadisticas.getSentencias());
+		Timer.builder("wallaspring.sql.peticion.tiempo").tag("uri", ruta)
+				.description("Tiempo en la Base de Datos por peticion").register(registry)
+				.record(estadisticas.getTiempoMs(), TimeUnit.MILLISECONDS);
+	}
+
+}
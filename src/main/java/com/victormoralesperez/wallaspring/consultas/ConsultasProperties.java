@@ -0,0 +1,49 @@
+package com.victormoralesperez.wallaspring.consultas;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE ConsultasProperties
+ * -------------------------------------------------------------------------------------------
+ * Configuracion del registro de las sentencias SQL (consultas.*): cuantas lanza cada
+ * peticion, cuanto tardan y cuales son lentas. Ver ConfiguracionConsultas.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "consultas")
+@Getter @Setter
+public class ConsultasProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Envuelve el DataSource para contar y medir las sentencias SQL
+	 */
+
+	private boolean enabled = true;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * A partir de este tiempo una sentencia se considera lenta y se escribe en el log
+	 * (sin los valores de sus parametros)
+	 */
+
+	private Duration slowThreshold = Duration.ofMillis(200);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Anyade a cada respuesta las cabeceras X-Consultas-SQL y X-Tiempo-SQL (sentencias y
+	 * milisegundos en la Base de Datos de la peticion). Solo para desarrollo y tests: para
+	 * poder escribirlas al final, la respuesta se guarda entera en memoria antes de enviarla.
+	 */
+
+	private boolean header = false;
+
+}
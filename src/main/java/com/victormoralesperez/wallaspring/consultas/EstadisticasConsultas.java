@@ -0,0 +1,76 @@
+package com.victormoralesperez.wallaspring.consultas;
+
+/**
+ * CLASE EstadisticasConsultas
+ * -------------------------------------------------------------------------------------------
+ * Sentencias SQL lanzadas por el hilo de una peticion, el tiempo que han tardado en la Base
+ * de Datos y cuantas han sido lentas. ConsultasFilter las inicia al empezar la peticion y
+ * RegistroConsultasListener las va sumando. Lo que se hace en otros hilos (trabajos de
+ * facturas, tareas programadas) no cuenta para la peticion, solo para las metricas.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class EstadisticasConsultas {
+
+	private static final ThreadLocal<EstadisticasConsultas> ACTUAL = new ThreadLocal<>();
+
+	private int sentencias;
+
+	private long tiempoMs;
+
+	private int lentas;
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Empieza a contar las sentencias del hilo desde cero
+	 *
+	 * @return
+	 */
+
+	public static EstadisticasConsultas iniciar() {
+		EstadisticasConsultas estadisticas = new EstadisticasConsultas();
+		ACTUAL.set(estadisticas);
+		return estadisticas;
+	}
+
+	/**
+	 * @return las estadisticas del hilo, o null si no se estan contando
+	 */
+	public static EstadisticasConsultas actual() {
+		return ACTUAL.get();
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Deja de contar las sentencias del hilo
+	 */
+
+	public static void terminar() {
+		ACTUAL.remove();
+	}
+
+	void registrar(long tiempoMs, boolean lenta) {
+		sentencias++;
+		this.tiempoMs += tiempoMs;
+		if (lenta) {
+			lentas++;
+		}
+	}
+
+	public int getSentencias() {
+		return sentencias;
+	}
+
+	public long getTiempoMs() {
+		return tiempoMs;
+	}
+
+	public int getLentas() {
+		return lentas;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.victormoralesperez.wallaspring.consultas;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+
+/**
+ * CLASE RegistroConsultasListener
+ * -------------------------------------------------------------------------------------------
+ * Listener de datasource-proxy que se entera de cada sentencia SQL que se ejecuta contra el
+ * DataSource (un lote de INSERT/UPDATE cuenta como una, es un solo viaje a la Base de Datos):
+ * - La suma a las EstadisticasConsultas de la peticion en curso, si las hay.
+ * - La mide en la metrica wallaspring.sql.sentencias (y wallaspring.sql.lentas si es lenta).
+ * - Si es lenta (consultas.slow-threshold), la escribe en el log sin los valores de los
+ *   parametros (pueden ser emails, contrasenyas...): solo el SQL con los ? y, por si acaso,
+ *   los literales de texto y numeros cambiados tambien por ?.
+ * Sustituye a spring.jpa.show-sql, que escribia todas las sentencias en la salida estandar.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class RegistroConsultasListener implements QueryExecutionListener {
+
+	private static final Logger log = LoggerFactory.getLogger(RegistroConsultasListener.class);
+
+	private static final Pattern LITERALES = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+
+	private final long lentaMs;
+
+	private final Timer sentencias;
+
+	private final Counter lentas;
+
+	public RegistroConsultasListener(ConsultasProperties properties, MeterRegistry registry) {
+		this.lentaMs = properties.getSlowThreshold().toMillis();
+		this.sentencias = Timer.builder("wallaspring.sql.sentencias")
+				.description("Sentencias SQL ejecutadas y su duracion").register(registry);
+		this.lentas = Counter.builder("wallaspring.sql.lentas")
+				.description("Sentencias SQL que han superado consultas.slow-threshold").register(registry);
+	}
+
+	@Override
+	public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+	}
+
+	@Override
+	public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+		long tiempoMs = execInfo.getElapsedTime();
+		boolean lenta = tiempoMs >= lentaMs;
+		sentencias.record(tiempoMs, TimeUnit.MILLISECONDS);
+		EstadisticasConsultas estadisticas = EstadisticasConsultas.actual();
+		if (estadisticas != null) {
+			estadisticas.registrar(tiempoMs, lenta);
+		}
+		if (lenta) {
+			lentas.increment();
+			if (log.isWarnEnabled()) {
+				log.warn("Sentencia SQL lenta ({} ms{}): {}", tiempoMs,
+						execInfo.isBatch() ? ", lote de " + execInfo.getBatchSize() : "", sinParametros(queryInfoList));
+			}
+		}
+	}
+
+	/**
+	 * @return el SQL de las sentencias sin ningun valor
+	 */
+	static String sinParametros(List<QueryInfo> queryInfoList) {
+		return queryInfoList.stream().map(q -> LITERALES.matcher(q.getQuery()).replaceAll("?"))
+				.collect(Collectors.joining("; "));
+	}
+
+}
@@ -1,13 +1,19 @@
 package com.victormoralesperez.wallaspring.controllers;
 
-import java.io.ByteArrayInputStream;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.stream.Collectors;
 import javax.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -20,14 +26,20 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import com.victormoralesperez.wallaspring.models.Compra;
 import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.TrabajoFactura;
 import com.victormoralesperez.wallaspring.models.Usuario;
-import com.victormoralesperez.wallaspring.reports.GeneradorPDF;
-import com.victormoralesperez.wallaspring.reports.Html2PdfService;
+import com.victormoralesperez.wallaspring.reports.FacturaCache;
 import com.victormoralesperez.wallaspring.services.ICompraServicio;
+import com.victormoralesperez.wallaspring.services.IFacturaServicio;
 import com.victormoralesperez.wallaspring.services.IProductoServicio;
 import com.victormoralesperez.wallaspring.services.IUsuarioServicio;
+import com.victormoralesperez.wallaspring.services.ProductoNoDisponibleException;
 
 /**
  * CLASE CompraController
@@ -97,13 +109,12 @@ public class CompraController {
 	/**
 	 * ATRIBUTO
 	 * ---------------------------------------------------------------------------------------
-	 * Bean de Servicio Auto-Inyectado (Spring con esta anotacion sabe que el Bean
-	 * documentGeneratorService (Servicio que genera un informe en PDF de la Compra)
-	 * se inyecta como Dependencia en la Clase CompraController)
+	 * Bean de Servicio Auto-Inyectado que genera las facturas (desde la plantilla HTML
+	 * o con iText) en segundo plano y las sirve desde la cache de facturas
 	 */
 	
     @Autowired
-    Html2PdfService documentGeneratorService;
+    IFacturaServicio facturaServicio;
 
     /**
 	 * ATRIBUTO
@@ -334,6 +345,10 @@ public class CompraController {
 	 * LA QUE PERTENECE (Cada Producto tiene un Atributo Objeto Compra a la que 
 	 * Pertenece y que hasta este era NULL PORQUE NO EXISTIA COMPRA A LA QUE
 	 * VINCULAR EL PRODUCTO) 
+	 * Todo ello se hace en UNA SOLA TRANSACCION (compraServicio.finalizarCompra), con un
+	 * solo UPDATE que vende los Productos que siguen DISPONIBLES. Si alguno ya no lo esta
+	 * (el Carrito se ha quedado viejo), no se compra nada: se quitan del Carrito los que
+	 * ya no estan disponibles y se vuelve a el avisando al Usuario.
 	 * El Carrito queda "Vacio" (esto es, cada Producto tiene una Compra asignada
 	 * por tanto eliminamos el Carrito de la Sesion).
 	 * Finalmente, redireccionamos a la Pagina de la Factura, en la cual se indica
@@ -348,13 +363,25 @@ public class CompraController {
 		if (contenidoCarrito == null) {
 			return "redirect:/public"; 
 		}
-		List<Producto> productosCarrito = productosCarrito(); 
-		Compra miCompra = compraServicio.crearCompra(new Compra(), comprador); 
-		for (Producto producto : productosCarrito) {
-			compraServicio.addProductoCompra(producto, miCompra); 
+		Compra miCompra;
+		try {
+			miCompra = compraServicio.finalizarCompra(comprador, contenidoCarrito); // UNA TRANSACCION, UN SOLO UPDATE
+		} catch (ProductoNoDisponibleException e) {
+			List<Long> disponibles = productoServicio.buscarProductosPorId(contenidoCarrito).stream()
+					.filter(producto -> producto.getEstado() == Producto.Estado.DISPONIBLE)
+					.map(Producto::getId).collect(Collectors.toCollection(ArrayList::new));
+			if (disponibles.isEmpty()) {
+				session.removeAttribute("carrito");
+				session.removeAttribute("items_carrito");
+			} else {
+				session.setAttribute("carrito", disponibles);
+				session.setAttribute("items_carrito", disponibles.size());
+			}
+			return "redirect:/app/carrito?no_disponible";
 		}
 		session.removeAttribute("carrito");
 		session.removeAttribute("items_carrito");
+		facturaServicio.encolar(miCompra.getId(), TrabajoFactura.Generador.HTML); // LA FACTURA EN PDF SE VA GENERANDO EN SEGUNDO PLANO
 		return "redirect:/app/mis_compras/factura/" + miCompra.getId();
 	}
 	
@@ -426,71 +453,124 @@ public class CompraController {
 	 * distintas Entidades. Buscamos la Compra de la que queremos obtener su factura
 	 * por su ID, Extraemos una Lista de los Productos que pertenecen a dicha Compra
 	 * y calculamos el Importe Total de la Compra.
-	 * Haciendo uso de los Metodos del paquete "reports", generamos la factura en PDF.
+	 * La factura se genera en SEGUNDO PLANO, igual que la de la plantilla HTML (ver
+	 * facturaHTML2PDF): el hilo de la peticion no genera nunca el PDF.
 	 * 
 	 * @param id
 	 * @return
 	 */
 	
-    @RequestMapping(value = "/mis_compras/factura/pdf/{id}", method = RequestMethod.GET, produces = MediaType.APPLICATION_PDF_VALUE)
-    public ResponseEntity<InputStreamResource> facturaPDF(@PathVariable Long id) {
-        Compra miCompra = compraServicio.buscarPorId(id);
-        List<Producto> productosCarrito = productoServicio.productosDeUnaCompra(miCompra);
-        Float totalCarrito = 0.0F;
-		if (productosCarrito != null) { 
-			for (Producto producto : productosCarrito) {
-				totalCarrito += producto.getPrecio();
-			}
-		}
-        ByteArrayInputStream bais = GeneradorPDF.factura2PDF(miCompra, productosCarrito, totalCarrito);
-        HttpHeaders headers = new HttpHeaders();
-        headers.add("Content-Disposition", "inline; filename=factura_"+ miCompra.getId()+".pdf");
-        return ResponseEntity
-                .ok()
-                .headers(headers)
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(new InputStreamResource(bais));
+    @RequestMapping(value = "/mis_compras/factura/pdf/{id}", method = RequestMethod.GET)
+    public ResponseEntity<?> facturaPDF(@PathVariable Long id) {
+        return facturaEnSegundoPlano(id, TrabajoFactura.Generador.ITEXT, "/app/mis_compras/factura/pdf/" + id);
     }
 
     /**
      * METODO
 	 * ---------------------------------------------------------------------------------------
+	 * Devuelve la factura generada a partir de la plantilla HTML "app/pdf/facturapdf",
+	 * en SEGUNDO PLANO (ver facturaEnSegundoPlano).
 	 * 
      * @param id
      * @return
      */
     
     // Saco la factura generada con el servicio, le cambio el PATH
-    @RequestMapping(value = "/mis_compras/pdf/factura/{id}", method = RequestMethod.GET, produces = MediaType.APPLICATION_PDF_VALUE)
-    public ResponseEntity facturaHTML2PDF(@PathVariable Long id) {
-
-        Compra miCompra = compraServicio.buscarPorId(id);
-        List<Producto> productosCarrito = productoServicio.productosDeUnaCompra(miCompra);
-        Float totalCarrito = 0.0F;
-		if (productosCarrito != null) { 
-			for (Producto producto : productosCarrito) {
-				totalCarrito += producto.getPrecio();
-			}
-		}
+    @RequestMapping(value = "/mis_compras/pdf/factura/{id}", method = RequestMethod.GET)
+    public ResponseEntity<?> facturaHTML2PDF(@PathVariable Long id) {
+        return facturaEnSegundoPlano(id, TrabajoFactura.Generador.HTML, "/app/mis_compras/pdf/factura/" + id);
+    }
 
-        Map<String, Object> data = new TreeMap<>();
-        String factura = "factura_"+ miCompra.getId();
-        data.put("factura", factura);
-        data.put("compra", miCompra);
-        data.put("productos", productosCarrito);
-        data.put("total", totalCarrito);
-        data.put("subtotal", (totalCarrito/1.21));
-        data.put("iva", (totalCarrito-(totalCarrito/1.21)));
+    /**
+     * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Las facturas se generan en SEGUNDO PLANO (ver FacturaServicioImpl): si ya esta
+	 * generada con ese generador se devuelve el PDF; si no, se encola su generacion (si
+	 * no lo estaba ya) y se responde 202 (Accepted) con el identificador y el estado del
+	 * trabajo, para que el cliente vuelva a consultar la misma URL pasados unos segundos.
+	 * El PDF se escribe en la respuesta despues de salir de este metodo: queda reservado
+	 * en la cache (no se borra aunque otra peticion lo desaloje) hasta que termina la
+	 * peticion.
+	 * 
+     * @param id
+     * @param generador
+     * @param url
+     * @return
+     */
 
-        InputStreamResource resource = documentGeneratorService.html2PdfGenerator(data);
-        if (resource != null) {
-            return ResponseEntity
-                    .ok()
-                    .contentType(MediaType.APPLICATION_PDF)
-                    .body(resource);
-        } else {
-            return new ResponseEntity(HttpStatus.SERVICE_UNAVAILABLE);
+    private ResponseEntity<?> facturaEnSegundoPlano(Long id, TrabajoFactura.Generador generador, String url) {
+        FacturaCache.Factura factura = facturaServicio.reservarFactura(id, generador);
+        if (factura != null) {
+            RequestContextHolder.currentRequestAttributes().registerDestructionCallback("factura_" + generador + "_" + id,
+                    () -> facturaServicio.liberarFactura(factura), RequestAttributes.SCOPE_REQUEST);
+            return respuestaFactura(factura, "factura_" + id);
+        }
+        TrabajoFactura trabajo = facturaServicio.encolar(id, generador);
+        Map<String, Object> estado = new TreeMap<>();
+        estado.put("trabajo", trabajo.getId());
+        estado.put("estado", trabajo.getEstado());
+        if (trabajo.getEstado() == TrabajoFactura.Estado.ERROR) {
+            estado.put("error", trabajo.getError());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(estado);
         }
+        return ResponseEntity
+                .accepted()
+                .header(HttpHeaders.RETRY_AFTER, "2")
+                .header(HttpHeaders.LOCATION, url)
+                .body(estado);
+    }
+
+    /**
+     * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Descarga en un ZIP las facturas de todas las Compras del Usuario autenticado, o
+	 * solo las realizadas entre las fechas "desde" y "hasta" (ambas incluidas, formato
+	 * yyyy-MM-dd). El ZIP se va escribiendo en la respuesta segun se generan las
+	 * facturas (StreamingResponseBody, fuera de los hilos de Tomcat), sin tenerlo
+	 * entero ni en memoria ni en disco.
+	 * 
+     * @param desde
+     * @param hasta
+     * @return
+     */
+
+    @GetMapping("/mis_compras/facturas.zip")
+    public ResponseEntity<StreamingResponseBody> exportarFacturas(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta) {
+        String email = SecurityContextHolder.getContext().getAuthentication().getName();
+        Usuario usuario = usuarioServicio.buscarPorEMail(email);
+        Date inicio = desde == null ? new Date(0) : Date.from(desde.atStartOfDay(ZoneId.systemDefault()).toInstant());
+        LocalDate ultimoDia = hasta == null ? LocalDate.now() : hasta;
+        Date fin = Date.from(ultimoDia.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+        String nombre = "facturas" + (desde == null ? "" : "_" + desde) + (hasta == null ? "" : "_" + hasta);
+        StreamingResponseBody cuerpo = outputStream -> facturaServicio.exportarZip(usuario, inicio, fin, outputStream);
+        return ResponseEntity
+                .ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + nombre + ".zip")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(cuerpo);
+    }
+
+    /**
+     * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Respuesta con una factura de la cache. Lleva como ETag el hash del PDF: si el
+	 * navegador ya la tiene (If-None-Match), Spring responde 304 sin enviarla.
+	 * 
+     * @param factura
+     * @param nombre
+     * @return
+     */
+
+    private ResponseEntity<Resource> respuestaFactura(FacturaCache.Factura factura, String nombre) {
+        return ResponseEntity
+                .ok()
+                .eTag(factura.getEtag())
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=" + nombre + ".pdf")
+                .contentType(MediaType.APPLICATION_PDF)
+                .body(new FileSystemResource(factura.getPath()));
     }
 	
 }
@@ -6,8 +6,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.victormoralesperez.wallaspring.storageservice.HotFileCache;
+import com.victormoralesperez.wallaspring.storageservice.ImageDerivativeService;
+import com.victormoralesperez.wallaspring.storageservice.ImageVariant;
 import com.victormoralesperez.wallaspring.storageservice.StorageService;
 
 /**
@@ -38,6 +42,26 @@ public class FilesController {
 	@Autowired
 	StorageService storageService;
 	
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Bean de Servicio Auto-Inyectado que nos da acceso a las variantes de tamanyo
+	 * fijo (miniatura, panel, detalle) que se generan al subir cada imagen.
+	 */
+	
+	@Autowired
+	ImageDerivativeService imageDerivativeService;
+	
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Cache en memoria de los ficheros mas solicitados (ver HotFileCache). Si esta
+	 * desactivada (storage.cache.enabled=false), delega directamente en el almacen.
+	 */
+	
+	@Autowired
+	HotFileCache hotFileCache;
+	
 	/**
 	 * METODO QUE NOS DEVUELVE UN FICHERO
 	 * ---------------------------------------------------------------------------------------
@@ -73,7 +97,33 @@ public class FilesController {
     @GetMapping("/files/{filename:.+}")
     @ResponseBody
     public ResponseEntity<Resource> serveFile(@PathVariable String filename) {
-        Resource file = storageService.loadAsResource(filename);
+        Resource file = hotFileCache.get(filename, () -> storageService.loadAsResource(filename));
+        return ResponseEntity.ok().body(file);
+    }
+
+    /**
+     * METODO QUE NOS DEVUELVE UNA VARIANTE DE UNA IMAGEN
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que atiende la misma ruta que serveFile() cuando se indica la variante
+	 * deseada con el parametro "v" (/files/{filename}?v=panel). Si la variante aun
+	 * no se ha generado (o el fichero no es una imagen), devuelve el original.
+	 * Las plantillas obtienen estas URLs con Producto.imagenVariante('panel') y
+	 * Usuario.avatarVariante('panel').
+	 * 
+	 * @param filename
+	 * @param variante
+	 * @return Fichero de Imagen
+	 */
+    
+    @GetMapping(value = "/files/{filename:.+}", params = "v")
+    @ResponseBody
+    public ResponseEntity<Resource> serveVariant(@PathVariable String filename, @RequestParam("v") String variante) {
+        ImageVariant imageVariant = ImageVariant.porNombre(variante);
+        Resource file = (imageVariant == null) ? null : hotFileCache.get(HotFileCache.clave(filename, imageVariant),
+                () -> imageDerivativeService.loadVariantAsResource(filename, imageVariant));
+        if (file == null) {
+            file = hotFileCache.get(filename, () -> storageService.loadAsResource(filename));
+        }
         return ResponseEntity.ok().body(file);
     }
 
@@ -0,0 +1,93 @@
+package com.victormoralesperez.wallaspring.controllers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
+
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.services.IImportacionServicio;
+import com.victormoralesperez.wallaspring.services.IUsuarioServicio;
+import com.victormoralesperez.wallaspring.services.ResultadoImportacion;
+
+/**
+ * CLASE ImportacionController
+ * -------------------------------------------------------------------------------------------
+ * Clase CONTROLADOR de la importacion masiva de Productos, pensada para los vendedores
+ * profesionales que dan de alta miles de Productos y no pueden hacerlo de uno en uno
+ * desde el formulario.
+ * El fichero se envia como CUERPO de la peticion (no como formulario multipart, que
+ * solo admite imagenes) y se lee en streaming segun su Content-Type:
+ * - text/csv : CSV con cabecera (nombre, precio, imagen)
+ * - application/x-ndjson : un objeto JSON por linea
+ * - application/zip : un ZIP con uno de los ficheros anteriores y las imagenes
+ * Por ejemplo: curl -b sesion -H "Content-Type: application/zip" --data-binary @productos.zip
+ * http://localhost:9090/app/mis_productos/importar
+ * Se responde con el informe de la importacion en JSON (ResultadoImportacion).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Controller
+@RequestMapping("/app")
+public class ImportacionController {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Bean de Servicio Auto-Inyectado que importa los Productos
+	 */
+
+	@Autowired
+	IImportacionServicio importacionServicio;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Bean de Servicio Auto-Inyectado para obtener el Usuario autenticado (el vendedor)
+	 */
+
+	@Autowired
+	IUsuarioServicio usuarioServicio;
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que atiende una Peticion POST en la ruta "/mis_productos/importar" e importa
+	 * los Productos del cuerpo de la peticion a nombre del Usuario autenticado.
+	 *
+	 * @param request
+	 * @return
+	 * @throws IOException
+	 */
+
+	@PostMapping(path = "/mis_productos/importar", consumes = { "text/csv", "application/x-ndjson", "application/zip" })
+	@ResponseBody
+	public ResultadoImportacion importar(HttpServletRequest request) throws IOException {
+		String email = SecurityContextHolder.getContext().getAuthentication().getName();
+		Usuario vendedor = usuarioServicio.buscarPorEMail(email);
+		MediaType tipo = MediaType.parseMediaType(request.getContentType());
+		Function<String, String> urlImagen = imagen -> MvcUriComponentsBuilder.fromMethodName(FilesController.class, "serveFile", imagen).build().toUriString();
+		try (InputStream cuerpo = request.getInputStream()) {
+			if ("zip".equals(tipo.getSubtype())) {
+				return importacionServicio.importarZip(vendedor, cuerpo, urlImagen);
+			}
+			IImportacionServicio.Formato formato = "csv".equals(tipo.getSubtype()) ? IImportacionServicio.Formato.CSV : IImportacionServicio.Formato.JSONL;
+			Charset charset = (tipo.getCharset() != null) ? tipo.getCharset() : StandardCharsets.UTF_8;
+			return importacionServicio.importar(vendedor, cuerpo, formato, charset, urlImagen);
+		}
+	}
+
+}
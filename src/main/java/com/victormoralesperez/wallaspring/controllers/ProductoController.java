@@ -288,9 +288,10 @@ public class ProductoController {
         } else {
             // Buscamos el antiguo producto para sacar los datos (CREAMOS UNA COPIA PARA TRABAJAR CON ELLA)
             Producto p = productoServicio.findById(productoEditado.getId());
-            // Actualizamos el Usuario Vendedor porque es el único campo 
+            // Actualizamos el Usuario Vendedor y el Estado porque son los únicos campos 
             // que no le hemos podido pasar al Formulario.
             productoEditado.setVendedor(p.getVendedor());
+            productoEditado.setEstado(p.getEstado());
             // Si la imagen no se modifica, la reasignamos
             if(p.getImagen() != null) {
             	productoEditado.setImagen(p.getImagen()); //COMENTAR EN PRUEBAS, DA NULL POINTER EXCEPTION
@@ -298,16 +299,15 @@ public class ProductoController {
             // Si me han enviado el fichero con una imagen
             // sera porque la quieren Editar y cambiar
             if (!file.isEmpty()) {
-                // Borramos la antigua imagen en nuestro servicio de almacenamiento interno
-                if(p.getImagen() != null) {
-                	storageService.delete(p.getImagen()); //COMENTAR EN PRUEBAS, DA NULL POINTER EXCEPTION
-                }
                 // Subimos la nueva al servicio de almacenamiento interno
                 String imagen = storageService.store(file);
                 productoEditado.setImagen(MvcUriComponentsBuilder.fromMethodName(FilesController.class, "serveFile", imagen).build().toUriString());
+                // Actualizamos el producto. La antigua imagen la borra el Servicio DESPUES de guardarlo
+                productoServicio.editar(productoEditado, p.getImagen());
+            } else {
+                // Actualizamos el producto
+                productoServicio.editar(productoEditado);
             }
-            // Actualizamos el producto
-            productoServicio.editar(productoEditado);
             // Redirigimos a la pagina de los Productos del Usuario
             return "redirect:/app/mis_productos";
         }
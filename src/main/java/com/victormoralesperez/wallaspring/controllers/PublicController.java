@@ -126,7 +126,7 @@ public class PublicController {
 
 	@GetMapping({"/producto/{id}","/producto_vendido/{id}"})
 	public String showProduct(@PathVariable Long id, Model model) {
-		Producto p = productoServicio.findById(id);
+		Producto p = productoServicio.buscarConHistorico(id); // LOS VENDIDOS HACE TIEMPO ESTAN ARCHIVADOS
 		if (p != null) {
 			model.addAttribute("producto", p);
 			if(p.getCompra() != null) {
@@ -16,12 +16,12 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
-import com.victormoralesperez.wallaspring.models.Compra;
 import com.victormoralesperez.wallaspring.models.Producto;
 import com.victormoralesperez.wallaspring.models.Usuario;
 import com.victormoralesperez.wallaspring.services.ICompraServicio;
 import com.victormoralesperez.wallaspring.services.IProductoServicio;
 import com.victormoralesperez.wallaspring.services.IUsuarioServicio;
+import com.victormoralesperez.wallaspring.storageservice.AsyncStorageService;
 import com.victormoralesperez.wallaspring.storageservice.StorageService;
 
 /**
@@ -92,6 +92,16 @@ public class UsuarioController {
 	@Autowired
 	StorageService storageService;
 	
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Variante asincrona del Servicio de Almacenamiento, para los borrados de
+	 * avatares, que se hacen en segundo plano sin hacer esperar al Usuario.
+	 */
+	
+	@Autowired
+	AsyncStorageService asyncStorageService;
+	
 	/**
 	 * ATRIBUTO
 	 * ---------------------------------------------------------------------------------------
@@ -217,7 +227,14 @@ public class UsuarioController {
 			//MONTAMOS LA URL DE LA IMAGEN CON UN PATRON BUILDER EN LUGAR DE HACERLO CONCATENANDO STRINGS
 			newUser.setAvatar(MvcUriComponentsBuilder.fromMethodName(FilesController.class, "serveFile", avatar).build().toString());
 		}
-		usuarioServicio.registrar(newUser);
+		try {
+			usuarioServicio.registrar(newUser);
+		} catch (RuntimeException e) { // SI EL REGISTRO FALLA, EL AVATAR YA SUBIDO NO LO REFERENCIA NADIE
+			if (newUser.getAvatar() != null) {
+				asyncStorageService.delete(newUser.getAvatar());
+			}
+			throw e;
+		}
 		return "redirect:/auth/login"; //UNA VEZ SE HA REGISTRADO, LE ENVIAMOS AL LOGIN PARA QUE SE AUTENTIQUE
 	}
 	
@@ -266,8 +283,8 @@ public class UsuarioController {
 	@GetMapping("/app/mi_perfil")
 	public String list(Model model) {
 		List<Producto> misVentas = productoServicio.productosDeUnPropietario(usuario);
-		List<Compra> misCompras = compraServicio.buscarTodasPorPropietario(usuario);
-		Float totalVentas = 0.0F;
+		List<Producto> misComprados = productoServicio.productosCompradosPor(usuario); // TODAS MIS COMPRAS EN UNA SOLA CONSULTA
+		Float totalVentas = productoServicio.totalVentasArchivadas(usuario); // LAS VENTAS ARCHIVADAS YA NO ESTAN EN misVentas
 		Float totalCompras = 0.0F;
 		//Calculo el Total de mis Ventas
 		for (Producto producto : misVentas) {
@@ -276,11 +293,8 @@ public class UsuarioController {
 			}
 		}
 		//Calculo el Total de mis Compras
-		for (Compra compra : misCompras) {
-			List<Producto> comprados = productoServicio.productosDeUnaCompra(compra);
-			for (Producto comprado : comprados) {
-				totalCompras += comprado.getPrecio();
-			}
+		for (Producto comprado : misComprados) {
+			totalCompras += comprado.getPrecio();
 		}
 		model.addAttribute("misventas", totalVentas);
 		model.addAttribute("miscompras", totalCompras);
@@ -358,6 +372,12 @@ public class UsuarioController {
             }
             // Actualizamos el producto
             usuarioServicio.editar(usuarioEditado);
+            // Si se ha subido un avatar, liberamos el antiguo (ya guardado el Usuario) para que no quede
+            // huerfano en el almacen. SIEMPRE, aunque la URL sea la misma: con el almacen content-addressed,
+            // subir el mismo contenido devuelve la misma URL pero suma una referencia que hay que descontar
+            if (!file.isEmpty() && usr.getAvatar() != null) {
+                asyncStorageService.delete(usr.getAvatar());
+            }
             // Redirigimos a la pagina de los Productos del Usuario
             return "redirect:/app/mi_perfil";
     }
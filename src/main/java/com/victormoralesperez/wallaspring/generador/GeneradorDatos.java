@@ -0,0 +1,297 @@
+package com.victormoralesperez.wallaspring.generador;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.storageservice.StorageService;
+
+/**
+ * CLASE GeneradorDatos
+ * -------------------------------------------------------------------------------------------
+ * Genera al terminar de arrancar (con el almacen ya iniciado), con el perfil "local" (o el
+ * de las pruebas de carga, "carga", ver CargaTests) y generador.enabled=true, un juego de datos sintetico del tamanyo que se le pida
+ * (generador.*) para probar en local con volumenes como los de produccion:
+ *
+ *   mvn spring-boot:run -Dspring-boot.run.profiles=local
+ *       -Dspring-boot.run.arguments="--generador.enabled=true --generador.products=2000000 --generador.exit=true"
+ *
+ * - Usuarios usuario{id}@wallaspring.local, todos con la contrasenya generador.password
+ *   (se cifra una sola vez con BCrypt).
+ * - Compras de un comprador al azar con fechas en los ultimos generador.history-days dias,
+ *   de 1 a generador.max-products-per-purchase Productos VENDIDOS cada una. El resto de
+ *   Productos hasta generador.products quedan DISPONIBLES.
+ * - Productos con nombres de segunda mano ("Bicicleta de montaña en rojo poco uso") y precios
+ *   log-normales alrededor de la mediana de su categoria.
+ * - generador.images imagenes JPEG guardadas en el almacen y repartidas entre los Productos.
+ * Se inserta con INSERT en lotes (JdbcTemplate), generador.batch-size filas por transaccion,
+ * sin pasar por JPA. Los ID empiezan en el siguiente libre de cada Tabla *_seq y al
+ * terminar se avanza el contador (GeneradorIdAgrupado). Con la misma semilla y una Base de
+ * Datos vacia los datos son siempre los mismos, salvo el nombre que el almacen le da a cada
+ * imagen; las fechas se cuentan hacia atras desde hoy.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Component
+@Profile({ "local", "carga" })
+@ConditionalOnProperty(prefix = "generador", name = "enabled", havingValue = "true")
+public class GeneradorDatos {
+
+	private static final Logger log = LoggerFactory.getLogger(GeneradorDatos.class);
+
+	private static final String[] NOMBRES = { "Antonio", "Manuel", "José", "Francisco", "David", "Juan", "Javier",
+			"Daniel", "Carlos", "Alejandro", "Miguel", "Rafael", "Pablo", "Sergio", "Víctor", "María", "Carmen", "Ana",
+			"Isabel", "Laura", "Cristina", "Marta", "Lucía", "Elena", "Paula", "Sara", "Raquel", "Rocío", "Pilar",
+			"Dolores" };
+
+	private static final String[] APELLIDOS = { "García", "Rodríguez", "González", "Fernández", "López", "Martínez",
+			"Sánchez", "Pérez", "Gómez", "Martín", "Jiménez", "Ruiz", "Hernández", "Díaz", "Moreno", "Muñoz", "Álvarez",
+			"Romero", "Alonso", "Gutiérrez", "Navarro", "Torres", "Domínguez", "Vázquez", "Ramos", "Gil", "Ramírez",
+			"Serrano", "Blanco", "Morales", "Castillo", "Ortega" };
+
+	private static final String[] COLORES = { "en negro", "en blanco", "en gris", "en rojo", "en azul", "en verde", "color plata" };
+
+	private static final String[] ESTADOS = { "sin estrenar", "a estrenar", "poco uso", "con caja", "con factura",
+			"impecable", "en buen estado", "para reparar" };
+
+	/**
+	 * Categorias: articulos, mediana del precio y dispersion (sigma del logaritmo)
+	 */
+	private static final Categoria[] CATEGORIAS = {
+			new Categoria(180, 0.8, "Móvil Samsung Galaxy S10", "iPhone 11 128GB", "Portátil Lenovo ThinkPad",
+					"Tablet Huawei MediaPad", "Auriculares Bluetooth Sony", "Televisor LG 50 pulgadas",
+					"Consola PlayStation 4", "Xbox One X", "Cámara réflex Canon EOS", "Smartwatch Garmin"),
+			new Categoria(60, 0.9, "Sofá de tres plazas", "Mesa de comedor extensible", "Silla de oficina ergonómica",
+					"Lámpara de pie", "Estantería de madera", "Colchón de 135", "Cafetera Nespresso",
+					"Robot de cocina", "Aspiradora Rowenta", "Microondas Balay"),
+			new Categoria(45, 0.9, "Bicicleta de montaña", "Patinete eléctrico Xiaomi", "Tabla de surf",
+					"Raqueta de padel", "Zapatillas de running", "Juego de mancuernas", "Bicicleta estática",
+					"Tienda de campaña", "Esquís con fijaciones", "Saco de dormir"),
+			new Categoria(25, 0.7, "Chaqueta de cuero", "Vestido de fiesta", "Bolso de piel", "Reloj Casio",
+					"Gafas de sol Ray-Ban", "Botas de montaña", "Abrigo de invierno", "Vaqueros Levi's",
+					"Mochila Eastpak", "Traje de chaqueta"),
+			new Categoria(12, 0.8, "Colección de cómics", "Libro de cocina", "Juego de mesa Catan",
+					"Lote de vinilos", "Guitarra española", "Puzzle de 1000 piezas", "Saga Harry Potter",
+					"Teclado Yamaha", "Colección de DVD", "Cuentos infantiles"),
+			new Categoria(300, 1.2, "Casco de moto", "Volkswagen Golf GTI", "Vespa 125", "Baca de coche",
+					"Silla infantil de coche", "Neumáticos Michelin", "Remolque", "Moto Yamaha MT-07",
+					"Cofre de moto", "Navegador GPS TomTom") };
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private BCryptPasswordEncoder passwordEncoder;
+
+	@Autowired
+	private StorageService storageService;
+
+	@Autowired
+	private GeneradorProperties properties;
+
+	@Autowired
+	private ConfigurableApplicationContext contexto;
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void generar() throws IOException {
+		long inicio = System.nanoTime();
+		Random random = new Random(properties.getSeed());
+		long hoy = LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		List<String> imagenes = generarImagenes(random);
+		long primerUsuario = siguienteId("usuario");
+		generarUsuarios(random, primerUsuario, hoy);
+		int productos = generarComprasYProductos(random, primerUsuario, hoy, imagenes);
+		log.info("Generados {} Usuarios, {} Productos y {} imagenes (semilla {}) en {} s", properties.getUsers(),
+				productos, imagenes.size(), properties.getSeed(), TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - inicio));
+		if (properties.isExit()) {
+			System.exit(SpringApplication.exit(contexto));
+		}
+	}
+
+	/**
+	 * @return las URL de las imagenes guardadas en el almacen
+	 */
+	private List<String> generarImagenes(Random random) throws IOException {
+		List<String> urls = new ArrayList<>();
+		for (int i = 0; i < properties.getImages(); i++) {
+			BufferedImage imagen = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+			Graphics2D grafico = imagen.createGraphics();
+			grafico.setPaint(new GradientPaint(0, 0, new Color(random.nextInt(0xFFFFFF)), 640, 480, new Color(random.nextInt(0xFFFFFF))));
+			grafico.fillRect(0, 0, 640, 480);
+			grafico.setColor(new Color(random.nextInt(0xFFFFFF)));
+			grafico.fillOval(120 + random.nextInt(200), 80 + random.nextInt(160), 200, 200);
+			grafico.dispose();
+			ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+			ImageIO.write(imagen, "jpg", jpeg);
+			String nombre = storageService.store(new ByteArrayInputStream(jpeg.toByteArray()), "generada-" + i + ".jpg");
+			urls.add(properties.getBaseUrl() + "/files/" + nombre);
+		}
+		return urls;
+	}
+
+	private void generarUsuarios(Random random, long primerId, long hoy) {
+		String password = passwordEncoder.encode(properties.getPassword());
+		List<Object[]> filas = new ArrayList<>();
+		for (long id = primerId; id < primerId + properties.getUsers(); id++) {
+			filas.add(new Object[] { id, elegir(random, NOMBRES), elegir(random, APELLIDOS) + " " + elegir(random, APELLIDOS),
+					null, "usuario" + id + "@wallaspring.local", password, haceDias(random, hoy) });
+			if (filas.size() == properties.getBatchSize()) {
+				insertar("insert into usuario (id, nombre, apellidos, avatar, email, password, fecha_alta) values (?, ?, ?, ?, ?, ?, ?)", filas);
+			}
+		}
+		insertar("insert into usuario (id, nombre, apellidos, avatar, email, password, fecha_alta) values (?, ?, ?, ?, ?, ?, ?)", filas);
+		avanzarContador("usuario", primerId + properties.getUsers());
+	}
+
+	/**
+	 * Genera las Compras, cada una con sus Productos VENDIDOS, y despues los Productos
+	 * DISPONIBLES hasta completar generador.products
+	 *
+	 * @return Productos generados
+	 */
+	private int generarComprasYProductos(Random random, long primerUsuario, long hoy, List<String> imagenes) {
+		long compraId = siguienteId("compra");
+		long productoId = siguienteId("producto");
+		List<Object[]> compras = new ArrayList<>();
+		List<Object[]> productos = new ArrayList<>();
+		int generados = 0;
+		for (int c = 0; c < properties.getPurchases() && generados < properties.getProducts(); c++) {
+			long comprador = primerUsuario + random.nextInt(properties.getUsers());
+			compras.add(new Object[] { compraId, haceDias(random, hoy), comprador });
+			int enLaCompra = 1 + random.nextInt(Math.max(1, properties.getMaxProductsPerPurchase()));
+			for (int p = 0; p < enLaCompra && generados < properties.getProducts(); p++, generados++) {
+				productos.add(producto(random, productoId++, primerUsuario, compraId, imagenes));
+			}
+			compraId++;
+			if (productos.size() >= properties.getBatchSize()) {
+				insertarComprasYProductos(compras, productos);
+			}
+		}
+		for (; generados < properties.getProducts(); generados++) {
+			productos.add(producto(random, productoId++, primerUsuario, null, imagenes));
+			if (productos.size() >= properties.getBatchSize()) {
+				insertarComprasYProductos(compras, productos);
+			}
+		}
+		insertarComprasYProductos(compras, productos);
+		avanzarContador("compra", compraId);
+		avanzarContador("producto", productoId);
+		return generados;
+	}
+
+	private Object[] producto(Random random, long id, long primerUsuario, Long compraId, List<String> imagenes) {
+		Categoria categoria = CATEGORIAS[random.nextInt(CATEGORIAS.length)];
+		StringBuilder nombre = new StringBuilder(elegir(random, categoria.articulos));
+		if (random.nextInt(3) == 0) {
+			nombre.append(' ').append(elegir(random, COLORES));
+		}
+		if (random.nextBoolean()) {
+			nombre.append(' ').append(elegir(random, ESTADOS));
+		}
+		String imagen = (!imagenes.isEmpty() && random.nextDouble() < properties.getImageRatio())
+				? imagenes.get(random.nextInt(imagenes.size())) : null;
+		long vendedor = primerUsuario + random.nextInt(properties.getUsers());
+		Producto.Estado estado = (compraId != null) ? Producto.Estado.VENDIDO : Producto.Estado.DISPONIBLE;
+		return new Object[] { id, nombre.toString(), categoria.precio(random), imagen, vendedor, compraId,
+				String.valueOf(estado.getCodigo()) };
+	}
+
+	private void insertarComprasYProductos(List<Object[]> compras, List<Object[]> productos) {
+		if (productos.isEmpty()) {
+			return;
+		}
+		Object ultimo = productos.get(productos.size() - 1)[0];
+		new TransactionTemplate(transactionManager).executeWithoutResult(estado -> {
+			insertar("insert into compra (id, fecha_compra, comprador_id) values (?, ?, ?)", compras);
+			insertar("insert into producto (id, nombre, precio, imagen, vendedor_id, compra_id, estado) values (?, ?, ?, ?, ?, ?, ?)", productos);
+		});
+		log.info("Generados Productos hasta el ID {}", ultimo);
+	}
+
+	private void insertar(String sql, List<Object[]> filas) {
+		if (!filas.isEmpty()) {
+			jdbcTemplate.batchUpdate(sql, filas);
+			filas.clear();
+		}
+	}
+
+	private long siguienteId(String tabla) {
+		return jdbcTemplate.queryForObject("select next_val from " + tabla + "_seq", Long.class);
+	}
+
+	private void avanzarContador(String tabla, long siguiente) {
+		jdbcTemplate.update("update " + tabla + "_seq set next_val = ? where next_val < ?", siguiente, siguiente);
+	}
+
+	private Timestamp haceDias(Random random, long hoy) {
+		return new Timestamp(hoy - (long) (random.nextDouble() * properties.getHistoryDays() * TimeUnit.DAYS.toMillis(1)));
+	}
+
+	private static String elegir(Random random, String[] valores) {
+		return valores[random.nextInt(valores.length)];
+	}
+
+	/**
+	 * CLASE Categoria
+	 * ---------------------------------------------------------------------------------------
+	 * Articulos de una categoria y como se reparten sus precios
+	 */
+
+	private static class Categoria {
+
+		private final double mediana;
+
+		private final double sigma;
+
+		private final String[] articulos;
+
+		Categoria(double mediana, double sigma, String... articulos) {
+			this.mediana = mediana;
+			this.sigma = sigma;
+			this.articulos = articulos;
+		}
+
+		/**
+		 * Precio log-normal alrededor de la mediana, redondeado como lo pone la gente:
+		 * euros enteros, o de 0,50 en 0,50 por debajo de 10
+		 */
+		float precio(Random random) {
+			double precio = Math.min(mediana * Math.exp(sigma * random.nextGaussian()), mediana * 50);
+			return (precio < 10) ? (float) Math.max(0.5, Math.round(precio * 2) / 2.0) : (float) Math.round(precio);
+		}
+
+	}
+
+}
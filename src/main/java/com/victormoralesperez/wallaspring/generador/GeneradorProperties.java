@@ -0,0 +1,127 @@
+package com.victormoralesperez.wallaspring.generador;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE GeneradorProperties
+ * -------------------------------------------------------------------------------------------
+ * Configuracion del generador de datos sinteticos de los perfiles "local" y "carga"
+ * (generador.*). Ver GeneradorDatos.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "generador")
+@Getter @Setter
+public class GeneradorProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Genera los datos al arrancar (solo con los perfiles "local" y "carga")
+	 */
+
+	private boolean enabled = false;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Semilla: con la misma semilla y sobre una Base de Datos vacia salen siempre los mismos
+	 * datos (mismos ID, nombres, precios, fechas...)
+	 */
+
+	private long seed = 42;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Usuarios a generar (usuario{id}@wallaspring.local, todos con la contrasenya password)
+	 */
+
+	private int users = 1000;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Productos a generar en total, vendidos y sin vender
+	 */
+
+	private int products = 100000;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Compras a generar como mucho (se paran al llegar a products)
+	 */
+
+	private int purchases = 20000;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Productos por Compra: entre 1 y este valor
+	 */
+
+	private int maxProductsPerPurchase = 3;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Ficheros de imagen distintos que se guardan en el almacen y se reparten entre los
+	 * Productos
+	 */
+
+	private int images = 100;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Proporcion de Productos con imagen (0 a 1)
+	 */
+
+	private double imageRatio = 0.7;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Las fechas de alta y de compra se reparten en estos ultimos dias
+	 */
+
+	private int historyDays = 730;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Filas por INSERT en lote y por transaccion
+	 */
+
+	private int batchSize = 5000;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Contrasenya de todos los Usuarios generados
+	 */
+
+	private String password = "password";
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Principio de la URL de las imagenes (como las que guarda el formulario: {base-url}/files/...)
+	 */
+
+	private String baseUrl = "http://localhost:9090";
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Cierra la Aplicacion al terminar de generar
+	 */
+
+	private boolean exit = false;
+
+}
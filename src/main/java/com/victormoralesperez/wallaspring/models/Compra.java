@@ -4,11 +4,12 @@ import java.util.Date;
 import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import lombok.Data;
@@ -49,14 +50,16 @@ public class Compra {
 	 * ---------------------------------------------------------------------------------------
 	 * Atributo Identificador de la Clase POJO Producto que representa la Entidad que
 	 * se mapea con la Columna Id de la Tabla Compra de la Base de Datos. Su Valor
-	 * es Auto-Generado por JPA. Almacena el identificador de una Compra almacenada en
+	 * es Auto-Generado por JPA por bloques. Almacena el identificador de una Compra almacenada en
 	 * la Base de Datos. Comienza en el 1 y los valores no son reciclados al
 	 * eliminar tuplas de la BD. JPA Trata los Identificadores como tipo de dato
 	 * Long por defecto.
 	 */
 	
 	@Id												//Clave Primaria de la Entidad
-	@GeneratedValue(strategy = GenerationType.AUTO)	//Valor Auto-Generado. Comienza en el 1 y los valores no son reciclados al eliminar tuplas de la BD.
+	@GeneratedValue(generator = "compra_seq")					//Valor Auto-Generado por BLOQUES (ver GeneradorIdAgrupado). Los valores no son reciclados al eliminar tuplas de la BD.
+	@GenericGenerator(name = "compra_seq", strategy = "com.victormoralesperez.wallaspring.models.GeneradorIdAgrupado",
+		parameters = @Parameter(name = "sequence_name", value = "compra_seq"))
 	private long id;								//Los ID son de Tipo Long por defecto en JPA
 
 	/**
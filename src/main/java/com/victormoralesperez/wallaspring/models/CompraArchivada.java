@@ -0,0 +1,63 @@
+package com.victormoralesperez.wallaspring.models;
+
+import java.util.Date;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import org.hibernate.annotations.Immutable;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * CLASE CompraArchivada
+ * -------------------------------------------------------------------------------------------
+ * Clase POJO que Representa una COMPRA antigua que se ha movido a la Tabla de archivo
+ * compra_archivada (ver ArchivoServicioImpl). Tiene el mismo ID y los mismos datos que
+ * tenia en la Tabla Compra. Las filas las escribe el archivado con INSERT ... SELECT,
+ * desde JPA solo se leen (@Immutable).
+ * Las Vistas siguen trabajando con Compra: los Servicios convierten las archivadas con
+ * aCompra().
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Entity												//Anotación de JPA que MAPEA una Clase POJO tratandola como Entidad de la Base de Datos
+@Immutable											//Hibernate nunca la actualiza
+@Data @NoArgsConstructor							//Anotaciones de LOMBOK : Escriben automaticamente Getters, Setters, etc
+public class CompraArchivada {
+
+	/**
+	 * ATRIBUTO id
+	 * ---------------------------------------------------------------------------------------
+	 * El ID que tenia la COMPRA (no se genera: se copia al archivarla)
+	 */
+
+	@Id
+	private long id;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date fechaCompra;
+
+	@ManyToOne
+	private Usuario comprador;
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Devuelve la COMPRA tal y como era antes de archivarla (sin guardar en la Base de
+	 * Datos), para mostrarla en las Vistas del historico
+	 *
+	 * @return
+	 */
+
+	public Compra aCompra() {
+		Compra compra = new Compra(comprador);
+		compra.setId(id);
+		compra.setFechaCompra(fechaCompra);
+		return compra;
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.victormoralesperez.wallaspring.models;
+
+import java.util.Properties;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * CLASE GeneradorIdAgrupado
+ * -------------------------------------------------------------------------------------------
+ * Generador de Identificadores de las Entidades que reserva los ID por BLOQUES.
+ * Con GenerationType.AUTO (y use-new-id-generator-mappings=false) MySQL asigna el ID
+ * con AUTO_INCREMENT al hacer el INSERT, lo que obliga a Hibernate a lanzar cada INSERT
+ * en el momento y le impide agruparlos en lotes (JDBC batching).
+ * Este generador guarda el siguiente ID libre en una Tabla de una sola fila (MySQL no
+ * tiene secuencias) y, en cada acceso, reserva un bloque entero de ID (optimizador
+ * "pooled-lo"): los siguientes ID del bloque se asignan en memoria, sin ir a la Base
+ * de Datos. El tamanyo del bloque se configura con la propiedad
+ * spring.jpa.properties.wallaspring.id.allocation-size (por defecto 50).
+ * Las Tablas (producto_seq, compra_seq, usuario_seq) las crea la migracion V4.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class GeneradorIdAgrupado extends SequenceStyleGenerator {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Propiedad de Hibernate con el numero de ID que se reservan en cada acceso a la Tabla
+	 */
+
+	public static final String TAMANYO_BLOQUE = "wallaspring.id.allocation-size";
+
+	public static final int TAMANYO_BLOQUE_POR_DEFECTO = 50;
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Completa los parametros del generador (los de @GenericGenerator solo indican el
+	 * nombre de la Tabla) antes de configurarlo: siempre Tabla, optimizador pooled-lo
+	 * y el tamanyo de bloque de la configuracion.
+	 *
+	 * @param type
+	 * @param params
+	 * @param serviceRegistry
+	 */
+
+	@Override
+	public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) {
+		ConfigurationService configuracion = serviceRegistry.getService(ConfigurationService.class);
+		int tamanyo = configuracion.getSetting(TAMANYO_BLOQUE, valor -> Integer.valueOf(valor.toString().trim()), TAMANYO_BLOQUE_POR_DEFECTO);
+		params.setProperty(FORCE_TBL_PARAM, "true");
+		params.setProperty(OPT_PARAM, "pooled-lo");
+		params.setProperty(INCREMENT_PARAM, String.valueOf(tamanyo));
+		super.configure(type, params, serviceRegistry);
+	}
+
+}
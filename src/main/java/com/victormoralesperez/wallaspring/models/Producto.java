@@ -1,12 +1,18 @@
 package com.victormoralesperez.wallaspring.models;
 
+import javax.persistence.AttributeConverter;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Converter;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
+import com.victormoralesperez.wallaspring.storageservice.ImageVariant;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -39,19 +45,78 @@ import lombok.NoArgsConstructor;
 @Data @NoArgsConstructor									//Anotaciones de LOMBOK : Escriben automaticamente Getters, Setters, etc
 public class Producto {
 
+	/**
+	 * ENUM Estado
+	 * ---------------------------------------------------------------------------------------
+	 * Estados de un Producto en el catalogo. Se guarda con un solo caracter (codigo), para
+	 * que el indice idx_producto_estado, por el que se pinta el catalogo, ocupe poco.
+	 * - DISPONIBLE: se ve en el catalogo y se puede comprar
+	 * - RESERVADO: apartado para un comprador, no se ve en el catalogo
+	 * - OCULTO: retirado del catalogo por su vendedor, sin borrarlo
+	 * - VENDIDO: tiene COMPRA asociada
+	 */
+
+	public enum Estado {
+
+		DISPONIBLE('D'), RESERVADO('R'), OCULTO('O'), VENDIDO('V');
+
+		private final char codigo;
+
+		Estado(char codigo) {
+			this.codigo = codigo;
+		}
+
+		public char getCodigo() {
+			return codigo;
+		}
+
+		public static Estado porCodigo(char codigo) {
+			for (Estado estado : values()) {
+				if (estado.codigo == codigo) {
+					return estado;
+				}
+			}
+			throw new IllegalArgumentException("ESTADO DE PRODUCTO DESCONOCIDO: " + codigo);
+		}
+
+	}
+
+	/**
+	 * CLASE ConversorEstado
+	 * ---------------------------------------------------------------------------------------
+	 * Guarda el Estado en la Columna estado (char(1)) por su codigo
+	 */
+
+	@Converter
+	public static class ConversorEstado implements AttributeConverter<Estado, String> {
+
+		@Override
+		public String convertToDatabaseColumn(Estado estado) {
+			return (estado == null) ? null : String.valueOf(estado.getCodigo());
+		}
+
+		@Override
+		public Estado convertToEntityAttribute(String codigo) {
+			return (codigo == null || codigo.isEmpty()) ? null : Estado.porCodigo(codigo.charAt(0));
+		}
+
+	}
+
 	/**
 	 * ATRIBUTO id
 	 * ---------------------------------------------------------------------------------------
 	 * Atributo Identificador de la Clase POJO Producto que representa la Entidad que
 	 * se mapea con la Columna Id de la Tabla Producto de la Base de Datos. Su Valor
-	 * es Auto-Generado por JPA. Almacena el identificador de un Producto almacenado 
+	 * es Auto-Generado por JPA por bloques. Almacena el identificador de un Producto almacenado 
 	 * en la Base de Datos. Comienza en el 1 y los valores no son reciclados al
 	 * eliminar tuplas de la BD. JPA Trata los Identificadores como tipo de dato
 	 * Long por defecto.
 	 */
 	
 	@Id														//Clave Primaria de la Entidad
-	@GeneratedValue(strategy = GenerationType.AUTO)			//Valor Auto-Generado. Comienza en el 1 y los valores no son reciclados al eliminar tuplas de la BD.
+	@GeneratedValue(generator = "producto_seq")					//Valor Auto-Generado por BLOQUES (ver GeneradorIdAgrupado). Los valores no son reciclados al eliminar tuplas de la BD.
+	@GenericGenerator(name = "producto_seq", strategy = "com.victormoralesperez.wallaspring.models.GeneradorIdAgrupado",
+		parameters = @Parameter(name = "sequence_name", value = "producto_seq"))
 	private long id;										//Los ID son de Tipo Long por defecto en JPA
 	
 	/**
@@ -126,6 +191,18 @@ public class Producto {
 	@ManyToOne
 	private Compra compra;			// 1 COMPRA puede tener M PRODCUTOS <-> 1 PRODUCTO SOLO PUEDE ESTAR EN 1 COMPRA
 
+	/**
+	 * ATRIBUTO estado
+	 * ---------------------------------------------------------------------------------------
+	 * Estado del Producto en el catalogo. El catalogo filtra por esta Columna (indexada)
+	 * en lugar de por compra_id IS NULL. Pasa a VENDIDO al asignarle la COMPRA (setCompra),
+	 * en el mismo UPDATE, asi que no se puede desalinear con ella.
+	 */
+
+	@Convert(converter = ConversorEstado.class)
+	@Column(nullable = false, length = 1)
+	private Estado estado = Estado.DISPONIBLE;
+
 	/**
 	 * CONSTRUCTOR PARAMETRIZADO
 	 * ---------------------------------------------------------------------------------------
@@ -150,6 +227,43 @@ public class Producto {
 		this.imagen = imagen;
 		this.vendedor = usuarioVendedor; 					//Cada PRODUCTO tiene 1 Usuario que lo VENDE
 		this.compra = null;									//1 PRODUCTO, en el Instante de su Creación, aun NO HA SIDO COMPRADO o VENDIDO
+		this.estado = Estado.DISPONIBLE;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Setter de la COMPRA que mantiene el Estado: con COMPRA el Producto queda VENDIDO, y
+	 * si se le quita vuelve a estar DISPONIBLE. (Hibernate no lo usa al cargar de la Base
+	 * de Datos, accede a los atributos directamente)
+	 * 
+	 * @param compra
+	 */
+
+	public void setCompra(Compra compra) {
+		this.compra = compra;
+		if (compra != null) {
+			estado = Estado.VENDIDO;
+		} else if (estado == Estado.VENDIDO) {
+			estado = Estado.DISPONIBLE;
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que devuelve la URL de la imagen del Producto en uno de los tamanyos
+	 * fijos que genera el almacen ("thumb", "panel" o "detalle"), para no servir
+	 * la imagen original en las vistas que la pintan pequenya. Se usa desde las
+	 * plantillas: ${producto.imagenVariante('panel')}
+	 * 
+	 * @param variante
+	 * @return
+	 */
+
+	public String imagenVariante(String variante) {
+		ImageVariant imageVariant = ImageVariant.porNombre(variante);
+		return (imageVariant == null) ? imagen : imageVariant.url(imagen);
 	}
 
 }
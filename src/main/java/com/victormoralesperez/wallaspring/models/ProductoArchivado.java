@@ -0,0 +1,65 @@
+package com.victormoralesperez.wallaspring.models;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import org.hibernate.annotations.Immutable;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * CLASE ProductoArchivado
+ * -------------------------------------------------------------------------------------------
+ * Clase POJO que Representa un PRODUCTO vendido que se ha movido, junto con su COMPRA, a
+ * la Tabla de archivo producto_archivado (ver ArchivoServicioImpl). Tiene el mismo ID y
+ * los mismos datos que tenia en la Tabla Producto. Desde JPA solo se lee (@Immutable).
+ * Las Vistas siguen trabajando con Producto: los Servicios convierten los archivados con
+ * aProducto().
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Entity												//Anotación de JPA que MAPEA una Clase POJO tratandola como Entidad de la Base de Datos
+@Immutable											//Hibernate nunca lo actualiza
+@Data @NoArgsConstructor							//Anotaciones de LOMBOK : Escriben automaticamente Getters, Setters, etc
+public class ProductoArchivado {
+
+	/**
+	 * ATRIBUTO id
+	 * ---------------------------------------------------------------------------------------
+	 * El ID que tenia el PRODUCTO (no se genera: se copia al archivarlo)
+	 */
+
+	@Id
+	private long id;
+
+	private String nombre;
+
+	private float precio;
+
+	private String imagen;
+
+	@ManyToOne
+	private Usuario vendedor;
+
+	@ManyToOne
+	private CompraArchivada compra;
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Devuelve el PRODUCTO tal y como era antes de archivarlo, con su COMPRA (sin guardar
+	 * en la Base de Datos), para mostrarlo en las Vistas del historico
+	 *
+	 * @return
+	 */
+
+	public Producto aProducto() {
+		Producto producto = new Producto(nombre, precio, imagen, vendedor);
+		producto.setId(id);
+		producto.setCompra(compra == null ? null : compra.aCompra());
+		return producto;
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.victormoralesperez.wallaspring.models;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * CLASE TrabajoFactura
+ * -------------------------------------------------------------------------------------------
+ * Clase POJO que Representa la ENTIDAD TrabajoFactura de la Base de Datos: la peticion
+ * de generar en segundo plano la factura en PDF de una Compra.
+ * Al guardarse en la Base de Datos, la cola de facturas pendientes sobrevive a un
+ * reinicio de la Aplicacion (los trabajos PENDIENTES o EN_CURSO se relanzan al arrancar).
+ * Hay como mucho un trabajo por Compra y generador.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Entity												//Anotación de JPA que MAPEA una Clase POJO tratandola como Entidad de la Base de Datos
+@EntityListeners(AuditingEntityListener.class)		//Auditamos con JPA la Entidad para que funcione correctamente
+@Data @NoArgsConstructor							//Anotaciones de LOMBOK : Escriben automaticamente Getters, Setters, etc
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_trabajo_factura_compra_generador", columnNames = { "compraId", "generador" }))
+public class TrabajoFactura {
+
+	/**
+	 * ENUM Estado
+	 * ---------------------------------------------------------------------------------------
+	 * Estados por los que pasa un trabajo
+	 */
+
+	public enum Estado { PENDIENTE, EN_CURSO, TERMINADO, ERROR }
+
+	/**
+	 * ENUM Generador
+	 * ---------------------------------------------------------------------------------------
+	 * Con que se genera la factura: la plantilla HTML (Html2PdfService) o iText (GeneradorPDF)
+	 */
+
+	public enum Generador { HTML, ITEXT }
+
+	/**
+	 * ATRIBUTO id
+	 * ---------------------------------------------------------------------------------------
+	 * Identificador del trabajo, que se devuelve al cliente para consultar su estado
+	 */
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private long id;
+
+	/**
+	 * ATRIBUTO compraId
+	 * ---------------------------------------------------------------------------------------
+	 * ID de la Compra cuya factura se genera
+	 */
+
+	@Column(nullable = false)
+	private long compraId;
+
+	/**
+	 * ATRIBUTO generador
+	 * ---------------------------------------------------------------------------------------
+	 * Generador de la factura (se guarda por su nombre)
+	 */
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false, length = 8)
+	private Generador generador = Generador.HTML;
+
+	/**
+	 * ATRIBUTO estado
+	 * ---------------------------------------------------------------------------------------
+	 * Estado del trabajo (se guarda por su nombre)
+	 */
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false, length = 16)
+	private Estado estado = Estado.PENDIENTE;
+
+	/**
+	 * ATRIBUTO intentos
+	 * ---------------------------------------------------------------------------------------
+	 * Numero de veces que se ha intentado generar la factura
+	 */
+
+	private int intentos;
+
+	/**
+	 * ATRIBUTO error
+	 * ---------------------------------------------------------------------------------------
+	 * Mensaje del ultimo error, si el ultimo intento fallo
+	 */
+
+	private String error;
+
+	@CreatedDate
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date fechaCreacion;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date fechaFin;
+
+	/**
+	 * CONSTRUCTOR PARAMETRIZADO
+	 * ---------------------------------------------------------------------------------------
+	 * Crea un trabajo PENDIENTE para la Compra y el generador indicados
+	 *
+	 * @param compraId
+	 * @param generador
+	 */
+
+	public TrabajoFactura(long compraId, Generador generador) {
+		this.compraId = compraId;
+		this.generador = generador;
+	}
+
+}
@@ -6,15 +6,17 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotEmpty;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
+import com.victormoralesperez.wallaspring.storageservice.ImageVariant;
 import com.victormoralesperez.wallaspring.validationservice.UniqueUsername;
 
 import lombok.Data;
@@ -50,14 +52,16 @@ public class Usuario {
 	 * ---------------------------------------------------------------------------------------
 	 * Atributo Identificador de la Clase POJO Usuario que representa la Entidad que
 	 * se mapea con la Columna Id de la Tabla Usuario de la Base de Datos. Su Valor
-	 * es Auto-Generado por JPA. Almacena el identificador del Usuario almacenado en
+	 * es Auto-Generado por JPA por bloques. Almacena el identificador del Usuario almacenado en
 	 * la Base de Datos. Comienza en el 1 y los valores no son reciclados al
 	 * eliminar tuplas de la BD. JPA Trata los Identificadores como tipo de dato
 	 * Long por defecto.
 	 */
 
 	@Id 												
-	@GeneratedValue(strategy = GenerationType.AUTO) 										
+	@GeneratedValue(generator = "usuario_seq") 
+	@GenericGenerator(name = "usuario_seq", strategy = "com.victormoralesperez.wallaspring.models.GeneradorIdAgrupado",
+		parameters = @Parameter(name = "sequence_name", value = "usuario_seq"))
 	private long id; 									
 
 	/**
@@ -184,4 +188,20 @@ public class Usuario {
 		this.password = password;
 	}
 
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que devuelve la URL del avatar del Usuario en uno de los tamanyos
+	 * fijos que genera el almacen ("thumb", "panel" o "detalle"). Se usa desde las
+	 * plantillas: ${usuario.avatarVariante('panel')}
+	 * 
+	 * @param variante
+	 * @return
+	 */
+
+	public String avatarVariante(String variante) {
+		ImageVariant imageVariant = ImageVariant.porNombre(variante);
+		return (imageVariant == null) ? avatar : imageVariant.url(avatar);
+	}
+
 }
@@ -0,0 +1,115 @@
+package com.victormoralesperez.wallaspring.replicas;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * CLASE ComprobadorReplicas
+ * -------------------------------------------------------------------------------------------
+ * Comprueba periodicamente (replicas.health-check-interval) que cada replica responde y
+ * cuanto va por detras de la principal, y le dice al DataSourceEnrutado a cuales puede
+ * mandar lecturas.
+ * El retraso se mide con un latido: en cada comprobacion se escribe la hora en la Tabla
+ * latido_replicacion de la principal y se lee de cada replica (a la que llega por la
+ * replicacion). Una replica esta sana si responde y su latido no tiene mas de
+ * replicas.max-lag de antiguedad.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class ComprobadorReplicas {
+
+	private static final Logger log = LoggerFactory.getLogger(ComprobadorReplicas.class);
+
+	private static final int TIMEOUT_SEGUNDOS = 2;
+
+	private final DataSource primario;
+
+	private final DataSourceEnrutado dataSourceEnrutado;
+
+	private final long maxRetrasoMs;
+
+	public ComprobadorReplicas(DataSource primario, DataSourceEnrutado dataSourceEnrutado, ReplicasProperties properties) {
+		this.primario = primario;
+		this.dataSourceEnrutado = dataSourceEnrutado;
+		this.maxRetrasoMs = properties.getMaxLag().toMillis();
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Escribe el latido en la principal y comprueba las replicas. La primera comprobacion
+	 * se hace al arrancar; hasta entonces todas las lecturas van a la principal.
+	 */
+
+	@EventListener(ApplicationReadyEvent.class)
+	@Scheduled(fixedDelayString = "${replicas.health-check-interval:5000}", initialDelayString = "${replicas.health-check-interval:5000}")
+	public void comprobar() {
+		long ahora = System.currentTimeMillis();
+		if (maxRetrasoMs > 0) {
+			latir(ahora);
+		}
+		List<String> sanas = new ArrayList<>();
+		for (Map.Entry<String, DataSource> replica : dataSourceEnrutado.getReplicas().entrySet()) {
+			String problema = problema(replica.getValue(), ahora);
+			if (problema == null) {
+				sanas.add(replica.getKey());
+			} else if (dataSourceEnrutado.getSanas().contains(replica.getKey())) {
+				log.warn("Se dejan de mandar lecturas a la replica {}: {}", replica.getKey(), problema);
+			}
+		}
+		if (!sanas.equals(dataSourceEnrutado.getSanas())) {
+			log.info("Replicas de lectura sanas: {}", sanas);
+		}
+		dataSourceEnrutado.setSanas(sanas);
+	}
+
+	private void latir(long ahora) {
+		try (Connection conexion = primario.getConnection();
+				PreparedStatement sentencia = conexion.prepareStatement("update latido_replicacion set instante = ? where id = 1")) {
+			sentencia.setLong(1, ahora);
+			sentencia.executeUpdate();
+		} catch (SQLException e) {
+			log.warn("No se pudo escribir el latido de replicacion en la principal", e);
+		}
+	}
+
+	/**
+	 * @return por que no se le pueden mandar lecturas a la replica, o null si esta sana
+	 */
+	private String problema(DataSource replica, long ahora) {
+		try (Connection conexion = replica.getConnection()) {
+			if (!conexion.isValid(TIMEOUT_SEGUNDOS)) {
+				return "NO RESPONDE";
+			}
+			if (maxRetrasoMs <= 0) {
+				return null;
+			}
+			try (PreparedStatement sentencia = conexion.prepareStatement("select instante from latido_replicacion where id = 1")) {
+				sentencia.setQueryTimeout(TIMEOUT_SEGUNDOS);
+				try (ResultSet resultado = sentencia.executeQuery()) {
+					if (!resultado.next()) {
+						return "NO TIENE LATIDO";
+					}
+					long retraso = ahora - resultado.getLong(1);
+					return (retraso > maxRetrasoMs) ? "VA " + retraso + " ms POR DETRAS" : null;
+				}
+			}
+		} catch (SQLException e) {
+			return e.getMessage();
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.victormoralesperez.wallaspring.replicas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * CLASE DataSourceEnrutado
+ * -------------------------------------------------------------------------------------------
+ * DataSource que reparte las conexiones entre la Base de Datos principal y sus replicas
+ * de lectura:
+ * - Las transacciones de solo lectura (@Transactional(readOnly = true)) van a una de las
+ *   replicas sanas (por turnos). Si no hay ninguna sana, a la principal.
+ * - Todo lo demas (escrituras, lecturas sin transaccion) va a la principal.
+ * El hilo puede forzar la principal (forzarPrimario) para leer algo que se acaba de
+ * escribir. Para que la transaccion ya sepa si es de solo lectura al pedir la conexion,
+ * este DataSource se usa siempre envuelto en un LazyConnectionDataSourceProxy.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class DataSourceEnrutado extends AbstractRoutingDataSource implements Closeable {
+
+	public static final String PRIMARIO = "primario";
+
+	private static final ThreadLocal<Boolean> FORZAR_PRIMARIO = new ThreadLocal<>();
+
+	private static final ThreadLocal<Boolean> ESCRITURA = new ThreadLocal<>();
+
+	private final DataSource primario;
+
+	private final Map<String, DataSource> replicas;
+
+	private final AtomicInteger turno = new AtomicInteger();
+
+	private volatile List<String> sanas = Collections.emptyList();
+
+	/**
+	 * CONSTRUCTOR
+	 * ---------------------------------------------------------------------------------------
+	 * Las replicas empiezan como no sanas hasta la primera comprobacion (ComprobadorReplicas)
+	 *
+	 * @param primario
+	 * @param replicas por nombre
+	 */
+
+	public DataSourceEnrutado(DataSource primario, Map<String, DataSource> replicas) {
+		this.primario = primario;
+		this.replicas = Collections.unmodifiableMap(new LinkedHashMap<>(replicas));
+		Map<Object, Object> destinos = new HashMap<>(replicas);
+		destinos.put(PRIMARIO, primario);
+		setTargetDataSources(destinos);
+		setDefaultTargetDataSource(primario);
+		afterPropertiesSet();
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !Boolean.TRUE.equals(FORZAR_PRIMARIO.get())) {
+			List<String> candidatas = sanas;
+			if (!candidatas.isEmpty()) {
+				return candidatas.get(Math.floorMod(turno.getAndIncrement(), candidatas.size()));
+			}
+		} else if (TransactionSynchronizationManager.isActualTransactionActive()
+				&& !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			ESCRITURA.set(Boolean.TRUE);
+		}
+		return PRIMARIO;
+	}
+
+	/**
+	 * @return la Base de Datos principal
+	 */
+	public DataSource getPrimario() {
+		return primario;
+	}
+
+	/**
+	 * @return las replicas por nombre
+	 */
+	public Map<String, DataSource> getReplicas() {
+		return replicas;
+	}
+
+	/**
+	 * @return nombres de las replicas a las que se mandan lecturas
+	 */
+	public List<String> getSanas() {
+		return sanas;
+	}
+
+	void setSanas(List<String> sanas) {
+		this.sanas = Collections.unmodifiableList(new ArrayList<>(sanas));
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Fuerza (o deja de forzar) que las lecturas del hilo vayan a la principal
+	 *
+	 * @param forzar
+	 * @return el valor anterior, para restaurarlo en un finally
+	 */
+
+	public static boolean forzarPrimario(boolean forzar) {
+		boolean anterior = Boolean.TRUE.equals(FORZAR_PRIMARIO.get());
+		if (forzar) {
+			FORZAR_PRIMARIO.set(Boolean.TRUE);
+		} else {
+			FORZAR_PRIMARIO.remove();
+		}
+		return anterior;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Indica si el hilo ha abierto alguna transaccion de escritura desde la ultima llamada,
+	 * y lo olvida
+	 *
+	 * @return
+	 */
+
+	public static boolean consumirEscritura() {
+		boolean escritura = Boolean.TRUE.equals(ESCRITURA.get());
+		ESCRITURA.remove();
+		return escritura;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Cierra los pools de conexiones de la principal y de las replicas
+	 */
+
+	@Override
+	public void close() throws IOException {
+		List<DataSource> dataSources = new ArrayList<>(replicas.values());
+		dataSources.add(primario);
+		for (DataSource dataSource : dataSources) {
+			if (dataSource instanceof Closeable) {
+				((Closeable) dataSource).close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.victormoralesperez.wallaspring.replicas;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * CLASE LecturaTrasEscrituraFilter
+ * -------------------------------------------------------------------------------------------
+ * Filtro que hace que un Usuario lea de la principal durante replicas.max-lag despues de
+ * haber escrito algo, para que vea sus propios cambios aunque las replicas aun no los
+ * tengan (por ejemplo, la factura justo despues de finalizar la compra).
+ * La hora de la ultima escritura se guarda en la sesion del Usuario.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class LecturaTrasEscrituraFilter extends OncePerRequestFilter {
+
+	static final String ULTIMA_ESCRITURA = LecturaTrasEscrituraFilter.class.getName() + ".ULTIMA_ESCRITURA";
+
+	private final long ventanaMs;
+
+	public LecturaTrasEscrituraFilter(ReplicasProperties properties) {
+		this.ventanaMs = properties.getMaxLag().toMillis();
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		HttpSession sesion = request.getSession(false);
+		Object ultimaEscritura = (sesion != null) ? sesion.getAttribute(ULTIMA_ESCRITURA) : null;
+		boolean reciente = ultimaEscritura instanceof Long && System.currentTimeMillis() - (Long) ultimaEscritura < ventanaMs;
+		boolean anterior = DataSourceEnrutado.forzarPrimario(reciente);
+		DataSourceEnrutado.consumirEscritura();
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			DataSourceEnrutado.forzarPrimario(anterior);
+			if (DataSourceEnrutado.consumirEscritura()) {
+				sesion = request.getSession(false);
+				if (sesion != null) {
+					sesion.setAttribute(ULTIMA_ESCRITURA, System.currentTimeMillis());
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.victormoralesperez.wallaspring.replicas;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE ReplicasProperties
+ * -------------------------------------------------------------------------------------------
+ * Configuracion de las replicas de lectura de la Base de Datos (replicas.*). La Base de
+ * Datos principal sigue siendo la de spring.datasource.*
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "replicas")
+@Getter @Setter
+public class ReplicasProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Activa el reparto de las lecturas entre las replicas (ver ConfiguracionReplicas)
+	 */
+
+	private boolean enabled = false;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Conexion a cada una de las replicas
+	 */
+
+	private List<Nodo> nodes = new ArrayList<>();
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Milisegundos entre cada comprobacion del estado de las replicas
+	 */
+
+	private long healthCheckInterval = 5000;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Retraso maximo de una replica respecto a la principal para mandarle lecturas. Es
+	 * tambien el tiempo que un Usuario lee de la principal despues de escribir, para que
+	 * vea sus propios cambios. Con 0 no se mide el retraso (solo si la replica responde).
+	 */
+
+	private Duration maxLag = Duration.ofSeconds(10);
+
+	/**
+	 * CLASE Nodo
+	 * ---------------------------------------------------------------------------------------
+	 * Datos de conexion de una replica
+	 */
+
+	@Getter @Setter
+	public static class Nodo {
+
+		private String url;
+
+		private String username;
+
+		private String password;
+
+		private String driverClassName;
+
+	}
+
+}
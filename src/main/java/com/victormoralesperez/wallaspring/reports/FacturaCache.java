@@ -0,0 +1,376 @@
+package com.victormoralesperez.wallaspring.reports;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache en disco de las facturas en PDF. Una Compra no cambia despues de pagarse,
+ * asi que su factura solo hay que generarla una vez por formato y version de plantilla.
+ *
+ * - Cada PDF se guarda con el nombre de su SHA-256 (direccionado por contenido), que
+ *   sirve tambien como ETag.
+ * - El indice clave -> PDF esta en memoria (ordenado por ultimo acceso) y se persiste
+ *   en un registro de solo anyadir (index.log), que se relee y compacta al arrancar.
+ * - Si los PDF superan reports.cache.max-bytes se descartan los menos usados.
+ * - Una factura que se esta enviando se RESERVA ({@link #reservar(String)}): aunque se
+ *   desaloje mientras tanto, su PDF no se borra hasta que se libera.
+ *
+ * La clave la construye quien llama con {@link #clave(String, long, String)}: al cambiar
+ * la version de la plantilla cambian las claves y las facturas viejas acaban desalojadas.
+ */
+@Component
+public class FacturaCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FacturaCache.class);
+
+    private static final String REGISTRO = "index.log";
+
+    private final Path directorio;
+
+    private final long maxBytes;
+
+    /**
+     * Indice en memoria, en orden de ultimo acceso (el primero es el menos usado)
+     */
+    private final LinkedHashMap<String, Factura> indice = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Numero de claves que apuntan a cada PDF (dos claves pueden tener el mismo contenido)
+     */
+    private final Map<String, Integer> referencias = new HashMap<>();
+
+    /**
+     * Numero de reservas de cada PDF (hash) que se esta leyendo
+     */
+    private final Map<String, Integer> reservas = new HashMap<>();
+
+    /**
+     * PDF que ya no referencia ninguna clave pero siguen reservados: se borran al liberarlos
+     */
+    private final Set<String> porBorrar = new HashSet<>();
+
+    private long bytes;
+
+    private BufferedWriter registro;
+
+    @Autowired
+    public FacturaCache(FacturaCacheProperties properties) {
+        this.directorio = Paths.get(properties.getLocation());
+        this.maxBytes = properties.getMaxBytes();
+    }
+
+    /**
+     * Construye la clave de una factura
+     *
+     * @param formato formato o generador de la factura (p.ej. "html" o "itext")
+     * @param compraId ID de la Compra
+     * @param version version de la plantilla o del generador
+     */
+    public static String clave(String formato, long compraId, String version) {
+        return formato + "-" + compraId + "-" + version;
+    }
+
+    /**
+     * Relee el indice persistido (descartando las entradas cuyo PDF ya no existe),
+     * lo reescribe compactado y borra los PDF y temporales que no referencia nadie
+     */
+    @PostConstruct
+    public synchronized void init() throws IOException {
+        Files.createDirectories(directorio);
+        Path ficheroRegistro = directorio.resolve(REGISTRO);
+        Map<String, String[]> entradas = new LinkedHashMap<>();
+        if (Files.exists(ficheroRegistro)) {
+            try (BufferedReader reader = Files.newBufferedReader(ficheroRegistro, StandardCharsets.UTF_8)) {
+                String linea;
+                while ((linea = reader.readLine()) != null) {
+                    String[] campos = linea.split(" ");
+                    if (campos.length == 3) {
+                        entradas.remove(campos[0]);
+                        entradas.put(campos[0], campos);
+                    }
+                }
+            }
+        }
+        for (String[] campos : entradas.values()) {
+            Path pdf = directorio.resolve(campos[1] + ".pdf");
+            if (Files.exists(pdf)) {
+                anyadir(new Factura(campos[0], campos[1], pdf, Long.parseLong(campos[2])));
+            }
+        }
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(directorio)) {
+            for (Path fichero : ficheros) {
+                String nombre = fichero.getFileName().toString();
+                boolean pdfReferenciado = nombre.endsWith(".pdf") && referencias.containsKey(nombre.substring(0, nombre.length() - 4));
+                if (!nombre.equals(REGISTRO) && !pdfReferenciado) {
+                    Files.deleteIfExists(fichero);
+                }
+            }
+        }
+        Path temporal = directorio.resolve(REGISTRO + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+            for (Factura factura : indice.values()) {
+                escribirEntrada(writer, factura);
+            }
+        }
+        Files.move(temporal, ficheroRegistro, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        registro = Files.newBufferedWriter(ficheroRegistro, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        desalojar();
+        log.info("Cache de facturas: {} facturas, {} bytes", indice.size(), bytes);
+    }
+
+    @PreDestroy
+    public synchronized void destroy() throws IOException {
+        if (registro != null) {
+            registro.close();
+        }
+    }
+
+    /**
+     * Busca una factura ya generada
+     *
+     * @return la factura, o null si no esta en la cache
+     */
+    public synchronized Factura get(String clave) {
+        return indice.get(clave);
+    }
+
+    /**
+     * Busca una factura ya generada y la reserva para leer su PDF: aunque otro put() la
+     * desaloje, el PDF no se borra hasta llamar a {@link #liberar(Factura)}. Si alguien
+     * borro el PDF por fuera, la entrada se descarta y se devuelve null
+     *
+     * @return la factura reservada, o null si no esta en la cache
+     */
+    public synchronized Factura reservar(String clave) {
+        Factura factura = indice.get(clave);
+        if (factura == null) {
+            return null;
+        }
+        if (!Files.exists(factura.getPath())) {
+            log.warn("La factura {} ya no esta en disco ({}), se vuelve a generar", clave, factura.getPath());
+            indice.remove(clave);
+            soltar(factura);
+            return null;
+        }
+        reservas.merge(factura.getHash(), 1, Integer::sum);
+        return factura;
+    }
+
+    /**
+     * Libera una reserva de {@link #reservar(String)} y borra el PDF si se desalojo mientras
+     * estaba reservado
+     */
+    public synchronized void liberar(Factura factura) {
+        Integer quedan = reservas.merge(factura.getHash(), -1, Integer::sum);
+        if (quedan != null && quedan > 0) {
+            return;
+        }
+        reservas.remove(factura.getHash());
+        if (porBorrar.remove(factura.getHash())) {
+            borrar(factura);
+        }
+    }
+
+    /**
+     * Genera una factura directamente en la cache (a un temporal, calculando su SHA-256
+     * mientras se escribe) y la registra con la clave indicada
+     *
+     * @param clave clave de la factura (ver {@link #clave(String, long, String)})
+     * @param generador escribe el PDF en el OutputStream que recibe
+     * @return la factura almacenada
+     */
+    public Factura put(String clave, Generador generador) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Path temporal = Files.createTempFile(directorio, "factura", ".tmp");
+        try {
+            try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal)), sha256)) {
+                generador.escribir(out);
+            }
+            String hash = new String(Hex.encode(sha256.digest()));
+            Path pdf = directorio.resolve(hash + ".pdf");
+            synchronized (this) {
+                if (referencias.containsKey(hash) || porBorrar.remove(hash)) { // EL PDF YA ESTA EN DISCO
+                    Files.delete(temporal);
+                } else {
+                    Files.move(temporal, pdf, StandardCopyOption.ATOMIC_MOVE);
+                }
+                Factura factura = new Factura(clave, hash, pdf, Files.size(pdf));
+                Factura anterior = indice.remove(clave);
+                anyadir(factura);
+                if (anterior != null) {
+                    soltar(anterior);
+                }
+                escribirEntrada(registro, factura);
+                registro.flush();
+                desalojar();
+                return factura;
+            }
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Genera un PDF en un temporal del directorio de la cache SIN registrarlo: las
+     * exportaciones no desalojan asi las facturas que se estan usando. Lo borra quien lo
+     * pide; los que deje un corte se borran al arrancar (init)
+     *
+     * @param generador escribe el PDF en el OutputStream que recibe
+     * @return el temporal con el PDF
+     */
+    public Path generarTemporal(Generador generador) throws IOException {
+        Path temporal = Files.createTempFile(directorio, "exportacion", ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporal))) {
+                generador.escribir(out);
+            }
+            return temporal;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporal);
+            throw e;
+        }
+    }
+
+    public synchronized int size() {
+        return indice.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private void anyadir(Factura factura) {
+        indice.put(factura.getClave(), factura);
+        if (referencias.merge(factura.getHash(), 1, Integer::sum) == 1) {
+            bytes += factura.getTamanyo();
+        }
+    }
+
+    /**
+     * Suelta la referencia de una factura (ya quitada del indice) a su PDF, y borra
+     * el PDF del disco si ninguna otra clave lo usa (o lo deja para cuando se libere,
+     * si esta reservado)
+     */
+    private void soltar(Factura factura) {
+        if (referencias.merge(factura.getHash(), -1, Integer::sum) == 0) {
+            referencias.remove(factura.getHash());
+            bytes -= factura.getTamanyo();
+            if (reservas.containsKey(factura.getHash())) {
+                porBorrar.add(factura.getHash());
+            } else {
+                borrar(factura);
+            }
+        }
+    }
+
+    private void borrar(Factura factura) {
+        try {
+            Files.deleteIfExists(factura.getPath());
+        } catch (IOException e) {
+            log.warn("No se pudo borrar la factura {} de la cache", factura.getPath(), e);
+        }
+    }
+
+    /**
+     * Descarta las facturas menos usadas hasta quedar por debajo del limite (el PDF
+     * recien generado se conserva aunque por si solo supere el limite)
+     */
+    private void desalojar() {
+        Iterator<Factura> menosUsadas = indice.values().iterator();
+        while (bytes > maxBytes && indice.size() > 1) {
+            Factura factura = menosUsadas.next();
+            menosUsadas.remove();
+            soltar(factura);
+        }
+    }
+
+    private static void escribirEntrada(BufferedWriter writer, Factura factura) throws IOException {
+        writer.write(factura.getClave() + " " + factura.getHash() + " " + factura.getTamanyo());
+        writer.newLine();
+    }
+
+    /**
+     * Escribe un PDF en un OutputStream
+     */
+    @FunctionalInterface
+    public interface Generador {
+        void escribir(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * Factura almacenada en la cache
+     */
+    public static final class Factura {
+
+        private final String clave;
+
+        private final String hash;
+
+        private final Path path;
+
+        private final long tamanyo;
+
+        Factura(String clave, String hash, Path path, long tamanyo) {
+            this.clave = clave;
+            this.hash = hash;
+            this.path = path;
+            this.tamanyo = tamanyo;
+        }
+
+        public String getClave() {
+            return clave;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getTamanyo() {
+            return tamanyo;
+        }
+
+        /**
+         * ETag de la factura (su SHA-256 entre comillas)
+         */
+        public String getEtag() {
+            return "\"" + hash + "\"";
+        }
+    }
+
+}
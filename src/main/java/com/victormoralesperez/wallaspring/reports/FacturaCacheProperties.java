@@ -0,0 +1,25 @@
+package com.victormoralesperez.wallaspring.reports;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuracion de la cache en disco de las facturas en PDF (reports.cache.*)
+ */
+@ConfigurationProperties(prefix = "reports.cache")
+@Getter @Setter
+public class FacturaCacheProperties {
+
+    /**
+     * Directorio donde se guardan los PDF generados (uno por contenido, nombrado por su SHA-256)
+     */
+    private String location = "invoice-cache";
+
+    /**
+     * Tamanyo maximo que ocupan los PDF en disco. Al superarlo se descartan las facturas
+     * que hace mas tiempo que no se piden.
+     */
+    private long maxBytes = 256L * 1024 * 1024;
+
+}
@@ -5,8 +5,8 @@ import com.itextpdf.text.pdf.PdfPTable;
 import com.itextpdf.text.pdf.PdfWriter;
 import com.victormoralesperez.wallaspring.models.Compra;
 import com.victormoralesperez.wallaspring.models.Producto;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -15,19 +15,41 @@ import java.util.List;
 public class GeneradorPDF {
 
     /**
-     * Factura en PDF, falta mejorar el formato
+     * Version del formato de la factura. Hay que incrementarla al cambiar factura2PDF
+     * para que no se sirvan facturas ya generadas con el formato anterior.
+     */
+    public static final String VERSION = "1";
+
+    private static final int FILAS_POR_BLOQUE = 50;
+
+    /**
+     * Memoria que se estima que ocupa generar la factura de una Compra con
+     * el numero de productos indicado (ver LimitadorPDF)
+     *
+     * @param productos numero de productos de la Compra
+     * @return bytes estimados
+     */
+    public static long estimarMemoria(int productos) {
+        return 256 * 1024 + productos * 2048L;
+    }
+
+    /**
+     * Factura en PDF, falta mejorar el formato.
+     * El PDF se escribe directamente en el OutputStream segun se genera, sin copias
+     * en memoria del documento completo. El OutputStream no se cierra.
      *
      * @param compra
      * @param productos
      * @param total
-     * @return
+     * @param out destino del PDF
+     * @throws IOException si falla la generacion o la escritura
      */
-    public static ByteArrayInputStream factura2PDF(Compra compra, List<Producto> productos, Float total) {
+    public static void factura2PDF(Compra compra, List<Producto> productos, Float total, OutputStream out) throws IOException {
         Document documento = new Document();
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
             // Ahora sería darle formato con todo esto
-            PdfWriter.getInstance(documento, out);
+            PdfWriter writer = PdfWriter.getInstance(documento, out);
+            writer.setCloseStream(false);
             documento.open();
             documento.add(new Paragraph("Factura: " + compra.getId(),
                     FontFactory.getFont("arial",   			// fuente
@@ -40,13 +62,21 @@ public class GeneradorPDF {
             documento.add(new Paragraph("Listados de productos:"));
             documento.add(new Paragraph(""));
 
+            // La tabla se va volcando al documento cada FILAS_POR_BLOQUE filas (LargeElement),
+            // para no tener en memoria todas las filas de una Compra grande
             PdfPTable tabla = new PdfPTable(2);
+            tabla.setComplete(false);
             tabla.addCell("Producto");
             tabla.addCell("Precio");
+            int filas = 0;
             for (Producto producto : productos) {
                 tabla.addCell(producto.getNombre());
                 tabla.addCell(Float.toString(producto.getPrecio()) + " €");
+                if (++filas % FILAS_POR_BLOQUE == 0) {
+                    documento.add(tabla);
+                }
             }
+            tabla.setComplete(true);
             documento.add(tabla);
 
             documento.add(new Paragraph("Total: " + total + " €",
@@ -58,11 +88,8 @@ public class GeneradorPDF {
             documento.close();
             
         } catch (DocumentException ex) {
-        	System.out.println("EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE");
-        	System.out.println(ex);
+            throw new IOException("NO SE PUDO GENERAR LA FACTURA " + compra.getId(), ex);
         }
-
-        return new ByteArrayInputStream(out.toByteArray());
     }
 
 }
@@ -1,7 +1,7 @@
 package com.victormoralesperez.wallaspring.reports;
 
-import org.springframework.core.io.InputStreamResource;
-
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 
 /**
@@ -11,9 +11,51 @@ import java.util.Map;
 public interface Html2PdfService {
 
     /**
+     * Renderiza la plantilla de la factura con los datos indicados.
+     * Se llama en el hilo de la peticion, donde se pueden leer las Entidades.
+     *
      * @param data {@link Map}
-     * @return a stream {@link InputStreamResource}
+     * @return el HTML de la factura
+     */
+    String html(Map<String, Object> data);
+
+    /**
+     * Version de la plantilla de la factura (cambia si cambia la plantilla).
+     * Sirve para invalidar las facturas ya generadas.
+     *
+     * @return la version
+     */
+    String version();
+
+    /**
+     * Convierte a PDF un HTML ya renderizado, escribiendolo directamente en el
+     * OutputStream (por ejemplo, el de la respuesta), sin ficheros intermedios.
+     * El OutputStream no se cierra.
+     *
+     * @param html         HTML de la factura
+     * @param outputStream destino del PDF
+     * @throws IOException si falla la conversion o la escritura
+     */
+    void html2Pdf(String html, OutputStream outputStream) throws IOException;
+
+    /**
+     * Memoria que se estima que ocupa convertir a PDF un HTML (ver LimitadorPDF).
+     * El arbol del HTML y la maquetacion ocupan decenas de veces lo que el propio HTML.
+     *
+     * @param html HTML de la factura
+     * @return bytes estimados
+     */
+    default long estimarMemoria(String html) {
+        return 1024 * 1024 + html.length() * 40L;
+    }
+
+    /**
+     * @param data         {@link Map}
+     * @param outputStream destino del PDF
+     * @throws IOException si falla la conversion o la escritura
      */
-    InputStreamResource html2PdfGenerator(Map<String, Object> data);
+    default void html2PdfGenerator(Map<String, Object> data, OutputStream outputStream) throws IOException {
+        html2Pdf(html(data), outputStream);
+    }
 
 }
@@ -1,45 +1,123 @@
 package com.victormoralesperez.wallaspring.reports;
 
+import com.itextpdf.html2pdf.ConverterProperties;
 import com.itextpdf.html2pdf.HtmlConverter;
+import com.itextpdf.html2pdf.resolver.font.DefaultFontProvider;
+import com.itextpdf.layout.font.FontProvider;
+import com.itextpdf.layout.font.FontSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.security.crypto.codec.Hex;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 
 /**
  * Otra forma de hacer PDFs es usando un servicio
  * Implementación del servicio.
  * Lo unico que hace es que recibe un Map de claves valor que se lo pasa a la plantilla
+ * y convierte el HTML resultante en PDF escribiendolo directamente en el OutputStream
+ * que le pasan (sin pasar por disco, asi que se pueden generar varias facturas a la vez)
+ *
+ * Las fuentes se cargan UNA sola vez al arrancar (FontSet compartido, de solo lectura)
+ * y se hace una conversion de calentamiento, de modo que la primera factura no paga
+ * la carga de fuentes y clases de iText. El FontProvider no es seguro entre hilos,
+ * asi que cada conversion crea el suyo (barato) sobre el FontSet compartido.
  */
 @Service
 public class Html2PdfServiceImpl implements Html2PdfService {
 
+    private static final Logger log = LoggerFactory.getLogger(Html2PdfServiceImpl.class);
+
+    private static final String PLANTILLA = "app/pdf/facturapdf";
+
     @Autowired
     TemplateEngine templateEngine;
 
-    @Override
-    public InputStreamResource html2PdfGenerator(Map<String, Object> data) {
+    /**
+     * Fuentes (estandar de PDF y las libres que incluye html2pdf) cargadas al arrancar
+     */
+    private FontSet fuentes;
+
+    /**
+     * Familia de fuentes por defecto del DefaultFontProvider de html2pdf
+     */
+    private String familiaPorDefecto;
+
+    /**
+     * Version de la plantilla: los primeros caracteres del SHA-256 de su contenido
+     */
+    private String version;
+
+    public Html2PdfServiceImpl() {
+    }
+
+    public Html2PdfServiceImpl(TemplateEngine templateEngine) {
+        this.templateEngine = templateEngine;
+    }
 
+    /**
+     * Carga las fuentes y calienta el conversor con un documento minimo
+     */
+    @PostConstruct
+    public void init() {
+        long inicio = System.nanoTime();
+        FontProvider fontProvider = new DefaultFontProvider(true, true, false);
+        fuentes = fontProvider.getFontSet();
+        familiaPorDefecto = fontProvider.getDefaultFontFamily();
+        version = hashPlantilla();
+        try {
+            html2Pdf("<html><body><p>WallaSpring</p></body></html>", new ByteArrayOutputStream());
+        } catch (IOException e) {
+            log.warn("No se pudo calentar el conversor HTML a PDF", e);
+        }
+        log.info("Conversor HTML a PDF preparado en {} ms", (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    @Override
+    public String html(Map<String, Object> data) {
         Context context = new Context();
         context.setVariables(data);
         // Dirección de la plantilla
-        final String html = templateEngine.process("app/pdf/facturapdf", context);
-        final String DEST = "target/factura.pdf";
+        return templateEngine.process(PLANTILLA, context);
+    }
 
-        // Aquí convertimos el HTML que hemos renderizado en base a la plantilla y parametros en PDF
-        // y lo devolvemos
+    @Override
+    public String version() {
+        return version;
+    }
+
+    @Override
+    public void html2Pdf(String html, OutputStream outputStream) throws IOException {
+        ConverterProperties properties = new ConverterProperties()
+                .setFontProvider(new FontProvider(fuentes, familiaPorDefecto));
+        // Aquí convertimos el HTML que hemos renderizado en base a la plantilla y parametros en PDF.
+        // iText cierra el stream al terminar el documento: lo protegemos para que lo cierre quien lo abrio
+        HtmlConverter.convertToPdf(html, StreamUtils.nonClosing(outputStream), properties);
+    }
+
+    private static String hashPlantilla() {
         try {
-            HtmlConverter.convertToPdf(html, new FileOutputStream(DEST)); //POR ESTO NO FUNCIONA EL GENERADOR DE PDF EN DESPLIEGUE
-            return new InputStreamResource(new FileInputStream(DEST));
-        } catch (IOException e) {
-        	System.err.println(e.toString());   
-            return null;
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            try (InputStream plantilla = new ClassPathResource("templates/" + PLANTILLA + ".html").getInputStream()) {
+                StreamUtils.drain(new DigestInputStream(plantilla, sha256));
+            }
+            return new String(Hex.encode(sha256.digest())).substring(0, 12);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No se pudo leer la plantilla de la factura", e);
         }
     }
 
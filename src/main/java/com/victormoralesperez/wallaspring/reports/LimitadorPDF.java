@@ -0,0 +1,159 @@
+package com.victormoralesperez.wallaspring.reports;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compartimento estanco (bulkhead) para la generacion de PDF. Generar un PDF ocupa
+ * bastante memoria mientras dura, asi que se limita tanto el numero de PDF que se
+ * generan a la vez (reports.render.max-concurrent) como la memoria que se estima que
+ * ocupan entre todos (reports.render.memory-budget).
+ *
+ * - Las peticiones web entran con {@link #entrar(long)}: si no hay hueco en
+ *   reports.render.max-wait se lanza {@link RenderizadoSaturadoException} (503).
+ * - Los trabajos en segundo plano entran con {@link #esperar(long)}, que espera el
+ *   tiempo que haga falta (ya estan limitados por su propio pool).
+ *
+ * La memoria se reparte por orden de llegada, para que una factura grande no se
+ * quede esperando siempre detras de las pequenyas. Una estimacion mayor que todo el
+ * presupuesto se recorta al presupuesto (esa factura se genera sola).
+ */
+@Component
+public class LimitadorPDF {
+
+    private static final Logger log = LoggerFactory.getLogger(LimitadorPDF.class);
+
+    private final int maxConcurrentes;
+
+    /**
+     * Presupuesto de memoria en KB (los permisos de un Semaphore son int)
+     */
+    private final int memoriaKb;
+
+    private final long esperaNanos;
+
+    private final int retryAfter;
+
+    private final Semaphore huecos;
+
+    private final Semaphore memoria;
+
+    private final AtomicLong rechazados = new AtomicLong();
+
+    @Autowired
+    public LimitadorPDF(LimitadorPDFProperties properties) {
+        this.maxConcurrentes = properties.getMaxConcurrent();
+        this.memoriaKb = (int) Math.min(Integer.MAX_VALUE, Math.max(1, properties.getMemoryBudget().toKilobytes()));
+        this.esperaNanos = properties.getMaxWait().toNanos();
+        this.retryAfter = properties.getRetryAfter();
+        this.huecos = new Semaphore(maxConcurrentes, true);
+        this.memoria = new Semaphore(memoriaKb, true);
+    }
+
+    /**
+     * Entra a generar un PDF, esperando como mucho reports.render.max-wait
+     *
+     * @param bytesEstimados memoria que se estima que ocupara la generacion
+     * @return el permiso, que hay que cerrar al terminar (try-with-resources)
+     * @throws RenderizadoSaturadoException si no hay hueco o memoria a tiempo
+     */
+    public Permiso entrar(long bytesEstimados) {
+        int kb = kb(bytesEstimados);
+        long limite = System.nanoTime() + esperaNanos;
+        try {
+            if (!huecos.tryAcquire(esperaNanos, TimeUnit.NANOSECONDS)) {
+                throw saturado("NO HAY HUECO PARA GENERAR OTRO PDF");
+            }
+            if (!memoria.tryAcquire(kb, Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                huecos.release();
+                throw saturado("NO HAY MEMORIA PARA GENERAR OTRO PDF");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw saturado("GENERACION DEL PDF INTERRUMPIDA");
+        }
+        return new Permiso(kb);
+    }
+
+    /**
+     * Entra a generar un PDF, esperando lo que haga falta
+     *
+     * @param bytesEstimados memoria que se estima que ocupara la generacion
+     * @return el permiso, que hay que cerrar al terminar (try-with-resources)
+     * @throws InterruptedException si se interrumpe la espera
+     */
+    public Permiso esperar(long bytesEstimados) throws InterruptedException {
+        int kb = kb(bytesEstimados);
+        huecos.acquire();
+        try {
+            memoria.acquire(kb);
+        } catch (InterruptedException e) {
+            huecos.release();
+            throw e;
+        }
+        return new Permiso(kb);
+    }
+
+    /**
+     * @return numero de PDF que se estan generando
+     */
+    public int getEnCurso() {
+        return maxConcurrentes - huecos.availablePermits();
+    }
+
+    /**
+     * @return memoria estimada que ocupan los PDF que se estan generando, en bytes
+     */
+    public long getMemoriaEnUso() {
+        return (memoriaKb - (long) memoria.availablePermits()) * 1024;
+    }
+
+    /**
+     * @return numero de peticiones rechazadas con 503 desde que arranco la Aplicacion
+     */
+    public long getRechazados() {
+        return rechazados.get();
+    }
+
+    private int kb(long bytes) {
+        long kb = (Math.max(0, bytes) + 1023) / 1024;
+        return (int) Math.max(1, Math.min(memoriaKb, kb));
+    }
+
+    private RenderizadoSaturadoException saturado(String mensaje) {
+        long total = rechazados.incrementAndGet();
+        log.debug("{} (en curso: {}, memoria en uso: {} bytes, rechazados: {})", mensaje, getEnCurso(), getMemoriaEnUso(), total);
+        return new RenderizadoSaturadoException(mensaje, retryAfter);
+    }
+
+    /**
+     * Permiso para generar un PDF. Al cerrarlo se devuelven el hueco y la memoria.
+     */
+    public final class Permiso implements AutoCloseable {
+
+        private final int kb;
+
+        private final AtomicBoolean cerrado = new AtomicBoolean();
+
+        private Permiso(int kb) {
+            this.kb = kb;
+        }
+
+        @Override
+        public void close() {
+            if (cerrado.compareAndSet(false, true)) {
+                memoria.release(kb);
+                huecos.release();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.victormoralesperez.wallaspring.reports;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuracion del limite de generacion de PDF en paralelo (reports.render.*)
+ */
+@ConfigurationProperties(prefix = "reports.render")
+@Getter @Setter
+public class LimitadorPDFProperties {
+
+    /**
+     * Numero maximo de PDF que se generan a la vez
+     */
+    private int maxConcurrent = 4;
+
+    /**
+     * Memoria (estimada) que pueden ocupar entre todos los PDF que se generan a la vez
+     */
+    private DataSize memoryBudget = DataSize.ofMegabytes(64);
+
+    /**
+     * Tiempo que espera una peticion a que haya hueco antes de responder 503
+     */
+    private Duration maxWait = Duration.ofMillis(500);
+
+    /**
+     * Segundos que se indican al cliente en el Retry-After del 503
+     */
+    private int retryAfter = 5;
+
+}
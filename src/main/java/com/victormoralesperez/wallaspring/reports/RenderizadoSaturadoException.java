@@ -0,0 +1,23 @@
+package com.victormoralesperez.wallaspring.reports;
+
+/**
+ * No hay hueco (o memoria) para generar otro PDF en este momento.
+ * Se responde 503 con Retry-After en lugar de arriesgarse a quedarse sin memoria.
+ */
+public class RenderizadoSaturadoException extends RuntimeException {
+
+    private final int retryAfter;
+
+    public RenderizadoSaturadoException(String message, int retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return segundos tras los que el cliente puede volver a intentarlo
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+}
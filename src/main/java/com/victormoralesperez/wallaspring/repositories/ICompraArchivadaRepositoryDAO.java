@@ -0,0 +1,76 @@
+package com.victormoralesperez.wallaspring.repositories;
+
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import com.victormoralesperez.wallaspring.models.CompraArchivada;
+import com.victormoralesperez.wallaspring.models.Usuario;
+
+/**
+ * INTERFAZ ICompraArchivadaRepository
+ * -------------------------------------------------------------------------------------------
+ * Repositorio de Operaciones DAO asociadas a la Entidad COMPRA ARCHIVADA (Compras antiguas
+ * movidas a la Tabla compra_archivada). Solo lo usan el archivado y las consultas del
+ * historico.
+ * 
+ * @author Victor Morales Perez
+ *
+ */
+
+public interface ICompraArchivadaRepositoryDAO extends JpaRepository<CompraArchivada, Long> {
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que Busca todas las COMPRAS archivadas de un USUARIO
+	 * 
+	 * @param comprador
+	 * @return
+	 */
+	@EntityGraph(attributePaths = "comprador")
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+	List<CompraArchivada> findByComprador(Usuario comprador);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Igual que ICompraRepositoryDAO.findIds, sobre las COMPRAS archivadas
+	 * 
+	 * @param comprador
+	 * @param desde
+	 * @param hasta
+	 * @param despuesDe
+	 * @param pageable
+	 * @return
+	 */
+	@Query("select c.id from CompraArchivada c where c.comprador = :comprador and c.fechaCompra >= :desde"
+			+ " and c.fechaCompra < :hasta and c.id > :despuesDe order by c.id")
+	List<Long> findIds(@Param("comprador") Usuario comprador, @Param("desde") Date desde,
+			@Param("hasta") Date hasta, @Param("despuesDe") long despuesDe, Pageable pageable);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Copia a la Tabla de archivo las COMPRAS indicadas, con el mismo ID. Despues hay que
+	 * borrarlas de la Tabla Compra (en la misma transaccion)
+	 * 
+	 * @param ids
+	 * @return COMPRAS copiadas
+	 */
+	@Modifying
+	@Query(nativeQuery = true, value = "insert into compra_archivada (id, fecha_compra, comprador_id)"
+			+ " select id, fecha_compra, comprador_id from compra where id in (:ids)")
+	int archivar(@Param("ids") Collection<Long> ids);
+
+}
@@ -1,7 +1,18 @@
 package com.victormoralesperez.wallaspring.repositories;
 
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import javax.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import com.victormoralesperez.wallaspring.models.Compra;
 import com.victormoralesperez.wallaspring.models.Usuario;
@@ -32,11 +43,59 @@ public interface ICompraRepositoryDAO extends JpaRepository<Compra, Long> {
 	/**
 	 * METODO
 	 * ---------------------------------------------------------------------------------------
-	 * Metodo que Busca en la Base de Datos todas las COMPRAS asociadas a un USUARIO
+	 * Metodo que Busca en la Base de Datos todas las COMPRAS asociadas a un USUARIO,
+	 * con el comprador en la misma SELECT y como Entidades de solo lectura
 	 * 
 	 * @param propietario
 	 * @return
 	 */
+	@EntityGraph(attributePaths = "comprador")
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
 	List<Compra> findByComprador(Usuario comprador);
 
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que Busca los IDs (solo los IDs, no las Entidades) de las COMPRAS de un
+	 * USUARIO realizadas en [desde, hasta), ordenados y a partir del ID indicado
+	 * (paginacion por clave: cada pagina cuesta lo mismo, sin OFFSET)
+	 * 
+	 * @param comprador
+	 * @param desde
+	 * @param hasta
+	 * @param despuesDe
+	 * @param pageable
+	 * @return
+	 */
+	@Query("select c.id from Compra c where c.comprador = :comprador and c.fechaCompra >= :desde"
+			+ " and c.fechaCompra < :hasta and c.id > :despuesDe order by c.id")
+	List<Long> findIds(@Param("comprador") Usuario comprador, @Param("desde") Date desde,
+			@Param("hasta") Date hasta, @Param("despuesDe") long despuesDe, Pageable pageable);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que Busca los IDs de las COMPRAS realizadas antes de una fecha, de la mas
+	 * antigua a la mas nueva (las que toca archivar, ver ArchivoServicioImpl)
+	 * 
+	 * @param limite
+	 * @param pageable
+	 * @return
+	 */
+	@Query("select c.id from Compra c where c.fechaCompra < :limite order by c.fechaCompra, c.id")
+	List<Long> findIdsAnteriores(@Param("limite") Date limite, Pageable pageable);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Borra de una vez las COMPRAS indicadas (sin cargarlas). Sus PRODUCTOS ya tienen
+	 * que estar borrados
+	 * 
+	 * @param ids
+	 * @return COMPRAS borradas
+	 */
+	@Modifying
+	@Query("delete from Compra c where c.id in :ids")
+	int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
 }
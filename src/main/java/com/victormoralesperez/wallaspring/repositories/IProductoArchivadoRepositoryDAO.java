@@ -0,0 +1,97 @@
+package com.victormoralesperez.wallaspring.repositories;
+
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+import java.util.Collection;
+import java.util.List;
+import javax.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import com.victormoralesperez.wallaspring.models.ProductoArchivado;
+import com.victormoralesperez.wallaspring.models.Usuario;
+
+/**
+ * INTERFAZ IProductoArchivadoRepository
+ * -------------------------------------------------------------------------------------------
+ * Repositorio de Operaciones DAO asociadas a la Entidad PRODUCTO ARCHIVADO (Productos
+ * vendidos hace tiempo, movidos con su Compra a la Tabla producto_archivado). Solo lo usan
+ * el archivado y las consultas del historico.
+ * 
+ * @author Victor Morales Perez
+ *
+ */
+
+public interface IProductoArchivadoRepositoryDAO extends JpaRepository<ProductoArchivado, Long> {
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que Busca los PRODUCTOS de una COMPRA archivada
+	 * 
+	 * @param compraId
+	 * @return
+	 */
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+	List<ProductoArchivado> findByCompraId(long compraId);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que Busca todos los PRODUCTOS archivados que ha comprado un USUARIO
+	 * 
+	 * @param comprador
+	 * @return
+	 */
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+	List<ProductoArchivado> findByCompraComprador(Usuario comprador);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que suma el precio de los PRODUCTOS archivados que ha vendido un USUARIO
+	 * 
+	 * @param vendedor
+	 * @return la suma, o null si no tiene ninguno
+	 */
+	@Query("select sum(p.precio) from ProductoArchivado p where p.vendedor = :vendedor")
+	Double sumPrecioByVendedor(@Param("vendedor") Usuario vendedor);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Igual que IProductoRepositoryDAO.findImagenes: las imagenes de los PRODUCTOS
+	 * archivados siguen en uso. Tambien se pagina por clave.
+	 * 
+	 * @param ultimo ID de la ultima fila leida (0 para empezar)
+	 * @param pageable
+	 * @return
+	 */
+	@Query("select p.id as id, p.imagen as url from ProductoArchivado p where p.imagen is not null and p.id > :ultimo order by p.id")
+	List<ReferenciaFichero> findImagenes(@Param("ultimo") long ultimo, Pageable pageable);
+
+	long countByImagenIsNotNull();
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Copia a la Tabla de archivo los PRODUCTOS de las COMPRAS indicadas, con el mismo ID.
+	 * Las COMPRAS tienen que estar ya archivadas, y despues hay que borrar los PRODUCTOS
+	 * de la Tabla Producto (en la misma transaccion)
+	 * 
+	 * @param idsCompras
+	 * @return PRODUCTOS copiados
+	 */
+	@Modifying
+	@Query(nativeQuery = true, value = "insert into producto_archivado (id, nombre, precio, imagen, vendedor_id, compra_id)"
+			+ " select id, nombre, precio, imagen, vendedor_id, compra_id from producto where compra_id in (:ids)")
+	int archivar(@Param("ids") Collection<Long> idsCompras);
+
+}
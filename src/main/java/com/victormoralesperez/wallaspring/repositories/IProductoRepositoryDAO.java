@@ -1,8 +1,18 @@
 package com.victormoralesperez.wallaspring.repositories;
 
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+import java.util.Collection;
 import java.util.List;
+import javax.persistence.QueryHint;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import com.victormoralesperez.wallaspring.models.Compra;
 import com.victormoralesperez.wallaspring.models.Producto;
@@ -28,9 +38,41 @@ public interface IProductoRepositoryDAO extends JpaRepository<Producto, Long> {
 	 * otras. Para ello, implementamos Consultas de Spring Data JPA Derivadas del
 	 * Nombre del Metodo, cuya implementacion en SQL y mapeo Objeto-Relacional 
 	 * es llevado a cabo por JPA de manera invisible al programador
+	 * 
+	 * Las consultas que alimentan las Vistas traen en la misma SELECT (@EntityGraph)
+	 * el vendedor y la compra (con su comprador) que pintan las plantillas, en lugar
+	 * de una SELECT mas por cada PRODUCTO. Las que solo se usan para leer cargan
+	 * ademas los PRODUCTOS como de solo lectura (HINT_READONLY): Hibernate no guarda
+	 * una copia de su estado para comprobar al hacer flush si han cambiado.
 	 * -----------------------------------------------------------------------------
 	 */
 
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * findAll() de JpaRepository, trayendo el vendedor y la compra en la misma SELECT
+	 * 
+	 * @return List de PRODUCTOS
+	 */
+
+	@Override
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	List<Producto> findAll();
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * findAllById() de JpaRepository, trayendo el vendedor y la compra en la misma
+	 * SELECT. Sin HINT_READONLY: finalizarCompra modifica los PRODUCTOS que devuelve.
+	 * 
+	 * @param ids
+	 * @return List de PRODUCTOS
+	 */
+
+	@Override
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	List<Producto> findAllById(Iterable<Long> ids);
+
 	/**
 	 * METODO
 	 * ---------------------------------------------------------------------------------------
@@ -41,6 +83,8 @@ public interface IProductoRepositoryDAO extends JpaRepository<Producto, Long> {
 	 * @return List de PRODUCTOS
 	 */
 	
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
 	List<Producto> findByVendedor(Usuario usuarioVendedor);
 
 	/**
@@ -53,31 +97,41 @@ public interface IProductoRepositoryDAO extends JpaRepository<Producto, Long> {
 	 * @return
 	 */
 	
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
 	List<Producto> findByCompra(Compra compra);
 
 	/**
 	 * METODO
 	 * ---------------------------------------------------------------------------------------
-	 * Metodo que Busca en la Base de Datos todos los PRODUCTOS sin COMPRA asociada. 
-	 * En SQL filtra por WHERE Compra = null (Que aun no han sido Vendidos)
+	 * Metodo que Busca en la Base de Datos todos los PRODUCTOS en un Estado (el catalogo:
+	 * DISPONIBLE), ordenados por id.
+	 * En SQL filtra por WHERE estado = ... ORDER BY id, que es un rango del indice
+	 * idx_producto_estado (estado, id)
 	 * 
+	 * @param estado
 	 * @return List de PRODUCTOS
 	 */
 	
-	List<Producto> findByCompraIsNull();
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+	List<Producto> findByEstadoOrderById(Producto.Estado estado);
 
 	/**
 	 * METODO
 	 * ---------------------------------------------------------------------------------------
 	 * Metodo que Busca en la Base de Datos, filtrando por el nombre del producto, 
-	 * los PRODUCTOS sin COMPRA asociada (Que aun no han sido Vendidos).
-	 * En SQL filtra por WHERE nombre like... AND compra= null
+	 * los PRODUCTOS en un Estado (el catalogo: DISPONIBLE), ordenados por id.
+	 * En SQL filtra por WHERE nombre like... AND estado = ... ORDER BY id
 	 * 
 	 * @param nombre
+	 * @param estado
 	 * @return List de PRODUCTOS
 	 */
 	
-	List<Producto> findByNombreContainsIgnoreCaseAndCompraIsNull(String nombre);
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+	List<Producto> findByNombreContainsIgnoreCaseAndEstadoOrderById(String nombre, Producto.Estado estado);
 
 	/**
 	 * METODO
@@ -92,6 +146,87 @@ public interface IProductoRepositoryDAO extends JpaRepository<Producto, Long> {
 	 * @return
 	 */
 	
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
 	List<Producto> findByNombreContainsIgnoreCaseAndVendedor(String nombre, Usuario vendedor);
 
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que Busca en la Base de Datos todos los PRODUCTOS que ha comprado un
+	 * USUARIO, en todas sus COMPRAS a la vez.
+	 * En SQL filtra por WHERE compra.comprador = ...
+	 * 
+	 * @param comprador
+	 * @return List de PRODUCTOS
+	 */
+	
+	@EntityGraph(attributePaths = { "vendedor", "compra.comprador" })
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+	List<Producto> findByCompraComprador(Usuario comprador);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que devuelve, por paginas, SOLO el ID y la URL de las imagenes de los
+	 * PRODUCTOS (sin cargar las entidades). Lo usa OrphanedUploadCollector para saber que
+	 * ficheros del almacen siguen referenciados.
+	 * Se pagina por clave: cada pagina empieza despues del ID de la ultima fila de la
+	 * anterior, y el Pageable solo pone el tamanyo. Con OFFSET, un PRODUCTO borrado o
+	 * archivado mientras se recorre la Tabla desplazaria las filas siguientes y una de
+	 * ellas se quedaria sin leer (y su imagen se borraria como huerfana).
+	 * 
+	 * @param ultimo ID de la ultima fila leida (0 para empezar)
+	 * @param pageable
+	 * @return
+	 */
+	
+	@Query("select p.id as id, p.imagen as url from Producto p where p.imagen is not null and p.id > :ultimo order by p.id")
+	List<ReferenciaFichero> findImagenes(@Param("ultimo") long ultimo, Pageable pageable);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que cuenta los PRODUCTOS que tienen imagen.
+	 * En SQL filtra por WHERE imagen IS NOT NULL
+	 * 
+	 * @return
+	 */
+	
+	long countByImagenIsNotNull();
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Borra de una vez (sin cargarlos) los PRODUCTOS de las COMPRAS indicadas. Lo usa el
+	 * archivado despues de copiarlos a la Tabla producto_archivado
+	 * 
+	 * @param idsCompras
+	 * @return PRODUCTOS borrados
+	 */
+	
+	@Modifying
+	@Query("delete from Producto p where p.compra.id in :ids")
+	int deleteByCompraIdIn(@Param("ids") Collection<Long> idsCompras);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Asigna la COMPRA y el estado a los PRODUCTOS indicados que sigan en el estado
+	 * esperado, en un solo UPDATE condicional (sin cargarlos). La comprobacion del estado
+	 * y el cambio son atomicos: dos Compras del mismo PRODUCTO no pueden ganar las dos.
+	 * Antes se vuelca la sesion, para que la COMPRA nueva ya este insertada.
+	 * 
+	 * @param compra
+	 * @param ids
+	 * @param nuevo Estado al que pasan (VENDIDO)
+	 * @param esperado Estado en el que tienen que estar (DISPONIBLE)
+	 * @return PRODUCTOS actualizados
+	 */
+	
+	@Modifying(flushAutomatically = true)
+	@Query("update Producto p set p.compra = :compra, p.estado = :nuevo where p.id in :ids and p.estado = :esperado")
+	int asignarCompra(@Param("compra") Compra compra, @Param("ids") Collection<Long> ids,
+			@Param("nuevo") Producto.Estado nuevo, @Param("esperado") Producto.Estado esperado);
+
 }
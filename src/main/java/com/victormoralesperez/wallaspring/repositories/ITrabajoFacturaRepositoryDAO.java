@@ -0,0 +1,44 @@
+package com.victormoralesperez.wallaspring.repositories;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.victormoralesperez.wallaspring.models.TrabajoFactura;
+
+/**
+ * INTERFAZ ITrabajoFacturaRepositoryDAO
+ * -------------------------------------------------------------------------------------------
+ * Repositorio de Operaciones DAO (CRUD) asociadas a la Entidad TRABAJOFACTURA
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public interface ITrabajoFacturaRepositoryDAO extends JpaRepository<TrabajoFactura, Long> {
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que Busca el trabajo de generacion de la factura de una COMPRA con
+	 * el generador indicado
+	 *
+	 * @param compraId
+	 * @param generador
+	 * @return
+	 */
+	Optional<TrabajoFactura> findByCompraIdAndGenerador(long compraId, TrabajoFactura.Generador generador);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que Busca los trabajos que estan en alguno de los estados indicados
+	 * (los pendientes de terminar al arrancar la Aplicacion)
+	 *
+	 * @param estados
+	 * @return
+	 */
+	List<TrabajoFactura> findByEstadoIn(Collection<TrabajoFactura.Estado> estados);
+
+}
@@ -1,6 +1,14 @@
 package com.victormoralesperez.wallaspring.repositories;
 
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+import java.util.List;
+import javax.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import com.victormoralesperez.wallaspring.models.Usuario;
 
@@ -32,9 +40,40 @@ public interface IUsuarioRepositoryDAO extends JpaRepository<Usuario, Long> {
 	 * ---------------------------------------------------------------------------------------
 	 * Metodo que Busca en la Base de Datos a un USUARIO por su Email (que debe ser UNICO). 
 	 * En SQL filtra con WHERE email=...
+	 * Se carga como Entidad de solo lectura: se consulta en cada peticion (Usuario
+	 * autenticado) y nunca se modifica el objeto devuelto, las ediciones llegan
+	 * como un USUARIO nuevo desde el formulario.
 	 * 
 	 * @param email
 	 * @return
 	 */
+	@QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
 	Usuario findByEmail(String email);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que devuelve, por paginas, SOLO el ID y la URL de los avatares de los
+	 * USUARIOS (sin cargar las entidades). Lo usa OrphanedUploadCollector para saber que
+	 * ficheros del almacen siguen referenciados. Se pagina por clave, como
+	 * IProductoRepositoryDAO.findImagenes.
+	 * 
+	 * @param ultimo ID de la ultima fila leida (0 para empezar)
+	 * @param pageable
+	 * @return
+	 */
+	
+	@Query("select u.id as id, u.avatar as url from Usuario u where u.avatar is not null and u.id > :ultimo order by u.id")
+	List<ReferenciaFichero> findAvatares(@Param("ultimo") long ultimo, Pageable pageable);
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que cuenta los USUARIOS que tienen avatar.
+	 * En SQL filtra con WHERE avatar IS NOT NULL
+	 * 
+	 * @return
+	 */
+	
+	long countByAvatarIsNotNull();
 }
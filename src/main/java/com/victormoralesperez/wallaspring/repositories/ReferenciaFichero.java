@@ -0,0 +1,21 @@
+package com.victormoralesperez.wallaspring.repositories;
+
+/**
+ * INTERFAZ ReferenciaFichero
+ * -------------------------------------------------------------------------------------------
+ * Proyeccion de Spring Data con el ID de una fila y la URL de un fichero del almacen
+ * (imagen de un PRODUCTO o avatar de un USUARIO). OrphanedUploadCollector la usa para
+ * recorrer las Tablas por clave (WHERE id > :ultimo ORDER BY id), guardando el ID de la
+ * ultima fila leida.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public interface ReferenciaFichero {
+
+	Long getId();
+
+	String getUrl();
+
+}
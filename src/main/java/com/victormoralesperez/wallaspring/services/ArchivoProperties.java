@@ -0,0 +1,45 @@
+package com.victormoralesperez.wallaspring.services;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE ArchivoProperties
+ * -------------------------------------------------------------------------------------------
+ * Configuracion del archivado de las ventas antiguas (productos.archive.*).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "productos.archive")
+@Getter @Setter
+public class ArchivoProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Activa el archivado periodico (productos.archive.cron)
+	 */
+
+	private boolean enabled = true;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Dias que tienen que pasar desde la Compra para mover la Compra y sus Productos a
+	 * las Tablas de archivo
+	 */
+
+	private int afterDays = 365;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Compras (con sus Productos) que se mueven en cada transaccion
+	 */
+
+	private int batchSize = 500;
+
+}
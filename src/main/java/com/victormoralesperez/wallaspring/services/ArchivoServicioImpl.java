@@ -0,0 +1,140 @@
+package com.victormoralesperez.wallaspring.services;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.victormoralesperez.wallaspring.repositories.ICompraArchivadaRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.ICompraRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoArchivadoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+
+/**
+ * CLASE ArchivoServicioImpl
+ * -------------------------------------------------------------------------------------------
+ * Servicio que IMPLEMENTA el Interfaz IArchivoServicio. Cada noche (productos.archive.cron)
+ * mueve las Compras de hace mas de productos.archive.after-days dias, con sus Productos, a
+ * las Tablas compra_archivada y producto_archivado:
+ *
+ * - Por lotes de productos.archive.batch-size Compras, cada uno en su transaccion: se
+ *   copian con INSERT ... SELECT (mismos ID) y se borran de compra y producto, sin
+ *   cargar ninguna Entidad. Una Compra y sus Productos se archivan siempre juntos.
+ * - Las consultas del catalogo y de los vendedores (findByEstadoOrderById, findByVendedor...)
+ *   ya no recorren las ventas antiguas. Las del historico (mis compras, facturas,
+ *   producto vendido, perfil) las siguen viendo: CompraServicioImpl y
+ *   ProductoServicioImpl buscan tambien en el archivo y devuelven Compra y Producto.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Service
+public class ArchivoServicioImpl implements IArchivoServicio {
+
+	private static final Logger log = LoggerFactory.getLogger(ArchivoServicioImpl.class);
+
+	@Autowired
+	ICompraRepositoryDAO compraRepositorio;
+
+	@Autowired
+	IProductoRepositoryDAO productoRepositorio;
+
+	@Autowired
+	ICompraArchivadaRepositoryDAO compraArchivadaRepositorio;
+
+	@Autowired
+	IProductoArchivadoRepositoryDAO productoArchivadoRepositorio;
+
+	@Autowired
+	ArchivoProperties properties;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Evita que se solapen dos archivados en esta instancia
+	 */
+
+	private final AtomicBoolean enCurso = new AtomicBoolean();
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Ejecucion periodica (productos.archive.cron, por defecto a las 3:30 cada dia, antes
+	 * de la recoleccion de ficheros huerfanos). Puede solaparse con la recoleccion: ver
+	 * archivarLote().
+	 */
+
+	@Scheduled(cron = "${productos.archive.cron:0 30 3 * * *}")
+	public void archivarProgramado() {
+		if (properties.isEnabled()) {
+			archivar();
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Archiva, lote a lote, todas las Compras anteriores a productos.archive.after-days
+	 * dias. Si falla un lote se deshace solo ese lote (los anteriores ya estan archivados).
+	 *
+	 * @return Compras archivadas
+	 */
+
+	@Override
+	public int archivar() {
+		if (!enCurso.compareAndSet(false, true)) {
+			return 0;
+		}
+		try {
+			Date limite = Date.from(Instant.now().minus(properties.getAfterDays(), ChronoUnit.DAYS));
+			TransactionTemplate transaccion = new TransactionTemplate(transactionManager);
+			int total = 0;
+			int lote;
+			do {
+				lote = transaccion.execute(estado -> archivarLote(limite));
+				total += lote;
+			} while (lote == properties.getBatchSize());
+			if (total > 0) {
+				log.info("Archivadas {} compras anteriores a {}", total, limite);
+			}
+			return total;
+		} finally {
+			enCurso.set(false);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Archiva un lote en la transaccion en curso. Las filas se copian al archivo ANTES de
+	 * borrarlas y todo se confirma a la vez: OrphanedUploadCollector, que recorre por clave
+	 * primero producto y despues producto_archivado, depende de ello para ver cada imagen al
+	 * menos una vez aunque el archivado coincida con su marcado.
+	 */
+
+	private int archivarLote(Date limite) {
+		List<Long> ids = compraRepositorio.findIdsAnteriores(limite, PageRequest.of(0, properties.getBatchSize()));
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		compraArchivadaRepositorio.archivar(ids);
+		productoArchivadoRepositorio.archivar(ids);
+		productoRepositorio.deleteByCompraIdIn(ids);
+		compraRepositorio.deleteByIdIn(ids);
+		return ids.size();
+	}
+
+}
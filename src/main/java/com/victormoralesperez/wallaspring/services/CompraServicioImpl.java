@@ -1,12 +1,22 @@
 package com.victormoralesperez.wallaspring.services;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.CompraArchivada;
 import com.victormoralesperez.wallaspring.models.Producto;
 import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.ICompraArchivadaRepositoryDAO;
 import com.victormoralesperez.wallaspring.repositories.ICompraRepositoryDAO;
 
 /**
@@ -50,6 +60,16 @@ public class CompraServicioImpl implements ICompraServicio {
 	@Autowired
 	ICompraRepositoryDAO repositorio;
 
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Repositorio de las COMPRAS antiguas que se han movido a la Tabla compra_archivada
+	 * (ver ArchivoServicioImpl). Solo se consulta desde los Metodos del historico.
+	 */
+	
+	@Autowired
+	ICompraArchivadaRepositoryDAO archivoRepositorio;
+
 	/**
 	 * ATRIBUTO
 	 * ---------------------------------------------------------------------------------------
@@ -75,6 +95,7 @@ public class CompraServicioImpl implements ICompraServicio {
 	 */
 
 	@Override
+	@Transactional
 	public Compra crearCompra(Compra compra) {
 		return repositorio.save(compra);
 	}
@@ -94,6 +115,7 @@ public class CompraServicioImpl implements ICompraServicio {
 	 */
 	
 	@Override
+	@Transactional
 	public Compra crearCompra(Compra compra, Usuario usuario) {
 		compra.setComprador(usuario);
 		return repositorio.save(compra);
@@ -115,25 +137,58 @@ public class CompraServicioImpl implements ICompraServicio {
 	 */
 	
 	@Override
+	@Transactional
 	public Producto addProductoCompra(Producto producto, Compra compra) {
 		producto.setCompra(compra);
 		return productoServicio.editar(producto);
 	}
 
+	/**
+	 * METODO FINALIZAR COMPRA
+	 * -------------------------------------------------------------------------------------------
+	 * Crea la COMPRA del USUARIO y le asocia los PRODUCTOS del Carrito en UNA SOLA
+	 * TRANSACCION: el INSERT de la COMPRA y un unico UPDATE condicional de los PRODUCTOS
+	 * (venderDisponibles), que solo vende los que siguen DISPONIBLES, sin cargarlos.
+	 * Si el Carrito se ha quedado viejo y alguno ya no lo esta (vendido a otro, reservado
+	 * u oculto), se lanza ProductoNoDisponibleException y se deshace toda la COMPRA: no
+	 * se sobreescribe nunca la COMPRA de otro comprador.
+	 * 
+	 * @param usuario
+	 * @param idsProductos
+	 * @return
+	 */
+	
+	@Override
+	@Transactional
+	public Compra finalizarCompra(Usuario usuario, List<Long> idsProductos) {
+		Set<Long> ids = new HashSet<>(idsProductos);
+		Compra compra = crearCompra(new Compra(), usuario);
+		if (productoServicio.venderDisponibles(compra, ids) < ids.size()) {
+			throw new ProductoNoDisponibleException("ALGUN PRODUCTO DEL CARRITO YA NO ESTA DISPONIBLE");
+		}
+		return compra;
+	}
+
 	/**
 	 * METODO BUSCAR COMPRA POR ID
 	 * -------------------------------------------------------------------------------------------
 	 * Mapeamos el Metodo findById(), que proporciona el Interfaz JpaRepository
 	 * Buscar 1 COMPRA por su ID (Clave Primaria). Ademas anyadimos un extra en la
 	 * logica de negocio, dando una solucion si el Objeto COMPRA buscado no existe.
+	 * Si ya se ha archivado, se devuelve la COMPRA archivada (facturas del historico).
 	 * 
 	 * @param id
 	 * @return
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public Compra buscarPorId(long id) {
-		return repositorio.findById(id).orElse(null);
+		Compra compra = repositorio.findById(id).orElse(null);
+		if (compra == null) {
+			compra = archivoRepositorio.findById(id).map(CompraArchivada::aCompra).orElse(null);
+		}
+		return compra;
 	}
 
 	/**
@@ -150,6 +205,7 @@ public class CompraServicioImpl implements ICompraServicio {
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public List<Compra> buscarTodas() {
 		return repositorio.findAll();
 	}
@@ -158,15 +214,45 @@ public class CompraServicioImpl implements ICompraServicio {
 	 * METODO BUSCAR TODAS LAS COMPRAS ASOCIADAS A UN PROPIETARIO
 	 * -------------------------------------------------------------------------------------------
 	 * Mapeamos el Metodo que hemos anyadido en el Repositorio para Buscar todas las
-	 * COMPRAS asociadas a un USUARIO.
+	 * COMPRAS asociadas a un USUARIO, las archivadas (las mas antiguas) primero.
 	 * 
 	 * @param usuario
 	 * @return
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public List<Compra> buscarTodasPorPropietario(Usuario usuario) {
-		return repositorio.findByComprador(usuario);
+		List<Compra> compras = archivoRepositorio.findByComprador(usuario).stream()
+				.map(CompraArchivada::aCompra).collect(Collectors.toCollection(ArrayList::new));
+		compras.addAll(repositorio.findByComprador(usuario));
+		return compras;
+	}
+
+	/**
+	 * METODO BUSCAR LOS IDS DE LAS COMPRAS DE UN PROPIETARIO EN UN PERIODO
+	 * -------------------------------------------------------------------------------------------
+	 * Devuelve como mucho "limite" IDs de COMPRAS del USUARIO realizadas en [desde, hasta),
+	 * mayores que "despuesDe" y en orden. Para recorrer todas se vuelve a llamar pasando
+	 * el ultimo ID devuelto, sin cargar nunca todas las Compras en memoria.
+	 * Incluye las COMPRAS archivadas: se piden "limite" IDs a cada Tabla y se devuelven
+	 * los "limite" menores.
+	 * 
+	 * @param usuario
+	 * @param desde
+	 * @param hasta
+	 * @param despuesDe
+	 * @param limite
+	 * @return
+	 */
+
+	@Override
+	@Transactional(readOnly = true)
+	public List<Long> buscarIdsPorPropietario(Usuario usuario, Date desde, Date hasta, long despuesDe, int limite) {
+		List<Long> ids = new ArrayList<>(archivoRepositorio.findIds(usuario, desde, hasta, despuesDe, PageRequest.of(0, limite)));
+		ids.addAll(repositorio.findIds(usuario, desde, hasta, despuesDe, PageRequest.of(0, limite)));
+		Collections.sort(ids);
+		return (ids.size() > limite) ? ids.subList(0, limite) : ids;
 	}
 
 }
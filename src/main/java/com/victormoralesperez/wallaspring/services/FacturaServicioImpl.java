@@ -0,0 +1,584 @@
+package com.victormoralesperez.wallaspring.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.TrabajoFactura;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.reports.FacturaCache;
+import com.victormoralesperez.wallaspring.reports.GeneradorPDF;
+import com.victormoralesperez.wallaspring.reports.Html2PdfService;
+import com.victormoralesperez.wallaspring.reports.LimitadorPDF;
+import com.victormoralesperez.wallaspring.replicas.DataSourceEnrutado;
+import com.victormoralesperez.wallaspring.repositories.ITrabajoFacturaRepositoryDAO;
+
+/**
+ * CLASE FacturaServicioImpl
+ * -------------------------------------------------------------------------------------------
+ * Servicio que IMPLEMENTA (...Impl) el Interfaz IFacturaServicio: genera las facturas
+ * en PDF de las Compras en SEGUNDO PLANO, en un pool de hilos acotado (facturaExecutor),
+ * y las deja en la cache de facturas (FacturaCache), desde donde se sirven. Cada Compra
+ * tiene una factura por generador: la de la plantilla HTML y la de iText.
+ *
+ * Cada peticion de generar una factura es un TrabajoFactura guardado en la Base de
+ * Datos, de modo que los trabajos pendientes se relanzan al reiniciar la Aplicacion.
+ * Encolar es idempotente: mientras un trabajo esta en la cola del pool no se vuelve
+ * a enviar. Si el pool esta saturado, el trabajo queda PENDIENTE y se vuelve a
+ * intentar en la siguiente consulta (o al reiniciar), sin bloquear a quien consulta.
+ *
+ * Tambien exporta en un ZIP todas las facturas de un Usuario en un periodo.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Service
+public class FacturaServicioImpl implements IFacturaServicio {
+
+	private static final Logger log = LoggerFactory.getLogger(FacturaServicioImpl.class);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Numero de intentos tras los que un trabajo fallido ya no se reintenta
+	 */
+
+	private static final int MAX_INTENTOS = 3;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Numero de IDs de Compras que se leen de cada vez al exportar
+	 */
+
+	private static final int PAGINA_EXPORTACION = 100;
+
+	@Autowired
+	ITrabajoFacturaRepositoryDAO repositorio;
+
+	@Autowired
+	ICompraServicio compraServicio;
+
+	@Autowired
+	IProductoServicio productoServicio;
+
+	@Autowired
+	Html2PdfService html2PdfService;
+
+	@Autowired
+	FacturaCache facturaCache;
+
+	@Autowired
+	LimitadorPDF limitadorPDF;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Pool de hilos acotado en el que se generan las facturas (ver ConfiguracionAsincrona)
+	 */
+
+	@Autowired
+	@Qualifier("facturaExecutor")
+	Executor executor;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Pool fork-join acotado en el que se generan las facturas al exportar
+	 */
+
+	@Autowired
+	@Qualifier("exportacionPool")
+	ForkJoinPool exportacionPool;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * IDs de los trabajos que ya estan en la cola del pool (o ejecutandose)
+	 */
+
+	private final Set<Long> enCola = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Busca la factura de una Compra ya generada con la version actual del generador
+	 *
+	 * @param compraId
+	 * @param generador
+	 * @return La factura, o null si todavia no esta generada
+	 */
+
+	@Override
+	public FacturaCache.Factura buscarFactura(long compraId, TrabajoFactura.Generador generador) {
+		return facturaCache.get(clave(compraId, generador));
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Busca la factura de una Compra ya generada y la reserva en la cache para enviar su
+	 * PDF: aunque se desaloje mientras tanto, no se borra hasta llamar a liberarFactura
+	 *
+	 * @param compraId
+	 * @param generador
+	 * @return La factura reservada, o null si todavia no esta generada
+	 */
+
+	@Override
+	public FacturaCache.Factura reservarFactura(long compraId, TrabajoFactura.Generador generador) {
+		return facturaCache.reservar(clave(compraId, generador));
+	}
+
+	@Override
+	public void liberarFactura(FacturaCache.Factura factura) {
+		facturaCache.liberar(factura);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Genera (en el hilo que lo llama) la factura de una Compra y la guarda en la cache.
+	 * Con la plantilla HTML, la plantilla se renderiza antes de empezar a escribir el PDF.
+	 * La conversion espera a tener hueco en el LimitadorPDF (se llama desde los pools en
+	 * segundo plano).
+	 *
+	 * @param compraId
+	 * @param generador
+	 * @return
+	 * @throws IOException
+	 */
+
+	@Override
+	public FacturaCache.Factura generarFactura(long compraId, TrabajoFactura.Generador generador) throws IOException {
+		String clave = clave(compraId, generador);
+		return escribirFactura(compraId, generador, pdf -> facturaCache.put(clave, pdf));
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Lee la Compra y sus Productos y escribe su factura con el generador indicado en el
+	 * destino (la cache, o un temporal al exportar), con hueco en el LimitadorPDF
+	 *
+	 * @param compraId
+	 * @param generador
+	 * @param destino
+	 * @return Lo que devuelve el destino
+	 * @throws IOException
+	 */
+
+	private <T> T escribirFactura(long compraId, TrabajoFactura.Generador generador, Destino<T> destino) throws IOException {
+		// LA COMPRA SE ACABA DE GUARDAR: SE LEE DE LA PRINCIPAL, LAS REPLICAS PUEDEN NO TENERLA AUN
+		Compra compra;
+		List<Producto> productos;
+		boolean anterior = DataSourceEnrutado.forzarPrimario(true);
+		try {
+			compra = compraServicio.buscarPorId(compraId);
+			if (compra == null) {
+				throw new IllegalArgumentException("NO EXISTE LA COMPRA " + compraId);
+			}
+			productos = productoServicio.productosDeUnaCompra(compra);
+		} finally {
+			DataSourceEnrutado.forzarPrimario(anterior);
+		}
+		Float total = 0.0F;
+		if (productos != null) {
+			for (Producto producto : productos) {
+				total += producto.getPrecio();
+			}
+		}
+		try {
+			if (generador == TrabajoFactura.Generador.ITEXT) {
+				List<Producto> lineas = productos != null ? productos : new ArrayList<>();
+				Float importe = total;
+				try (LimitadorPDF.Permiso permiso = limitadorPDF.esperar(GeneradorPDF.estimarMemoria(lineas.size()))) {
+					return destino.escribir(outputStream -> GeneradorPDF.factura2PDF(compra, lineas, importe, outputStream));
+				}
+			}
+			Map<String, Object> data = new TreeMap<>();
+			data.put("factura", "factura_" + compra.getId());
+			data.put("compra", compra);
+			data.put("productos", productos);
+			data.put("total", total);
+			data.put("subtotal", (total / 1.21));
+			data.put("iva", (total - (total / 1.21)));
+			String html = html2PdfService.html(data);
+			try (LimitadorPDF.Permiso permiso = limitadorPDF.esperar(html2PdfService.estimarMemoria(html))) {
+				return destino.escribir(outputStream -> html2PdfService.html2Pdf(html, outputStream));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("GENERACION DE LA FACTURA " + compraId + " INTERRUMPIDA");
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Pide la generacion de la factura de una Compra con un generador. Si ya hay un trabajo para ella,
+	 * lo devuelve (relanzandolo si se perdio, si fallo menos de MAX_INTENTOS veces o
+	 * si termino pero su factura ya no esta en la cache).
+	 * No se ejecuta dentro de una transaccion: cada llamada al repositorio confirma la
+	 * suya, asi el trabajo ya esta guardado cuando se envia al pool.
+	 *
+	 * @param compraId
+	 * @param generador
+	 * @return El trabajo
+	 */
+
+	@Override
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public TrabajoFactura encolar(long compraId, TrabajoFactura.Generador generador) {
+		TrabajoFactura trabajo = buscarOCrearTrabajo(compraId, generador);
+		switch (trabajo.getEstado()) {
+		case TERMINADO:
+			if (buscarFactura(compraId, generador) != null) {
+				return trabajo;
+			}
+			break;
+		case ERROR:
+			if (trabajo.getIntentos() >= MAX_INTENTOS) {
+				return trabajo;
+			}
+			break;
+		default:
+			if (enCola.contains(trabajo.getId())) {
+				return trabajo;
+			}
+		}
+		trabajo.setEstado(TrabajoFactura.Estado.PENDIENTE);
+		trabajo = repositorio.save(trabajo);
+		enviar(trabajo.getId());
+		return trabajo;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Busca el trabajo de una Compra y un generador y, si no hay, lo crea. Dos peticiones
+	 * a la vez (el checkout y la primera consulta, o dos consultas) pueden no encontrarlo
+	 * y crearlo las dos: la clave unica uk_trabajo_factura_compra_generador rechaza a la
+	 * segunda, que relee en otra transaccion el trabajo que guardo la primera en lugar de
+	 * responder un 500.
+	 *
+	 * @param compraId
+	 * @param generador
+	 * @return El trabajo
+	 */
+
+	private TrabajoFactura buscarOCrearTrabajo(long compraId, TrabajoFactura.Generador generador) {
+		Optional<TrabajoFactura> trabajo = repositorio.findByCompraIdAndGenerador(compraId, generador);
+		if (trabajo.isPresent()) {
+			return trabajo.get();
+		}
+		try {
+			return repositorio.save(new TrabajoFactura(compraId, generador));
+		} catch (DataIntegrityViolationException e) {
+			return repositorio.findByCompraIdAndGenerador(compraId, generador).orElseThrow(() -> e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Al arrancar la Aplicacion, relanza los trabajos que quedaron PENDIENTES o a
+	 * medias (EN_CURSO) en la ejecucion anterior.
+	 */
+
+	@Override
+	@EventListener(ApplicationReadyEvent.class)
+	public void reanudarPendientes() {
+		try {
+			List<TrabajoFactura> pendientes = repositorio.findByEstadoIn(
+					Arrays.asList(TrabajoFactura.Estado.PENDIENTE, TrabajoFactura.Estado.EN_CURSO));
+			for (TrabajoFactura trabajo : pendientes) {
+				enviar(trabajo.getId());
+			}
+			if (!pendientes.isEmpty()) {
+				log.info("Relanzados {} trabajos de facturas pendientes", pendientes.size());
+			}
+		} catch (DataAccessException e) {
+			log.warn("No se pudieron relanzar los trabajos de facturas pendientes", e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Escribe en "out" un ZIP con las facturas de la plantilla HTML (factura_{id}.pdf, en
+	 * orden de ID) de las Compras de un Usuario realizadas en [desde, hasta).
+	 * Las facturas se generan (o se toman de la cache) en paralelo en el exportacionPool,
+	 * pero como mucho hay 2 x paralelismo en vuelo: la siguiente no se pide hasta que se
+	 * escribe la mas antigua. Cada factura se copia al ZIP desde un fichero, asi que la
+	 * memoria usada no depende del numero de Compras ni del tamanyo de los PDF.
+	 * Las que ya estan en la cache se reservan hasta copiarlas; las que no, se generan en
+	 * un temporal que se borra despues, SIN meterlas en la cache: una exportacion grande
+	 * no desaloja las facturas que se estan usando.
+	 * Si una factura no se puede generar no se corta la exportacion: se anota en un
+	 * ERRORES.txt al final del ZIP.
+	 *
+	 * @param comprador
+	 * @param desde
+	 * @param hasta
+	 * @param out
+	 * @return Numero de facturas exportadas
+	 * @throws IOException
+	 */
+
+	@Override
+	public int exportarZip(Usuario comprador, Date desde, Date hasta, OutputStream out) throws IOException {
+		int ventana = 2 * exportacionPool.getParallelism();
+		Deque<Exportacion> enVuelo = new ArrayDeque<>();
+		StringBuilder errores = new StringBuilder();
+		int exportadas = 0;
+		ZipOutputStream zip = new ZipOutputStream(out);
+		zip.setLevel(Deflater.BEST_SPEED); // LOS PDF YA VAN COMPRIMIDOS
+		try {
+			long ultimo = 0;
+			List<Long> ids;
+			do {
+				ids = compraServicio.buscarIdsPorPropietario(comprador, desde, hasta, ultimo, PAGINA_EXPORTACION);
+				for (Long id : ids) {
+					if (enVuelo.size() == ventana) {
+						exportadas += escribir(zip, enVuelo.removeFirst(), errores);
+					}
+					Exportacion exportacion = new Exportacion(id);
+					exportacion.tarea = exportacionPool.submit(() -> producir(exportacion));
+					enVuelo.addLast(exportacion);
+					ultimo = id;
+				}
+			} while (ids.size() == PAGINA_EXPORTACION);
+			while (!enVuelo.isEmpty()) {
+				exportadas += escribir(zip, enVuelo.removeFirst(), errores);
+			}
+			if (errores.length() > 0) {
+				zip.putNextEntry(new ZipEntry("ERRORES.txt"));
+				zip.write(errores.toString().getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+			zip.finish();
+			return exportadas;
+		} finally {
+			for (Exportacion exportacion : enVuelo) { // SI EL CLIENTE CORTA, NO SE GENERA LO QUE FALTA
+				descartar(exportacion);
+			}
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Prepara en el exportacionPool el PDF de una factura para el ZIP. Si la exportacion ya
+	 * se ha descartado (el cliente corto), lo suelta en lugar de devolverlo
+	 *
+	 * @param exportacion
+	 * @return El PDF, o null si la exportacion se descarto
+	 * @throws IOException
+	 */
+
+	private PdfExportado producir(Exportacion exportacion) throws IOException {
+		FacturaCache.Factura factura = facturaCache.reservar(clave(exportacion.compraId, TrabajoFactura.Generador.HTML));
+		PdfExportado pdf = factura != null
+				? new PdfExportado(factura.getPath(), factura)
+				: new PdfExportado(escribirFactura(exportacion.compraId, TrabajoFactura.Generador.HTML, facturaCache::generarTemporal), null);
+		synchronized (exportacion) {
+			if (!exportacion.descartada) {
+				exportacion.pdf = pdf;
+				return pdf;
+			}
+		}
+		pdf.close();
+		return null;
+	}
+
+	private void descartar(Exportacion exportacion) {
+		exportacion.tarea.cancel(false);
+		PdfExportado pdf;
+		synchronized (exportacion) {
+			exportacion.descartada = true;
+			pdf = exportacion.pdf;
+			exportacion.pdf = null;
+		}
+		if (pdf != null) {
+			try {
+				pdf.close();
+			} catch (IOException e) {
+				log.warn("No se pudo soltar la factura de la compra {}", exportacion.compraId, e);
+			}
+		}
+	}
+
+	private int escribir(ZipOutputStream zip, Exportacion exportacion, StringBuilder errores) throws IOException {
+		PdfExportado pdf;
+		try {
+			pdf = exportacion.tarea.get();
+		} catch (InterruptedException e) {
+			descartar(exportacion);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("EXPORTACION DE FACTURAS INTERRUMPIDA");
+		} catch (ExecutionException e) {
+			log.warn("No se pudo exportar la factura de la compra {}", exportacion.compraId, e.getCause());
+			errores.append("factura_").append(exportacion.compraId).append(": ")
+					.append(e.getCause().getMessage()).append('\n');
+			return 0;
+		}
+		try {
+			zip.putNextEntry(new ZipEntry("factura_" + exportacion.compraId + ".pdf"));
+			Files.copy(pdf.path, zip);
+			zip.closeEntry();
+			return 1;
+		} finally {
+			pdf.close();
+		}
+	}
+
+	private void enviar(long trabajoId) {
+		if (!enCola.add(trabajoId)) {
+			return;
+		}
+		try {
+			executor.execute(() -> procesar(trabajoId));
+		} catch (RejectedExecutionException e) {
+			enCola.remove(trabajoId);
+			log.debug("Pool de facturas saturado, el trabajo {} queda pendiente", trabajoId);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Ejecuta un trabajo en el pool de facturas, guardando su estado en cada paso
+	 *
+	 * @param trabajoId
+	 */
+
+	private void procesar(long trabajoId) {
+		try {
+			TrabajoFactura trabajo = repositorio.findById(trabajoId).orElse(null);
+			if (trabajo == null || trabajo.getEstado() == TrabajoFactura.Estado.TERMINADO) {
+				return;
+			}
+			trabajo.setEstado(TrabajoFactura.Estado.EN_CURSO);
+			trabajo.setIntentos(trabajo.getIntentos() + 1);
+			trabajo = repositorio.save(trabajo);
+			try {
+				generarFactura(trabajo.getCompraId(), trabajo.getGenerador());
+				trabajo.setEstado(TrabajoFactura.Estado.TERMINADO);
+				trabajo.setError(null);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Error al generar la factura de la compra {}", trabajo.getCompraId(), e);
+				trabajo.setEstado(TrabajoFactura.Estado.ERROR);
+				String mensaje = String.valueOf(e.getMessage());
+				trabajo.setError(mensaje.length() > 255 ? mensaje.substring(0, 255) : mensaje);
+			}
+			trabajo.setFechaFin(new Date());
+			repositorio.save(trabajo);
+		} catch (DataAccessException e) {
+			log.warn("No se pudo actualizar el trabajo de factura {}", trabajoId, e);
+		} finally {
+			enCola.remove(trabajoId);
+		}
+	}
+
+	private String clave(long compraId, TrabajoFactura.Generador generador) {
+		if (generador == TrabajoFactura.Generador.ITEXT) {
+			return FacturaCache.clave("itext", compraId, GeneradorPDF.VERSION);
+		}
+		return FacturaCache.clave("html", compraId, html2PdfService.version());
+	}
+
+	/**
+	 * Escribe un PDF (ver FacturaCache.Generador) y devuelve donde ha quedado
+	 */
+	@FunctionalInterface
+	private interface Destino<T> {
+		T escribir(FacturaCache.Generador pdf) throws IOException;
+	}
+
+	/**
+	 * CLASE Exportacion
+	 * ---------------------------------------------------------------------------------------
+	 * Factura de una exportacion que se esta generando en el pool. El PDF que deja la
+	 * tarea se guarda tambien aqui, para soltarlo si se descarta la exportacion.
+	 */
+
+	private static class Exportacion {
+
+		private final long compraId;
+		private ForkJoinTask<PdfExportado> tarea;
+		private PdfExportado pdf;
+		private boolean descartada;
+
+		Exportacion(long compraId) {
+			this.compraId = compraId;
+		}
+
+	}
+
+	/**
+	 * CLASE PdfExportado
+	 * ---------------------------------------------------------------------------------------
+	 * PDF de una factura listo para copiarlo al ZIP: el de la cache (reservado) o un
+	 * temporal. Al cerrarlo se libera la reserva o se borra el temporal.
+	 */
+
+	private final class PdfExportado implements Closeable {
+
+		private final Path path;
+		private final FacturaCache.Factura reservada;
+
+		PdfExportado(Path path, FacturaCache.Factura reservada) {
+			this.path = path;
+			this.reservada = reservada;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (reservada != null) {
+				facturaCache.liberar(reservada);
+			} else {
+				Files.deleteIfExists(path);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,18 @@
+package com.victormoralesperez.wallaspring.services;
+
+/**
+ * INTERFAZ IArchivoServicio
+ * -------------------------------------------------------------------------------------------
+ * Interfaz que Declara los Metodos de Servicio para mover las ventas antiguas (Compras y
+ * sus Productos) a las Tablas de archivo, para que las Tablas Compra y Producto solo
+ * tengan lo reciente.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public interface IArchivoServicio {
+
+	public int archivar();
+
+}
@@ -1,5 +1,6 @@
 package com.victormoralesperez.wallaspring.services;
 
+import java.util.Date;
 import java.util.List;
 
 import com.victormoralesperez.wallaspring.models.Compra;
@@ -24,8 +25,10 @@ public interface ICompraServicio {
 	public Compra crearCompra(Compra c);
 	public Compra crearCompra(Compra c, Usuario u);
 	public Producto addProductoCompra(Producto p, Compra c);
+	public Compra finalizarCompra(Usuario u, List<Long> idsProductos);
 	public Compra buscarPorId(long id);
 	public List<Compra> buscarTodas();
 	public List<Compra> buscarTodasPorPropietario(Usuario u);
+	public List<Long> buscarIdsPorPropietario(Usuario u, Date desde, Date hasta, long despuesDe, int limite);
 
 }
@@ -0,0 +1,31 @@
+package com.victormoralesperez.wallaspring.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+import com.victormoralesperez.wallaspring.models.TrabajoFactura;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.reports.FacturaCache;
+
+/**
+ * INTERFAZ IFacturaServicio
+ * -------------------------------------------------------------------------------------------
+ * Interfaz que Declara los Metodos de Servicio para generar las facturas en PDF
+ * (a partir de la plantilla HTML o con iText) de las Compras, en segundo plano.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public interface IFacturaServicio {
+
+	public FacturaCache.Factura buscarFactura(long compraId, TrabajoFactura.Generador generador);
+	public FacturaCache.Factura reservarFactura(long compraId, TrabajoFactura.Generador generador);
+	public void liberarFactura(FacturaCache.Factura factura);
+	public FacturaCache.Factura generarFactura(long compraId, TrabajoFactura.Generador generador) throws IOException;
+	public TrabajoFactura encolar(long compraId, TrabajoFactura.Generador generador);
+	public void reanudarPendientes();
+	public int exportarZip(Usuario comprador, Date desde, Date hasta, OutputStream out) throws IOException;
+
+}
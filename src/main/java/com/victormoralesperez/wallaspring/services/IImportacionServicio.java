@@ -0,0 +1,47 @@
+package com.victormoralesperez.wallaspring.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.function.Function;
+
+import com.victormoralesperez.wallaspring.models.Usuario;
+
+/**
+ * INTERFAZ IImportacionServicio
+ * -------------------------------------------------------------------------------------------
+ * Interfaz que Declara los Metodos de Servicio para dar de alta Productos en bloque
+ * (vendedores profesionales) a partir de un fichero CSV o JSON-lines, leido en
+ * streaming, con o sin un ZIP de imagenes.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public interface IImportacionServicio {
+
+	/**
+	 * Formato del fichero de datos
+	 */
+	public enum Formato {
+		CSV, JSONL;
+
+		/**
+		 * @return el formato que corresponde a la extension del fichero, o null
+		 */
+		public static Formato porNombre(String nombre) {
+			String minusculas = nombre.toLowerCase();
+			if (minusculas.endsWith(".csv")) {
+				return CSV;
+			}
+			if (minusculas.endsWith(".jsonl") || minusculas.endsWith(".ndjson")) {
+				return JSONL;
+			}
+			return null;
+		}
+	}
+
+	public ResultadoImportacion importar(Usuario vendedor, InputStream datos, Formato formato, Charset charset, Function<String, String> urlImagen) throws IOException;
+	public ResultadoImportacion importarZip(Usuario vendedor, InputStream zip, Function<String, String> urlImagen) throws IOException;
+
+}
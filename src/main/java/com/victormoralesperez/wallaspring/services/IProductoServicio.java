@@ -1,5 +1,6 @@
 package com.victormoralesperez.wallaspring.services;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.victormoralesperez.wallaspring.models.Compra;
@@ -24,13 +25,18 @@ public interface IProductoServicio {
 	public Producto insertar(Producto p);
 	public List<Producto> findAll();
 	public Producto findById(long id);
+	public Producto buscarConHistorico(long id);
 	public List<Producto> buscarProductosPorId(List<Long> ids);
 	public List<Producto> productosDeUnPropietario(Usuario u);
 	public List<Producto> buscarMisProductos(String query, Usuario u);
 	public List<Producto> productosDeUnaCompra(Compra c);
 	public List<Producto> productosSinVender();
 	public List<Producto> buscar(String query);
+	public List<Producto> productosCompradosPor(Usuario comprador);
+	public float totalVentasArchivadas(Usuario vendedor);
+	public int venderDisponibles(Compra compra, Collection<Long> ids);
 	public Producto editar(Producto p);
+	public Producto editar(Producto p, String imagenAnterior);
 	public void borrar(long id);
 	public void borrar(Producto p);
 	
@@ -0,0 +1,38 @@
+package com.victormoralesperez.wallaspring.services;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE ImportacionProperties
+ * -------------------------------------------------------------------------------------------
+ * Configuracion de la importacion masiva de Productos (productos.import.*).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "productos.import")
+@Getter @Setter
+public class ImportacionProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Productos que se guardan en cada transaccion, enviados a la Base de Datos en un
+	 * solo lote de JDBC
+	 */
+
+	private int batchSize = 50;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Errores que se detallan como mucho en el informe de la importacion (del resto
+	 * solo se cuentan)
+	 */
+
+	private int maxErrors = 1000;
+
+}
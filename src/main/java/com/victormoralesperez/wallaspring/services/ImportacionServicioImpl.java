@@ -0,0 +1,612 @@
+package com.victormoralesperez.wallaspring.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.storageservice.StorageException;
+import com.victormoralesperez.wallaspring.storageservice.StorageService;
+import com.victormoralesperez.wallaspring.storageservice.StreamingMultipartResolver;
+import com.victormoralesperez.wallaspring.storageservice.UploadProperties;
+
+/**
+ * CLASE ImportacionServicioImpl
+ * -------------------------------------------------------------------------------------------
+ * Servicio que IMPLEMENTA el Interfaz IImportacionServicio: da de alta Productos en
+ * bloque sin tener nunca en memoria mas de un lote (productos.import.batch-size).
+ *
+ * - El fichero de datos se lee fila a fila. En CSV la primera linea es la cabecera,
+ *   con las columnas nombre, precio e imagen (en cualquier orden, separadas por "," o
+ *   ";"). En JSON-lines cada linea es un objeto {"nombre":...,"precio":...,"imagen":...}.
+ * - Cada fila se valida con las mismas reglas (@NotEmpty, @Min...) que el formulario
+ *   de alta. Las filas que no las cumplen se anotan en el informe y se saltan.
+ * - Las filas validas se guardan de lote en lote, cada uno en su transaccion y en un
+ *   solo lote de JDBC. Si un lote falla en la Base de Datos se repite fila a fila para
+ *   saber cual es la que falla.
+ * - En el ZIP las imagenes se van guardando en el almacen segun llegan (con el mismo
+ *   control de tipo y tamanyo que las subidas) y el fichero de datos, que puede venir
+ *   antes que ellas, se copia a un temporal. La columna imagen de cada fila es el
+ *   nombre de una imagen del ZIP o una URL. Al terminar se borran las imagenes que
+ *   ningun Producto importado usa.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Service
+public class ImportacionServicioImpl implements IImportacionServicio {
+
+	private static final Logger log = LoggerFactory.getLogger(ImportacionServicioImpl.class);
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	ImportacionProperties properties;
+
+	@Autowired
+	UploadProperties uploadProperties;
+
+	@Autowired
+	StorageService storageService;
+
+	@Autowired
+	Validator validator;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@PersistenceContext
+	EntityManager entityManager;
+
+	/**
+	 * METODO IMPORTAR UN FICHERO CSV O JSON-LINES
+	 * -------------------------------------------------------------------------------------------
+	 * Importa los Productos del fichero de datos. Las imagenes solo pueden ser URL.
+	 *
+	 * @param vendedor
+	 * @param datos
+	 * @param formato
+	 * @param charset
+	 * @param urlImagen
+	 * @return
+	 * @throws IOException
+	 */
+
+	@Override
+	public ResultadoImportacion importar(Usuario vendedor, InputStream datos, Formato formato, Charset charset,
+			Function<String, String> urlImagen) throws IOException {
+		ResultadoImportacion resultado = new ResultadoImportacion();
+		importar(vendedor, lector(datos, formato, charset), Collections.emptyMap(), new HashSet<>(), urlImagen, resultado);
+		return resultado;
+	}
+
+	/**
+	 * METODO IMPORTAR UN ZIP CON EL FICHERO DE DATOS Y LAS IMAGENES
+	 * -------------------------------------------------------------------------------------------
+	 * Recorre las entradas del ZIP en el orden en que llegan: guarda las imagenes en el
+	 * almacen y copia el fichero de datos (.csv, .jsonl o .ndjson) a un temporal, que se
+	 * importa al final, cuando ya se conocen todas las imagenes.
+	 *
+	 * @param vendedor
+	 * @param zip
+	 * @param urlImagen
+	 * @return
+	 * @throws IOException
+	 */
+
+	@Override
+	public ResultadoImportacion importarZip(Usuario vendedor, InputStream zip, Function<String, String> urlImagen) throws IOException {
+		ResultadoImportacion resultado = new ResultadoImportacion();
+		Map<String, String> imagenes = new HashMap<>();
+		Set<String> usadas = new HashSet<>();
+		Path datos = null;
+		Formato formato = null;
+		try (ZipInputStream entradas = new ZipInputStream(zip)) {
+			ZipEntry entrada;
+			while ((entrada = entradas.getNextEntry()) != null) {
+				String nombre = StringUtils.getFilename(StringUtils.cleanPath(entrada.getName()));
+				if (entrada.isDirectory() || entrada.getName().startsWith("__MACOSX/") || !StringUtils.hasText(nombre) || nombre.startsWith(".")) {
+					continue;
+				}
+				Formato formatoEntrada = Formato.porNombre(nombre);
+				if (formatoEntrada != null) {
+					if (datos != null) {
+						error(resultado, 0, "EL ZIP TIENE MAS DE UN FICHERO DE DATOS: " + nombre);
+						continue;
+					}
+					datos = Files.createTempFile("importacion", "." + StringUtils.getFilenameExtension(nombre));
+					Files.copy(entradas, datos, StandardCopyOption.REPLACE_EXISTING);
+					formato = formatoEntrada;
+				} else {
+					String almacenada = almacenarImagen(entradas, nombre, resultado);
+					if (almacenada != null) {
+						String repetida = imagenes.put(nombre, almacenada);
+						if (repetida != null) {
+							borrar(repetida);
+						}
+					}
+				}
+			}
+			if (datos == null) {
+				error(resultado, 0, "EL ZIP NO TIENE NINGUN FICHERO DE DATOS (.csv, .jsonl o .ndjson)");
+			} else {
+				try (InputStream inputStream = Files.newInputStream(datos)) {
+					importar(vendedor, lector(inputStream, formato, StandardCharsets.UTF_8), imagenes, usadas, urlImagen, resultado);
+				}
+			}
+		} finally {
+			if (datos != null) {
+				Files.deleteIfExists(datos);
+			}
+			imagenes.values().stream().filter(imagen -> !usadas.contains(imagen)).forEach(this::borrar);
+		}
+		return resultado;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Lee las filas, las valida y guarda las validas de lote en lote
+	 */
+
+	private void importar(Usuario vendedor, LectorFilas lector, Map<String, String> imagenes, Set<String> usadas,
+			Function<String, String> urlImagen, ResultadoImportacion resultado) throws IOException {
+		int tamanyoLote = Math.max(1, properties.getBatchSize());
+		List<Fila> lote = new ArrayList<>(tamanyoLote);
+		Fila fila;
+		while ((fila = lector.siguiente()) != null) {
+			resultado.fila();
+			if (preparar(fila, imagenes, urlImagen, resultado)) {
+				lote.add(fila);
+				if (lote.size() == tamanyoLote) {
+					guardar(vendedor.getId(), lote, usadas, resultado);
+					lote.clear();
+				}
+			}
+		}
+		if (!lote.isEmpty()) {
+			guardar(vendedor.getId(), lote, usadas, resultado);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Construye y valida el Producto de una fila. Si la fila no es valida anota el error
+	 * y devuelve false.
+	 */
+
+	private boolean preparar(Fila fila, Map<String, String> imagenes, Function<String, String> urlImagen, ResultadoImportacion resultado) {
+		if (fila.error != null) {
+			error(resultado, fila.numero, fila.error);
+			return false;
+		}
+		if (!StringUtils.hasText(fila.precio)) {
+			error(resultado, fila.numero, "FALTA EL PRECIO");
+			return false;
+		}
+		float precio;
+		try {
+			precio = Float.parseFloat(fila.precio.trim().replace(',', '.'));
+		} catch (NumberFormatException e) {
+			error(resultado, fila.numero, "PRECIO NO VALIDO: " + fila.precio);
+			return false;
+		}
+		String imagen = null;
+		if (StringUtils.hasText(fila.imagen)) {
+			String nombre = fila.imagen.trim();
+			if (nombre.startsWith("http://") || nombre.startsWith("https://")) {
+				imagen = nombre;
+			} else if (imagenes.containsKey(nombre)) {
+				fila.almacenada = imagenes.get(nombre);
+				imagen = urlImagen.apply(fila.almacenada);
+			} else {
+				error(resultado, fila.numero, "NO SE ENCUENTRA LA IMAGEN: " + nombre);
+				return false;
+			}
+		}
+		Producto producto = new Producto(fila.nombre == null ? null : fila.nombre.trim(), precio, imagen, null);
+		Set<ConstraintViolation<Producto>> errores = validator.validate(producto);
+		if (!errores.isEmpty()) {
+			error(resultado, fila.numero, errores.stream()
+					.map(violacion -> violacion.getPropertyPath() + ": " + violacion.getMessage())
+					.sorted().collect(Collectors.joining("; ")));
+			return false;
+		}
+		fila.producto = producto;
+		return true;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Guarda un lote en una transaccion. Si falla, repite sus filas de una en una para
+	 * anotar el error solo en las que fallan.
+	 */
+
+	private void guardar(long vendedorId, List<Fila> lote, Set<String> usadas, ResultadoImportacion resultado) {
+		try {
+			new TransactionTemplate(transactionManager).executeWithoutResult(estado -> {
+				entityManager.unwrap(Session.class).setJdbcBatchSize(lote.size());
+				Usuario vendedor = entityManager.getReference(Usuario.class, vendedorId);
+				for (Fila fila : lote) {
+					fila.producto.setVendedor(vendedor);
+					entityManager.persist(fila.producto);
+				}
+				entityManager.flush();
+				entityManager.clear();
+			});
+		} catch (RuntimeException e) {
+			entityManager.clear();
+			if (lote.size() == 1) {
+				log.debug("No se pudo importar la fila {}", lote.get(0).numero, e);
+				error(resultado, lote.get(0).numero, "ERROR AL GUARDAR: " + NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+			} else {
+				for (Fila fila : lote) {
+					fila.producto.setId(0);
+					guardar(vendedorId, Collections.singletonList(fila), usadas, resultado);
+				}
+			}
+			return;
+		}
+		for (Fila fila : lote) {
+			resultado.importado();
+			if (fila.almacenada != null) {
+				usadas.add(fila.almacenada);
+			}
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Guarda en el almacen una imagen del ZIP comprobando su tipo por sus primeros bytes
+	 * y su tamanyo (storage.upload.*). Si no es valida anota el error y devuelve null.
+	 */
+
+	private String almacenarImagen(InputStream entrada, String nombre, ResultadoImportacion resultado) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(StreamUtils.nonClosing(entrada));
+		byte[] firma = new byte[StreamingMultipartResolver.BYTES_FIRMA];
+		int leidos = leerFirma(buffered, firma);
+		String tipo = StreamingMultipartResolver.tipoReal(firma, leidos);
+		if (tipo == null || !uploadProperties.getAllowedTypes().contains(tipo)) {
+			error(resultado, 0, "TIPO DE ARCHIVO NO PERMITIDO: " + nombre);
+			return null;
+		}
+		try {
+			return storageService.store(new LimiteInputStream(buffered, uploadProperties.getMaxFileSize().toBytes()), nombre);
+		} catch (StorageException e) {
+			error(resultado, 0, "NO SE PUDO GUARDAR LA IMAGEN " + nombre + ": " + NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+			return null;
+		}
+	}
+
+	private static int leerFirma(BufferedInputStream buffered, byte[] firma) throws IOException {
+		buffered.mark(firma.length);
+		int leidos = 0;
+		int n;
+		while (leidos < firma.length && (n = buffered.read(firma, leidos, firma.length - leidos)) != -1) {
+			leidos += n;
+		}
+		buffered.reset();
+		return leidos;
+	}
+
+	private void borrar(String imagen) {
+		try {
+			storageService.delete(imagen);
+		} catch (StorageException e) {
+			log.warn("No se pudo borrar la imagen importada sin usar {}", imagen, e);
+		}
+	}
+
+	private void error(ResultadoImportacion resultado, int fila, String mensaje) {
+		resultado.error(fila, mensaje, properties.getMaxErrors());
+	}
+
+	private LectorFilas lector(InputStream datos, Formato formato, Charset charset) {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(datos, charset));
+		return formato == Formato.CSV ? new LectorCSV(reader) : new LectorJSONL(reader, objectMapper);
+	}
+
+	/**
+	 * Una fila del fichero de datos, tal y como se ha leido
+	 */
+	private static class Fila {
+
+		private final int numero;
+
+		private String nombre;
+
+		private String precio;
+
+		private String imagen;
+
+		private String error;
+
+		private Producto producto;
+
+		/**
+		 * Nombre en el almacen de la imagen del ZIP que usa la fila
+		 */
+		private String almacenada;
+
+		private Fila(int numero) {
+			this.numero = numero;
+		}
+
+	}
+
+	/**
+	 * Lee las filas una a una (null al terminar)
+	 */
+	private interface LectorFilas {
+
+		Fila siguiente() throws IOException;
+
+	}
+
+	/**
+	 * Lector de CSV (RFC 4180: campos entre comillas, que pueden tener separadores,
+	 * saltos de linea y comillas dobladas). El separador es "," o, si la cabecera no
+	 * tiene comas, ";" (el que usa Excel en espanyol).
+	 */
+	private static class LectorCSV implements LectorFilas {
+
+		private final BufferedReader reader;
+
+		private int linea = 0;
+
+		private int inicioRegistro;
+
+		private char separador = ',';
+
+		private int columnaNombre = -1;
+
+		private int columnaPrecio = -1;
+
+		private int columnaImagen = -1;
+
+		private boolean cabeceraLeida;
+
+		private boolean terminado;
+
+		private LectorCSV(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public Fila siguiente() throws IOException {
+			if (terminado) {
+				return null;
+			}
+			if (!cabeceraLeida) {
+				cabeceraLeida = true;
+				if (!leerCabecera()) {
+					terminado = true;
+					Fila fila = new Fila(1);
+					fila.error = "LA CABECERA DEBE TENER LAS COLUMNAS nombre Y precio";
+					return fila;
+				}
+			}
+			List<String> campos;
+			do {
+				campos = registro();
+				if (campos == null) {
+					terminado = true;
+					return null;
+				}
+			} while (campos.size() == 1 && campos.get(0).trim().isEmpty());
+			Fila fila = new Fila(inicioRegistro);
+			fila.nombre = campo(campos, columnaNombre);
+			fila.precio = campo(campos, columnaPrecio);
+			fila.imagen = campo(campos, columnaImagen);
+			return fila;
+		}
+
+		private boolean leerCabecera() throws IOException {
+			reader.mark(64 * 1024);
+			String primera = reader.readLine();
+			reader.reset();
+			if (primera == null) {
+				return false;
+			}
+			if (primera.indexOf(',') < 0 && primera.indexOf(';') >= 0) {
+				separador = ';';
+			}
+			List<String> cabecera = registro();
+			for (int i = 0; i < cabecera.size(); i++) {
+				String columna = cabecera.get(i).replace("\uFEFF", "").trim().toLowerCase();
+				if ("nombre".equals(columna)) {
+					columnaNombre = i;
+				} else if ("precio".equals(columna)) {
+					columnaPrecio = i;
+				} else if ("imagen".equals(columna)) {
+					columnaImagen = i;
+				}
+			}
+			return columnaNombre >= 0 && columnaPrecio >= 0;
+		}
+
+		/**
+		 * Lee el siguiente registro completo (puede ocupar varias lineas)
+		 */
+		private List<String> registro() throws IOException {
+			int c = reader.read();
+			if (c == -1) {
+				return null;
+			}
+			linea++;
+			inicioRegistro = linea;
+			List<String> campos = new ArrayList<>();
+			StringBuilder campo = new StringBuilder();
+			boolean entreComillas = false;
+			while (c != -1) {
+				char caracter = (char) c;
+				if (entreComillas) {
+					if (caracter == '"') {
+						reader.mark(1);
+						int siguiente = reader.read();
+						if (siguiente == '"') {
+							campo.append('"');
+						} else {
+							entreComillas = false;
+							if (siguiente != -1) {
+								reader.reset();
+							}
+						}
+					} else {
+						if (caracter == '\n') {
+							linea++;
+						}
+						campo.append(caracter);
+					}
+				} else if (caracter == '"' && campo.length() == 0) {
+					entreComillas = true;
+				} else if (caracter == separador) {
+					campos.add(campo.toString());
+					campo.setLength(0);
+				} else if (caracter == '\n') {
+					break;
+				} else if (caracter != '\r') {
+					campo.append(caracter);
+				}
+				c = reader.read();
+			}
+			campos.add(campo.toString());
+			return campos;
+		}
+
+		private static String campo(List<String> campos, int columna) {
+			return (columna >= 0 && columna < campos.size()) ? campos.get(columna) : null;
+		}
+
+	}
+
+	/**
+	 * Lector de JSON-lines: un objeto JSON por linea
+	 */
+	private static class LectorJSONL implements LectorFilas {
+
+		private final BufferedReader reader;
+
+		private final ObjectMapper objectMapper;
+
+		private int linea = 0;
+
+		private LectorJSONL(BufferedReader reader, ObjectMapper objectMapper) {
+			this.reader = reader;
+			this.objectMapper = objectMapper;
+		}
+
+		@Override
+		public Fila siguiente() throws IOException {
+			String texto;
+			do {
+				texto = reader.readLine();
+				linea++;
+				if (texto == null) {
+					return null;
+				}
+			} while (texto.trim().isEmpty());
+			Fila fila = new Fila(linea);
+			try {
+				JsonNode nodo = objectMapper.readTree(texto);
+				if (nodo == null || !nodo.isObject()) {
+					fila.error = "LA LINEA NO ES UN OBJETO JSON";
+				} else {
+					fila.nombre = texto(nodo, "nombre");
+					fila.precio = texto(nodo, "precio");
+					fila.imagen = texto(nodo, "imagen");
+				}
+			} catch (JsonProcessingException e) {
+				fila.error = "JSON NO VALIDO: " + e.getOriginalMessage();
+			}
+			return fila;
+		}
+
+		private static String texto(JsonNode nodo, String campo) {
+			JsonNode valor = nodo.get(campo);
+			return (valor == null || valor.isNull()) ? null : valor.asText();
+		}
+
+	}
+
+	/**
+	 * Corta la lectura (IOException) al pasar de un numero de bytes
+	 */
+	private static class LimiteInputStream extends FilterInputStream {
+
+		private long restantes;
+
+		private LimiteInputStream(InputStream in, long limite) {
+			super(in);
+			this.restantes = limite;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				contar(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				contar(n);
+			}
+			return n;
+		}
+
+		private void contar(int n) throws IOException {
+			restantes -= n;
+			if (restantes < 0) {
+				throw new IOException("LA IMAGEN SUPERA EL TAMANYO MAXIMO");
+			}
+		}
+
+	}
+
+}
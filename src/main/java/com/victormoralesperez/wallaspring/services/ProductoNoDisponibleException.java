@@ -0,0 +1,22 @@
+package com.victormoralesperez.wallaspring.services;
+
+/**
+ * CLASE ProductoNoDisponibleException
+ * -------------------------------------------------------------------------------------------
+ * Algun Producto del Carrito ya no esta DISPONIBLE al finalizar la Compra (se ha vendido,
+ * reservado u ocultado despues de anyadirlo). Se lanza dentro de la transaccion de
+ * CompraServicioImpl.finalizarCompra, asi que la Compra se deshace entera.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class ProductoNoDisponibleException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ProductoNoDisponibleException(String message) {
+		super(message);
+	}
+
+}
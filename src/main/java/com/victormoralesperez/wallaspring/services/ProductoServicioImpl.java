@@ -1,14 +1,20 @@
 package com.victormoralesperez.wallaspring.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.victormoralesperez.wallaspring.models.Compra;
 import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.ProductoArchivado;
 import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.IProductoArchivadoRepositoryDAO;
 import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
-import com.victormoralesperez.wallaspring.storageservice.StorageService;
+import com.victormoralesperez.wallaspring.storageservice.AsyncStorageService;
 
 /**
  * CLASE ProductoServicioImpl
@@ -51,6 +57,17 @@ public class ProductoServicioImpl implements IProductoServicio{
 	@Autowired
 	IProductoRepositoryDAO repositorio;
 	
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Repositorio de los PRODUCTOS vendidos hace tiempo que se han movido a la Tabla
+	 * producto_archivado (ver ArchivoServicioImpl). Solo se consulta desde los Metodos
+	 * del historico.
+	 */
+	
+	@Autowired
+	IProductoArchivadoRepositoryDAO archivoRepositorio;
+	
 	/**
 	 * ATRIBUTO
 	 * ---------------------------------------------------------------------------------------
@@ -63,10 +80,12 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 * De esta forma, vamos a poder utilizar un almacen que acceda a nuestro 
 	 * sistema de ficheros (también podríamos implementar otro que estuviera 
 	 * en un sistema remoto).
+	 * Usamos su variante asincrona, que ejecuta las operaciones en un pool de
+	 * hilos propio, para no bloquear las peticiones con el acceso al disco.
 	 */
 	
 	@Autowired
-	StorageService storageService;
+	AsyncStorageService storageService;
 	
 	/**
 	 * METODO
@@ -83,6 +102,7 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional
 	public Producto insertar(Producto p) {
 		return repositorio.save(p); 
 	}
@@ -100,6 +120,7 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public List<Producto> findAll(){
 		return repositorio.findAll();
 	}
@@ -116,10 +137,31 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public Producto findById(long id) {
 		return repositorio.findById(id).orElse(null);
 	}
 	
+	/**
+	 * METODO
+	 * -------------------------------------------------------------------------------------------
+	 * Como findById(), pero si el PRODUCTO ya se ha archivado (vendido hace tiempo)
+	 * devuelve el PRODUCTO archivado, con su COMPRA. Es solo para mostrarlo: el
+	 * PRODUCTO archivado no se puede editar ni borrar.
+	 * @param id
+	 * @return
+	 */
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Producto buscarConHistorico(long id) {
+		Producto producto = repositorio.findById(id).orElse(null);
+		if (producto == null) {
+			producto = archivoRepositorio.findById(id).map(ProductoArchivado::aProducto).orElse(null);
+		}
+		return producto;
+	}
+	
 	/**
 	 * READ
 	 * -------------------------------------------------------------------------------------------
@@ -134,6 +176,7 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 * @return
 	 */
 	@Override
+	@Transactional(readOnly = true)
 	public List<Producto> buscarProductosPorId(List<Long> ids){
 		return repositorio.findAllById(ids);
 	}
@@ -148,6 +191,7 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public List<Producto> productosDeUnPropietario(Usuario vendedor){
 		return repositorio.findByVendedor(vendedor);
 	}
@@ -164,6 +208,7 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public List<Producto> buscarMisProductos(String query, Usuario vendedor){
 		return repositorio.findByNombreContainsIgnoreCaseAndVendedor(query, vendedor);
 	}
@@ -173,24 +218,28 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 * -------------------------------------------------------------------------------------------
 	 * Mapeamos el Metodo que hemos anyadido en el Repositorio para
 	 * Buscar todos los PRODUCTOS asociados a una COMPRA.
-	 * En este caso concreto no anyadimos nada nuevo a la funcionalidad que 
-	 * ya proporcionaba el Interfaz, pero se implementa por mantener la logica
-	 * descrita al comienzo y darle escalabilidad (quien sabe si en el futuro
-	 * la aplicacion crece y tenemos que implementar algun otro rasgo distintivo).
+	 * Una COMPRA se archiva junto con todos sus PRODUCTOS, asi que si no tiene
+	 * ninguno en la Tabla Producto se buscan en el archivo (facturas del historico).
 	 * @param compra
 	 * @return
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public List<Producto> productosDeUnaCompra(Compra compra){
-		return repositorio.findByCompra(compra);
+		List<Producto> productos = repositorio.findByCompra(compra);
+		if (productos.isEmpty() && compra != null) {
+			productos = archivoRepositorio.findByCompraId(compra.getId()).stream()
+					.map(ProductoArchivado::aProducto).collect(Collectors.toList());
+		}
+		return productos;
 	}
 	
 	/**
 	 * METODO
 	 * -------------------------------------------------------------------------------------------
 	 * Mapeamos el Metodo que hemos anyadido en el Repositorio para
-	 * Buscar todos los PRODUCTOS cuyo atributo COMPRA es NULL.
+	 * Buscar todos los PRODUCTOS DISPONIBLES (el catalogo).
 	 * En este caso concreto no anyadimos nada nuevo a la funcionalidad que 
 	 * ya proporcionaba el Interfaz, pero se implementa por mantener la logica
 	 * descrita al comienzo y darle escalabilidad (quien sabe si en el futuro
@@ -199,8 +248,9 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public List<Producto> productosSinVender(){
-		return repositorio.findByCompraIsNull();
+		return repositorio.findByEstadoOrderById(Producto.Estado.DISPONIBLE);
 	}
 	
 	/**
@@ -208,7 +258,7 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 * -------------------------------------------------------------------------------------------
 	 * Mapeamos el Metodo que hemos anyadido en el Repositorio para
 	 * Buscar todos los PRODUCTOS, filtrando por el nombre del producto 
-	 * y cuyo atributo COMPRA es NULL.
+	 * que estan DISPONIBLES.
 	 * En este caso concreto no anyadimos nada nuevo a la funcionalidad que 
 	 * ya proporcionaba el Interfaz, pero se implementa por mantener la logica
 	 * descrita al comienzo y darle escalabilidad (quien sabe si en el futuro
@@ -217,8 +267,63 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public List<Producto> buscar(String query){
-		return repositorio.findByNombreContainsIgnoreCaseAndCompraIsNull(query);
+		return repositorio.findByNombreContainsIgnoreCaseAndEstadoOrderById(query, Producto.Estado.DISPONIBLE);
+	}
+	
+	/**
+	 * METODO
+	 * -------------------------------------------------------------------------------------------
+	 * Mapeamos el Metodo que hemos anyadido en el Repositorio para
+	 * Buscar todos los PRODUCTOS comprados por un USUARIO, de todas sus
+	 * COMPRAS en una sola consulta (en lugar de una por cada COMPRA), incluidos
+	 * los archivados.
+	 * @param comprador
+	 * @return
+	 */
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Producto> productosCompradosPor(Usuario comprador){
+		List<Producto> productos = archivoRepositorio.findByCompraComprador(comprador).stream()
+				.map(ProductoArchivado::aProducto).collect(Collectors.toCollection(ArrayList::new));
+		productos.addAll(repositorio.findByCompraComprador(comprador));
+		return productos;
+	}
+	
+	/**
+	 * METODO
+	 * -------------------------------------------------------------------------------------------
+	 * Suma el precio de los PRODUCTOS archivados que ha vendido un USUARIO (los que
+	 * ya no devuelve productosDeUnPropietario()).
+	 * @param vendedor
+	 * @return
+	 */
+	
+	@Override
+	@Transactional(readOnly = true)
+	public float totalVentasArchivadas(Usuario vendedor){
+		Double total = archivoRepositorio.sumPrecioByVendedor(vendedor);
+		return (total == null) ? 0 : total.floatValue();
+	}
+	
+	/**
+	 * METODO
+	 * -------------------------------------------------------------------------------------------
+	 * Marca como VENDIDOS, de la COMPRA indicada, los PRODUCTOS que sigan DISPONIBLES,
+	 * con un UPDATE condicional. Los que se hayan vendido, reservado u ocultado entre
+	 * tanto no se tocan: quien llama compara el resultado con los que pidio.
+	 * 
+	 * @param compra
+	 * @param ids
+	 * @return PRODUCTOS vendidos
+	 */
+	
+	@Override
+	@Transactional
+	public int venderDisponibles(Compra compra, Collection<Long> ids){
+		return repositorio.asignarCompra(compra, ids, Producto.Estado.VENDIDO, Producto.Estado.DISPONIBLE);
 	}
 	
 	/**
@@ -234,10 +339,37 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional
 	public Producto editar(Producto producto) {
 		return repositorio.save(producto);
 	}
 	
+	/**
+	 * METODO
+	 * -------------------------------------------------------------------------------------------
+	 * Edita un PRODUCTO al que se le ha subido una imagen nueva y libera la imagen
+	 * que sustituye. La imagen anterior se borra en segundo plano y solo cuando se
+	 * confirma la transaccion: si el guardado falla, el PRODUCTO sigue apuntando a
+	 * un fichero que existe.
+	 * Se libera SIEMPRE, aunque la URL nueva sea la misma (con el almacen
+	 * content-addressed, subir el mismo contenido devuelve la misma URL pero suma
+	 * una referencia al fichero, que hay que descontar).
+	 * 
+	 * @param producto
+	 * @param imagenAnterior URL de la imagen sustituida (null si no tenia)
+	 * @return
+	 */
+	
+	@Override
+	@Transactional
+	public Producto editar(Producto producto, String imagenAnterior) {
+		Producto editado = repositorio.save(producto);
+		if (imagenAnterior != null) {
+			storageService.deleteAfterCommit(imagenAnterior);
+		}
+		return editado;
+	}
+	
 	/**
 	 * METODO
 	 * -------------------------------------------------------------------------------------------
@@ -248,8 +380,11 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 
 	@Override
+	@Transactional
 	public void borrar(long id) {
+		Producto producto = repositorio.findById(id).orElse(null);
 		repositorio.deleteById(id);
+		borrarImagen(producto);
 	}
 	
 	/**
@@ -262,7 +397,26 @@ public class ProductoServicioImpl implements IProductoServicio{
 	 */
 	
 	@Override
+	@Transactional
 	public void borrar(Producto producto) {
 		repositorio.delete(producto);
+		borrarImagen(producto);
+	}
+	
+	/**
+	 * METODO
+	 * -------------------------------------------------------------------------------------------
+	 * Borra del Servicio de Almacenamiento la imagen asociada al PRODUCTO (si
+	 * la tiene) para que no quede como fichero huerfano. Se borra en segundo
+	 * plano y solo cuando se confirma la transaccion: si el borrado del PRODUCTO
+	 * falla y se deshace, su imagen sigue existiendo.
+	 * 
+	 * @param producto
+	 */
+	
+	private void borrarImagen(Producto producto) {
+		if (producto != null && producto.getImagen() != null) {
+			storageService.deleteAfterCommit(producto.getImagen());
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.victormoralesperez.wallaspring.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * CLASE ResultadoImportacion
+ * -------------------------------------------------------------------------------------------
+ * Informe de una importacion masiva de Productos: filas leidas, Productos importados
+ * y errores de cada fila. La fila 0 son los errores del ZIP (imagenes no admitidas,
+ * falta el fichero de datos...), no de una fila concreta.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Getter
+public class ResultadoImportacion {
+
+	private int filas;
+
+	private int importados;
+
+	private int errores;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Detalle de los primeros errores (productos.import.max-errors)
+	 */
+
+	private final List<ErrorFila> detalle = new ArrayList<>();
+
+	void fila() {
+		filas++;
+	}
+
+	void importado() {
+		importados++;
+	}
+
+	void error(int fila, String mensaje, int maxDetalle) {
+		errores++;
+		if (detalle.size() < maxDetalle) {
+			detalle.add(new ErrorFila(fila, mensaje));
+		}
+	}
+
+	/**
+	 * CLASE ErrorFila
+	 * ---------------------------------------------------------------------------------------
+	 * Error de una fila: numero de linea en el fichero de datos y motivo
+	 */
+
+	@Getter @AllArgsConstructor
+	public static class ErrorFila {
+
+		private final int fila;
+
+		private final String mensaje;
+
+	}
+
+}
@@ -3,6 +3,7 @@ package com.victormoralesperez.wallaspring.services;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.itextpdf.text.pdf.PdfStructTreeController.returnType;
 import com.victormoralesperez.wallaspring.models.Usuario;
@@ -72,6 +73,7 @@ public class UsuarioServicioImpl implements IUsuarioServicio {
 	 */
 	
 	@Override
+	@Transactional
 	public Usuario registrar(Usuario user) {
 		user.setPassword(passwordEncoder.encode(user.getPassword())); 	// Primero cogemos el Password y lo ENCRIPTAMOS.
 		return repositorio.save(user);									// Una vez Encriptado, guardamos el USUARIO.
@@ -89,6 +91,7 @@ public class UsuarioServicioImpl implements IUsuarioServicio {
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public Usuario findById(long id) {
 		return repositorio.findById(id).orElse(null);
 	}
@@ -108,6 +111,7 @@ public class UsuarioServicioImpl implements IUsuarioServicio {
 	 */
 	
 	@Override
+	@Transactional(readOnly = true)
 	public Usuario buscarPorEMail(String email) {
 		return repositorio.findByEmail(email);
 	}
@@ -129,6 +133,7 @@ public class UsuarioServicioImpl implements IUsuarioServicio {
 	 */
 
 	@Override
+	@Transactional
 	public Usuario editar(Usuario user) {
 		return repositorio.save(user);
 	}
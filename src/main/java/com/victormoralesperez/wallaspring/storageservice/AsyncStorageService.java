@@ -0,0 +1,143 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * CLASE AsyncStorageService
+ * -------------------------------------------------------------------------------------------
+ * Variante ASINCRONA del StorageService: las operaciones se ejecutan en un pool
+ * de hilos de E/S propio y acotado (storageExecutor, storage.io.*) y devuelven
+ * un CompletableFuture, de modo que un disco lento no bloquea los hilos que
+ * atienden las peticiones. Si el pool y su cola estan llenos, la operacion la
+ * ejecuta el hilo que la pide (contrapresion en lugar de acumular trabajo).
+ *
+ * Los borrados de ficheros asociados a filas de la Base de Datos se deben pedir
+ * con deleteAfterCommit(): si hay una transaccion en curso, el fichero solo se
+ * borra cuando esta se confirma (si se deshace, el fichero sigue ahi).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Service
+public class AsyncStorageService {
+
+	private static final Logger log = LoggerFactory.getLogger(AsyncStorageService.class);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Almacen sobre el que se ejecutan las operaciones
+	 */
+
+	private final StorageService storageService;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Pool de hilos de E/S (ver ConfiguracionAsincrona)
+	 */
+
+	private final Executor executor;
+
+	@Autowired
+	public AsyncStorageService(StorageService storageService, @Qualifier("storageExecutor") Executor executor) {
+		this.storageService = storageService;
+		this.executor = executor;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que almacena un fichero subido. Las subidas en streaming
+	 * (StreamedMultipartFile) ya estan escritas en el almacen y se devuelven
+	 * resueltas en el acto; el resto se copian en el pool de E/S, y como su
+	 * contenido desaparece al terminar la peticion, hay que esperar al resultado
+	 * antes de responder.
+	 *
+	 * @param file
+	 * @return El nombre con el que se ha almacenado
+	 */
+
+	public CompletableFuture<String> store(MultipartFile file) {
+		if (file instanceof StreamedMultipartFile) {
+			return CompletableFuture.completedFuture(storageService.store(file));
+		}
+		return CompletableFuture.supplyAsync(() -> storageService.store(file), executor);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que almacena el contenido de un InputStream en el pool de E/S. El
+	 * InputStream se cierra al terminar, se almacene o no.
+	 *
+	 * @param inputStream
+	 * @param filename
+	 * @return El nombre con el que se ha almacenado
+	 */
+
+	public CompletableFuture<String> store(InputStream inputStream, String filename) {
+		return CompletableFuture.supplyAsync(() -> {
+			try (InputStream in = inputStream) {
+				return storageService.store(in, filename);
+			} catch (IOException e) {
+				throw new StorageException("ERROR AL CERRAR EL FICHERO " + filename, e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que borra un fichero en el pool de E/S. Los errores se registran en el
+	 * log ademas de completar el CompletableFuture con ellos, porque normalmente
+	 * nadie espera a un borrado.
+	 *
+	 * @param filename Nombre o URL del fichero
+	 * @return
+	 */
+
+	public CompletableFuture<Void> delete(String filename) {
+		return CompletableFuture.runAsync(() -> storageService.delete(filename), executor)
+				.whenComplete((resultado, error) -> {
+					if (error != null) {
+						log.warn("No se pudo borrar el fichero {}", filename, error);
+					}
+				});
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que borra un fichero cuando se CONFIRME la transaccion en curso (o en
+	 * el acto si no hay ninguna). Si la transaccion se deshace, no se borra nada.
+	 *
+	 * @param filename Nombre o URL del fichero
+	 */
+
+	public void deleteAfterCommit(String filename) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			delete(filename);
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				delete(filename);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * CLASE ByteBufferResource
+ * -------------------------------------------------------------------------------------------
+ * Resource de SOLO LECTURA respaldado por un ByteBuffer (normalmente directo,
+ * fuera del heap). Cada lectura trabaja sobre una copia de los punteros del
+ * buffer (duplicate()), por lo que puede servirse a la vez a varias peticiones
+ * sin copiar los datos.
+ *
+ * Conserva el nombre del fichero para que Spring deduzca el Content-Type.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class ByteBufferResource extends AbstractResource {
+
+	private final ByteBuffer buffer;
+
+	private final String filename;
+
+	private final long lastModified;
+
+	public ByteBufferResource(ByteBuffer buffer, String filename, long lastModified) {
+		this.buffer = buffer.asReadOnlyBuffer();
+		this.filename = filename;
+		this.lastModified = lastModified;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return Channels.newInputStream(readableChannel());
+	}
+
+	@Override
+	public ReadableByteChannel readableChannel() {
+		final ByteBuffer datos = buffer.duplicate();
+		return new ReadableByteChannel() {
+
+			private boolean open = true;
+
+			@Override
+			public int read(ByteBuffer destino) {
+				if (!datos.hasRemaining()) {
+					return -1;
+				}
+				int n = Math.min(destino.remaining(), datos.remaining());
+				ByteBuffer trozo = datos.duplicate();
+				trozo.limit(trozo.position() + n);
+				destino.put(trozo);
+				datos.position(datos.position() + n);
+				return n;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return open;
+			}
+
+			@Override
+			public void close() {
+				open = false;
+			}
+		};
+	}
+
+	@Override
+	public boolean exists() {
+		return true;
+	}
+
+	@Override
+	public long contentLength() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public long lastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public String getFilename() {
+		return filename;
+	}
+
+	@Override
+	public String getDescription() {
+		return "ByteBuffer resource [" + filename + "]";
+	}
+
+}
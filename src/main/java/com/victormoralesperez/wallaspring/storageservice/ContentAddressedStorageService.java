@@ -0,0 +1,370 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * CLASE ContentAddressedStorageService
+ * -------------------------------------------------------------------------------------------
+ * Implementación de un StorageService que almacena cada fichero subido bajo el
+ * nombre de su HASH SHA-256 (calculado mientras se copia, sin leer el fichero dos
+ * veces) en un arbol de dos niveles: upload-dir/ab/cd/abcd...ef.jpg
+ *
+ * - Dos subidas con el mismo contenido comparten un unico fichero en disco
+ *   (DEDUPLICACION). Cada fichero lleva al lado un contador de referencias
+ *   (abcd...ef.jpg.refs) y solo se borra del disco cuando el contador llega a cero.
+ * - Al no depender del nombre original ni del instante de la subida, dos subidas
+ *   simultaneas nunca se pisan.
+ * - Repartir los ficheros en 65536 subdirectorios evita directorios con millones
+ *   de entradas, cuyas busquedas y recorridos se degradan con el tamanyo.
+ *
+ * Se activa con storage.backend=content-addressed. Los ficheros antiguos que ya
+ * estuvieran en la raiz de upload-dir (nombre con marca de tiempo) se siguen
+ * sirviendo y borrando con normalidad.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Service
+@ConditionalOnProperty(prefix = "storage", name = "backend", havingValue = "content-addressed")
+public class ContentAddressedStorageService implements StorageService {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Nombre de un fichero direccionado por contenido: 64 caracteres hexadecimales
+	 * (SHA-256) seguidos opcionalmente de la extension del fichero original.
+	 */
+
+	private static final Pattern NOMBRE_HASH = Pattern.compile("^[0-9a-f]{64}(\\.[A-Za-z0-9]+)?$");
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Sufijo del fichero que guarda el contador de referencias de cada fichero almacenado.
+	 */
+
+	private static final String SUFIJO_REFERENCIAS = ".refs";
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Directorio (dentro del raiz) donde se escriben las subidas en curso antes de
+	 * conocer su hash. Se vacia al iniciar el almacenamiento.
+	 */
+
+	private static final String DIRECTORIO_TEMPORAL = ".tmp";
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Cerrojos repartidos por hash: dos operaciones sobre el mismo fichero se
+	 * serializan, y operaciones sobre ficheros distintos casi nunca compiten.
+	 */
+
+	private final Object[] cerrojos = new Object[64];
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Directorio raiz de nuestro almacén de ficheros
+	 */
+
+	private final Path rootLocation;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Publicador de eventos de Spring. Solo se avisa cuando un contenido se escribe
+	 * por primera vez (FileStoredEvent) o desaparece del disco (FileDeletedEvent).
+	 */
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que obtiene la Ruta del Directorio Raiz de nuestro almacen de ficheros.
+	 *
+	 * @param properties
+	 * @param eventPublisher
+	 */
+
+	@Autowired
+	public ContentAddressedStorageService(StorageProperties properties, ApplicationEventPublisher eventPublisher) {
+		this.rootLocation = Paths.get(properties.getLocation());
+		this.eventPublisher = eventPublisher;
+		for (int i = 0; i < cerrojos.length; i++) {
+			cerrojos[i] = new Object();
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que almacena un Fichero a partir de un objeto de tipo MultipartFile.
+	 * Se copia a un fichero temporal calculando su SHA-256 al vuelo; si ya existe
+	 * un fichero con ese contenido se incrementa su contador de referencias y se
+	 * descarta el temporal, y si no existe se mueve a su posicion definitiva.
+	 *
+	 * @return Nombre con el que se ha almacenado el fichero (hash + extension)
+	 */
+
+	@Override
+	public String store(MultipartFile file) {
+		String storedFilename = StreamedMultipartFile.reclamar(file);
+		if (storedFilename != null) {
+			return storedFilename;
+		}
+		String filename = StringUtils.cleanPath(file.getOriginalFilename());
+		if (file.isEmpty()) {
+			throw new StorageException("ERROR AL TRATAR DE ALMACENAR UN ARCHIVO VACIO: " + filename);
+		}
+		try (InputStream inputStream = file.getInputStream()) {
+			return store(inputStream, filename);
+		} catch (IOException e) {
+			throw new StorageException("ERROR AL ALMACENAR EL ARCHIVO: " + filename, e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que almacena el contenido de un InputStream. El temporal esta en el
+	 * mismo disco que el destino, asi que llevarlo a su sitio es solo un renombrado:
+	 * el contenido se escribe una unica vez.
+	 *
+	 * @return Nombre con el que se ha almacenado el fichero (hash + extension)
+	 */
+
+	@Override
+	public String store(InputStream inputStream, String originalFilename) {
+		String filename = StringUtils.cleanPath(originalFilename);
+		try {
+			if (filename.contains("..")) {
+				throw new StorageException("NO SE PUEDE ALMACENAR UN ARCHIVO CON UNA RUTA RELATIVA FUERA DEL DIRECTORIO ACTUAL: " + filename);
+			}
+			Path temporal = Files.createTempFile(this.rootLocation.resolve(DIRECTORIO_TEMPORAL), "subida", null);
+			try {
+				MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+				Files.copy(new DigestInputStream(inputStream, sha256), temporal, StandardCopyOption.REPLACE_EXISTING);
+				String storedFilename = new String(Hex.encode(sha256.digest())) + extension(filename);
+				if (guardar(temporal, storedFilename)) {
+					eventPublisher.publishEvent(new FileStoredEvent(storedFilename));
+				}
+				return storedFilename;
+			} finally {
+				Files.deleteIfExists(temporal);
+			}
+		} catch (IOException | NoSuchAlgorithmException e) {
+			throw new StorageException("ERROR AL ALMACENAR EL ARCHIVO: " + filename, e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que coloca un fichero temporal ya hasheado en su posicion definitiva
+	 * o, si el contenido ya estaba almacenado, suma una referencia al existente.
+	 *
+	 * @param temporal
+	 * @param storedFilename
+	 * @return true si el contenido no estaba almacenado y se ha escrito ahora
+	 * @throws IOException
+	 */
+
+	private boolean guardar(Path temporal, String storedFilename) throws IOException {
+		Path destino = load(storedFilename);
+		synchronized (cerrojo(storedFilename)) {
+			if (Files.exists(destino)) {
+				escribirReferencias(destino, leerReferencias(destino) + 1);
+				return false;
+			}
+			Files.createDirectories(destino.getParent());
+			Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+			escribirReferencias(destino, 1);
+			return true;
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que devuelve el nombre de todos los ficheros que hay en el almacen,
+	 * recorriendo el arbol de subdirectorios de forma perezosa (sin cargarlo
+	 * entero en memoria) y sin incluir contadores de referencias ni temporales.
+	 */
+
+	@Override
+	public Stream<Path> loadAll() {
+		Path temporales = this.rootLocation.resolve(DIRECTORIO_TEMPORAL);
+		try {
+			return Files.walk(this.rootLocation, 3)
+						.filter(path -> !path.startsWith(temporales))
+						.filter(Files::isRegularFile)
+						.filter(path -> !path.getFileName().toString().endsWith(SUFIJO_REFERENCIAS))
+						.map(Path::getFileName);
+		} catch (IOException e) {
+			throw new StorageException("ERROR AL LEER LOS ARCHIVOS ALMACENADOS", e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que traduce el nombre de un fichero a su ruta en el arbol de
+	 * subdirectorios (abcd...ef.jpg -> ab/cd/abcd...ef.jpg). Los nombres que no
+	 * son un hash (ficheros antiguos) se resuelven en el directorio raiz.
+	 */
+
+	@Override
+	public Path load(String filename) {
+		if (NOMBRE_HASH.matcher(filename).matches()) {
+			return rootLocation.resolve(filename.substring(0, 2)).resolve(filename.substring(2, 4)).resolve(filename);
+		}
+		return rootLocation.resolve(filename);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que es capaz de cargar un fichero a partir de su nombre
+	 * Devuelve un objeto de tipo Resource
+	 */
+
+	@Override
+	public Resource loadAsResource(String filename) {
+		try {
+			Path file = load(filename);
+			Resource resource = new UrlResource(file.toUri());
+			if (resource.exists() || resource.isReadable()) {
+				return resource;
+			} else {
+				throw new StorageFileNotFoundException("Could not read file: " + filename);
+			}
+		} catch (MalformedURLException e) {
+			throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que resta una referencia a un fichero a partir de su nombre. El fichero
+	 * solo desaparece del disco cuando ya nadie lo referencia.
+	 */
+
+	@Override
+	public void delete(String filename) {
+		String justFilename = StringUtils.getFilename(filename);
+		try {
+			Path file = load(justFilename);
+			if (!NOMBRE_HASH.matcher(justFilename).matches()) {
+				if (Files.deleteIfExists(file)) {
+					eventPublisher.publishEvent(new FileDeletedEvent(justFilename));
+				}
+				return;
+			}
+			synchronized (cerrojo(justFilename)) {
+				long referencias = leerReferencias(file);
+				if (referencias > 1) {
+					escribirReferencias(file, referencias - 1);
+					return;
+				}
+				if (!Files.deleteIfExists(file)) {
+					return;
+				}
+				Files.deleteIfExists(ficheroReferencias(file));
+			}
+			eventPublisher.publishEvent(new FileDeletedEvent(justFilename));
+		} catch (IOException e) {
+			throw new StorageException("Error al eliminar un fichero", e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que elimina todos los ficheros del almacenamiento secundario del proyecto.
+	 */
+
+	@Override
+	public void deleteAll() {
+		FileSystemUtils.deleteRecursively(rootLocation.toFile());
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que inicializa el almacenamiento secundario del proyecto, descartando
+	 * las subidas que se quedaran a medias en una ejecucion anterior.
+	 */
+
+	@Override
+	public void init() {
+		try {
+			Path temporales = rootLocation.resolve(DIRECTORIO_TEMPORAL);
+			FileSystemUtils.deleteRecursively(temporales);
+			Files.createDirectories(temporales);
+		} catch (IOException e) {
+			throw new StorageException("Could not initialize storage", e);
+		}
+	}
+
+	/*
+	 * ---------------------------------------------------------------------------------------
+	 * CONTADOR DE REFERENCIAS
+	 * ---------------------------------------------------------------------------------------
+	 */
+
+	private Object cerrojo(String storedFilename) {
+		return cerrojos[Math.abs(storedFilename.hashCode() % cerrojos.length)];
+	}
+
+	private Path ficheroReferencias(Path file) {
+		return file.resolveSibling(file.getFileName() + SUFIJO_REFERENCIAS);
+	}
+
+	private long leerReferencias(Path file) throws IOException {
+		Path referencias = ficheroReferencias(file);
+		if (!Files.exists(referencias)) {
+			return Files.exists(file) ? 1 : 0;
+		}
+		return Long.parseLong(new String(Files.readAllBytes(referencias), StandardCharsets.US_ASCII).trim());
+	}
+
+	private void escribirReferencias(Path file, long referencias) throws IOException {
+		// Se escribe aparte y se renombra para que un corte nunca deje el contador a medias
+		Path temporal = Files.createTempFile(rootLocation.resolve(DIRECTORIO_TEMPORAL), "refs", null);
+		Files.write(temporal, Long.toString(referencias).getBytes(StandardCharsets.US_ASCII));
+		Files.move(temporal, ficheroReferencias(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String extension(String filename) {
+		String extension = StringUtils.getFilenameExtension(filename);
+		return StringUtils.hasText(extension) ? "." + extension.toLowerCase() : "";
+	}
+
+}
@@ -0,0 +1,28 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * CLASE FileDeletedEvent
+ * -------------------------------------------------------------------------------------------
+ * Evento que publica el StorageService cuando un fichero desaparece
+ * definitivamente del almacen, para que se descarten los datos derivados
+ * de el (miniaturas, copias en cache...).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Getter @AllArgsConstructor
+public class FileDeletedEvent {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Nombre con el que estaba almacenado el fichero
+	 */
+
+	private final String filename;
+
+}
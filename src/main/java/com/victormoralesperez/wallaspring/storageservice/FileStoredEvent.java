@@ -0,0 +1,30 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * CLASE FileStoredEvent
+ * -------------------------------------------------------------------------------------------
+ * Evento que publica el StorageService cuando escribe un fichero NUEVO en el
+ * almacen (las subidas deduplicadas no lo publican, porque su contenido ya
+ * estaba almacenado). Permite que otros servicios reaccionen a la subida
+ * (por ejemplo, generando las miniaturas de una imagen) sin que el almacen
+ * tenga que conocerlos.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Getter @AllArgsConstructor
+public class FileStoredEvent {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Nombre con el que se ha almacenado el fichero (el que aparece en /files/{filename})
+	 */
+
+	private final String filename;
+
+}
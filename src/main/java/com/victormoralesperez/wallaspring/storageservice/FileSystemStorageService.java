@@ -9,6 +9,8 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.stream.Stream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
@@ -19,11 +21,13 @@ import org.springframework.web.multipart.MultipartFile;
 /**
  * Implementación de un StorageService que almacena los ficheros subidos
  * dentro del servidor donde se ha desplegado la apliacación.
+ * Es la implementacion por defecto (storage.backend=filesystem).
  * 
  * @author Victor Morales Perez
  *
  */
 @Service
+@ConditionalOnProperty(prefix = "storage", name = "backend", havingValue = "filesystem", matchIfMissing = true)
 public class FileSystemStorageService implements StorageService {
 
 	/**
@@ -35,18 +39,30 @@ public class FileSystemStorageService implements StorageService {
 
 	private final Path rootLocation;
 
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Publicador de eventos de Spring, con el que avisamos de los ficheros que
+	 * se almacenan (FileStoredEvent) y se borran (FileDeletedEvent)
+	 * 
+	 */
+
+	private final ApplicationEventPublisher eventPublisher;
+
 	/**
 	 * METODO
 	 * ---------------------------------------------------------------------------------------
 	 * Metodo que obtiene la Ruta del Directorio Raiz de nuestro almacen de ficheros.
 	 * 
 	 * @param properties
+	 * @param eventPublisher
 	 * 
 	 */
 	
 	@Autowired
-	public FileSystemStorageService(StorageProperties properties) {
+	public FileSystemStorageService(StorageProperties properties, ApplicationEventPublisher eventPublisher) {
 		this.rootLocation = Paths.get(properties.getLocation());
+		this.eventPublisher = eventPublisher;
 	}
 
 	/**
@@ -55,6 +71,34 @@ public class FileSystemStorageService implements StorageService {
 	 * Metodo que almacena un Fichero en el Sistema de Almacenamiento
 	 * secundario desde un objeto de tipo MultipartFile.
 	 * 
+	 * Si el fichero ya se almaceno mientras se recibia la peticion (ver
+	 * StreamingMultipartResolver), se devuelve su nombre sin volver a copiarlo.
+	 * 
+	 */
+	
+	@Override
+	public String store(MultipartFile file) {
+		String storedFilename = StreamedMultipartFile.reclamar(file);
+		if (storedFilename != null) {
+			return storedFilename;
+		}
+		String filename = StringUtils.cleanPath(file.getOriginalFilename());
+		if (file.isEmpty()) {
+			throw new StorageException("ERROR AL TRATAR DE ALMACENAR UN ARCHIVO VACIO: " + filename);
+		}
+		try (InputStream inputStream = file.getInputStream()) {
+			return store(inputStream, filename);
+		} catch (IOException e) {
+			throw new StorageException("ERROR AL ALMACENAR EL ARCHIVO: " + filename, e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que almacena un Fichero copiando el InputStream directamente a su
+	 * ubicacion definitiva. Si la copia falla a medias, se borra lo escrito.
+	 * 
 	 * Implementa un Mecanismo de Seguridad por si 2 o Mas Usuarios
 	 * suben un Fichero con el mismo nombre en el mismo instante
 	 * (Seria muchisima casualidad que en el mismo Milisegundo ocurriera esto)	
@@ -62,26 +106,28 @@ public class FileSystemStorageService implements StorageService {
 	 */
 	
 	@Override
-	public String store(MultipartFile file) {
-		String filename = StringUtils.cleanPath(file.getOriginalFilename());
+	public String store(InputStream inputStream, String originalFilename) {
+		String filename = StringUtils.cleanPath(originalFilename);
 		String extension = StringUtils.getFilenameExtension(filename);
 		String justFilename = filename.replace("." + extension, "");
 		String storedFilename = System.currentTimeMillis() + "_" + justFilename + "." + extension; //Mecanismo de Seguridad mencionado en la descripcion
+		if (filename.contains("..")) {
+			throw new StorageException("NO SE PUEDE ALMACENAR UN ARCHIVO CON UNA RUTA RELATIVA FUERA DEL DIRECTORIO ACTUAL: " + filename);
+		}
+		Path destino = this.rootLocation.resolve(storedFilename);
+		boolean completo = false;
 		try {
-			if (file.isEmpty()) {
-				throw new StorageException("ERROR AL TRATAR DE ALMACENAR UN ARCHIVO VACIO: " + filename);
-			}
-			if (filename.contains("..")) {
-				throw new StorageException("NO SE PUEDE ALMACENAR UN ARCHIVO CON UNA RUTA RELATIVA FUERA DEL DIRECTORIO ACTUAL: " + filename);
-			}
-			try (InputStream inputStream = file.getInputStream()) {
-				Files.copy(inputStream, this.rootLocation.resolve(storedFilename), StandardCopyOption.REPLACE_EXISTING);
-				return storedFilename;
-			}
+			Files.copy(inputStream, destino, StandardCopyOption.REPLACE_EXISTING);
+			completo = true;
 		} catch (IOException e) {
 			throw new StorageException("ERROR AL ALMACENAR EL ARCHIVO: " + filename, e);
+		} finally {
+			if (!completo) {
+				FileSystemUtils.deleteRecursively(destino.toFile());
+			}
 		}
-
+		eventPublisher.publishEvent(new FileStoredEvent(storedFilename));
+		return storedFilename;
 	}
 
 	/**
@@ -189,7 +235,9 @@ public class FileSystemStorageService implements StorageService {
 		String justFilename = StringUtils.getFilename(filename);
 		try {
 			Path file = load(justFilename);
-			Files.deleteIfExists(file);
+			if (Files.deleteIfExists(file)) {
+				eventPublisher.publishEvent(new FileDeletedEvent(justFilename));
+			}
 		} catch (IOException e) {
 			throw new StorageException("Error al eliminar un fichero", e);
 		}	
@@ -0,0 +1,76 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CLASE FiltroBloom
+ * -------------------------------------------------------------------------------------------
+ * Filtro de Bloom de cadenas: conjunto aproximado de tamanyo fijo. Si
+ * contiene() devuelve false, la cadena NO se anyadio nunca; si devuelve true,
+ * probablemente si (con la probabilidad de falso positivo indicada).
+ * Ocupa unos 1,8 bytes por elemento con un 0,1% de falsos positivos.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+class FiltroBloom {
+
+	private final long[] bits;
+
+	private final long numeroBits;
+
+	private final int funciones;
+
+	FiltroBloom(long elementosEsperados, double probabilidadFalsoPositivo) {
+		long n = Math.max(1, elementosEsperados);
+		long m = (long) Math.ceil(-n * Math.log(probabilidadFalsoPositivo) / (Math.log(2) * Math.log(2)));
+		this.numeroBits = Math.max(64, m);
+		this.bits = new long[(int) ((numeroBits + 63) / 64)];
+		this.funciones = Math.max(1, (int) Math.round((double) numeroBits / n * Math.log(2)));
+	}
+
+	void anyadir(String valor) {
+		long hash = hash(valor);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < funciones; i++) {
+			long bit = Math.floorMod(h1 + (long) i * h2, numeroBits);
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	boolean contiene(String valor) {
+		long hash = hash(valor);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < funciones; i++) {
+			long bit = Math.floorMod(h1 + (long) i * h2, numeroBits);
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Hash FNV-1a de 64 bits de la cadena en UTF-8, mezclado al final para
+	 * repartir bien los bits altos y bajos (de los que salen las dos funciones
+	 * de hash del doble hashing).
+	 */
+
+	private static long hash(String valor) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : valor.getBytes(StandardCharsets.UTF_8)) {
+			h ^= (b & 0xff);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
@@ -0,0 +1,442 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * CLASE HotFileCache
+ * -------------------------------------------------------------------------------------------
+ * Cache en memoria de los ficheros mas solicitados en /files (las imagenes de
+ * la portada se piden muchisimas mas veces que el resto). Se coloca delante de
+ * StorageService.loadAsResource() y de las variantes de ImageDerivativeService.
+ *
+ * - Los ficheros se guardan en ByteBuffers DIRECTOS (fuera del heap), asi no
+ *   engordan el heap ni las pausas del recolector de basura.
+ * - Esta acotada por el TOTAL DE BYTES (storage.cache.max-bytes), no por el
+ *   numero de ficheros, y expulsa por antiguedad de uso (LRU).
+ * - La ADMISION tiene en cuenta la frecuencia: se lleva un contador aproximado
+ *   de accesos por fichero (Count-Min Sketch) y un fichero nuevo solo entra si
+ *   se ha pedido mas veces que los que tendria que expulsar. Asi un recorrido
+ *   puntual por imagenes poco vistas no vacia la cache de las de la portada.
+ * - Se invalida al borrar (FileDeletedEvent) o sobrescribir (FileStoredEvent)
+ *   un fichero, junto con todas sus variantes.
+ * - Expone por JMX (spring.jmx.enabled=true) la tasa de aciertos y los bytes
+ *   ocupados.
+ *
+ * Desactivada (storage.cache.enabled=false, por defecto) se limita a delegar
+ * en el almacen.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Component
+@ManagedResource(objectName = "wallaspring:type=HotFileCache", description = "Cache en memoria de /files")
+public class HotFileCache {
+
+	private static final Logger log = LoggerFactory.getLogger(HotFileCache.class);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Configuracion de la cache
+	 */
+
+	private final HotFileCacheProperties properties;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Ficheros cacheados en orden de ACCESO (el primero es el usado hace mas tiempo)
+	 */
+
+	private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(64, 0.75f, true);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Frecuencias aproximadas de acceso de los ficheros, esten o no en la cache
+	 */
+
+	private final FrecuenciaSketch frecuencias;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Se incrementa en cada invalidacion, para descartar las lecturas que estaban
+	 * en curso mientras se borraba el fichero
+	 */
+
+	private long generacion;
+
+	private long residentBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	@Autowired
+	public HotFileCache(HotFileCacheProperties properties) {
+		this.properties = properties;
+		this.frecuencias = new FrecuenciaSketch(properties.getMaxBytes());
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que devuelve el fichero cacheado con esa clave o, si no esta, lo carga
+	 * con el loader indicado e intenta admitirlo en la cache. Si el loader devuelve
+	 * null, devuelve null y no se cachea nada.
+	 *
+	 * @param clave
+	 * @param loader
+	 * @return
+	 */
+
+	public Resource get(String clave, Supplier<Resource> loader) {
+		if (!properties.isEnabled()) {
+			return loader.get();
+		}
+		long generacionLectura;
+		synchronized (this) {
+			frecuencias.incrementar(clave);
+			Entrada entrada = entradas.get(clave);
+			if (entrada != null) {
+				hits.incrementAndGet();
+				return entrada.recurso();
+			}
+			generacionLectura = generacion;
+		}
+		misses.incrementAndGet();
+		Resource recurso = loader.get();
+		if (recurso == null) {
+			return null;
+		}
+		Entrada entrada = leer(clave, recurso);
+		if (entrada == null) {
+			return recurso;
+		}
+		synchronized (this) {
+			if (generacionLectura != generacion || !admitir(clave, entrada)) {
+				return recurso;
+			}
+		}
+		return entrada.recurso();
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que genera la clave de cache de una variante de una imagen. El fichero
+	 * original se cachea con su propio nombre como clave.
+	 *
+	 * @param filename
+	 * @param variante
+	 * @return
+	 */
+
+	public static String clave(String filename, ImageVariant variante) {
+		return filename + "?v=" + variante.getNombre();
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que saca de la cache un fichero y todas sus variantes.
+	 *
+	 * @param filename
+	 */
+
+	public synchronized void invalidar(String filename) {
+		generacion++;
+		String justFilename = StringUtils.getFilename(filename);
+		quitar(justFilename);
+		for (ImageVariant variante : ImageVariant.values()) {
+			quitar(clave(justFilename, variante));
+		}
+	}
+
+	@EventListener
+	public void onFileStored(FileStoredEvent event) {
+		invalidar(event.getFilename());
+	}
+
+	@EventListener
+	public void onFileDeleted(FileDeletedEvent event) {
+		invalidar(event.getFilename());
+	}
+
+	@ManagedOperation(description = "Vacia la cache")
+	public synchronized void vaciar() {
+		generacion++;
+		entradas.clear();
+		residentBytes = 0;
+	}
+
+	@ManagedAttribute(description = "Aciertos / peticiones desde el arranque")
+	public double getHitRatio() {
+		long aciertos = hits.get();
+		long total = aciertos + misses.get();
+		return total == 0 ? 0.0 : (double) aciertos / total;
+	}
+
+	@ManagedAttribute(description = "Peticiones servidas desde la cache")
+	public long getHits() {
+		return hits.get();
+	}
+
+	@ManagedAttribute(description = "Peticiones que tuvieron que ir al almacen")
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@ManagedAttribute(description = "Bytes ocupados por los ficheros cacheados (fuera del heap)")
+	public synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	@ManagedAttribute(description = "Numero de ficheros cacheados")
+	public synchronized int getEntries() {
+		return entradas.size();
+	}
+
+	@ManagedAttribute(description = "Bytes maximos de la cache")
+	public long getMaxBytes() {
+		return properties.getMaxBytes();
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que copia un fichero a un buffer directo, si cabe en la cache y es
+	 * lo bastante frecuente como para entrar. Se comprueba ANTES de reservar el
+	 * buffer, para no reservar memoria fuera del heap para ficheros que no van
+	 * a entrar.
+	 *
+	 * @param clave
+	 * @param recurso
+	 * @return La entrada leida, o null si el fichero no debe cachearse
+	 */
+
+	private Entrada leer(String clave, Resource recurso) {
+		try {
+			long longitud = recurso.contentLength();
+			if (longitud <= 0 || longitud > properties.getMaxFileBytes() || longitud > properties.getMaxBytes()) {
+				return null;
+			}
+			synchronized (this) {
+				if (victimas(clave, longitud) == null) {
+					return null;
+				}
+			}
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) longitud);
+			try (ReadableByteChannel canal = recurso.readableChannel()) {
+				while (buffer.hasRemaining() && canal.read(buffer) >= 0) {
+					// seguimos leyendo hasta llenar el buffer
+				}
+			}
+			if (buffer.hasRemaining()) {
+				return null; // el fichero ha cambiado de tamanyo mientras lo leiamos
+			}
+			buffer.flip();
+			return new Entrada(buffer, recurso.getFilename(), ultimaModificacion(recurso));
+		} catch (IOException e) {
+			log.debug("No se pudo cachear {}", clave, e);
+			return null;
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que mete una entrada en la cache expulsando las necesarias.
+	 *
+	 * @param clave
+	 * @param entrada
+	 * @return false si no se admite porque las que habria que expulsar son mas frecuentes
+	 */
+
+	private boolean admitir(String clave, Entrada entrada) {
+		quitar(clave);
+		List<String> expulsadas = victimas(clave, entrada.longitud());
+		if (expulsadas == null) {
+			return false;
+		}
+		for (String expulsada : expulsadas) {
+			quitar(expulsada);
+		}
+		entradas.put(clave, entrada);
+		residentBytes += entrada.longitud();
+		return true;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que calcula que ficheros habria que expulsar (los usados hace mas
+	 * tiempo) para hacer hueco a uno nuevo. Si alguno de ellos se ha pedido al
+	 * menos tantas veces como el nuevo, el nuevo no se admite.
+	 *
+	 * @param clave
+	 * @param longitud
+	 * @return Las claves a expulsar, o null si el fichero no debe admitirse
+	 */
+
+	private List<String> victimas(String clave, long longitud) {
+		List<String> victimas = new ArrayList<>();
+		long libres = properties.getMaxBytes() - residentBytes;
+		if (libres >= longitud) {
+			return victimas;
+		}
+		int frecuencia = frecuencias.frecuencia(clave);
+		for (Map.Entry<String, Entrada> e : entradas.entrySet()) {
+			if (e.getKey().equals(clave)) {
+				continue;
+			}
+			if (frecuencias.frecuencia(e.getKey()) >= frecuencia) {
+				return null;
+			}
+			victimas.add(e.getKey());
+			libres += e.getValue().longitud();
+			if (libres >= longitud) {
+				return victimas;
+			}
+		}
+		return null;
+	}
+
+	private void quitar(String clave) {
+		Entrada entrada = entradas.remove(clave);
+		if (entrada != null) {
+			residentBytes -= entrada.longitud();
+		}
+	}
+
+	private static long ultimaModificacion(Resource recurso) {
+		try {
+			return recurso.lastModified();
+		} catch (IOException e) {
+			return 0L;
+		}
+	}
+
+	/**
+	 * CLASE Entrada
+	 * ---------------------------------------------------------------------------------------
+	 * Fichero cacheado: su contenido en un buffer directo de solo lectura, y lo
+	 * necesario para servirlo (nombre para el Content-Type y fecha de modificacion).
+	 */
+
+	private static final class Entrada {
+
+		private final ByteBuffer buffer;
+
+		private final String filename;
+
+		private final long lastModified;
+
+		Entrada(ByteBuffer buffer, String filename, long lastModified) {
+			this.buffer = buffer.asReadOnlyBuffer();
+			this.filename = filename;
+			this.lastModified = lastModified;
+		}
+
+		long longitud() {
+			return buffer.capacity();
+		}
+
+		Resource recurso() {
+			return new ByteBufferResource(buffer, filename, lastModified);
+		}
+	}
+
+	/**
+	 * CLASE FrecuenciaSketch
+	 * ---------------------------------------------------------------------------------------
+	 * Count-Min Sketch: estima cuantas veces se ha pedido cada clave con memoria
+	 * fija (4 filas de contadores), sin guardar las claves. Puede sobreestimar,
+	 * nunca subestimar. Los contadores se saturan en 15 y se dividen a la mitad
+	 * periodicamente, para que las frecuencias antiguas pierdan peso.
+	 */
+
+	private static final class FrecuenciaSketch {
+
+		private static final int FILAS = 4;
+
+		private static final int MAXIMO = 15;
+
+		private static final int[] SEMILLAS = { 0x97CB3127, 0xB3B6A7C5, 0x2F2A4C3D, 0x6C8E9CF5 };
+
+		private final int[][] contadores;
+
+		private final int mascara;
+
+		private final int periodoReset;
+
+		private int incrementos;
+
+		FrecuenciaSketch(long maxBytes) {
+			// unas 8 columnas por cada fichero de 16 KB que quepa en la cache
+			long estimados = Math.max(128L, maxBytes / (16 * 1024));
+			int ancho = Integer.highestOneBit((int) Math.min(1 << 20, estimados * 8) - 1) << 1;
+			this.contadores = new int[FILAS][ancho];
+			this.mascara = ancho - 1;
+			this.periodoReset = ancho * 10;
+		}
+
+		void incrementar(String clave) {
+			int hash = clave.hashCode();
+			for (int i = 0; i < FILAS; i++) {
+				int indice = indice(hash, i);
+				if (contadores[i][indice] < MAXIMO) {
+					contadores[i][indice]++;
+				}
+			}
+			if (++incrementos >= periodoReset) {
+				envejecer();
+			}
+		}
+
+		int frecuencia(String clave) {
+			int hash = clave.hashCode();
+			int minimo = MAXIMO;
+			for (int i = 0; i < FILAS; i++) {
+				minimo = Math.min(minimo, contadores[i][indice(hash, i)]);
+			}
+			return minimo;
+		}
+
+		private int indice(int hash, int fila) {
+			int h = (hash ^ SEMILLAS[fila]) * 0x9E3779B9;
+			h ^= h >>> 16;
+			return h & mascara;
+		}
+
+		private void envejecer() {
+			for (int[] fila : contadores) {
+				for (int j = 0; j < fila.length; j++) {
+					fila[j] >>>= 1;
+				}
+			}
+			incrementos /= 2;
+		}
+	}
+
+}
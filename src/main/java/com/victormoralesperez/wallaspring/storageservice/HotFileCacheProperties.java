@@ -0,0 +1,49 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE HotFileCacheProperties
+ * -------------------------------------------------------------------------------------------
+ * Configuracion de la cache en memoria de los ficheros mas solicitados
+ * en /files (ver HotFileCache).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "storage.cache")
+@Getter @Setter
+public class HotFileCacheProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Activa o desactiva la cache. Desactivada, cada peticion se lee del almacen.
+	 */
+
+	private boolean enabled = false;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Numero maximo de bytes que ocupan en total los ficheros cacheados.
+	 * Es memoria FUERA DEL HEAP (buffers directos), por lo que debe caber en
+	 * -XX:MaxDirectMemorySize (por defecto, el mismo tamanyo que el heap).
+	 */
+
+	private long maxBytes = 64L * 1024 * 1024;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Tamanyo maximo de un fichero para poder entrar en la cache. Los ficheros
+	 * mayores se sirven siempre desde el almacen, para que uno solo no desplace
+	 * a decenas de imagenes pequenyas.
+	 */
+
+	private long maxFileBytes = 1024L * 1024;
+
+}
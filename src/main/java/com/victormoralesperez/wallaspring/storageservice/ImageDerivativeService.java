@@ -0,0 +1,269 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+/**
+ * CLASE ImageDerivativeService
+ * -------------------------------------------------------------------------------------------
+ * Servicio que genera, al subir una imagen, sus VARIANTES de tamanyo fijo
+ * (ver ImageVariant) en JPEG comprimido, para no servir la foto original
+ * (a menudo de varios megas) en cada panel del catalogo.
+ *
+ * - Se ejecuta en SEGUNDO PLANO (@Async) al recibir un FileStoredEvent, asi la
+ *   subida no espera a que se generen las variantes. Mientras no existan, se
+ *   sirve la imagen original.
+ * - La imagen se DECODIFICA UNA SOLA VEZ y todas las variantes se obtienen de
+ *   ese mismo BufferedImage, de la mayor a la menor.
+ * - La memoria del decodificador esta acotada: se leen las dimensiones de la
+ *   cabecera antes de decodificar, se rechazan las imagenes desorbitadas y las
+ *   grandes se decodifican submuestreadas (ver ImageProperties).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Service
+public class ImageDerivativeService {
+
+	private static final Logger log = LoggerFactory.getLogger(ImageDerivativeService.class);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Servicio de Almacenamiento del que se leen las imagenes originales
+	 */
+
+	private final StorageService storageService;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Configuracion de las variantes
+	 */
+
+	private final ImageProperties properties;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Directorio raiz de las variantes (una subcarpeta por variante)
+	 */
+
+	private final Path rootLocation;
+
+	@Autowired
+	public ImageDerivativeService(StorageService storageService, ImageProperties properties) {
+		this.storageService = storageService;
+		this.properties = properties;
+		this.rootLocation = Paths.get(properties.getLocation());
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que escucha las subidas de ficheros y genera sus variantes en el
+	 * pool de hilos "imageExecutor" (ver ConfiguracionAsincrona).
+	 *
+	 * @param event
+	 */
+
+	@Async("imageExecutor")
+	@EventListener
+	public void onFileStored(FileStoredEvent event) {
+		if (properties.isEnabled()) {
+			generarVariantes(event.getFilename());
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que borra las variantes de un fichero cuando este desaparece del almacen.
+	 *
+	 * @param event
+	 */
+
+	@EventListener
+	public void onFileDeleted(FileDeletedEvent event) {
+		for (ImageVariant variante : ImageVariant.values()) {
+			try {
+				Files.deleteIfExists(rutaVariante(event.getFilename(), variante));
+			} catch (IOException e) {
+				log.warn("No se pudo borrar la variante {} de {}", variante.getNombre(), event.getFilename(), e);
+			}
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que devuelve una variante ya generada de una imagen, o null si aun
+	 * no existe (o el fichero no es una imagen), para que se sirva la original.
+	 *
+	 * @param filename
+	 * @param variante
+	 * @return
+	 */
+
+	public Resource loadVariantAsResource(String filename, ImageVariant variante) {
+		Path ruta = rutaVariante(filename, variante);
+		return Files.isReadable(ruta) ? new FileSystemResource(ruta) : null;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que decodifica la imagen una vez y escribe todas sus variantes.
+	 * Si el fichero no es una imagen o supera los limites, no genera nada.
+	 *
+	 * @param filename
+	 */
+
+	public void generarVariantes(String filename) {
+		try {
+			BufferedImage original = decodificar(filename);
+			if (original == null) {
+				return;
+			}
+			BufferedImage fuente = original;
+			for (int i = ImageVariant.values().length - 1; i >= 0; i--) {
+				ImageVariant variante = ImageVariant.values()[i];
+				fuente = escalar(fuente, variante.getAnchoMaximo(), variante.getAltoMaximo());
+				escribirJpeg(fuente, rutaVariante(filename, variante));
+			}
+		} catch (IOException | StorageException e) {
+			log.warn("No se pudieron generar las variantes de {}", filename, e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que decodifica la imagen original acotando la memoria: primero lee
+	 * solo la cabecera (ancho y alto), rechaza las imagenes que superan
+	 * maxSourcePixels y calcula el submuestreo necesario para no pasar de
+	 * maxDecodedPixels.
+	 *
+	 * @param filename
+	 * @return La imagen decodificada, o null si no es una imagen valida
+	 * @throws IOException
+	 */
+
+	private BufferedImage decodificar(String filename) throws IOException {
+		try (InputStream in = storageService.loadAsResource(filename).getInputStream();
+				ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, true, true);
+				long pixeles = (long) reader.getWidth(0) * reader.getHeight(0);
+				if (pixeles > properties.getMaxSourcePixels()) {
+					log.warn("Imagen {} descartada: {} pixeles supera el maximo de {}", filename, pixeles, properties.getMaxSourcePixels());
+					return null;
+				}
+				ImageReadParam param = reader.getDefaultReadParam();
+				int submuestreo = (int) Math.ceil(Math.sqrt((double) pixeles / properties.getMaxDecodedPixels()));
+				if (submuestreo > 1) {
+					param.setSourceSubsampling(submuestreo, submuestreo, 0, 0);
+				}
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que reduce una imagen para que quepa en la caja indicada manteniendo
+	 * la proporcion (nunca la amplia). El resultado es siempre RGB sobre fondo
+	 * blanco, porque JPEG no admite transparencias.
+	 *
+	 * @param fuente
+	 * @param anchoMaximo
+	 * @param altoMaximo
+	 * @return
+	 */
+
+	private static BufferedImage escalar(BufferedImage fuente, int anchoMaximo, int altoMaximo) {
+		double escala = Math.min(1.0, Math.min((double) anchoMaximo / fuente.getWidth(), (double) altoMaximo / fuente.getHeight()));
+		int ancho = Math.max(1, (int) Math.round(fuente.getWidth() * escala));
+		int alto = Math.max(1, (int) Math.round(fuente.getHeight() * escala));
+		BufferedImage destino = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = destino.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(fuente, 0, 0, ancho, alto, Color.WHITE, null);
+		} finally {
+			g.dispose();
+		}
+		return destino;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que escribe una imagen en JPEG con la calidad configurada. Se escribe
+	 * en un temporal y se renombra, para no servir nunca una variante a medias.
+	 *
+	 * @param imagen
+	 * @param destino
+	 * @throws IOException
+	 */
+
+	private void escribirJpeg(BufferedImage imagen, Path destino) throws IOException {
+		Files.createDirectories(destino.getParent());
+		Path temporal = Files.createTempFile(destino.getParent(), "variante", ".tmp");
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		try {
+			try (ImageOutputStream out = ImageIO.createImageOutputStream(temporal.toFile())) {
+				writer.setOutput(out);
+				ImageWriteParam param = writer.getDefaultWriteParam();
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(properties.getQuality());
+				writer.write(null, new IIOImage(imagen, null, null), param);
+			}
+			Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			writer.dispose();
+			Files.deleteIfExists(temporal);
+		}
+	}
+
+	private Path rutaVariante(String filename, ImageVariant variante) {
+		return rootLocation.resolve(variante.getNombre()).resolve(StringUtils.getFilename(filename) + ".jpg");
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE ImageProperties
+ * -------------------------------------------------------------------------------------------
+ * Configuracion de la generacion de variantes (miniaturas, paneles y detalle)
+ * de las imagenes subidas al almacen.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "storage.images")
+@Getter @Setter
+public class ImageProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Activa o desactiva la generacion de variantes al subir una imagen
+	 */
+
+	private boolean enabled = true;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Directorio donde se guardan las variantes (una subcarpeta por variante).
+	 * Es una cache: se puede borrar y las imagenes se serviran en su tamanyo original.
+	 */
+
+	private String location = "upload-dir-variants";
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Numero maximo de pixeles de la imagen ORIGINAL. Las imagenes mayores no se
+	 * decodifican (protege frente a imagenes de dimensiones desorbitadas que,
+	 * pesando poco, ocuparian gigas de memoria al decodificarse).
+	 */
+
+	private long maxSourcePixels = 100_000_000L;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Numero maximo de pixeles que se llegan a tener en memoria al decodificar.
+	 * Las imagenes mayores se decodifican submuestreadas (leyendo 1 de cada N
+	 * pixeles), de modo que cada decodificacion ocupa como mucho unos
+	 * maxDecodedPixels * 4 bytes de memoria.
+	 */
+
+	private long maxDecodedPixels = 4_000_000L;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Calidad de compresion JPEG de las variantes (0.0 - 1.0)
+	 */
+
+	private float quality = 0.8f;
+
+}
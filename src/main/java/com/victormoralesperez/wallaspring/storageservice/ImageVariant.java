@@ -0,0 +1,85 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * ENUMERADO ImageVariant
+ * -------------------------------------------------------------------------------------------
+ * Tamanyos fijos en los que se sirven las imagenes subidas por los Usuarios.
+ * Cada variante define la caja (ancho x alto) en la que debe caber la imagen,
+ * de acuerdo con el sitio donde se pinta en las plantillas:
+ *
+ * - THUMB   : miniaturas del Carrito (150x150)
+ * - PANEL   : paneles del catalogo y avatares (300px de alto)
+ * - DETALLE : ficha del Producto
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public enum ImageVariant {
+
+	THUMB("thumb", 150, 150),
+	PANEL("panel", 600, 300),
+	DETALLE("detalle", 1200, 900);
+
+	private final String nombre;
+	private final int anchoMaximo;
+	private final int altoMaximo;
+
+	ImageVariant(String nombre, int anchoMaximo, int altoMaximo) {
+		this.nombre = nombre;
+		this.anchoMaximo = anchoMaximo;
+		this.altoMaximo = altoMaximo;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public int getAnchoMaximo() {
+		return anchoMaximo;
+	}
+
+	public int getAltoMaximo() {
+		return altoMaximo;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que busca una variante por el nombre con el que aparece en la URL
+	 * (/files/{filename}?v=panel). Devuelve null si no existe.
+	 *
+	 * @param nombre
+	 * @return
+	 */
+
+	public static ImageVariant porNombre(String nombre) {
+		for (ImageVariant variante : values()) {
+			if (variante.nombre.equalsIgnoreCase(nombre)) {
+				return variante;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que, dada la URL de una imagen almacenada (Producto.imagen o
+	 * Usuario.avatar), devuelve la URL de esta variante. Las URLs que no apuntan
+	 * a nuestro almacen (/files/) se devuelven tal cual.
+	 *
+	 * @param url
+	 * @return
+	 */
+
+	public String url(String url) {
+		if (!StringUtils.hasText(url) || !url.contains("/files/") || url.contains("?")) {
+			return url;
+		}
+		return url + "?v=" + nombre;
+	}
+
+}
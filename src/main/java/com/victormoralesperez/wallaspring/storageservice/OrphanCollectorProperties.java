@@ -0,0 +1,82 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE OrphanCollectorProperties
+ * -------------------------------------------------------------------------------------------
+ * Configuracion de la recoleccion de ficheros huerfanos del almacen
+ * (ver OrphanedUploadCollector).
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "storage.gc")
+@Getter @Setter
+public class OrphanCollectorProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Activa o desactiva la recoleccion periodica (storage.gc.cron)
+	 */
+
+	private boolean enabled = true;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * En modo simulacion solo se informa de los huerfanos encontrados, sin borrarlos.
+	 * Activado por defecto: hay que revisar el informe antes de borrar nada.
+	 */
+
+	private boolean dryRun = true;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Antiguedad minima de un fichero para poder borrarlo. Protege las subidas
+	 * recientes cuyo Producto o Usuario aun no se ha guardado en la Base de Datos.
+	 */
+
+	private Duration grace = Duration.ofHours(24);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Numero de filas por consulta al marcar y de ficheros por lote al barrer
+	 */
+
+	private int chunkSize = 500;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Pausa entre lotes, para no competir con las peticiones de los usuarios
+	 */
+
+	private Duration pause = Duration.ofMillis(100);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Numero maximo de ficheros que se borran en cada ejecucion
+	 */
+
+	private int maxDeletesPerRun = 1000;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Probabilidad de falso positivo del filtro de Bloom de ficheros referenciados.
+	 * Un falso positivo solo hace que un huerfano se conserve (nunca que se borre
+	 * un fichero en uso).
+	 */
+
+	private double falsePositiveRate = 0.001;
+
+}
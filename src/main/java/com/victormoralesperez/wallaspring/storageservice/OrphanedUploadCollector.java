@@ -0,0 +1,311 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import com.victormoralesperez.wallaspring.repositories.IProductoArchivadoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.ReferenciaFichero;
+
+import lombok.Getter;
+
+/**
+ * CLASE OrphanedUploadCollector
+ * -------------------------------------------------------------------------------------------
+ * Recolector de ficheros HUERFANOS del almacen: imagenes que ya no referencia
+ * ningun Producto (imagen) ni Usuario (avatar), por ejemplo porque se borro
+ * el Producto o porque un registro fallo despues de subir el avatar.
+ *
+ * Funciona como un MARCADO Y BARRIDO incremental:
+ * - MARCADO: se leen por paginas (storage.gc.chunk-size, por clave) solo las URLs de las
+ *   imagenes y avatares, y sus nombres de fichero se anyaden a un filtro de
+ *   Bloom. La memoria no depende del numero de filas mas que en ~2 bytes por
+ *   fichero referenciado.
+ * - BARRIDO: se recorre el almacen en streaming (sin cargar la lista completa),
+ *   por lotes y con una pausa entre lotes. Un fichero que no esta en el filtro
+ *   es huerfano seguro (el filtro de Bloom nunca da falsos negativos), pero
+ *   solo se borra si es mas antiguo que el periodo de gracia (storage.gc.grace),
+ *   para no borrar subidas cuyo Producto o Usuario aun se esta guardando.
+ *
+ * Por defecto se ejecuta cada noche en modo SIMULACION (storage.gc.dry-run=true):
+ * solo genera un informe. Ademas de en el log, el ultimo informe se puede
+ * consultar por JMX, y por JMX se puede lanzar una ejecucion a mano.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Component
+@ManagedResource(objectName = "wallaspring:type=OrphanedUploadCollector", description = "Recolector de ficheros huerfanos")
+public class OrphanedUploadCollector {
+
+	private static final Logger log = LoggerFactory.getLogger(OrphanedUploadCollector.class);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Numero maximo de nombres de huerfanos que se incluyen en el informe
+	 */
+
+	private static final int MUESTRA = 50;
+
+	private final StorageService storageService;
+
+	private final IProductoRepositoryDAO productoRepositorio;
+
+	private final IProductoArchivadoRepositoryDAO productoArchivadoRepositorio;
+
+	private final IUsuarioRepositoryDAO usuarioRepositorio;
+
+	private final OrphanCollectorProperties properties;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Evita que se solapen dos recolecciones (la programada y una lanzada por JMX)
+	 */
+
+	private final AtomicBoolean enCurso = new AtomicBoolean();
+
+	private volatile Informe ultimoInforme;
+
+	@Autowired
+	public OrphanedUploadCollector(StorageService storageService, IProductoRepositoryDAO productoRepositorio,
+			IProductoArchivadoRepositoryDAO productoArchivadoRepositorio, IUsuarioRepositoryDAO usuarioRepositorio,
+			OrphanCollectorProperties properties) {
+		this.storageService = storageService;
+		this.productoRepositorio = productoRepositorio;
+		this.productoArchivadoRepositorio = productoArchivadoRepositorio;
+		this.usuarioRepositorio = usuarioRepositorio;
+		this.properties = properties;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Ejecucion periodica (storage.gc.cron, por defecto a las 4:00 cada dia).
+	 */
+
+	@Scheduled(cron = "${storage.gc.cron:0 0 4 * * *}")
+	public void recolectarProgramado() {
+		if (properties.isEnabled()) {
+			recolectar(properties.isDryRun());
+		}
+	}
+
+	@ManagedOperation(description = "Ejecuta una recoleccion (dryRun=true solo informa) y devuelve el informe")
+	public String ejecutar(boolean dryRun) {
+		Informe informe = recolectar(dryRun);
+		return informe == null ? "YA HAY UNA RECOLECCION EN CURSO" : informe.toString();
+	}
+
+	@ManagedAttribute(description = "Informe de la ultima recoleccion")
+	public String getUltimoInforme() {
+		Informe informe = ultimoInforme;
+		return informe == null ? "SIN EJECUCIONES" : informe.toString();
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que ejecuta una recoleccion completa (marcado y barrido).
+	 *
+	 * @param dryRun Si es true, solo se informa de los huerfanos, sin borrarlos
+	 * @return El informe, o null si ya habia una recoleccion en curso
+	 */
+
+	public Informe recolectar(boolean dryRun) {
+		if (!enCurso.compareAndSet(false, true)) {
+			return null;
+		}
+		try {
+			Informe informe = new Informe(dryRun);
+			FiltroBloom referenciados = marcar(informe);
+			barrer(referenciados, informe);
+			informe.fin = Instant.now();
+			ultimoInforme = informe;
+			log.info("Recoleccion de ficheros huerfanos terminada: {}", informe);
+			return informe;
+		} finally {
+			enCurso.set(false);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que MARCA los ficheros referenciados desde la Base de Datos. El filtro
+	 * se dimensiona con un margen para las filas que se inserten mientras se marca.
+	 * Los Productos archivados se marcan despues de los de la Tabla Producto: el archivado
+	 * copia cada fila al archivo antes de borrarla (en la misma transaccion), asi que una
+	 * fila que se mueva mientras tanto se marca en una de las dos pasadas. Para eso las
+	 * Tablas se recorren por clave (WHERE id > ultimo) y no por OFFSET: con OFFSET, cada
+	 * fila borrada por detras desplaza las siguientes y una de ellas no se leeria nunca.
+	 *
+	 * @param informe
+	 * @return
+	 */
+
+	private FiltroBloom marcar(Informe informe) {
+		long esperados = productoRepositorio.countByImagenIsNotNull() + productoArchivadoRepositorio.countByImagenIsNotNull()
+				+ usuarioRepositorio.countByAvatarIsNotNull();
+		FiltroBloom filtro = new FiltroBloom(esperados + esperados / 10 + 1000, properties.getFalsePositiveRate());
+		marcar(productoRepositorio::findImagenes, filtro, informe);
+		marcar(productoArchivadoRepositorio::findImagenes, filtro, informe);
+		marcar(usuarioRepositorio::findAvatares, filtro, informe);
+		return filtro;
+	}
+
+	private void marcar(BiFunction<Long, Pageable, List<ReferenciaFichero>> consulta, FiltroBloom filtro, Informe informe) {
+		Pageable pagina = PageRequest.of(0, properties.getChunkSize());
+		long ultimo = 0;
+		List<ReferenciaFichero> referencias;
+		do {
+			referencias = consulta.apply(ultimo, pagina);
+			for (ReferenciaFichero referencia : referencias) {
+				filtro.anyadir(nombreFichero(referencia.getUrl()));
+				informe.referenciados++;
+				ultimo = referencia.getId();
+			}
+			pausa();
+		} while (referencias.size() == pagina.getPageSize());
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que BARRE el almacen en streaming, por lotes, borrando (o solo
+	 * anotando, en simulacion) los huerfanos que han superado el periodo de gracia.
+	 *
+	 * @param referenciados
+	 * @param informe
+	 */
+
+	private void barrer(FiltroBloom referenciados, Informe informe) {
+		long limiteGracia = informe.inicio.minus(properties.getGrace()).toEpochMilli();
+		int enLote = 0;
+		try (Stream<Path> ficheros = storageService.loadAll()) {
+			Iterator<Path> iterador = ficheros.iterator();
+			while (iterador.hasNext()) {
+				String nombre = iterador.next().getFileName().toString();
+				informe.examinados++;
+				if (!referenciados.contiene(nombre)) {
+					revisarHuerfano(nombre, limiteGracia, informe);
+				}
+				if (++enLote >= properties.getChunkSize()) {
+					enLote = 0;
+					pausa();
+				}
+			}
+		}
+	}
+
+	private void revisarHuerfano(String nombre, long limiteGracia, Informe informe) {
+		try {
+			Resource fichero = storageService.loadAsResource(nombre);
+			if (fichero.lastModified() > limiteGracia) {
+				informe.enGracia++;
+				return;
+			}
+			informe.huerfanos++;
+			if (informe.muestra.size() < MUESTRA) {
+				informe.muestra.add(nombre);
+			}
+			if (!informe.dryRun && informe.borrados < properties.getMaxDeletesPerRun()) {
+				long bytes = fichero.contentLength();
+				storageService.delete(nombre);
+				informe.borrados++;
+				informe.bytesLiberados += bytes;
+			}
+		} catch (IOException | StorageException e) {
+			informe.errores++;
+			log.debug("No se pudo revisar el fichero {}", nombre, e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que obtiene el nombre del fichero a partir de la URL guardada en la
+	 * Base de Datos (http://servidor/files/nombre.jpg -> nombre.jpg).
+	 */
+
+	private static String nombreFichero(String url) {
+		String sinParametros = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+		return StringUtils.getFilename(sinParametros);
+	}
+
+	private void pausa() {
+		try {
+			Thread.sleep(properties.getPause().toMillis());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("RECOLECCION DE FICHEROS HUERFANOS INTERRUMPIDA", e);
+		}
+	}
+
+	/**
+	 * CLASE Informe
+	 * ---------------------------------------------------------------------------------------
+	 * Resultado de una recoleccion
+	 */
+
+	@Getter
+	public static class Informe {
+
+		private final boolean dryRun;
+
+		private final Instant inicio = Instant.now();
+
+		private Instant fin;
+
+		private long referenciados;
+
+		private long examinados;
+
+		private long enGracia;
+
+		private long huerfanos;
+
+		private long borrados;
+
+		private long bytesLiberados;
+
+		private long errores;
+
+		private final List<String> muestra = new ArrayList<>();
+
+		Informe(boolean dryRun) {
+			this.dryRun = dryRun;
+		}
+
+		@Override
+		public String toString() {
+			return (dryRun ? "[SIMULACION] " : "") + "referenciados=" + referenciados + ", examinados=" + examinados
+					+ ", enGracia=" + enGracia + ", huerfanos=" + huerfanos + ", borrados=" + borrados
+					+ ", bytesLiberados=" + bytesLiberados + ", errores=" + errores
+					+ ", inicio=" + inicio + ", fin=" + fin + ", muestra=" + muestra;
+		}
+	}
+
+}
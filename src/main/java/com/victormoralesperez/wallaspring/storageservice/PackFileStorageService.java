@@ -0,0 +1,886 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * CLASE PackFileStorageService
+ * -------------------------------------------------------------------------------------------
+ * Implementación de un StorageService que, en lugar de un fichero por imagen,
+ * va AÑADIENDO los ficheros subidos al final de grandes ficheros de segmento
+ * (upload-dir/pack/00000001.pack, 00000002.pack...). Con millones de avatares
+ * e imagenes pequenyas se ahorra un inodo por fichero y las busquedas en
+ * directorios enormes.
+ *
+ * - Cada fichero es un REGISTRO del segmento: cabecera (marca, tipo, fecha,
+ *   longitudes), nombre, contenido y un CRC32 del contenido seguido de la
+ *   cabecera y el nombre (asi se puede escribir sin conocer antes la longitud).
+ * - En memoria se mantiene un INDICE nombre -> (segmento, posicion, longitud).
+ * - Los segmentos llenos se cierran y se MAPEAN EN MEMORIA: leer un fichero es
+ *   devolver un trozo del mapa, sin copias ni llamadas al sistema.
+ * - Borrar un fichero escribe una LAPIDA (registro de borrado). El espacio se
+ *   recupera en segundo plano COMPACTANDO los segmentos con muchos bytes muertos:
+ *   se copian los registros vivos al segmento activo y se borra el segmento.
+ * - Al arrancar se RECORREN los segmentos para reconstruir el indice. Si un
+ *   corte dejo un registro a medias (CRC incorrecto o registro truncado) el
+ *   segmento se trunca en el ultimo registro valido.
+ *
+ * Se activa con storage.backend=pack. Los nombres que devuelve son los mismos
+ * que los de FileSystemStorageService y los ficheros antiguos que ya
+ * estuvieran en la raiz de upload-dir se siguen sirviendo y borrando.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@Service
+@ConditionalOnProperty(prefix = "storage", name = "backend", havingValue = "pack")
+public class PackFileStorageService implements StorageService {
+
+	private static final Logger log = LoggerFactory.getLogger(PackFileStorageService.class);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Marca con la que empieza cada registro ("WPK1")
+	 */
+
+	private static final int MARCA = 0x57504B31;
+
+	private static final byte TIPO_FICHERO = 1;
+
+	private static final byte TIPO_LAPIDA = 2;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Bytes de la cabecera de un registro: marca (4), tipo (1), fecha (8),
+	 * longitud del nombre (2) y longitud del contenido (4). Tras el contenido va
+	 * el CRC32 (4).
+	 */
+
+	private static final int CABECERA = 4 + 1 + 8 + 2 + 4;
+
+	private static final int POSICION_LONGITUD = 4 + 1 + 8 + 2;
+
+	private static final int CRC = 4;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Longitud maxima del contenido de un fichero: el registro entero, con el nombre
+	 * mas largo posible, tiene que caber en un int
+	 */
+
+	private static final long MAXIMO_CONTENIDO = Integer.MAX_VALUE - CABECERA - CRC - Short.MAX_VALUE;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Tamanyo maximo de un segmento. Un MappedByteBuffer no puede pasar de 2 GB, asi
+	 * que se deja margen para el ultimo registro que se escribe antes de cerrarlo.
+	 */
+
+	private static final long MAXIMO_SEGMENTO = 1024L * 1024 * 1024;
+
+	private static final String DIRECTORIO_PACK = "pack";
+
+	private static final String EXTENSION_SEGMENTO = ".pack";
+
+	private static final String DIRECTORIO_SUBIDAS = "subidas";
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Directorio raiz de nuestro almacén de ficheros y directorio de los segmentos
+	 */
+
+	private final Path rootLocation;
+
+	private final Path packLocation;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Directorio de los ficheros temporales en los que se vuelcan las subidas antes de
+	 * añadirlas a un segmento (upload-dir/pack/subidas)
+	 */
+
+	private final Path subidasLocation;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Configuracion de los segmentos (storage.pack.*)
+	 */
+
+	private final StorageProperties.Pack properties;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Publicador de eventos de Spring, con el que avisamos de los ficheros que
+	 * se almacenan (FileStoredEvent) y se borran (FileDeletedEvent)
+	 */
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Indice de los ficheros vivos: nombre -> posicion de su contenido
+	 */
+
+	private final Map<String, Ubicacion> indice = new ConcurrentHashMap<>();
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Segmentos existentes ordenados por numero (el orden en que se escribieron)
+	 */
+
+	private final ConcurrentSkipListMap<Integer, Segmento> segmentos = new ConcurrentSkipListMap<>();
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Las escrituras (subidas, lapidas y copias de la compactacion) se hacen de una
+	 * en una al final del segmento activo. Las lecturas no necesitan cerrojo.
+	 * Nunca se coge mientras se lee una peticion: las subidas se vuelcan antes a un
+	 * fichero temporal y con el cerrojo solo se copian al segmento.
+	 */
+
+	private final ReentrantLock escritura = new ReentrantLock();
+
+	private volatile Segmento activo;
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que obtiene la Ruta del Directorio Raiz de nuestro almacen de ficheros.
+	 *
+	 * @param properties
+	 * @param eventPublisher
+	 */
+
+	@Autowired
+	public PackFileStorageService(StorageProperties properties, ApplicationEventPublisher eventPublisher) {
+		this.rootLocation = Paths.get(properties.getLocation());
+		this.packLocation = rootLocation.resolve(DIRECTORIO_PACK);
+		this.subidasLocation = packLocation.resolve(DIRECTORIO_SUBIDAS);
+		this.properties = properties.getPack();
+		this.eventPublisher = eventPublisher;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que almacena un Fichero a partir de un objeto de tipo MultipartFile.
+	 *
+	 * @return Nombre con el que se ha almacenado el fichero
+	 */
+
+	@Override
+	public String store(MultipartFile file) {
+		String storedFilename = StreamedMultipartFile.reclamar(file);
+		if (storedFilename != null) {
+			return storedFilename;
+		}
+		String filename = StringUtils.cleanPath(file.getOriginalFilename());
+		if (file.isEmpty()) {
+			throw new StorageException("ERROR AL TRATAR DE ALMACENAR UN ARCHIVO VACIO: " + filename);
+		}
+		try (InputStream inputStream = file.getInputStream()) {
+			return store(inputStream, filename);
+		} catch (IOException e) {
+			throw new StorageException("ERROR AL ALMACENAR EL ARCHIVO: " + filename, e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que almacena un Fichero añadiendolo al final del segmento activo.
+	 * El nombre se genera igual que en FileSystemStorageService, comprobando
+	 * ademas que no coincida con otro ya almacenado.
+	 * El contenido se lee primero a un fichero temporal, calculando su longitud y su
+	 * CRC, SIN el cerrojo de escritura: una subida lenta o parada no bloquea las demas
+	 * subidas, los borrados ni la compactacion. Con el cerrojo solo se elige el nombre,
+	 * se copia el temporal al segmento (en el propio disco) y se indexa.
+	 *
+	 * @return Nombre con el que se ha almacenado el fichero
+	 */
+
+	@Override
+	public String store(InputStream inputStream, String originalFilename) {
+		String filename = StringUtils.cleanPath(originalFilename);
+		String extension = StringUtils.getFilenameExtension(filename);
+		String justFilename = filename.replace("." + extension, "");
+		if (filename.contains("..")) {
+			throw new StorageException("NO SE PUEDE ALMACENAR UN ARCHIVO CON UNA RUTA RELATIVA FUERA DEL DIRECTORIO ACTUAL: " + filename);
+		}
+		String storedFilename;
+		try (Contenido contenido = Contenido.volcar(inputStream, subidasLocation)) {
+			escritura.lock();
+			try {
+				long instante = System.currentTimeMillis();
+				do {
+					storedFilename = (instante++) + "_" + justFilename + "." + extension;
+				} while (indice.containsKey(storedFilename) || Files.exists(rootLocation.resolve(storedFilename)));
+				indexar(storedFilename, anyadir(TIPO_FICHERO, storedFilename, System.currentTimeMillis(), contenido));
+			} finally {
+				escritura.unlock();
+			}
+		} catch (IOException e) {
+			throw new StorageException("ERROR AL ALMACENAR EL ARCHIVO: " + filename, e);
+		}
+		eventPublisher.publishEvent(new FileStoredEvent(storedFilename));
+		return storedFilename;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que devuelve el nombre de todos los ficheros almacenados: los del
+	 * indice y los ficheros antiguos sueltos en la raiz.
+	 * Los dos se recorren en streaming, sin copiar los nombres a una lista: el
+	 * indice es un ConcurrentHashMap, cuyo recorrido no falla si se guardan o borran
+	 * ficheros mientras tanto (los ve o no, pero no repite ni se salta los demas). Asi
+	 * el barrido de OrphanedUploadCollector no depende del numero de ficheros en memoria.
+	 * Hay que cerrar el Stream, que mantiene abierto el directorio.
+	 */
+
+	@Override
+	public Stream<Path> loadAll() {
+		Stream<Path> sueltos;
+		try {
+			sueltos = Files.list(this.rootLocation).filter(Files::isRegularFile).map(Path::getFileName);
+		} catch (IOException e) {
+			throw new StorageException("ERROR AL LEER LOS ARCHIVOS ALMACENADOS", e);
+		}
+		return Stream.concat(indice.keySet().stream().map(Paths::get), sueltos);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que devuelve la ruta que tendria un fichero suelto en la raiz del
+	 * almacen. Los ficheros guardados en segmentos NO existen como fichero
+	 * propio: para leerlos hay que usar loadAsResource().
+	 */
+
+	@Override
+	public Path load(String filename) {
+		return rootLocation.resolve(filename);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que es capaz de cargar un fichero a partir de su nombre.
+	 * Si esta en un segmento cerrado, el Resource es un trozo del segmento
+	 * mapeado en memoria (no se copia nada); si esta en el segmento activo, se
+	 * lee del disco.
+	 */
+
+	@Override
+	public Resource loadAsResource(String filename) {
+		Ubicacion ubicacion = indice.get(filename);
+		if (ubicacion != null) {
+			try {
+				return new ByteBufferResource(ubicacion.segmento.leer(ubicacion.posicion, ubicacion.longitud), filename, ubicacion.fecha);
+			} catch (IOException e) {
+				throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+			}
+		}
+		try {
+			Resource resource = new UrlResource(load(filename).toUri());
+			if (resource.exists() || resource.isReadable()) {
+				return resource;
+			} else {
+				throw new StorageFileNotFoundException("Could not read file: " + filename);
+			}
+		} catch (MalformedURLException e) {
+			throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que BORRA un fichero a partir de su nombre, escribiendo una lapida.
+	 * El espacio que ocupaba se recupera al compactar su segmento.
+	 */
+
+	@Override
+	public void delete(String filename) {
+		String justFilename = StringUtils.getFilename(filename);
+		try {
+			boolean borrado;
+			escritura.lock();
+			try {
+				borrado = indice.containsKey(justFilename);
+				if (borrado) {
+					anyadir(TIPO_LAPIDA, justFilename, System.currentTimeMillis(), Contenido.vacio());
+					desindexar(justFilename);
+				}
+			} finally {
+				escritura.unlock();
+			}
+			if (!borrado) {
+				borrado = Files.deleteIfExists(load(justFilename));
+			}
+			if (borrado) {
+				eventPublisher.publishEvent(new FileDeletedEvent(justFilename));
+			}
+		} catch (IOException e) {
+			throw new StorageException("Error al eliminar un fichero", e);
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que elimina todos los ficheros del almacenamiento secundario del
+	 * proyecto. Hay que volver a llamar a init() para seguir usandolo.
+	 */
+
+	@Override
+	public void deleteAll() {
+		escritura.lock();
+		try {
+			cerrar();
+			FileSystemUtils.deleteRecursively(rootLocation.toFile());
+		} finally {
+			escritura.unlock();
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Método que inicializa el almacenamiento: recorre todos los segmentos en
+	 * orden reconstruyendo el indice, trunca los registros incompletos que dejara
+	 * un corte y abre (o crea) el segmento activo. Borra los temporales de las
+	 * subidas que un corte dejara a medias.
+	 */
+
+	@Override
+	public void init() {
+		escritura.lock();
+		try {
+			cerrar();
+			Files.createDirectories(subidasLocation);
+			try (Stream<Path> restos = Files.list(subidasLocation)) {
+				for (Path resto : (Iterable<Path>) restos::iterator) {
+					Files.deleteIfExists(resto);
+				}
+			}
+			List<Path> ficheros;
+			try (Stream<Path> listado = Files.list(packLocation)) {
+				ficheros = listado.filter(path -> path.getFileName().toString().endsWith(EXTENSION_SEGMENTO))
+						.sorted()
+						.collect(Collectors.toList());
+			}
+			for (Path fichero : ficheros) {
+				Segmento segmento = recuperar(fichero);
+				segmentos.put(segmento.id, segmento);
+			}
+			Map.Entry<Integer, Segmento> ultimo = segmentos.lastEntry();
+			if (ultimo != null && ultimo.getValue().tamanyo < tamanyoSegmento()) {
+				activo = ultimo.getValue();
+				activo.mapa = null;
+			} else {
+				activo = nuevoSegmento(ultimo == null ? 1 : ultimo.getKey() + 1);
+			}
+			log.info("Almacen pack iniciado: {} ficheros en {} segmentos", indice.size(), segmentos.size());
+		} catch (IOException e) {
+			throw new StorageException("Could not initialize storage", e);
+		} finally {
+			escritura.unlock();
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que COMPACTA en segundo plano los segmentos cerrados cuya proporcion
+	 * de bytes muertos supera storage.pack.compaction-ratio. Se ejecuta cada
+	 * storage.pack.compaction-interval milisegundos (10 minutos por defecto).
+	 */
+
+	@Scheduled(fixedDelayString = "${storage.pack.compaction-interval:600000}", initialDelayString = "${storage.pack.compaction-interval:600000}")
+	public void compactar() {
+		for (Segmento segmento : new ArrayList<>(segmentos.values())) {
+			if (segmento == activo || segmento.mapa == null || segmento.tamanyo == 0) {
+				continue;
+			}
+			double muertos = 1.0 - (double) segmento.bytesVivos.get() / segmento.tamanyo;
+			if (muertos >= properties.getCompactionRatio()) {
+				try {
+					compactar(segmento);
+				} catch (IOException | StorageException e) {
+					log.error("No se pudo compactar el segmento {}", segmento.ruta, e);
+				}
+			}
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		escritura.lock();
+		try {
+			cerrar();
+		} finally {
+			escritura.unlock();
+		}
+	}
+
+	/*
+	 * ---------------------------------------------------------------------------------------
+	 * SEGMENTOS
+	 * ---------------------------------------------------------------------------------------
+	 */
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que escribe un registro al final del segmento activo y, si con el
+	 * se llena, cierra el segmento y abre el siguiente. El contenido ya trae su
+	 * longitud y el CRC32 de sus bytes, asi que solo se copia y se completa el CRC
+	 * con la cabecera. Si la escritura falla a medias, el segmento se trunca al
+	 * punto de partida.
+	 * Se llama con el cerrojo de escritura cogido.
+	 *
+	 * @return Ubicacion del contenido escrito
+	 * @throws IOException
+	 */
+
+	private Ubicacion anyadir(byte tipo, String clave, long fecha, Contenido contenido) throws IOException {
+		byte[] nombre = clave.getBytes(StandardCharsets.UTF_8);
+		if (nombre.length > Short.MAX_VALUE) {
+			throw new StorageException("NOMBRE DE ARCHIVO DEMASIADO LARGO: " + clave);
+		}
+		Segmento segmento = activo;
+		long inicio = segmento.tamanyo;
+		int longitud = (int) contenido.longitud;
+		boolean completo = false;
+		try {
+			ByteBuffer cabecera = ByteBuffer.allocate(CABECERA + nombre.length);
+			cabecera.putInt(MARCA).put(tipo).putLong(fecha).putShort((short) nombre.length).putInt(longitud).put(nombre);
+			cabecera.flip();
+			long posicion = escribir(segmento.canal, cabecera.duplicate(), inicio);
+			posicion = contenido.copiar(segmento.canal, posicion);
+			CRC32 crc = contenido.crc;
+			crc.update(cabecera.array(), 4, cabecera.limit() - 4);
+			posicion = escribir(segmento.canal, (ByteBuffer) ByteBuffer.allocate(CRC).putInt((int) crc.getValue()).flip(), posicion);
+			segmento.tamanyo = posicion;
+			completo = true;
+		} finally {
+			if (!completo) {
+				segmento.canal.truncate(inicio);
+			}
+		}
+		if (segmento.tamanyo >= tamanyoSegmento()) {
+			segmento.sellar();
+			activo = nuevoSegmento(segmento.id + 1);
+		}
+		return new Ubicacion(segmento, inicio + CABECERA + nombre.length, longitud, fecha, segmento.tamanyo - inicio);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que abre un segmento existente y lo recorre registro a registro
+	 * aplicandolo al indice. Se detiene en el primer registro incompleto o con
+	 * CRC incorrecto y trunca ahi el segmento (la cola de una escritura que un
+	 * corte dejo a medias).
+	 *
+	 * @param fichero
+	 * @return
+	 * @throws IOException
+	 */
+
+	private Segmento recuperar(Path fichero) throws IOException {
+		String nombre = fichero.getFileName().toString();
+		Segmento segmento = new Segmento(Integer.parseInt(nombre.substring(0, nombre.length() - EXTENSION_SEGMENTO.length())), fichero);
+		long tamanyo = segmento.canal.size();
+		if (tamanyo > Integer.MAX_VALUE) {
+			throw new StorageException("SEGMENTO DEMASIADO GRANDE: " + fichero);
+		}
+		MappedByteBuffer mapa = segmento.canal.map(FileChannel.MapMode.READ_ONLY, 0, tamanyo);
+		long valido = recorrer(mapa, (tipo, clave, fecha, posicion, longitud, registro) -> {
+			if (tipo == TIPO_FICHERO) {
+				indexar(clave, new Ubicacion(segmento, posicion, longitud, fecha, registro));
+			} else {
+				desindexar(clave);
+			}
+		});
+		if (valido < tamanyo) {
+			log.warn("Segmento {} truncado de {} a {} bytes (registro incompleto al final)", fichero, tamanyo, valido);
+			segmento.canal.truncate(valido);
+			mapa = segmento.canal.map(FileChannel.MapMode.READ_ONLY, 0, valido);
+		}
+		segmento.tamanyo = valido;
+		segmento.mapa = mapa;
+		return segmento;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que compacta un segmento cerrado: copia al segmento activo los
+	 * registros que siguen vivos y las lapidas que todavia hacen falta, y borra
+	 * el segmento. Una lapida solo se puede descartar si no queda ningun segmento
+	 * anterior (donde podria estar el fichero que borra, que "resucitaria" al
+	 * recorrer los segmentos en el siguiente arranque).
+	 *
+	 * Cada registro se copia con el cerrojo de escritura, asi las subidas no
+	 * esperan a que termine la compactacion entera.
+	 *
+	 * @param segmento
+	 * @throws IOException
+	 */
+
+	private void compactar(Segmento segmento) throws IOException {
+		boolean hayAnteriores = segmentos.firstKey() < segmento.id;
+		long vivosAntes = segmento.bytesVivos.get();
+		recorrer(segmento.mapa.duplicate(), (tipo, clave, fecha, posicion, longitud, registro) -> {
+			escritura.lock();
+			try {
+				if (tipo == TIPO_FICHERO) {
+					Ubicacion ubicacion = indice.get(clave);
+					if (ubicacion != null && ubicacion.segmento == segmento && ubicacion.posicion == posicion) {
+						indexar(clave, anyadir(TIPO_FICHERO, clave, fecha, Contenido.de(segmento.leer(posicion, longitud))));
+					}
+				} else if (hayAnteriores && !indice.containsKey(clave)) {
+					anyadir(TIPO_LAPIDA, clave, fecha, Contenido.vacio());
+				}
+			} finally {
+				escritura.unlock();
+			}
+		});
+		escritura.lock();
+		try {
+			segmentos.remove(segmento.id);
+			segmento.canal.close();
+			Files.deleteIfExists(segmento.ruta);
+		} finally {
+			escritura.unlock();
+		}
+		log.info("Segmento {} compactado: {} bytes liberados", segmento.ruta, segmento.tamanyo - vivosAntes);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que recorre los registros validos de un segmento mapeado.
+	 *
+	 * @param datos
+	 * @param visitante
+	 * @return Posicion del final del ultimo registro valido
+	 * @throws IOException
+	 */
+
+	private static long recorrer(ByteBuffer datos, Visitante visitante) throws IOException {
+		int posicion = 0;
+		int limite = datos.limit();
+		CRC32 crc = new CRC32();
+		while (limite - posicion >= CABECERA + CRC && datos.getInt(posicion) == MARCA) {
+			byte tipo = datos.get(posicion + 4);
+			long fecha = datos.getLong(posicion + 5);
+			int longitudNombre = datos.getShort(posicion + 13);
+			int longitud = datos.getInt(posicion + POSICION_LONGITUD);
+			if ((tipo != TIPO_FICHERO && tipo != TIPO_LAPIDA) || longitudNombre <= 0 || longitud < 0
+					|| (long) limite - posicion - CABECERA - CRC < (long) longitudNombre + longitud) {
+				break;
+			}
+			int finDatos = posicion + CABECERA + longitudNombre + longitud;
+			ByteBuffer contenido = datos.duplicate();
+			contenido.position(finDatos - longitud).limit(finDatos);
+			ByteBuffer cabecera = datos.duplicate();
+			cabecera.position(posicion + 4).limit(finDatos - longitud);
+			crc.reset();
+			crc.update(contenido);
+			crc.update(cabecera);
+			if ((int) crc.getValue() != datos.getInt(finDatos)) {
+				break;
+			}
+			byte[] nombre = new byte[longitudNombre];
+			ByteBuffer trozoNombre = datos.duplicate();
+			trozoNombre.position(posicion + CABECERA);
+			trozoNombre.get(nombre);
+			visitante.visitar(tipo, new String(nombre, StandardCharsets.UTF_8), fecha,
+					posicion + CABECERA + longitudNombre, longitud, finDatos + CRC - posicion);
+			posicion = finDatos + CRC;
+		}
+		return posicion;
+	}
+
+	private long tamanyoSegmento() {
+		return Math.min(properties.getSegmentSize(), MAXIMO_SEGMENTO);
+	}
+
+	private Segmento nuevoSegmento(int id) throws IOException {
+		Segmento segmento = new Segmento(id, packLocation.resolve(String.format("%08d%s", id, EXTENSION_SEGMENTO)));
+		segmentos.put(id, segmento);
+		return segmento;
+	}
+
+	private void indexar(String clave, Ubicacion ubicacion) {
+		Ubicacion anterior = indice.put(clave, ubicacion);
+		ubicacion.segmento.bytesVivos.addAndGet(ubicacion.registro);
+		if (anterior != null) {
+			anterior.segmento.bytesVivos.addAndGet(-anterior.registro);
+		}
+	}
+
+	private void desindexar(String clave) {
+		Ubicacion anterior = indice.remove(clave);
+		if (anterior != null) {
+			anterior.segmento.bytesVivos.addAndGet(-anterior.registro);
+		}
+	}
+
+	private void cerrar() {
+		for (Segmento segmento : segmentos.values()) {
+			try {
+				if (segmento == activo) {
+					segmento.canal.force(true);
+				}
+				segmento.canal.close();
+			} catch (IOException e) {
+				log.warn("No se pudo cerrar el segmento {}", segmento.ruta, e);
+			}
+		}
+		segmentos.clear();
+		indice.clear();
+		activo = null;
+	}
+
+	private static long escribir(FileChannel canal, ByteBuffer datos, long posicion) throws IOException {
+		while (datos.hasRemaining()) {
+			posicion += canal.write(datos, posicion);
+		}
+		return posicion;
+	}
+
+	/**
+	 * CLASE Segmento
+	 * ---------------------------------------------------------------------------------------
+	 * Fichero de segmento. Mientras es el activo se lee y escribe con su canal;
+	 * una vez cerrado (sellado) se lee a traves de su mapa en memoria, que sigue
+	 * siendo valido aunque el segmento se borre al compactarlo.
+	 */
+
+	private static final class Segmento {
+
+		private final int id;
+
+		private final Path ruta;
+
+		private final FileChannel canal;
+
+		private volatile MappedByteBuffer mapa;
+
+		private volatile long tamanyo;
+
+		private final AtomicLong bytesVivos = new AtomicLong();
+
+		Segmento(int id, Path ruta) throws IOException {
+			this.id = id;
+			this.ruta = ruta;
+			this.canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+
+		void sellar() throws IOException {
+			canal.force(true);
+			mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamanyo);
+		}
+
+		ByteBuffer leer(long posicion, int longitud) throws IOException {
+			MappedByteBuffer mapeado = mapa;
+			if (mapeado != null) {
+				ByteBuffer trozo = mapeado.duplicate();
+				trozo.position((int) posicion).limit((int) posicion + longitud);
+				return trozo.slice();
+			}
+			ByteBuffer leido = ByteBuffer.allocate(longitud);
+			while (leido.hasRemaining()) {
+				if (canal.read(leido, posicion + leido.position()) < 0) {
+					throw new EOFException("Fin inesperado del segmento " + ruta);
+				}
+			}
+			leido.flip();
+			return leido;
+		}
+	}
+
+	/**
+	 * CLASE Ubicacion
+	 * ---------------------------------------------------------------------------------------
+	 * Entrada del indice: donde empieza y cuanto ocupa el contenido de un fichero,
+	 * su fecha y el tamanyo total de su registro (para contar los bytes vivos).
+	 */
+
+	private static final class Ubicacion {
+
+		private final Segmento segmento;
+
+		private final long posicion;
+
+		private final int longitud;
+
+		private final long fecha;
+
+		private final long registro;
+
+		Ubicacion(Segmento segmento, long posicion, int longitud, long fecha, long registro) {
+			this.segmento = segmento;
+			this.posicion = posicion;
+			this.longitud = longitud;
+			this.fecha = fecha;
+			this.registro = registro;
+		}
+	}
+
+	/**
+	 * CLASE Contenido
+	 * ---------------------------------------------------------------------------------------
+	 * Contenido de un registro con su longitud y el CRC32 de sus bytes ya calculados,
+	 * listo para copiarlo al segmento. El de una subida esta en un fichero temporal
+	 * (que se borra al cerrarlo); el de una lapida o una copia de la compactacion,
+	 * en memoria.
+	 */
+
+	private static final class Contenido implements Closeable {
+
+		private final CRC32 crc = new CRC32();
+
+		private final ByteBuffer memoria;
+
+		private final Path temporal;
+
+		private final FileChannel canal;
+
+		private long longitud;
+
+		private Contenido(ByteBuffer memoria, Path temporal, FileChannel canal) {
+			this.memoria = memoria;
+			this.temporal = temporal;
+			this.canal = canal;
+		}
+
+		static Contenido vacio() {
+			return de(ByteBuffer.allocate(0));
+		}
+
+		static Contenido de(ByteBuffer datos) {
+			Contenido contenido = new Contenido(datos, null, null);
+			contenido.longitud = datos.remaining();
+			contenido.crc.update(datos.duplicate());
+			return contenido;
+		}
+
+		/**
+		 * Lee entero el InputStream a un fichero temporal del directorio
+		 */
+		static Contenido volcar(InputStream datos, Path directorio) throws IOException {
+			Path temporal = Files.createTempFile(directorio, "subida-", ".tmp");
+			Contenido contenido = new Contenido(null, temporal, FileChannel.open(temporal, StandardOpenOption.READ, StandardOpenOption.WRITE));
+			boolean volcado = false;
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				int leidos;
+				while ((leidos = datos.read(buffer)) != -1) {
+					if (contenido.longitud + leidos > MAXIMO_CONTENIDO) {
+						throw new StorageException("ARCHIVO DEMASIADO GRANDE PARA EL ALMACEN PACK");
+					}
+					escribir(contenido.canal, ByteBuffer.wrap(buffer, 0, leidos), contenido.longitud);
+					contenido.crc.update(buffer, 0, leidos);
+					contenido.longitud += leidos;
+				}
+				volcado = true;
+				return contenido;
+			} finally {
+				if (!volcado) {
+					contenido.close();
+				}
+			}
+		}
+
+		/**
+		 * Copia el contenido al canal a partir de la posicion
+		 *
+		 * @return Posicion siguiente al contenido copiado
+		 */
+		long copiar(FileChannel destino, long posicion) throws IOException {
+			if (memoria != null) {
+				return escribir(destino, memoria.duplicate(), posicion);
+			}
+			canal.position(0);
+			long copiados = 0;
+			while (copiados < longitud) {
+				long transferidos = destino.transferFrom(canal, posicion + copiados, longitud - copiados);
+				if (transferidos <= 0) {
+					throw new EOFException("Fin inesperado del temporal " + temporal);
+				}
+				copiados += transferidos;
+			}
+			return posicion + longitud;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (canal != null) {
+				try {
+					canal.close();
+				} finally {
+					Files.deleteIfExists(temporal);
+				}
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface Visitante {
+
+		void visitar(byte tipo, String clave, long fecha, long posicion, int longitud, long registro) throws IOException;
+
+	}
+
+}
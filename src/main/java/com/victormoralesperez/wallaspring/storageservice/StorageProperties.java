@@ -17,4 +17,81 @@ public class StorageProperties {
 
     private String location = "upload-dir";
 
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Implementacion de StorageService que se activa al arrancar la Aplicacion:
+	 * "filesystem" (directorio plano, por defecto), "content-addressed" (ficheros
+	 * direccionados por su hash SHA-256, repartidos en subdirectorios y sin duplicados)
+	 * o "pack" (todos los ficheros concatenados en grandes segmentos, ver PackFileStorageService)
+	 */
+
+    private String backend = "filesystem";
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Configuracion del almacen "pack" (storage.pack.*)
+	 */
+
+    private final Pack pack = new Pack();
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Configuracion del pool de hilos de E/S del almacen (storage.io.*), ver AsyncStorageService
+	 */
+
+    private final Io io = new Io();
+
+	/**
+	 * CLASE Pack
+	 * ---------------------------------------------------------------------------------------
+	 * Configuracion de PackFileStorageService
+	 */
+
+    @Getter @Setter
+    public static class Pack {
+
+    	/**
+    	 * Tamanyo a partir del cual un segmento se cierra (deja de admitir escrituras,
+    	 * se mapea en memoria) y se empieza uno nuevo. Maximo 1 GB.
+    	 */
+
+    	private long segmentSize = 256L * 1024 * 1024;
+
+    	/**
+    	 * Proporcion de bytes muertos (ficheros borrados o sustituidos) a partir de
+    	 * la cual un segmento cerrado se compacta.
+    	 */
+
+    	private double compactionRatio = 0.5;
+
+    }
+
+	/**
+	 * CLASE Io
+	 * ---------------------------------------------------------------------------------------
+	 * Configuracion del pool de hilos en el que AsyncStorageService ejecuta las
+	 * operaciones del almacen
+	 */
+
+    @Getter @Setter
+    public static class Io {
+
+    	/**
+    	 * Numero de hilos que acceden al almacen a la vez
+    	 */
+
+    	private int threads = 4;
+
+    	/**
+    	 * Operaciones que pueden quedar en espera. Si la cola se llena, la operacion
+    	 * la ejecuta el propio hilo que la pide (contrapresion).
+    	 */
+
+    	private int queueCapacity = 200;
+
+    }
+
 }
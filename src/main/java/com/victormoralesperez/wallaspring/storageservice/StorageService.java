@@ -1,5 +1,6 @@
 package com.victormoralesperez.wallaspring.storageservice;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.stream.Stream;
 import org.springframework.core.io.Resource;
@@ -24,6 +25,13 @@ public interface StorageService {
 
 	String store(MultipartFile file);
 
+	/**
+	 * Almacena el contenido de un InputStream (por ejemplo, el cuerpo de una subida
+	 * leido en streaming) a partir del nombre original del fichero, escribiendolo
+	 * una sola vez en su destino. Devuelve el nombre con el que se ha almacenado.
+	 */
+	String store(InputStream inputStream, String filename);
+
 	Stream<Path> loadAll();
 
 	Path load(String filename);
@@ -0,0 +1,161 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * CLASE StreamedMultipartFile
+ * -------------------------------------------------------------------------------------------
+ * MultipartFile de un fichero que StreamingMultipartResolver YA HA GUARDADO en
+ * el almacen mientras leia la peticion. Los controladores lo usan como
+ * cualquier otro MultipartFile: al llamar a StorageService.store(file) se
+ * devuelve el nombre con el que se almaceno, sin volver a copiarlo, y el
+ * fichero queda RECLAMADO. Los ficheros que ningun controlador reclama (por
+ * ejemplo, porque el formulario tenia errores) se borran al terminar la peticion.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class StreamedMultipartFile implements MultipartFile {
+
+	private final String name;
+
+	private final String originalFilename;
+
+	private final String contentType;
+
+	private final long size;
+
+	private final String storedFilename;
+
+	private final String sha256;
+
+	private final StorageService storageService;
+
+	private volatile boolean reclamado;
+
+	public StreamedMultipartFile(String name, String originalFilename, String contentType, long size,
+			String storedFilename, String sha256, StorageService storageService) {
+		this.name = name;
+		this.originalFilename = originalFilename;
+		this.contentType = contentType;
+		this.size = size;
+		this.storedFilename = storedFilename;
+		this.sha256 = sha256;
+		this.storageService = storageService;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que crea el MultipartFile de un campo de fichero que se envio vacio
+	 * (el usuario no eligio ninguna imagen).
+	 *
+	 * @param name
+	 * @param originalFilename
+	 * @return
+	 */
+
+	public static StreamedMultipartFile vacio(String name, String originalFilename) {
+		return new StreamedMultipartFile(name, originalFilename, null, 0, null, null, null);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que usan las implementaciones de StorageService.store(MultipartFile):
+	 * si el fichero ya esta almacenado, lo marca como reclamado y devuelve su nombre.
+	 *
+	 * @param file
+	 * @return Nombre con el que se almaceno, o null si hay que almacenarlo
+	 */
+
+	public static String reclamar(MultipartFile file) {
+		if (file instanceof StreamedMultipartFile && ((StreamedMultipartFile) file).isStored()) {
+			StreamedMultipartFile streamed = (StreamedMultipartFile) file;
+			streamed.reclamado = true;
+			return streamed.storedFilename;
+		}
+		return null;
+	}
+
+	public boolean isStored() {
+		return storedFilename != null;
+	}
+
+	public boolean isReclamado() {
+		return reclamado;
+	}
+
+	public String getStoredFilename() {
+		return storedFilename;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que devuelve el hash SHA-256 (en hexadecimal) del contenido, calculado
+	 * mientras se almacenaba.
+	 *
+	 * @return
+	 */
+
+	public String getSha256() {
+		return sha256;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getOriginalFilename() {
+		return originalFilename;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public byte[] getBytes() throws IOException {
+		try (InputStream inputStream = getInputStream()) {
+			return StreamUtils.copyToByteArray(inputStream);
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if (!isStored()) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		return storageService.loadAsResource(storedFilename).getInputStream();
+	}
+
+	@Override
+	public void transferTo(File dest) throws IOException {
+		try (InputStream inputStream = getInputStream()) {
+			Files.copy(inputStream, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
@@ -0,0 +1,333 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.DefaultMultipartHttpServletRequest;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * CLASE StreamingMultipartResolver
+ * -------------------------------------------------------------------------------------------
+ * MultipartResolver que procesa las subidas de ficheros en STREAMING (API de
+ * streaming de Commons FileUpload): cada fichero se va leyendo del cuerpo de
+ * la peticion y escribiendo DIRECTAMENTE en el almacen (StorageService), sin
+ * pasar antes por un temporal ni por memoria. Cada subida se escribe una sola
+ * vez y la memoria no crece con el tamanyo ni con el numero de subidas
+ * simultaneas.
+ *
+ * Mientras se copia cada fichero:
+ * - se comprueba su tipo real por sus primeros bytes (storage.upload.allowed-types),
+ * - se cuentan los bytes (storage.upload.max-file-size y max-request-size),
+ * - y se calcula su hash SHA-256.
+ *
+ * Los controladores reciben un StreamedMultipartFile (ver su descripcion).
+ * Al terminar la peticion se borran los ficheros que ningun controlador ha
+ * reclamado, y si la subida falla a medias se borra lo ya almacenado.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+public class StreamingMultipartResolver implements MultipartResolver {
+
+	private static final Logger log = LoggerFactory.getLogger(StreamingMultipartResolver.class);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Bytes del principio del fichero que se examinan para deducir su tipo
+	 */
+
+	public static final int BYTES_FIRMA = 12;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Almacen en el que se escriben los ficheros subidos
+	 */
+
+	private final StorageService storageService;
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Limites de las subidas
+	 */
+
+	private final UploadProperties properties;
+
+	public StreamingMultipartResolver(StorageService storageService, UploadProperties properties) {
+		this.storageService = storageService;
+		this.properties = properties;
+	}
+
+	@Override
+	public boolean isMultipart(HttpServletRequest request) {
+		return ServletFileUpload.isMultipartContent(request);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que recorre las partes de la peticion en el orden en que llegan: los
+	 * campos del formulario se guardan como parametros y los ficheros se almacenan.
+	 *
+	 * @param request
+	 * @return
+	 * @throws MultipartException
+	 */
+
+	@Override
+	public MultipartHttpServletRequest resolveMultipart(HttpServletRequest request) throws MultipartException {
+		String encoding = request.getCharacterEncoding() != null ? request.getCharacterEncoding() : WebUtils.DEFAULT_CHARACTER_ENCODING;
+		ServletFileUpload upload = new ServletFileUpload();
+		upload.setSizeMax(properties.getMaxRequestSize().toBytes());
+		upload.setFileSizeMax(properties.getMaxFileSize().toBytes());
+		upload.setHeaderEncoding(encoding);
+		MultiValueMap<String, MultipartFile> ficheros = new LinkedMultiValueMap<>();
+		Map<String, String[]> parametros = new LinkedHashMap<>();
+		Map<String, String> tiposParametros = new HashMap<>();
+		try {
+			FileItemIterator partes = upload.getItemIterator(request);
+			while (partes.hasNext()) {
+				FileItemStream parte = partes.next();
+				try (InputStream inputStream = parte.openStream()) {
+					if (parte.isFormField()) {
+						parametros.merge(parte.getFieldName(), new String[] { Streams.asString(inputStream, encoding) },
+								StringUtils::concatenateStringArrays);
+						if (parte.getContentType() != null) {
+							tiposParametros.put(parte.getFieldName(), parte.getContentType());
+						}
+					} else {
+						ficheros.add(parte.getFieldName(), almacenar(parte, inputStream));
+					}
+				}
+			}
+		} catch (FileUploadException | IOException | StorageException e) {
+			borrar(ficheros, false);
+			long limite = limiteSuperado(e);
+			if (limite >= 0) {
+				throw new MaxUploadSizeExceededException(limite, e);
+			}
+			throw new MultipartException("ERROR AL PROCESAR LA SUBIDA DE FICHEROS", e);
+		} catch (RuntimeException e) {
+			borrar(ficheros, false);
+			throw e;
+		}
+		return new DefaultMultipartHttpServletRequest(request, ficheros, parametros, tiposParametros);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que se ejecuta al terminar la peticion: borra del almacen los ficheros
+	 * subidos que ningun controlador ha reclamado.
+	 *
+	 * @param request
+	 */
+
+	@Override
+	public void cleanupMultipart(MultipartHttpServletRequest request) {
+		borrar(request.getMultiFileMap(), true);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que comprueba el tipo de un fichero por sus primeros bytes y lo copia
+	 * al almacen contando sus bytes y calculando su SHA-256.
+	 *
+	 * @param parte
+	 * @param inputStream
+	 * @return
+	 * @throws IOException
+	 */
+
+	private StreamedMultipartFile almacenar(FileItemStream parte, InputStream inputStream) throws IOException {
+		String originalFilename = nombreOriginal(parte.getName());
+		if (!StringUtils.hasText(originalFilename)) {
+			return StreamedMultipartFile.vacio(parte.getFieldName(), "");
+		}
+		BufferedInputStream buffered = new BufferedInputStream(inputStream);
+		buffered.mark(BYTES_FIRMA);
+		byte[] firma = new byte[BYTES_FIRMA];
+		int leidos = 0;
+		int n;
+		while (leidos < BYTES_FIRMA && (n = buffered.read(firma, leidos, BYTES_FIRMA - leidos)) != -1) {
+			leidos += n;
+		}
+		buffered.reset();
+		if (leidos == 0) {
+			return StreamedMultipartFile.vacio(parte.getFieldName(), originalFilename);
+		}
+		String tipo = tipoReal(firma, leidos);
+		if (tipo == null || !properties.getAllowedTypes().contains(tipo)) {
+			throw new MultipartException("TIPO DE ARCHIVO NO PERMITIDO: " + originalFilename);
+		}
+		MessageDigest sha256;
+		try {
+			sha256 = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		ContadorInputStream contador = new ContadorInputStream(new DigestInputStream(buffered, sha256));
+		String storedFilename = storageService.store(contador, originalFilename);
+		return new StreamedMultipartFile(parte.getFieldName(), originalFilename, tipo, contador.bytes,
+				storedFilename, new String(Hex.encode(sha256.digest())), storageService);
+	}
+
+	private void borrar(MultiValueMap<String, MultipartFile> ficheros, boolean soloNoReclamados) {
+		for (List<MultipartFile> lista : ficheros.values()) {
+			for (MultipartFile file : lista) {
+				if (file instanceof StreamedMultipartFile) {
+					StreamedMultipartFile streamed = (StreamedMultipartFile) file;
+					if (streamed.isStored() && !(soloNoReclamados && streamed.isReclamado())) {
+						try {
+							storageService.delete(streamed.getStoredFilename());
+						} catch (StorageException e) {
+							log.warn("No se pudo borrar la subida descartada {}", streamed.getStoredFilename(), e);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que deduce el tipo de un fichero a partir de su firma (sus primeros bytes).
+	 * Lo usa tambien la importacion masiva de Productos para las imagenes del ZIP.
+	 *
+	 * @param firma
+	 * @param longitud
+	 * @return El tipo MIME, o null si no es un tipo conocido
+	 */
+
+	public static String tipoReal(byte[] firma, int longitud) {
+		if (empiezaPor(firma, longitud, 0xFF, 0xD8, 0xFF)) {
+			return "image/jpeg";
+		}
+		if (empiezaPor(firma, longitud, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+			return "image/png";
+		}
+		if (empiezaPor(firma, longitud, 'G', 'I', 'F', '8')) {
+			return "image/gif";
+		}
+		if (longitud >= 12 && empiezaPor(firma, longitud, 'R', 'I', 'F', 'F')
+				&& firma[8] == 'W' && firma[9] == 'E' && firma[10] == 'B' && firma[11] == 'P') {
+			return "image/webp";
+		}
+		return null;
+	}
+
+	private static boolean empiezaPor(byte[] firma, int longitud, int... esperado) {
+		if (longitud < esperado.length) {
+			return false;
+		}
+		for (int i = 0; i < esperado.length; i++) {
+			if ((firma[i] & 0xFF) != esperado[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que quita la ruta que algunos navegadores antiguos incluyen en el
+	 * nombre del fichero (C:\Users\...\foto.jpg).
+	 */
+
+	private static String nombreOriginal(String filename) {
+		if (filename == null) {
+			return null;
+		}
+		int separador = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\'));
+		return filename.substring(separador + 1);
+	}
+
+	/**
+	 * METODO
+	 * ---------------------------------------------------------------------------------------
+	 * Metodo que busca, entre las causas de un error, si se supero algun limite de
+	 * tamanyo (puede llegar envuelto en las excepciones del almacen).
+	 *
+	 * @param e
+	 * @return El limite superado, o -1 si el error no es de tamanyo
+	 */
+
+	private static long limiteSuperado(Throwable e) {
+		for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+			if (causa instanceof FileUploadBase.FileSizeLimitExceededException) {
+				return ((FileUploadBase.FileSizeLimitExceededException) causa).getPermittedSize();
+			}
+			if (causa instanceof FileUploadBase.SizeLimitExceededException) {
+				return ((FileUploadBase.SizeLimitExceededException) causa).getPermittedSize();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * CLASE ContadorInputStream
+	 * ---------------------------------------------------------------------------------------
+	 * InputStream que cuenta los bytes que se leen a traves de el.
+	 */
+
+	private static final class ContadorInputStream extends FilterInputStream {
+
+		private long bytes;
+
+		ContadorInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int leido = super.read();
+			if (leido != -1) {
+				bytes++;
+			}
+			return leido;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int leidos = super.read(b, off, len);
+			if (leidos > 0) {
+				bytes += leidos;
+			}
+			return leidos;
+		}
+	}
+
+}
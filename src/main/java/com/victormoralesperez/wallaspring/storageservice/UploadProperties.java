@@ -0,0 +1,49 @@
+package com.victormoralesperez.wallaspring.storageservice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * CLASE UploadProperties
+ * -------------------------------------------------------------------------------------------
+ * Limites de las subidas de ficheros que procesa StreamingMultipartResolver.
+ *
+ * @author Victor Morales Perez
+ *
+ */
+
+@ConfigurationProperties(prefix = "storage.upload")
+@Getter @Setter
+public class UploadProperties {
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Tamanyo maximo de cada fichero subido
+	 */
+
+	private DataSize maxFileSize = DataSize.ofMegabytes(5);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Tamanyo maximo de la peticion completa (ficheros y campos del formulario)
+	 */
+
+	private DataSize maxRequestSize = DataSize.ofMegabytes(5);
+
+	/**
+	 * ATRIBUTO
+	 * ---------------------------------------------------------------------------------------
+	 * Tipos de fichero admitidos. El tipo se deduce de los primeros bytes del
+	 * fichero, no del Content-Type que declara el navegador.
+	 */
+
+	private List<String> allowedTypes = new ArrayList<>(Arrays.asList("image/jpeg", "image/png", "image/gif", "image/webp"));
+
+}
@@ -0,0 +1,37 @@
+-- ---------------------------------------------------------------------------------------------
+-- ESQUEMA INICIAL : las tablas tal y como las generaba Hibernate (ddl-auto) a partir de las
+-- Entidades Usuario, Compra y Producto. En las Bases de Datos que ya las tenian esta version
+-- no se ejecuta (baseline-version=1).
+-- ---------------------------------------------------------------------------------------------
+
+create table usuario (
+    id bigint not null auto_increment,
+    nombre varchar(255),
+    apellidos varchar(255),
+    avatar varchar(255),
+    email varchar(255),
+    password varchar(255),
+    fecha_alta datetime,
+    primary key (id),
+    constraint uk_usuario_email unique (email)
+);
+
+create table compra (
+    id bigint not null auto_increment,
+    fecha_compra datetime,
+    comprador_id bigint,
+    primary key (id),
+    constraint fk_compra_comprador foreign key (comprador_id) references usuario (id)
+);
+
+create table producto (
+    id bigint not null auto_increment,
+    nombre varchar(255),
+    precio float not null,
+    imagen varchar(255),
+    vendedor_id bigint,
+    compra_id bigint,
+    primary key (id),
+    constraint fk_producto_vendedor foreign key (vendedor_id) references usuario (id),
+    constraint fk_producto_compra foreign key (compra_id) references compra (id)
+);
@@ -0,0 +1,16 @@
+-- ---------------------------------------------------------------------------------------------
+-- TRABAJOS DE GENERACION DE FACTURAS (Entidad TrabajoFactura). "if not exists" porque en
+-- algunas Bases de Datos se creo a mano (o con ddl-auto) antes de tener migraciones.
+-- ---------------------------------------------------------------------------------------------
+
+create table if not exists trabajo_factura (
+    id bigint not null auto_increment,
+    compra_id bigint not null,
+    estado varchar(16) not null,
+    intentos integer not null,
+    error varchar(255),
+    fecha_creacion datetime,
+    fecha_fin datetime,
+    primary key (id),
+    constraint uk_trabajo_factura_compra unique (compra_id)
+);
@@ -0,0 +1,28 @@
+-- ---------------------------------------------------------------------------------------------
+-- INDICES PARA LAS CONSULTAS DE LOS REPOSITORIOS
+-- InnoDB anyade la clave primaria (id) al final de cada indice secundario, asi que
+-- (x, y) sirve tambien para devolver las filas de x ordenadas por id.
+-- ---------------------------------------------------------------------------------------------
+
+-- IProductoRepositoryDAO.findByCompra, findByCompraIsNull (productos sin vender: compra_id is null)
+-- y findByNombreContainsIgnoreCaseAndCompraIsNull (el nombre se filtra sobre el propio indice).
+-- MySQL no tiene indices parciales (where compra_id is null): los productos sin vender son el
+-- prefijo compra_id = null de este indice.
+create index idx_producto_compra_nombre on producto (compra_id, nombre);
+
+-- IProductoRepositoryDAO.findByVendedor y findByNombreContainsIgnoreCaseAndVendedor
+create index idx_producto_vendedor_nombre on producto (vendedor_id, nombre);
+
+-- IProductoRepositoryDAO.findImagenes (recolector de ficheros huerfanos)
+create index idx_producto_imagen on producto (imagen);
+
+-- ICompraRepositoryDAO.findByComprador y findIds (compras de un usuario en un periodo)
+create index idx_compra_comprador_fecha on compra (comprador_id, fecha_compra);
+
+-- IUsuarioRepositoryDAO.findAvatares (recolector de ficheros huerfanos).
+-- findByEmail ya usa la clave unica uk_usuario_email.
+create index idx_usuario_avatar on usuario (avatar);
+
+-- ITrabajoFacturaRepositoryDAO.findByEstadoIn (trabajos pendientes al arrancar).
+-- findByCompraId ya usa la clave unica uk_trabajo_factura_compra.
+create index idx_trabajo_factura_estado on trabajo_factura (estado);
@@ -0,0 +1,21 @@
+-- ---------------------------------------------------------------------------------------------
+-- GENERADORES DE IDENTIFICADORES (GeneradorIdAgrupado). Una Tabla de una sola fila por Entidad
+-- con el siguiente ID libre; Hibernate reserva los ID por bloques y ya no depende del
+-- auto_increment, lo que le permite agrupar los INSERT en lotes. Se inicializan a partir
+-- del mayor ID que ya existe.
+-- ---------------------------------------------------------------------------------------------
+
+create table usuario_seq (
+    next_val bigint not null
+);
+insert into usuario_seq (next_val) select coalesce(max(id), 0) + 1 from usuario;
+
+create table compra_seq (
+    next_val bigint not null
+);
+insert into compra_seq (next_val) select coalesce(max(id), 0) + 1 from compra;
+
+create table producto_seq (
+    next_val bigint not null
+);
+insert into producto_seq (next_val) select coalesce(max(id), 0) + 1 from producto;
@@ -0,0 +1,11 @@
+-- ---------------------------------------------------------------------------------------------
+-- LATIDO DE REPLICACION (ComprobadorReplicas). La Aplicacion escribe la hora en la principal
+-- y la lee de cada replica para saber cuanto va por detras.
+-- ---------------------------------------------------------------------------------------------
+
+create table latido_replicacion (
+    id integer not null,
+    instante bigint not null,
+    primary key (id)
+);
+insert into latido_replicacion (id, instante) values (1, 0);
@@ -0,0 +1,41 @@
+-- ---------------------------------------------------------------------------------------------
+-- ARCHIVO DE VENTAS (ArchivoServicioImpl). Las Compras de hace mas de productos.archive.after-days
+-- dias se mueven, con sus Productos, de compra/producto a estas Tablas, con los mismos ID y
+-- columnas. Asi las consultas del catalogo y de los vendedores solo recorren lo reciente, y el
+-- historico (mis compras, facturas, producto vendido) se consulta aqui cuando hace falta.
+-- ---------------------------------------------------------------------------------------------
+
+create table compra_archivada (
+    id bigint not null,
+    fecha_compra datetime,
+    comprador_id bigint,
+    primary key (id),
+    constraint fk_compra_archivada_comprador foreign key (comprador_id) references usuario (id)
+);
+
+create table producto_archivado (
+    id bigint not null,
+    nombre varchar(255),
+    precio float not null,
+    imagen varchar(255),
+    vendedor_id bigint,
+    compra_id bigint,
+    primary key (id),
+    constraint fk_producto_archivado_vendedor foreign key (vendedor_id) references usuario (id),
+    constraint fk_producto_archivado_compra foreign key (compra_id) references compra_archivada (id)
+);
+
+-- ICompraRepositoryDAO.findIdsAnteriores (Compras que toca archivar, de la mas antigua a la mas nueva)
+create index idx_compra_fecha on compra (fecha_compra);
+
+-- ICompraArchivadaRepositoryDAO.findByComprador y findIds (historico de compras de un usuario)
+create index idx_compra_archivada_comprador_fecha on compra_archivada (comprador_id, fecha_compra);
+
+-- IProductoArchivadoRepositoryDAO.findByCompraId
+create index idx_producto_archivado_compra on producto_archivado (compra_id);
+
+-- IProductoArchivadoRepositoryDAO.sumPrecioByVendedor (total de ventas del perfil)
+create index idx_producto_archivado_vendedor on producto_archivado (vendedor_id);
+
+-- IProductoArchivadoRepositoryDAO.findImagenes (recolector de ficheros huerfanos)
+create index idx_producto_archivado_imagen on producto_archivado (imagen);
@@ -0,0 +1,16 @@
+-- ---------------------------------------------------------------------------------------------
+-- ESTADO DEL PRODUCTO (Producto.Estado, guardado por su codigo de un caracter):
+-- D = DISPONIBLE, R = RESERVADO, O = OCULTO, V = VENDIDO.
+-- El catalogo (IProductoRepositoryDAO.findByEstadoOrderById y
+-- findByNombreContainsIgnoreCaseAndEstadoOrderById) filtra por estado = 'D' en lugar de por
+-- compra_id is null. MySQL no tiene indices parciales (where estado = 'D'): los productos
+-- disponibles son el rango estado = 'D' de idx_producto_estado, ya ordenados por id, sin
+-- recorrer los vendidos ni ordenar despues.
+-- idx_producto_compra_nombre se queda para findByCompra.
+-- ---------------------------------------------------------------------------------------------
+
+alter table producto add column estado char(1) not null default 'D';
+
+update producto set estado = 'V' where compra_id is not null;
+
+create index idx_producto_estado on producto (estado, id);
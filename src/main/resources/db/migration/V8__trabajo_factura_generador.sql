@@ -0,0 +1,13 @@
+-- ---------------------------------------------------------------------------------------------
+-- GENERADOR DE LA FACTURA (TrabajoFactura.Generador): las facturas de la plantilla HTML
+-- (HTML) y las de iText (ITEXT) se generan las dos en segundo plano, con un trabajo por
+-- Compra y generador. Los trabajos que ya existian son todos de la plantilla HTML.
+-- La clave unica nueva se crea antes de borrar la vieja para que findByCompraIdAndGenerador
+-- tenga siempre un indice.
+-- ---------------------------------------------------------------------------------------------
+
+alter table trabajo_factura add column generador varchar(8) not null default 'HTML';
+
+create unique index uk_trabajo_factura_compra_generador on trabajo_factura (compra_id, generador);
+
+alter table trabajo_factura drop index uk_trabajo_factura_compra;
@@ -0,0 +1,177 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.ICompraArchivadaRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.ICompraRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoArchivadoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+import com.victormoralesperez.wallaspring.services.ArchivoProperties;
+import com.victormoralesperez.wallaspring.services.ArchivoServicioImpl;
+import com.victormoralesperez.wallaspring.services.CompraServicioImpl;
+import com.victormoralesperez.wallaspring.services.IArchivoServicio;
+import com.victormoralesperez.wallaspring.services.ICompraServicio;
+import com.victormoralesperez.wallaspring.services.IProductoServicio;
+import com.victormoralesperez.wallaspring.services.ProductoServicioImpl;
+import com.victormoralesperez.wallaspring.storageservice.AsyncStorageService;
+import com.victormoralesperez.wallaspring.storageservice.StorageService;
+
+/**
+ * Comprueba que las ventas antiguas se mueven al archivo y que el historico las sigue viendo
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import({ ArchivoServicioImpl.class, CompraServicioImpl.class, ProductoServicioImpl.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ArchivoServicioTests {
+
+	@MockBean
+	StorageService storageService;
+
+	@MockBean
+	AsyncStorageService asyncStorageService;
+
+	@Autowired
+	IArchivoServicio archivoServicio;
+
+	@Autowired
+	ICompraServicio compraServicio;
+
+	@Autowired
+	IProductoServicio productoServicio;
+
+	@Autowired
+	ArchivoProperties properties;
+
+	@Autowired
+	IProductoRepositoryDAO productoRepositorio;
+
+	@Autowired
+	ICompraRepositoryDAO compraRepositorio;
+
+	@Autowired
+	IUsuarioRepositoryDAO usuarioRepositorio;
+
+	@Autowired
+	IProductoArchivadoRepositoryDAO productoArchivadoRepositorio;
+
+	@Autowired
+	ICompraArchivadaRepositoryDAO compraArchivadaRepositorio;
+
+	@Autowired
+	JdbcTemplate jdbc;
+
+	private Usuario vendedor;
+
+	private Usuario comprador;
+
+	private Compra antigua;
+
+	private Compra reciente;
+
+	private Producto vendidoHaceTiempo;
+
+	private Producto sinVender;
+
+	@BeforeEach
+	void setUp() {
+		properties.setBatchSize(1);
+		vendedor = usuarioRepositorio.save(new Usuario("Vera", "Vendedora", null, "vera@archivo.com", "secreto"));
+		comprador = usuarioRepositorio.save(new Usuario("Carlos", "Comprador", null, "carlos@archivo.com", "secreto"));
+		antigua = compraRepositorio.save(new Compra(comprador));
+		Date haceDosAnyos = Date.from(Instant.now().minus(730, ChronoUnit.DAYS));
+		jdbc.update("update compra set fecha_compra = ? where id = ?", haceDosAnyos, antigua.getId());
+		reciente = compraRepositorio.save(new Compra(comprador));
+		jdbc.update("update compra set fecha_compra = ? where id = ?", Date.from(Instant.now().minus(1, ChronoUnit.DAYS)), reciente.getId());
+		vendidoHaceTiempo = vendido("Mesa", 10, antigua);
+		vendido("Silla", 5, antigua);
+		vendido("Lampara", 7, reciente);
+		sinVender = productoRepositorio.save(new Producto("Sofa", 100, null, vendedor));
+	}
+
+	@AfterEach
+	void tearDown() {
+		properties.setBatchSize(new ArchivoProperties().getBatchSize());
+		productoArchivadoRepositorio.deleteAll();
+		compraArchivadaRepositorio.deleteAll();
+		productoRepositorio.deleteAll(productoRepositorio.findByVendedor(vendedor));
+		compraRepositorio.deleteAll(compraRepositorio.findByComprador(comprador));
+		usuarioRepositorio.deleteAll(Arrays.asList(vendedor, comprador));
+	}
+
+	@Test
+	void lasVentasAntiguasSeMuevenAlArchivoConSusProductos() {
+		assertEquals(1, archivoServicio.archivar());
+
+		assertFalse(compraRepositorio.existsById(antigua.getId()));
+		assertTrue(compraRepositorio.existsById(reciente.getId()));
+		assertEquals(2, productoArchivadoRepositorio.count());
+		assertEquals(Arrays.asList("Lampara", "Sofa"), nombres(productoServicio.productosDeUnPropietario(vendedor)));
+		assertTrue(productoServicio.productosSinVender().stream().anyMatch(p -> p.getId() == sinVender.getId()));
+
+		assertEquals(0, archivoServicio.archivar());
+	}
+
+	@Test
+	void elHistoricoIncluyeLasVentasArchivadas() {
+		archivoServicio.archivar();
+
+		List<Compra> compras = compraServicio.buscarTodasPorPropietario(comprador);
+		assertEquals(Arrays.asList(antigua.getId(), reciente.getId()), compras.stream().map(Compra::getId).collect(Collectors.toList()));
+
+		Compra archivada = compraServicio.buscarPorId(antigua.getId());
+		assertNotNull(archivada);
+		assertEquals(comprador.getId(), archivada.getComprador().getId());
+		assertEquals(Arrays.asList("Mesa", "Silla"), nombres(productoServicio.productosDeUnaCompra(archivada)));
+
+		Producto producto = productoServicio.buscarConHistorico(vendidoHaceTiempo.getId());
+		assertEquals("Mesa", producto.getNombre());
+		assertEquals(antigua.getId(), producto.getCompra().getId());
+		assertEquals(comprador.getEmail(), producto.getCompra().getComprador().getEmail());
+
+		assertEquals(3, productoServicio.productosCompradosPor(comprador).size());
+		assertEquals(15, productoServicio.totalVentasArchivadas(vendedor), 0.001);
+		assertEquals(Arrays.asList(antigua.getId(), reciente.getId()),
+				compraServicio.buscarIdsPorPropietario(comprador, new Date(0), new Date(), 0, 10));
+		assertEquals(Arrays.asList(antigua.getId()),
+				compraServicio.buscarIdsPorPropietario(comprador, new Date(0), new Date(), 0, 1));
+	}
+
+	private Producto vendido(String nombre, float precio, Compra compra) {
+		Producto producto = new Producto(nombre, precio, null, vendedor);
+		producto.setCompra(compra);
+		return productoRepositorio.save(producto);
+	}
+
+	private static List<String> nombres(List<Producto> productos) {
+		return productos.stream().map(Producto::getNombre).sorted().collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.victormoralesperez.wallaspring.storageservice.AsyncStorageService;
+import com.victormoralesperez.wallaspring.storageservice.FileSystemStorageService;
+import com.victormoralesperez.wallaspring.storageservice.StorageProperties;
+
+class AsyncStorageServiceTests {
+
+	@TempDir
+	Path directorio;
+
+	private ThreadPoolTaskExecutor executor;
+
+	private AsyncStorageService asyncStorageService;
+
+	@BeforeEach
+	void setUp() {
+		StorageProperties properties = new StorageProperties();
+		properties.setLocation(directorio.toString());
+		FileSystemStorageService storageService = new FileSystemStorageService(properties, event -> { });
+		storageService.init();
+		executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(1);
+		executor.setMaxPoolSize(1);
+		executor.setQueueCapacity(1);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.initialize();
+		asyncStorageService = new AsyncStorageService(storageService, executor);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void elBorradoEsperaALaConfirmacionDeLaTransaccion() throws Exception {
+		String nombre = asyncStorageService.store(new ByteArrayInputStream(new byte[] { 1, 2, 3 }), "foto.jpg").get();
+		assertTrue(Files.exists(directorio.resolve(nombre)));
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			asyncStorageService.deleteAfterCommit("http://localhost:9090/files/" + nombre);
+			assertEquals(1, TransactionSynchronizationManager.getSynchronizations().size());
+			assertTrue(Files.exists(directorio.resolve(nombre)));
+			for (TransactionSynchronization sincronizacion : TransactionSynchronizationManager.getSynchronizations()) {
+				sincronizacion.afterCommit();
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		executor.getThreadPoolExecutor().shutdown();
+		executor.getThreadPoolExecutor().awaitTermination(5, TimeUnit.SECONDS);
+		assertFalse(Files.exists(directorio.resolve(nombre)));
+	}
+
+}
@@ -0,0 +1,426 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.victormoralesperez.wallaspring.generador.GeneradorProperties;
+
+/**
+ * Prueba de carga: arranca la Aplicacion en un puerto al azar sobre el juego de datos de
+ * GeneradorDatos (perfil "carga") y la recorren carga.usuarios usuarios virtuales, cada uno
+ * con su sesion, repitiendo escenarios al azar durante carga.duracion: navegar por el
+ * catalogo, buscar, iniciar sesion, anyadir al carrito y finalizar la compra, pedir la
+ * factura de iText (202 mientras se genera en segundo plano) y subir un Producto con imagen.
+ * De cada operacion se mide el rendimiento (operaciones/s) y la latencia (HdrHistogram), se
+ * escribe un informe en carga.informe y se compara con la linea base (carga.linea-base):
+ * falla si alguna operacion tiene errores o su p99 o su rendimiento empeoran mas de
+ * carga.tolerancia. La linea base es de cada maquina y no se versiona: la primera
+ * ejecucion la crea (sin comparar) y se puede indicar otra con -Dcarga.linea-base=fichero.
+ * No se ejecuta con el resto de tests, solo con mvn -Pcarga test.
+ */
+@Tag("carga")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles({ "test", "carga" })
+class CargaTests {
+
+	private static final Logger log = LoggerFactory.getLogger(CargaTests.class);
+
+	private static final String[] BUSQUEDAS = { "bicicleta", "iphone", "mesa", "reloj", "moto", "cocina", "negro", "caja" };
+
+	@LocalServerPort
+	int puerto;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	GeneradorProperties generador;
+
+	@Value("${carga.usuarios}")
+	int usuarios;
+
+	@Value("${carga.calentamiento}")
+	Duration calentamiento;
+
+	@Value("${carga.duracion}")
+	Duration duracion;
+
+	@Value("${carga.tolerancia}")
+	double tolerancia;
+
+	@Value("${carga.linea-base}")
+	String lineaBase;
+
+	@Value("${carga.actualizar-linea-base}")
+	boolean actualizarLineaBase;
+
+	@Value("${carga.informe}")
+	String informe;
+
+	private final Map<String, Operacion> operaciones = new ConcurrentHashMap<>();
+
+	private List<Long> disponibles;
+
+	private AtomicInteger siguienteDisponible;
+
+	private List<Long> productos;
+
+	private byte[] imagen;
+
+	private volatile boolean midiendo;
+
+	@Test
+	void escenarios() throws Exception {
+		// usuarios con alguna Compra, para que la factura tenga desde el principio una que pedir
+		List<Map<String, Object>> compradores = jdbcTemplate.queryForList("select u.email, max(c.id) as compra from usuario u"
+				+ " join compra c on c.comprador_id = u.id where u.email like '%@wallaspring.local' group by u.id, u.email order by u.id");
+		disponibles = jdbcTemplate.queryForList("select id from producto where estado = 'D' order by id", Long.class);
+		Collections.shuffle(disponibles, new Random(generador.getSeed()));
+		siguienteDisponible = new AtomicInteger();
+		productos = jdbcTemplate.queryForList("select id from producto order by id", Long.class);
+		imagen = imagenJpeg();
+		assertTrue(!compradores.isEmpty() && !productos.isEmpty(), "NO SE HA GENERADO EL JUEGO DE DATOS (generador.*)");
+
+		ExecutorService hilos = Executors.newFixedThreadPool(usuarios);
+		long fin = System.nanoTime() + calentamiento.toNanos() + duracion.toNanos();
+		List<Future<?>> usuariosVirtuales = new ArrayList<>();
+		for (int i = 0; i < usuarios; i++) {
+			Map<String, Object> comprador = compradores.get(i % compradores.size());
+			String email = (String) comprador.get("email");
+			Long compra = ((Number) comprador.get("compra")).longValue();
+			Random random = new Random(generador.getSeed() + i);
+			usuariosVirtuales.add(hilos.submit(() -> usuarioVirtual(email, compra, random, fin)));
+		}
+		Thread.sleep(calentamiento.toMillis());
+		midiendo = true;
+		long inicio = System.nanoTime();
+		for (Future<?> usuarioVirtual : usuariosVirtuales) {
+			usuarioVirtual.get();
+		}
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+		hilos.shutdown();
+
+		Properties resultado = escribirInforme(segundos);
+		comparar(resultado);
+	}
+
+	/**
+	 * Repite escenarios al azar, con su propia sesion, hasta el final de la prueba
+	 */
+	private Void usuarioVirtual(String email, Long compra, Random random, long fin) throws IOException {
+		Cliente cliente = new Cliente();
+		iniciarSesion(cliente, email);
+		Long ultimaCompra = compra;
+		while (System.nanoTime() < fin) {
+			int escenario = random.nextInt(100);
+			if (escenario < 35) {
+				medir("catalogo", () -> cliente.get("/public/"));
+				medir("producto", () -> cliente.get("/public/producto/" + productos.get(random.nextInt(productos.size()))));
+			} else if (escenario < 55) {
+				String q = BUSQUEDAS[random.nextInt(BUSQUEDAS.length)];
+				medir("busqueda", () -> cliente.get("/public/?q=" + URLEncoder.encode(q, "UTF-8")));
+			} else if (escenario < 65) {
+				Cliente nuevo = new Cliente();
+				iniciarSesion(nuevo, email);
+			} else if (escenario < 85) {
+				int siguiente = siguienteDisponible.getAndIncrement();
+				if (siguiente < disponibles.size()) {
+					Long id = disponibles.get(siguiente);
+					medir("carrito", () -> cliente.get("/app/carrito/add/" + id));
+					Respuesta finalizada = medir("finalizar_compra", () -> cliente.get("/app/carrito/finalizar"));
+					if (finalizada.location != null && finalizada.location.contains("/factura/")) {
+						ultimaCompra = Long.valueOf(finalizada.location.substring(finalizada.location.lastIndexOf('/') + 1));
+					}
+				}
+			} else if (escenario < 95) {
+				Long id = ultimaCompra;
+				medir("factura_pdf", () -> cliente.get("/app/mis_compras/factura/pdf/" + id));
+			} else {
+				String nombre = "Producto de carga " + random.nextInt(1000);
+				medir("subir_producto", () -> cliente.multipart("/app/mis_productos/nuevo/submit", nombre, random.nextInt(500), imagen));
+			}
+		}
+		return null;
+	}
+
+	private void iniciarSesion(Cliente cliente, String email) throws IOException {
+		Respuesta respuesta = medir("login", () -> cliente.post("/auth/login-post", "username=" + URLEncoder.encode(email, "UTF-8")
+				+ "&password=" + URLEncoder.encode(generador.getPassword(), "UTF-8")));
+		if (respuesta.location == null || respuesta.location.contains("error")) {
+			throw new IllegalStateException("NO SE HA PODIDO INICIAR SESION CON " + email);
+		}
+	}
+
+	/**
+	 * Ejecuta la peticion y, si ya ha terminado el calentamiento, apunta su latencia y si ha
+	 * fallado (4xx, 5xx o error de E/S; un 503 es una peticion rechazada por sobrecarga, no
+	 * un error)
+	 */
+	private Respuesta medir(String nombre, Peticion peticion) throws IOException {
+		long inicio = System.nanoTime();
+		Respuesta respuesta;
+		try {
+			respuesta = peticion.ejecutar();
+		} catch (IOException e) {
+			if (midiendo) {
+				operacion(nombre).errores.incrementAndGet();
+			}
+			log.warn("{}: {}", nombre, e.toString());
+			return new Respuesta(-1, null);
+		}
+		if (midiendo) {
+			Operacion operacion = operacion(nombre);
+			operacion.latencias.recordValue(Math.max(1, (System.nanoTime() - inicio) / 1000));
+			if (respuesta.estado == 503) {
+				operacion.rechazadas.incrementAndGet();
+			} else if (respuesta.estado >= 400) {
+				operacion.errores.incrementAndGet();
+			}
+		}
+		return respuesta;
+	}
+
+	private Operacion operacion(String nombre) {
+		return operaciones.computeIfAbsent(nombre, n -> new Operacion());
+	}
+
+	private Properties escribirInforme(double segundos) throws IOException {
+		Properties resultado = new Properties();
+		StringBuilder texto = new StringBuilder(String.format(Locale.ROOT,
+				"%d usuarios virtuales durante %.1f s%n%-18s %8s %8s %9s %8s %8s %8s %8s %8s %8s%n", usuarios, segundos,
+				"operacion", "n", "errores", "rechazos", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (Map.Entry<String, Operacion> entrada : new TreeMap<>(operaciones).entrySet()) {
+			Operacion operacion = entrada.getValue();
+			Histogram latencias = operacion.latencias.copy();
+			double rendimiento = latencias.getTotalCount() / segundos;
+			texto.append(String.format(Locale.ROOT, "%-18s %8d %8d %9d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n", entrada.getKey(),
+					latencias.getTotalCount(), operacion.errores.get(), operacion.rechazadas.get(), rendimiento,
+					ms(latencias, 50), ms(latencias, 90), ms(latencias, 99), ms(latencias, 99.9), latencias.getMaxValue() / 1000.0));
+			resultado.setProperty(entrada.getKey() + ".rendimiento", String.format(Locale.ROOT, "%.1f", rendimiento));
+			resultado.setProperty(entrada.getKey() + ".p99", String.format(Locale.ROOT, "%.1f", ms(latencias, 99)));
+			resultado.setProperty(entrada.getKey() + ".errores", String.valueOf(operacion.errores.get()));
+		}
+		log.info("Resultado de la prueba de carga:\n{}", texto);
+		Path directorio = Files.createDirectories(Paths.get(informe));
+		Files.write(directorio.resolve("informe.txt"), texto.toString().getBytes(StandardCharsets.UTF_8));
+		try (Writer writer = Files.newBufferedWriter(directorio.resolve("resultado.properties"))) {
+			resultado.store(writer, "Resultado de CargaTests");
+		}
+		return resultado;
+	}
+
+	private void guardarLineaBase(Properties resultado, Path fichero) throws IOException {
+		Path directorio = fichero.toAbsolutePath().getParent();
+		if (directorio != null) {
+			Files.createDirectories(directorio);
+		}
+		try (Writer writer = Files.newBufferedWriter(fichero)) {
+			resultado.store(writer, "Linea base de CargaTests (" + usuarios + " usuarios virtuales) en esta maquina."
+					+ " Regenerar con -Dcarga.actualizar-linea-base=true");
+		}
+	}
+
+	/**
+	 * Compara cada operacion con la linea base: sin errores, p99 como mucho un
+	 * (1 + tolerancia) mayor y rendimiento como poco un (1 - tolerancia) del de la linea base.
+	 * La linea base depende de la maquina, asi que no se versiona: si no existe, esta
+	 * ejecucion se guarda como linea base y solo se comprueban los errores.
+	 */
+	private void comparar(Properties resultado) throws IOException {
+		Path fichero = Paths.get(lineaBase);
+		Properties base = new Properties();
+		if (actualizarLineaBase) {
+			guardarLineaBase(resultado, fichero);
+			log.warn("Linea base {} actualizada con esta ejecucion: no se compara, solo se comprueban los errores", fichero.toAbsolutePath());
+		} else if (Files.exists(fichero)) {
+			try (Reader reader = Files.newBufferedReader(fichero)) {
+				base.load(reader);
+			}
+		} else {
+			guardarLineaBase(resultado, fichero);
+			log.warn("NO HAY LINEA BASE EN {}: se guarda esta ejecucion como linea base y NO SE COMPARA (solo se comprueban"
+					+ " los errores). Las siguientes ejecuciones en esta maquina se compararan con ella.", fichero.toAbsolutePath());
+		}
+		List<String> regresiones = new ArrayList<>();
+		for (String nombre : new TreeMap<>(operaciones).keySet()) {
+			long errores = Long.parseLong(resultado.getProperty(nombre + ".errores"));
+			double p99 = Double.parseDouble(resultado.getProperty(nombre + ".p99"));
+			double rendimiento = Double.parseDouble(resultado.getProperty(nombre + ".rendimiento"));
+			if (errores > 0) {
+				regresiones.add(nombre + ": " + errores + " ERRORES");
+			}
+			String p99Base = base.getProperty(nombre + ".p99");
+			if (p99Base != null && p99 > Double.parseDouble(p99Base) * (1 + tolerancia)) {
+				regresiones.add(nombre + ": p99 " + p99 + " ms (LINEA BASE " + p99Base + " ms)");
+			}
+			String rendimientoBase = base.getProperty(nombre + ".rendimiento");
+			if (rendimientoBase != null && rendimiento < Double.parseDouble(rendimientoBase) * (1 - tolerancia)) {
+				regresiones.add(nombre + ": " + rendimiento + " ops/s (LINEA BASE " + rendimientoBase + " ops/s)");
+			}
+		}
+		assertTrue(regresiones.isEmpty(), () -> "REGRESIONES RESPECTO A LA LINEA BASE:\n" + String.join("\n", regresiones));
+	}
+
+	private static double ms(Histogram latencias, double percentil) {
+		return latencias.getValueAtPercentile(percentil) / 1000.0;
+	}
+
+	private static byte[] imagenJpeg() throws IOException {
+		BufferedImage imagen = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		ImageIO.write(imagen, "jpg", jpeg);
+		return jpeg.toByteArray();
+	}
+
+	/**
+	 * Latencias (microsegundos), errores y rechazos de una operacion
+	 */
+	private static class Operacion {
+
+		final Histogram latencias = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+
+		final AtomicLong errores = new AtomicLong();
+
+		final AtomicLong rechazadas = new AtomicLong();
+
+	}
+
+	@FunctionalInterface
+	private interface Peticion {
+
+		Respuesta ejecutar() throws IOException;
+
+	}
+
+	private static class Respuesta {
+
+		final int estado;
+
+		final String location;
+
+		Respuesta(int estado, String location) {
+			this.estado = estado;
+			this.location = location;
+		}
+
+	}
+
+	/**
+	 * Cliente HTTP de un usuario virtual: guarda la cookie de sesion, no sigue las
+	 * redirecciones y lee cada respuesta entera (para medir hasta el ultimo byte)
+	 */
+	private class Cliente {
+
+		private String sesion;
+
+		Respuesta get(String ruta) throws IOException {
+			return enviar(abrir(ruta, "GET"));
+		}
+
+		Respuesta post(String ruta, String formulario) throws IOException {
+			HttpURLConnection conexion = abrir(ruta, "POST");
+			conexion.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			escribir(conexion, formulario.getBytes(StandardCharsets.UTF_8));
+			return enviar(conexion);
+		}
+
+		Respuesta multipart(String ruta, String nombre, float precio, byte[] jpeg) throws IOException {
+			String limite = "----carga" + System.nanoTime();
+			ByteArrayOutputStream cuerpo = new ByteArrayOutputStream();
+			String campos = "--" + limite + "\r\nContent-Disposition: form-data; name=\"nombre\"\r\n\r\n" + nombre + "\r\n"
+					+ "--" + limite + "\r\nContent-Disposition: form-data; name=\"precio\"\r\n\r\n" + precio + "\r\n"
+					+ "--" + limite + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"carga.jpg\"\r\n"
+					+ "Content-Type: image/jpeg\r\n\r\n";
+			cuerpo.write(campos.getBytes(StandardCharsets.UTF_8));
+			cuerpo.write(jpeg);
+			cuerpo.write(("\r\n--" + limite + "--\r\n").getBytes(StandardCharsets.UTF_8));
+			HttpURLConnection conexion = abrir(ruta, "POST");
+			conexion.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + limite);
+			escribir(conexion, cuerpo.toByteArray());
+			return enviar(conexion);
+		}
+
+		private HttpURLConnection abrir(String ruta, String metodo) throws IOException {
+			HttpURLConnection conexion = (HttpURLConnection) new URL("http://localhost:" + puerto + ruta).openConnection();
+			conexion.setRequestMethod(metodo);
+			conexion.setInstanceFollowRedirects(false);
+			conexion.setConnectTimeout(5000);
+			conexion.setReadTimeout(60000);
+			if (sesion != null) {
+				conexion.setRequestProperty("Cookie", sesion);
+			}
+			return conexion;
+		}
+
+		private void escribir(HttpURLConnection conexion, byte[] cuerpo) throws IOException {
+			conexion.setDoOutput(true);
+			conexion.setFixedLengthStreamingMode(cuerpo.length);
+			try (OutputStream outputStream = conexion.getOutputStream()) {
+				outputStream.write(cuerpo);
+			}
+		}
+
+		private Respuesta enviar(HttpURLConnection conexion) throws IOException {
+			int estado = conexion.getResponseCode();
+			String cookie = conexion.getHeaderField("Set-Cookie");
+			if (cookie != null && cookie.startsWith("JSESSIONID=")) {
+				sesion = cookie.substring(0, cookie.indexOf(';') > 0 ? cookie.indexOf(';') : cookie.length());
+			}
+			try (InputStream inputStream = (estado >= 400) ? conexion.getErrorStream() : conexion.getInputStream()) {
+				if (inputStream != null) {
+					byte[] buffer = new byte[8192];
+					while (inputStream.read(buffer) != -1) {
+						// se descarta, solo se mide
+					}
+				}
+			}
+			return new Respuesta(estado, conexion.getHeaderField("Location"));
+		}
+
+	}
+
+}
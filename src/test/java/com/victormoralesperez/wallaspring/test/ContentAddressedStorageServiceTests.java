@@ -0,0 +1,59 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import com.victormoralesperez.wallaspring.storageservice.ContentAddressedStorageService;
+import com.victormoralesperez.wallaspring.storageservice.StorageProperties;
+
+class ContentAddressedStorageServiceTests {
+
+	@TempDir
+	Path directorio;
+
+	private ContentAddressedStorageService storageService;
+
+	@BeforeEach
+	void setUp() {
+		StorageProperties properties = new StorageProperties();
+		properties.setLocation(directorio.toString());
+		storageService = new ContentAddressedStorageService(properties, event -> { });
+		storageService.init();
+	}
+
+	@Test
+	void mismoContenidoSeAlmacenaUnaSolaVez() {
+		String primero = storageService.store(new MockMultipartFile("file", "bici.JPG", "image/jpeg", new byte[] { 1, 2, 3 }));
+		String segundo = storageService.store(new MockMultipartFile("file", "otra_bici.jpg", "image/jpeg", new byte[] { 1, 2, 3 }));
+		String distinto = storageService.store(new MockMultipartFile("file", "bici.jpg", "image/jpeg", new byte[] { 4, 5, 6 }));
+
+		assertEquals(primero, segundo);
+		assertNotEquals(primero, distinto);
+		assertTrue(primero.endsWith(".jpg"));
+		assertTrue(storageService.load(primero).startsWith(directorio.resolve(primero.substring(0, 2)).resolve(primero.substring(2, 4))));
+		assertEquals(2, storageService.loadAll().collect(Collectors.toList()).size());
+	}
+
+	@Test
+	void elFicheroSoloSeBorraAlPerderLaUltimaReferencia() {
+		String nombre = storageService.store(new MockMultipartFile("file", "avatar.png", "image/png", new byte[] { 7, 7, 7 }));
+		storageService.store(new MockMultipartFile("file", "avatar.png", "image/png", new byte[] { 7, 7, 7 }));
+
+		storageService.delete("http://localhost:9090/files/" + nombre);
+		assertTrue(Files.exists(storageService.load(nombre)));
+
+		storageService.delete(nombre);
+		assertFalse(Files.exists(storageService.load(nombre)));
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.victormoralesperez.wallaspring.reports.FacturaCache;
+import com.victormoralesperez.wallaspring.reports.FacturaCacheProperties;
+
+class FacturaCacheTests {
+
+	@TempDir
+	Path directorio;
+
+	private FacturaCache nuevaCache(long maxBytes) throws IOException {
+		FacturaCacheProperties properties = new FacturaCacheProperties();
+		properties.setLocation(directorio.toString());
+		properties.setMaxBytes(maxBytes);
+		FacturaCache cache = new FacturaCache(properties);
+		cache.init();
+		return cache;
+	}
+
+	@Test
+	void elIndiceSobreviveAUnReinicio() throws IOException {
+		FacturaCache cache = nuevaCache(1024);
+		String clave = FacturaCache.clave("html", 7, "v1");
+		FacturaCache.Factura factura = cache.put(clave, out -> out.write(new byte[] { 1, 2, 3 }));
+		assertTrue(Files.exists(factura.getPath()));
+		assertEquals(factura.getHash() + ".pdf", factura.getPath().getFileName().toString());
+		cache.destroy();
+
+		FacturaCache reiniciada = nuevaCache(1024);
+		FacturaCache.Factura recuperada = reiniciada.get(clave);
+		assertNotNull(recuperada);
+		assertEquals(factura.getEtag(), recuperada.getEtag());
+		assertNull(reiniciada.get(FacturaCache.clave("html", 7, "v2")));
+		reiniciada.destroy();
+	}
+
+	@Test
+	void seDesalojanLasMenosUsadasAlSuperarElLimite() throws IOException {
+		FacturaCache cache = nuevaCache(20);
+		FacturaCache.Factura primera = cache.put("html-1-v1", out -> out.write(new byte[10]));
+		cache.put("html-2-v1", out -> out.write(new byte[] { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 }));
+		cache.get("html-1-v1");
+		cache.put("html-3-v1", out -> out.write(new byte[] { 2, 2, 2, 2, 2, 2, 2, 2, 2, 2 }));
+
+		assertNotNull(cache.get("html-1-v1"));
+		assertNull(cache.get("html-2-v1"));
+		assertEquals(2, cache.size());
+		assertEquals(20, cache.getBytes());
+		assertTrue(Files.exists(primera.getPath()));
+		cache.destroy();
+	}
+
+	/**
+	 * Mientras se envia una factura otra peticion llena la cache y la desaloja: el PDF
+	 * sigue en disco hasta que se libera
+	 */
+	@Test
+	void unaFacturaReservadaNoSeBorraHastaLiberarla() throws IOException {
+		FacturaCache cache = nuevaCache(20);
+		cache.put("html-1-v1", out -> out.write(new byte[10]));
+		FacturaCache.Factura reservada = cache.reservar("html-1-v1");
+		cache.put("html-2-v1", out -> out.write(new byte[] { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 }));
+		cache.put("html-3-v1", out -> out.write(new byte[] { 2, 2, 2, 2, 2, 2, 2, 2, 2, 2 }));
+
+		assertNull(cache.get("html-1-v1"));
+		assertEquals(20, cache.getBytes());
+		assertTrue(Files.exists(reservada.getPath()));
+
+		cache.liberar(reservada);
+
+		assertFalse(Files.exists(reservada.getPath()));
+		cache.destroy();
+	}
+
+	@Test
+	void unPdfBorradoPorFueraSeDescartaAlReservarlo() throws IOException {
+		FacturaCache cache = nuevaCache(1024);
+		FacturaCache.Factura factura = cache.put("html-1-v1", out -> out.write(new byte[] { 1, 2, 3 }));
+		Files.delete(factura.getPath());
+
+		assertNull(cache.reservar("html-1-v1"));
+		assertNull(cache.get("html-1-v1"));
+		assertEquals(0, cache.getBytes());
+		cache.destroy();
+	}
+
+	@Test
+	void regenerarLaMismaClaveConElMismoContenidoNoBorraElPdf() throws IOException {
+		FacturaCache cache = nuevaCache(1024);
+		cache.put("itext-1-1", out -> out.write(new byte[] { 5, 5 }));
+		FacturaCache.Factura otraVez = cache.put("itext-1-1", out -> out.write(new byte[] { 5, 5 }));
+
+		assertTrue(Files.exists(otraVez.getPath()));
+		assertEquals(2, cache.getBytes());
+		assertFalse(Files.list(directorio).anyMatch(fichero -> fichero.toString().endsWith(".tmp")));
+		cache.destroy();
+	}
+
+}
@@ -0,0 +1,225 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.TrabajoFactura;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.reports.FacturaCache;
+import com.victormoralesperez.wallaspring.reports.FacturaCacheProperties;
+import com.victormoralesperez.wallaspring.reports.Html2PdfService;
+import com.victormoralesperez.wallaspring.reports.LimitadorPDF;
+import com.victormoralesperez.wallaspring.reports.LimitadorPDFProperties;
+import com.victormoralesperez.wallaspring.repositories.ITrabajoFacturaRepositoryDAO;
+import com.victormoralesperez.wallaspring.services.FacturaServicioImpl;
+import com.victormoralesperez.wallaspring.services.ICompraServicio;
+import com.victormoralesperez.wallaspring.services.IProductoServicio;
+
+class FacturaServicioTests {
+
+	@TempDir
+	Path directorio;
+
+	private final List<Runnable> pool = new ArrayList<>();
+
+	private TrabajoFactura guardado;
+
+	private ITrabajoFacturaRepositoryDAO repositorio;
+
+	private FacturaCache facturaCache;
+
+	private ICompraServicio compraServicio;
+
+	private FacturaServicioImpl facturaServicio;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		repositorio = mock(ITrabajoFacturaRepositoryDAO.class);
+		when(repositorio.save(any(TrabajoFactura.class))).thenAnswer(invocacion -> {
+			guardado = invocacion.getArgument(0);
+			guardado.setId(1L);
+			return guardado;
+		});
+		when(repositorio.findByCompraIdAndGenerador(7L, TrabajoFactura.Generador.HTML)).thenAnswer(invocacion -> Optional.ofNullable(guardado));
+		when(repositorio.findById(1L)).thenAnswer(invocacion -> Optional.ofNullable(guardado));
+
+		Compra compra = new Compra();
+		compra.setId(7L);
+		compra.setComprador(new Usuario("Ana", "Garcia", null, "ana@wallaspring.com", "secreto"));
+		compraServicio = mock(ICompraServicio.class);
+		IProductoServicio productoServicio = mock(IProductoServicio.class);
+		for (long id = 1; id <= 20; id++) {
+			Compra otra = new Compra();
+			otra.setId(id);
+			when(compraServicio.buscarPorId(id)).thenReturn(otra);
+			when(productoServicio.productosDeUnaCompra(otra)).thenReturn(Collections.emptyList());
+		}
+		when(compraServicio.buscarPorId(7L)).thenReturn(compra);
+		when(productoServicio.productosDeUnaCompra(compra)).thenReturn(Collections.emptyList());
+
+		Html2PdfService html2PdfService = mock(Html2PdfService.class);
+		when(html2PdfService.version()).thenReturn("v1");
+		when(html2PdfService.html(anyMap())).thenAnswer(invocacion -> "<p>" + invocacion.<Map<String, Object>>getArgument(0).get("factura") + "</p>");
+		doAnswer(invocacion -> {
+			invocacion.getArgument(1, OutputStream.class).write(invocacion.getArgument(0, String.class).getBytes());
+			return null;
+		}).when(html2PdfService).html2Pdf(anyString(), any(OutputStream.class));
+
+		FacturaCacheProperties properties = new FacturaCacheProperties();
+		properties.setLocation(directorio.toString());
+		facturaCache = new FacturaCache(properties);
+		facturaCache.init();
+
+		facturaServicio = new FacturaServicioImpl();
+		ReflectionTestUtils.setField(facturaServicio, "repositorio", repositorio);
+		ReflectionTestUtils.setField(facturaServicio, "compraServicio", compraServicio);
+		ReflectionTestUtils.setField(facturaServicio, "productoServicio", productoServicio);
+		ReflectionTestUtils.setField(facturaServicio, "html2PdfService", html2PdfService);
+		ReflectionTestUtils.setField(facturaServicio, "facturaCache", facturaCache);
+		ReflectionTestUtils.setField(facturaServicio, "limitadorPDF", new LimitadorPDF(new LimitadorPDFProperties()));
+		ReflectionTestUtils.setField(facturaServicio, "executor", (Executor) pool::add);
+		ReflectionTestUtils.setField(facturaServicio, "exportacionPool", new ForkJoinPool(2));
+	}
+
+	@Test
+	void elTrabajoSeEncolaUnaVezYDejaLaFacturaEnLaCache() {
+		TrabajoFactura trabajo = facturaServicio.encolar(7L, TrabajoFactura.Generador.HTML);
+		facturaServicio.encolar(7L, TrabajoFactura.Generador.HTML);
+
+		assertEquals(TrabajoFactura.Estado.PENDIENTE, trabajo.getEstado());
+		assertEquals(1, pool.size());
+		assertNull(facturaServicio.buscarFactura(7L, TrabajoFactura.Generador.HTML));
+
+		pool.remove(0).run();
+
+		assertEquals(TrabajoFactura.Estado.TERMINADO, guardado.getEstado());
+		assertEquals(1, guardado.getIntentos());
+		assertNotNull(facturaServicio.buscarFactura(7L, TrabajoFactura.Generador.HTML));
+		assertEquals(TrabajoFactura.Estado.TERMINADO, facturaServicio.encolar(7L, TrabajoFactura.Generador.HTML).getEstado());
+		assertEquals(0, pool.size());
+	}
+
+	@Test
+	void laFacturaDeITextTambienSeGeneraEnSegundoPlano() {
+		TrabajoFactura trabajo = facturaServicio.encolar(7L, TrabajoFactura.Generador.ITEXT);
+
+		assertEquals(TrabajoFactura.Generador.ITEXT, trabajo.getGenerador());
+		assertEquals(1, pool.size());
+		assertNull(facturaServicio.buscarFactura(7L, TrabajoFactura.Generador.ITEXT));
+
+		pool.remove(0).run();
+
+		assertEquals(TrabajoFactura.Estado.TERMINADO, guardado.getEstado());
+		assertNotNull(facturaServicio.buscarFactura(7L, TrabajoFactura.Generador.ITEXT));
+		assertNull(facturaServicio.buscarFactura(7L, TrabajoFactura.Generador.HTML));
+	}
+
+	/**
+	 * Otra peticion crea el trabajo entre la busqueda y el insert: la clave unica
+	 * rechaza el segundo insert y se usa el trabajo que ya existe
+	 */
+	@Test
+	void dosPrimerasConsultasALaVezUsanElMismoTrabajo() {
+		TrabajoFactura otro = new TrabajoFactura(7L, TrabajoFactura.Generador.HTML);
+		otro.setId(1L);
+		when(repositorio.findByCompraIdAndGenerador(7L, TrabajoFactura.Generador.HTML))
+				.thenReturn(Optional.empty())
+				.thenAnswer(invocacion -> Optional.of(otro));
+		when(repositorio.save(any(TrabajoFactura.class)))
+				.thenThrow(new DataIntegrityViolationException("uk_trabajo_factura_compra"))
+				.thenAnswer(invocacion -> invocacion.getArgument(0));
+
+		TrabajoFactura trabajo = facturaServicio.encolar(7L, TrabajoFactura.Generador.HTML);
+
+		assertEquals(1L, trabajo.getId());
+		assertEquals(TrabajoFactura.Estado.PENDIENTE, trabajo.getEstado());
+		assertEquals(1, pool.size());
+	}
+
+	/**
+	 * La exportacion usa las facturas que ya estan en la cache, pero las que genera no
+	 * entran en ella (no desaloja a las demas) ni dejan temporales
+	 */
+	@Test
+	void laExportacionNoLlenaLaCache() throws Exception {
+		facturaServicio.generarFactura(7L, TrabajoFactura.Generador.HTML);
+		when(compraServicio.buscarIdsPorPropietario(any(), any(), any(), anyLong(), anyInt()))
+				.thenReturn(Arrays.asList(5L, 6L, 7L, 8L))
+				.thenReturn(Collections.emptyList());
+
+		assertEquals(4, facturaServicio.exportarZip(new Usuario(), new Date(0), new Date(), new ByteArrayOutputStream()));
+
+		assertEquals(1, facturaCache.size());
+		assertNotNull(facturaServicio.buscarFactura(7L, TrabajoFactura.Generador.HTML));
+		try (Stream<Path> ficheros = Files.list(directorio)) {
+			assertEquals(0, ficheros.filter(fichero -> fichero.toString().endsWith(".tmp")).count());
+		}
+	}
+
+	@Test
+	void laExportacionEscribeLasFacturasEnOrdenYAnotaLasQueFallan() throws Exception {
+		Usuario usuario = new Usuario();
+		List<Long> ids = Arrays.asList(3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 99L);
+		when(compraServicio.buscarIdsPorPropietario(any(), any(), any(), anyLong(), anyInt()))
+				.thenReturn(ids)
+				.thenReturn(Collections.emptyList());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		int exportadas = facturaServicio.exportarZip(usuario, new Date(0), new Date(), out);
+
+		assertEquals(9, exportadas);
+		List<String> nombres = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			ZipEntry entrada;
+			while ((entrada = zip.getNextEntry()) != null) {
+				nombres.add(entrada.getName());
+				ByteArrayOutputStream contenido = new ByteArrayOutputStream();
+				StreamUtils.copy(zip, contenido);
+				if (entrada.getName().endsWith(".pdf")) {
+					assertEquals("<p>" + entrada.getName().replace(".pdf", "") + "</p>", contenido.toString());
+				} else {
+					assertTrue(contenido.toString().startsWith("factura_99"));
+				}
+			}
+		}
+		assertEquals(Arrays.asList("factura_3.pdf", "factura_4.pdf", "factura_5.pdf", "factura_6.pdf",
+				"factura_7.pdf", "factura_8.pdf", "factura_9.pdf", "factura_10.pdf", "factura_11.pdf",
+				"ERRORES.txt"), nombres);
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+import com.victormoralesperez.wallaspring.services.ICompraServicio;
+import com.victormoralesperez.wallaspring.services.ProductoNoDisponibleException;
+
+/**
+ * Un Carrito viejo no puede comprar un Producto que ya no esta DISPONIBLE: la Compra
+ * se rechaza entera y no se toca la Compra del comprador anterior.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class FinalizarCompraTests {
+
+	@Autowired
+	ICompraServicio compraServicio;
+
+	@Autowired
+	IUsuarioRepositoryDAO usuarioRepositorio;
+
+	@Autowired
+	IProductoRepositoryDAO productoRepositorio;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	private Usuario ana;
+
+	private Usuario luis;
+
+	private Producto bici;
+
+	private Producto lampara;
+
+	@BeforeEach
+	void setUp() {
+		ana = usuarioRepositorio.save(new Usuario("Ana", "Garcia", null, "ana.checkout@wallaspring.com", "secreto"));
+		luis = usuarioRepositorio.save(new Usuario("Luis", "Perez", null, "luis.checkout@wallaspring.com", "secreto"));
+		bici = productoRepositorio.save(new Producto("Bicicleta", 120f, null, ana));
+		lampara = productoRepositorio.save(new Producto("Lampara", 15.5f, null, ana));
+	}
+
+	@AfterEach
+	void tearDown() {
+		jdbcTemplate.update("delete from producto where vendedor_id = ?", ana.getId());
+		jdbcTemplate.update("delete from compra where comprador_id in (?, ?)", ana.getId(), luis.getId());
+		jdbcTemplate.update("delete from usuario where id in (?, ?)", ana.getId(), luis.getId());
+	}
+
+	@Test
+	void unProductoVendidoNoSeVuelveAVender() {
+		Compra primera = compraServicio.finalizarCompra(luis, Collections.singletonList(bici.getId()));
+
+		assertThrows(ProductoNoDisponibleException.class,
+				() -> compraServicio.finalizarCompra(ana, Arrays.asList(lampara.getId(), bici.getId())));
+
+		assertEquals(primera.getId(), compraDe(bici));
+		assertEquals(null, compraDe(lampara));
+		assertEquals("D", jdbcTemplate.queryForObject("select estado from producto where id = ?", String.class, lampara.getId()));
+		assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from compra where comprador_id = ?", Integer.class, ana.getId()));
+	}
+
+	@Test
+	void unProductoReservadoNoSePuedeComprar() {
+		jdbcTemplate.update("update producto set estado = 'R' where id = ?", bici.getId());
+
+		assertThrows(ProductoNoDisponibleException.class,
+				() -> compraServicio.finalizarCompra(luis, Collections.singletonList(bici.getId())));
+
+		assertEquals(null, compraDe(bici));
+	}
+
+	@Test
+	void unCarritoDisponibleSeVendeEntero() {
+		Compra compra = compraServicio.finalizarCompra(luis, Arrays.asList(bici.getId(), lampara.getId(), bici.getId()));
+
+		assertEquals(compra.getId(), compraDe(bici));
+		assertEquals(compra.getId(), compraDe(lampara));
+		assertEquals(2, (int) jdbcTemplate.queryForObject("select count(*) from producto where compra_id = ? and estado = 'V'",
+				Integer.class, compra.getId()));
+	}
+
+	private Long compraDe(Producto producto) {
+		return jdbcTemplate.queryForObject("select compra_id from producto where id = ?", Long.class, producto.getId());
+	}
+
+}
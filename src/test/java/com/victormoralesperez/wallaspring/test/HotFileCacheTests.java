@@ -0,0 +1,80 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+import com.victormoralesperez.wallaspring.storageservice.FileDeletedEvent;
+import com.victormoralesperez.wallaspring.storageservice.HotFileCache;
+import com.victormoralesperez.wallaspring.storageservice.HotFileCacheProperties;
+
+class HotFileCacheTests {
+
+	private HotFileCache cache;
+
+	private final AtomicInteger lecturas = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() {
+		HotFileCacheProperties properties = new HotFileCacheProperties();
+		properties.setEnabled(true);
+		properties.setMaxBytes(300);
+		properties.setMaxFileBytes(200);
+		cache = new HotFileCache(properties);
+	}
+
+	@Test
+	void losAciertosNoVuelvenAlAlmacen() throws Exception {
+		byte[] contenido = { 1, 2, 3, 4 };
+		cache.get("a.jpg", () -> fichero(contenido));
+		Resource cacheado = cache.get("a.jpg", () -> fichero(contenido));
+
+		assertEquals(1, lecturas.get());
+		assertArrayEquals(contenido, StreamUtils.copyToByteArray(cacheado.getInputStream()));
+		assertEquals("a.jpg", cacheado.getFilename());
+		assertEquals(0.5, cache.getHitRatio());
+		assertEquals(4, cache.getResidentBytes());
+	}
+
+	@Test
+	void respetaElLimiteDeBytesYNoDesplazaALosFicherosFrecuentes() {
+		for (int i = 0; i < 5; i++) {
+			cache.get("portada.jpg", () -> fichero(new byte[200]));
+		}
+		Resource frio = fichero(new byte[150]);
+		assertSame(frio, cache.get("raro.jpg", () -> frio));
+		assertEquals(200, cache.getResidentBytes());
+
+		cache.get("grande.jpg", () -> fichero(new byte[250]));
+		assertTrue(cache.getResidentBytes() <= 300);
+		assertEquals(1, cache.getEntries());
+	}
+
+	@Test
+	void seInvalidaAlBorrarElFichero() {
+		cache.get("a.jpg", () -> fichero(new byte[10]));
+		cache.onFileDeleted(new FileDeletedEvent("a.jpg"));
+		cache.get("a.jpg", () -> fichero(new byte[10]));
+
+		assertEquals(2, lecturas.get());
+	}
+
+	private Resource fichero(byte[] contenido) {
+		lecturas.incrementAndGet();
+		return new ByteArrayResource(contenido) {
+			@Override
+			public String getFilename() {
+				return "a.jpg";
+			}
+		};
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.thymeleaf.spring5.SpringTemplateEngine;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.reports.Html2PdfService;
+import com.victormoralesperez.wallaspring.reports.Html2PdfServiceImpl;
+
+class Html2PdfServiceTests {
+
+	private static final int HILOS = 4;
+
+	private static final int FACTURAS = 16;
+
+	private Html2PdfService html2PdfService;
+
+	@BeforeEach
+	void setUp() {
+		ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+		resolver.setPrefix("templates/");
+		resolver.setSuffix(".html");
+		SpringTemplateEngine templateEngine = new SpringTemplateEngine();
+		templateEngine.setTemplateResolver(resolver);
+		Html2PdfServiceImpl html2PdfServiceImpl = new Html2PdfServiceImpl(templateEngine);
+		html2PdfServiceImpl.init();
+		html2PdfService = html2PdfServiceImpl;
+	}
+
+	@Test
+	void variasFacturasALaVezNoSeMezclan() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(HILOS);
+		try {
+			List<Future<byte[]>> pdfs = new ArrayList<>();
+			for (int i = 1; i <= FACTURAS; i++) {
+				Map<String, Object> data = datos(i);
+				pdfs.add(pool.submit(() -> {
+					ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+					html2PdfService.html2PdfGenerator(data, pdf);
+					return pdf.toByteArray();
+				}));
+			}
+			for (int i = 0; i < FACTURAS; i++) {
+				byte[] pdf = pdfs.get(i).get();
+				assertTrue(new String(pdf, 0, 5, StandardCharsets.ISO_8859_1).startsWith("%PDF-"));
+				String cola = new String(pdf, pdf.length - 8, 8, StandardCharsets.ISO_8859_1);
+				assertTrue(cola.contains("%%EOF"));
+				assertTrue(new String(pdf, StandardCharsets.ISO_8859_1).contains("factura_" + (i + 1)));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static Map<String, Object> datos(long id) {
+		Usuario comprador = new Usuario("Ana", "Garcia", null, "ana@wallaspring.com", "secreto");
+		Compra compra = new Compra(comprador);
+		compra.setId(id);
+		compra.setFechaCompra(new Date());
+		List<Producto> productos = Arrays.asList(new Producto("Bicicleta", 120f, null, comprador),
+				new Producto("Lampara", 15.5f, null, comprador));
+		float total = 135.5f;
+		Map<String, Object> data = new TreeMap<>();
+		data.put("factura", "factura_" + id);
+		data.put("compra", compra);
+		data.put("productos", productos);
+		data.put("total", total);
+		data.put("subtotal", total / 1.21);
+		data.put("iva", total - total / 1.21);
+		return data;
+	}
+
+}
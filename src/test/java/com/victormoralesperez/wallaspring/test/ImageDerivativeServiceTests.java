@@ -0,0 +1,87 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import com.victormoralesperez.wallaspring.storageservice.FileSystemStorageService;
+import com.victormoralesperez.wallaspring.storageservice.ImageDerivativeService;
+import com.victormoralesperez.wallaspring.storageservice.ImageProperties;
+import com.victormoralesperez.wallaspring.storageservice.ImageVariant;
+import com.victormoralesperez.wallaspring.storageservice.StorageProperties;
+
+class ImageDerivativeServiceTests {
+
+	@TempDir
+	Path directorio;
+
+	private FileSystemStorageService storageService;
+
+	private ImageProperties imageProperties;
+
+	@BeforeEach
+	void setUp() {
+		StorageProperties properties = new StorageProperties();
+		properties.setLocation(directorio.resolve("upload-dir").toString());
+		storageService = new FileSystemStorageService(properties, event -> { });
+		storageService.init();
+		imageProperties = new ImageProperties();
+		imageProperties.setLocation(directorio.resolve("variantes").toString());
+	}
+
+	@Test
+	void generaCadaVarianteDentroDeSuCaja() throws Exception {
+		imageProperties.setMaxDecodedPixels(1_000_000L);
+		ImageDerivativeService service = new ImageDerivativeService(storageService, imageProperties);
+		String filename = storageService.store(png("foto.png", 3000, 2000));
+
+		service.generarVariantes(filename);
+
+		for (ImageVariant variante : ImageVariant.values()) {
+			BufferedImage imagen = ImageIO.read(service.loadVariantAsResource(filename, variante).getFile());
+			assertTrue(imagen.getWidth() <= variante.getAnchoMaximo());
+			assertTrue(imagen.getHeight() <= variante.getAltoMaximo());
+		}
+		BufferedImage panel = ImageIO.read(service.loadVariantAsResource(filename, ImageVariant.PANEL).getFile());
+		assertEquals(300, panel.getHeight());
+	}
+
+	@Test
+	void descartaLasImagenesQueSuperanElLimiteDePixeles() throws Exception {
+		imageProperties.setMaxSourcePixels(100_000L);
+		ImageDerivativeService service = new ImageDerivativeService(storageService, imageProperties);
+		String filename = storageService.store(png("enorme.png", 1000, 1000));
+
+		service.generarVariantes(filename);
+
+		assertNull(service.loadVariantAsResource(filename, ImageVariant.THUMB));
+	}
+
+	@Test
+	void ignoraLosFicherosQueNoSonImagenes() {
+		ImageDerivativeService service = new ImageDerivativeService(storageService, imageProperties);
+		String filename = storageService.store(new MockMultipartFile("file", "notas.txt", "text/plain", "hola".getBytes()));
+
+		service.generarVariantes(filename);
+
+		assertNotNull(storageService.loadAsResource(filename));
+		assertNull(service.loadVariantAsResource(filename, ImageVariant.PANEL));
+	}
+
+	private static MockMultipartFile png(String nombre, int ancho, int alto) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_ARGB), "png", out);
+		return new MockMultipartFile("file", nombre, "image/png", out.toByteArray());
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StreamUtils;
+
+import com.victormoralesperez.wallaspring.config.ConfiguracionValidacion;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+import com.victormoralesperez.wallaspring.services.IImportacionServicio;
+import com.victormoralesperez.wallaspring.services.ImportacionProperties;
+import com.victormoralesperez.wallaspring.services.ImportacionServicioImpl;
+import com.victormoralesperez.wallaspring.services.ResultadoImportacion;
+import com.victormoralesperez.wallaspring.storageservice.StorageService;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import({ ImportacionServicioImpl.class, ConfiguracionValidacion.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ImportacionServicioTests {
+
+	@MockBean
+	StorageService storageService;
+
+	@Autowired
+	IImportacionServicio importacionServicio;
+
+	@Autowired
+	ImportacionProperties properties;
+
+	@Autowired
+	IProductoRepositoryDAO productoRepositorio;
+
+	@Autowired
+	IUsuarioRepositoryDAO usuarioRepositorio;
+
+	private Usuario vendedor;
+
+	@BeforeEach
+	void setUp() {
+		properties.setBatchSize(2);
+		vendedor = usuarioRepositorio.save(new Usuario("Pro", "Vendedor", "v.jpg", "importador@wallaspring.com", "secreto"));
+		when(storageService.store(any(InputStream.class), anyString())).thenAnswer(invocacion -> {
+			StreamUtils.drain(invocacion.getArgument(0));
+			return "almacen_" + invocacion.getArgument(1);
+		});
+	}
+
+	@AfterEach
+	void tearDown() {
+		productoRepositorio.deleteAll(productoRepositorio.findByVendedor(vendedor));
+		usuarioRepositorio.delete(vendedor);
+	}
+
+	@Test
+	void elCsvSeGuardaPorLotesYCadaFilaMalaSeInforma() throws Exception {
+		String csv = "nombre,precio,imagen\n"
+				+ "Mesa,10.5,\n"
+				+ "\"Silla, roble\",3,https://ejemplo.com/silla.jpg\n"
+				+ ",4,\n"
+				+ "Lampara,-1,\n"
+				+ "Sofa,abc,\n"
+				+ "\"Cuadro\ngrande\",7,\n"
+				+ new String(new char[300]).replace('\0', 'x') + ",1,\n"
+				+ "Reloj,2,\n";
+
+		ResultadoImportacion resultado = importacionServicio.importar(vendedor,
+				new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), IImportacionServicio.Formato.CSV,
+				StandardCharsets.UTF_8, imagen -> "/files/" + imagen);
+
+		assertEquals(8, resultado.getFilas());
+		assertEquals(4, resultado.getImportados());
+		assertEquals(4, resultado.getErrores());
+		assertEquals(Arrays.asList(4, 5, 6, 9), resultado.getDetalle().stream().map(ResultadoImportacion.ErrorFila::getFila).collect(Collectors.toList()));
+		assertTrue(resultado.getDetalle().get(3).getMensaje().startsWith("ERROR AL GUARDAR"));
+		List<String> nombres = productoRepositorio.findByVendedor(vendedor).stream().map(Producto::getNombre).sorted().collect(Collectors.toList());
+		assertEquals(Arrays.asList("Cuadro\ngrande", "Mesa", "Reloj", "Silla, roble"), nombres);
+	}
+
+	@Test
+	void elZipGuardaLasImagenesUsadasYBorraLasDemas() throws Exception {
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		try (ZipOutputStream salida = new ZipOutputStream(zip)) {
+			entrada(salida, "productos.jsonl", ("{\"nombre\":\"Bici\",\"precio\":120,\"imagen\":\"foto.png\"}\n"
+					+ "{\"nombre\":\"Patin\",\"precio\":\"30,5\",\"imagen\":\"falta.png\"}\n"
+					+ "no es json\n").getBytes(StandardCharsets.UTF_8));
+			entrada(salida, "fotos/foto.png", new byte[] { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0 });
+			entrada(salida, "notas.txt", "hola".getBytes(StandardCharsets.UTF_8));
+			entrada(salida, "sobra.jpg", new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 0 });
+		}
+
+		ResultadoImportacion resultado = importacionServicio.importarZip(vendedor, new ByteArrayInputStream(zip.toByteArray()),
+				imagen -> "/files/" + imagen);
+
+		assertEquals(3, resultado.getFilas());
+		assertEquals(1, resultado.getImportados());
+		assertEquals(Arrays.asList(0, 2, 3), resultado.getDetalle().stream().map(ResultadoImportacion.ErrorFila::getFila).collect(Collectors.toList()));
+		assertEquals("/files/almacen_foto.png", productoRepositorio.findByVendedor(vendedor).get(0).getImagen());
+		verify(storageService).delete("almacen_sobra.jpg");
+	}
+
+	private static void entrada(ZipOutputStream salida, String nombre, byte[] contenido) throws Exception {
+		salida.putNextEntry(new ZipEntry(nombre));
+		salida.write(contenido);
+		salida.closeEntry();
+	}
+
+}
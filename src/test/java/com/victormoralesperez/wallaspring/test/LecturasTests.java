@@ -0,0 +1,160 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.ICompraRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+import com.victormoralesperez.wallaspring.services.IProductoServicio;
+import com.victormoralesperez.wallaspring.services.ProductoServicioImpl;
+import com.victormoralesperez.wallaspring.storageservice.AsyncStorageService;
+import com.victormoralesperez.wallaspring.storageservice.StorageService;
+
+/**
+ * Comprueba que las lecturas de las Vistas traen sus asociaciones en una sola SELECT y que
+ * las transacciones de solo lectura no comprueban ni vuelcan cambios
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import(ProductoServicioImpl.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class LecturasTests {
+
+	@MockBean
+	StorageService storageService;
+
+	@MockBean
+	AsyncStorageService asyncStorageService;
+
+	@Autowired
+	IProductoServicio productoServicio;
+
+	@Autowired
+	IProductoRepositoryDAO productoRepositorio;
+
+	@Autowired
+	ICompraRepositoryDAO compraRepositorio;
+
+	@Autowired
+	IUsuarioRepositoryDAO usuarioRepositorio;
+
+	@Autowired
+	EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	EntityManager entityManager;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	private final List<Usuario> usuarios = new ArrayList<>();
+
+	private final List<Compra> compras = new ArrayList<>();
+
+	private final List<Producto> productos = new ArrayList<>();
+
+	private Usuario comprador;
+
+	@BeforeEach
+	void setUp() {
+		comprador = usuario("comprador");
+		for (int i = 0; i < 3; i++) {
+			Usuario vendedor = usuario("vendedor" + i);
+			productos.add(productoRepositorio.save(new Producto("Libre " + i, 10, null, vendedor)));
+			Producto vendido = new Producto("Vendido " + i, 5, null, vendedor);
+			Compra compra = compraRepositorio.save(new Compra(comprador));
+			compras.add(compra);
+			vendido.setCompra(compra);
+			productos.add(productoRepositorio.save(vendido));
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		productoRepositorio.deleteAll(productos);
+		compraRepositorio.deleteAll(compras);
+		usuarioRepositorio.deleteAll(usuarios);
+	}
+
+	@Test
+	void elCatalogoTraeLosVendedoresEnLaMismaConsulta() {
+		Statistics estadisticas = estadisticas();
+
+		List<Long> ids = productos.stream().map(Producto::getId).collect(Collectors.toList());
+		List<Producto> sinVender = productoServicio.productosSinVender().stream()
+				.filter(p -> ids.contains(p.getId())).collect(Collectors.toList());
+
+		assertEquals(3, sinVender.size());
+		assertTrue(sinVender.stream().allMatch(p -> p.getVendedor().getEmail().startsWith("vendedor")));
+		assertEquals(1, estadisticas.getPrepareStatementCount());
+	}
+
+	@Test
+	void losProductosCompradosSeBuscanSinUnaConsultaPorCompra() {
+		Statistics estadisticas = estadisticas();
+
+		List<Producto> comprados = productoServicio.productosCompradosPor(comprador);
+
+		assertEquals(3, comprados.size());
+		assertTrue(comprados.stream().allMatch(p -> p.getCompra().getComprador().getId() == comprador.getId()));
+		// UNA EN producto Y OTRA EN producto_archivado
+		assertEquals(2, estadisticas.getPrepareStatementCount());
+	}
+
+	@Test
+	void enUnaTransaccionDeSoloLecturaNoSeVuelcaNada() {
+		TransactionTemplate lectura = new TransactionTemplate(transactionManager);
+		lectura.setReadOnly(true);
+
+		lectura.executeWithoutResult(estado -> {
+			Session sesion = entityManager.unwrap(Session.class);
+			assertEquals(FlushMode.MANUAL, sesion.getHibernateFlushMode());
+			List<Producto> mios = productoRepositorio.findByVendedor(productos.get(0).getVendedor());
+			assertTrue(mios.stream().allMatch(sesion::isReadOnly));
+			mios.forEach(p -> p.setNombre("Cambiado"));
+		});
+
+		assertEquals("Libre 0", productoRepositorio.findById(productos.get(0).getId()).get().getNombre());
+	}
+
+	private Usuario usuario(String nombre) {
+		Usuario usuario = usuarioRepositorio.save(new Usuario(nombre, "Lector", null, nombre + "@lecturas.com", "secreto"));
+		usuarios.add(usuario);
+		return usuario;
+	}
+
+	private Statistics estadisticas() {
+		Statistics estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		estadisticas.clear();
+		return estadisticas;
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import com.victormoralesperez.wallaspring.reports.LimitadorPDF;
+import com.victormoralesperez.wallaspring.reports.LimitadorPDFProperties;
+import com.victormoralesperez.wallaspring.reports.RenderizadoSaturadoException;
+
+class LimitadorPDFTests {
+
+	private LimitadorPDF limitador(int maxConcurrent, long memoryBudgetKb) {
+		LimitadorPDFProperties properties = new LimitadorPDFProperties();
+		properties.setMaxConcurrent(maxConcurrent);
+		properties.setMemoryBudget(DataSize.ofKilobytes(memoryBudgetKb));
+		properties.setMaxWait(Duration.ofMillis(10));
+		properties.setRetryAfter(7);
+		return new LimitadorPDF(properties);
+	}
+
+	@Test
+	void rechazaCuandoNoQuedanHuecos() {
+		LimitadorPDF limitador = limitador(2, 1024);
+		LimitadorPDF.Permiso primero = limitador.entrar(1024);
+		LimitadorPDF.Permiso segundo = limitador.entrar(1024);
+
+		RenderizadoSaturadoException e = assertThrows(RenderizadoSaturadoException.class, () -> limitador.entrar(1024));
+		assertEquals(7, e.getRetryAfter());
+		assertEquals(2, limitador.getEnCurso());
+
+		primero.close();
+		primero.close(); // CERRAR DOS VECES NO DEVUELVE DOS HUECOS
+		limitador.entrar(1024).close();
+		segundo.close();
+		assertEquals(0, limitador.getEnCurso());
+		assertEquals(1, limitador.getRechazados());
+	}
+
+	@Test
+	void rechazaCuandoNoQuedaMemoriaYDevuelveElHueco() {
+		LimitadorPDF limitador = limitador(4, 1024);
+		try (LimitadorPDF.Permiso grande = limitador.entrar(800 * 1024)) {
+			assertEquals(800 * 1024, limitador.getMemoriaEnUso());
+			assertThrows(RenderizadoSaturadoException.class, () -> limitador.entrar(300 * 1024));
+			assertEquals(1, limitador.getEnCurso());
+			limitador.entrar(200 * 1024).close();
+		}
+		// UNA ESTIMACION MAYOR QUE EL PRESUPUESTO SE RECORTA: SE GENERA SOLA
+		try (LimitadorPDF.Permiso enorme = limitador.entrar(10 * 1024 * 1024)) {
+			assertEquals(1024 * 1024, limitador.getMemoriaEnUso());
+		}
+		assertEquals(0, limitador.getMemoriaEnUso());
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+import com.victormoralesperez.wallaspring.storageservice.StorageService;
+
+/**
+ * Comprueba que los ID se reservan por bloques y que los INSERT se envian en lotes
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class LotesInsercionTests {
+
+	@MockBean
+	StorageService storageService;
+
+	@Autowired
+	IProductoRepositoryDAO productoRepositorio;
+
+	@Autowired
+	IUsuarioRepositoryDAO usuarioRepositorio;
+
+	@Autowired
+	EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void cientoVeinteProductosSonTresLotes() {
+		Usuario usuario = usuarioRepositorio.saveAndFlush(new Usuario("Ana", "Garcia", "a.jpg", "ana@wallaspring.com", "secreto"));
+		Statistics estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		estadisticas.clear();
+
+		List<Producto> productos = new ArrayList<>();
+		for (int i = 0; i < 120; i++) {
+			productos.add(new Producto("Producto " + i, i, "p" + i + ".jpg", usuario));
+		}
+		productoRepositorio.saveAll(productos);
+		productoRepositorio.flush();
+
+		assertEquals(120, estadisticas.getEntityInsertCount());
+		assertTrue(estadisticas.getPrepareStatementCount() <= 6, () -> "SENTENCIAS: " + estadisticas.getPrepareStatementCount());
+		for (int i = 1; i < productos.size(); i++) {
+			assertEquals(productos.get(i - 1).getId() + 1, productos.get(i).getId());
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Pageable;
+
+import com.victormoralesperez.wallaspring.repositories.IProductoArchivadoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.ReferenciaFichero;
+import com.victormoralesperez.wallaspring.storageservice.FileSystemStorageService;
+import com.victormoralesperez.wallaspring.storageservice.OrphanCollectorProperties;
+import com.victormoralesperez.wallaspring.storageservice.OrphanedUploadCollector;
+import com.victormoralesperez.wallaspring.storageservice.StorageProperties;
+
+class OrphanedUploadCollectorTests {
+
+	@TempDir
+	Path directorio;
+
+	private OrphanedUploadCollector collector;
+
+	private IProductoRepositoryDAO productos;
+
+	private final NavigableMap<Long, String> tablaProductos = new TreeMap<>();
+
+	private final NavigableMap<Long, String> tablaArchivados = new TreeMap<>();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		StorageProperties storageProperties = new StorageProperties();
+		storageProperties.setLocation(directorio.toString());
+		FileSystemStorageService storageService = new FileSystemStorageService(storageProperties, event -> { });
+		storageService.init();
+
+		productos = mock(IProductoRepositoryDAO.class);
+		tablaProductos.put(1L, "http://localhost:9090/files/producto.jpg");
+		when(productos.countByImagenIsNotNull()).thenAnswer(invocacion -> (long) tablaProductos.size());
+		when(productos.findImagenes(anyLong(), any(Pageable.class)))
+				.thenAnswer(invocacion -> pagina(tablaProductos, invocacion.getArgument(0), invocacion.getArgument(1)));
+		IProductoArchivadoRepositoryDAO archivados = mock(IProductoArchivadoRepositoryDAO.class);
+		tablaArchivados.put(100L, "http://localhost:9090/files/vendido.jpg");
+		when(archivados.countByImagenIsNotNull()).thenReturn(1L);
+		when(archivados.findImagenes(anyLong(), any(Pageable.class)))
+				.thenAnswer(invocacion -> pagina(tablaArchivados, invocacion.getArgument(0), invocacion.getArgument(1)));
+		IUsuarioRepositoryDAO usuarios = mock(IUsuarioRepositoryDAO.class);
+		NavigableMap<Long, String> tablaUsuarios = new TreeMap<>(Collections.singletonMap(1L, "http://localhost:9090/files/avatar.png"));
+		when(usuarios.countByAvatarIsNotNull()).thenReturn(1L);
+		when(usuarios.findAvatares(anyLong(), any(Pageable.class)))
+				.thenAnswer(invocacion -> pagina(tablaUsuarios, invocacion.getArgument(0), invocacion.getArgument(1)));
+
+		OrphanCollectorProperties properties = new OrphanCollectorProperties();
+		properties.setPause(Duration.ZERO);
+		properties.setChunkSize(2);
+		collector = new OrphanedUploadCollector(storageService, productos, archivados, usuarios, properties);
+
+		FileTime antiguo = FileTime.from(Instant.now().minus(Duration.ofDays(2)));
+		for (String nombre : new String[] { "producto.jpg", "vendido.jpg", "avatar.png", "huerfano.jpg" }) {
+			Files.setLastModifiedTime(Files.write(directorio.resolve(nombre), new byte[] { 1, 2, 3 }), antiguo);
+		}
+		Files.write(directorio.resolve("recien_subido.jpg"), new byte[] { 4, 5, 6 });
+	}
+
+	@Test
+	void enSimulacionNoSeBorraNada() {
+		OrphanedUploadCollector.Informe informe = collector.recolectar(true);
+
+		assertEquals(3, informe.getReferenciados());
+		assertEquals(5, informe.getExaminados());
+		assertEquals(1, informe.getHuerfanos());
+		assertEquals(1, informe.getEnGracia());
+		assertEquals(0, informe.getBorrados());
+		assertEquals(Collections.singletonList("huerfano.jpg"), informe.getMuestra());
+		assertTrue(Files.exists(directorio.resolve("huerfano.jpg")));
+	}
+
+	@Test
+	void soloSeBorranLosHuerfanosFueraDelPeriodoDeGracia() {
+		OrphanedUploadCollector.Informe informe = collector.recolectar(false);
+
+		assertEquals(1, informe.getBorrados());
+		assertEquals(3, informe.getBytesLiberados());
+		assertFalse(Files.exists(directorio.resolve("huerfano.jpg")));
+		assertTrue(Files.exists(directorio.resolve("producto.jpg")));
+		assertTrue(Files.exists(directorio.resolve("vendido.jpg")));
+		assertTrue(Files.exists(directorio.resolve("avatar.png")));
+		assertTrue(Files.exists(directorio.resolve("recien_subido.jpg")));
+	}
+
+	/**
+	 * Si se borra un Producto ya marcado mientras se recorre la Tabla (un borrado o el
+	 * archivado), las paginas siguientes no se desplazan: no se salta ninguna fila viva
+	 */
+	@Test
+	void unBorradoDuranteElMarcadoNoSaltaFilasVivas() throws IOException {
+		FileTime antiguo = FileTime.from(Instant.now().minus(Duration.ofDays(2)));
+		for (long id = 2; id <= 5; id++) {
+			tablaProductos.put(id, "http://localhost:9090/files/p" + id + ".jpg");
+			Files.setLastModifiedTime(Files.write(directorio.resolve("p" + id + ".jpg"), new byte[] { 1, 2, 3 }), antiguo);
+		}
+		when(productos.findImagenes(anyLong(), any(Pageable.class))).thenAnswer(invocacion -> {
+			List<ReferenciaFichero> resultado = pagina(tablaProductos, invocacion.getArgument(0), invocacion.getArgument(1));
+			tablaProductos.remove(1L);
+			return resultado;
+		});
+
+		OrphanedUploadCollector.Informe informe = collector.recolectar(false);
+
+		assertEquals(7, informe.getReferenciados());
+		for (String nombre : new String[] { "p2.jpg", "p3.jpg", "p4.jpg", "p5.jpg", "vendido.jpg", "avatar.png" }) {
+			assertTrue(Files.exists(directorio.resolve(nombre)), () -> "SE HA BORRADO " + nombre + ", QUE SIGUE REFERENCIADO");
+		}
+		assertFalse(Files.exists(directorio.resolve("huerfano.jpg")));
+	}
+
+	/**
+	 * El archivado (ArchivoServicioImpl) copia las filas a producto_archivado y las borra de
+	 * producto en la misma transaccion. Si mueve filas que aun no se han leido mientras se
+	 * marca la Tabla producto, sus imagenes se marcan al recorrer despues el archivo
+	 */
+	@Test
+	void unArchivadoDuranteElMarcadoNoPierdeImagenes() throws IOException {
+		FileTime antiguo = FileTime.from(Instant.now().minus(Duration.ofDays(2)));
+		for (long id = 2; id <= 5; id++) {
+			tablaProductos.put(id, "http://localhost:9090/files/p" + id + ".jpg");
+			Files.setLastModifiedTime(Files.write(directorio.resolve("p" + id + ".jpg"), new byte[] { 1, 2, 3 }), antiguo);
+		}
+		when(productos.findImagenes(anyLong(), any(Pageable.class))).thenAnswer(invocacion -> {
+			List<ReferenciaFichero> resultado = pagina(tablaProductos, invocacion.getArgument(0), invocacion.getArgument(1));
+			for (long id : new long[] { 1, 3, 4 }) {
+				String imagen = tablaProductos.remove(id);
+				if (imagen != null) {
+					tablaArchivados.put(id, imagen);
+				}
+			}
+			return resultado;
+		});
+
+		collector.recolectar(false);
+
+		for (String nombre : new String[] { "producto.jpg", "p2.jpg", "p3.jpg", "p4.jpg", "p5.jpg", "vendido.jpg" }) {
+			assertTrue(Files.exists(directorio.resolve(nombre)), () -> "SE HA BORRADO " + nombre + ", QUE SIGUE REFERENCIADO");
+		}
+		assertFalse(Files.exists(directorio.resolve("huerfano.jpg")));
+	}
+
+	/**
+	 * Pagina de una Tabla por clave, como las consultas de los repositorios:
+	 * WHERE id > ultimo ORDER BY id, con el tamanyo del Pageable
+	 */
+	private static List<ReferenciaFichero> pagina(NavigableMap<Long, String> tabla, long ultimo, Pageable pageable) {
+		List<ReferenciaFichero> pagina = new ArrayList<>();
+		for (Map.Entry<Long, String> fila : tabla.tailMap(ultimo, false).entrySet()) {
+			if (pagina.size() == pageable.getPageSize()) {
+				break;
+			}
+			pagina.add(new ReferenciaFichero() {
+
+				@Override
+				public Long getId() {
+					return fila.getKey();
+				}
+
+				@Override
+				public String getUrl() {
+					return fila.getValue();
+				}
+
+			});
+		}
+		return pagina;
+	}
+
+}
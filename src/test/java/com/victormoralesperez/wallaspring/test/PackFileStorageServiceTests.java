@@ -0,0 +1,201 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.StreamUtils;
+
+import com.victormoralesperez.wallaspring.storageservice.PackFileStorageService;
+import com.victormoralesperez.wallaspring.storageservice.StorageFileNotFoundException;
+import com.victormoralesperez.wallaspring.storageservice.StorageProperties;
+
+class PackFileStorageServiceTests {
+
+	@TempDir
+	Path directorio;
+
+	private StorageProperties properties;
+
+	private PackFileStorageService storageService;
+
+	@BeforeEach
+	void setUp() {
+		properties = new StorageProperties();
+		properties.setLocation(directorio.toString());
+		properties.getPack().setSegmentSize(1024);
+		storageService = arrancar();
+	}
+
+	@AfterEach
+	void tearDown() {
+		storageService.destroy();
+	}
+
+	@Test
+	void losFicherosYLosBorradosSobrevivenAUnReinicio() throws Exception {
+		String bici = storageService.store(fichero("bici.jpg", 300, (byte) 1));
+		String coche = storageService.store(fichero("coche.jpg", 300, (byte) 2));
+		storageService.delete("http://localhost:9090/files/" + coche);
+
+		storageService.destroy();
+		storageService = arrancar();
+
+		assertArrayEquals(contenido(300, (byte) 1), leer(bici));
+		assertThrows(StorageFileNotFoundException.class, () -> storageService.loadAsResource(coche));
+		assertEquals(1, contar());
+	}
+
+	@Test
+	void unaEscrituraAMediasSeDescartaAlArrancar() throws Exception {
+		String bici = storageService.store(fichero("bici.jpg", 100, (byte) 1));
+		storageService.destroy();
+		Files.write(segmentos().get(segmentos().size() - 1), new byte[] { 0x57, 0x50, 0x4B, 0x31, 1, 0, 0 }, StandardOpenOption.APPEND);
+
+		storageService = arrancar();
+		String coche = storageService.store(fichero("coche.jpg", 100, (byte) 2));
+		storageService.destroy();
+		storageService = arrancar();
+
+		assertArrayEquals(contenido(100, (byte) 1), leer(bici));
+		assertArrayEquals(contenido(100, (byte) 2), leer(coche));
+	}
+
+	@Test
+	void laCompactacionRecuperaElEspacioDeLosBorrados() throws Exception {
+		List<String> nombres = new ArrayList<>();
+		for (int i = 0; i < 12; i++) {
+			nombres.add(storageService.store(fichero("foto" + i + ".jpg", 400, (byte) i)));
+		}
+		for (int i = 0; i < 11; i++) {
+			storageService.delete(nombres.get(i));
+		}
+		long antes = tamanyoSegmentos();
+
+		storageService.compactar();
+		storageService.destroy();
+		storageService = arrancar();
+
+		assertTrue(tamanyoSegmentos() < antes);
+		assertArrayEquals(contenido(400, (byte) 11), leer(nombres.get(11)));
+		assertEquals(1, contar());
+	}
+
+	/**
+	 * El barrido de ficheros huerfanos borra mientras recorre loadAll()
+	 */
+	@Test
+	void sePuedeBorrarMientrasSeRecorrenLosFicheros() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			storageService.store(fichero("foto" + i + ".jpg", 50, (byte) i));
+		}
+
+		int recorridos = 0;
+		try (Stream<Path> ficheros = storageService.loadAll()) {
+			for (Path fichero : (Iterable<Path>) ficheros::iterator) {
+				storageService.delete(fichero.getFileName().toString());
+				recorridos++;
+			}
+		}
+
+		assertEquals(10, recorridos);
+		assertEquals(0, contar());
+	}
+
+	/**
+	 * Una subida que se queda parada a mitad del cuerpo de la peticion no bloquea
+	 * las demas subidas ni los borrados
+	 */
+	@Test
+	void unaSubidaParadaNoBloqueaALasDemas() throws Exception {
+		String bici = storageService.store(fichero("bici.jpg", 100, (byte) 1));
+		CountDownLatch empezada = new CountDownLatch(1);
+		CountDownLatch continuar = new CountDownLatch(1);
+		InputStream parada = new SequenceInputStream(new ByteArrayInputStream(contenido(100, (byte) 3)), new InputStream() {
+			@Override
+			public int read() throws IOException {
+				empezada.countDown();
+				try {
+					continuar.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return -1;
+			}
+		});
+		CompletableFuture<String> lenta = CompletableFuture.supplyAsync(() -> storageService.store(parada, "lenta.jpg"));
+		assertTrue(empezada.await(10, TimeUnit.SECONDS));
+
+		String coche = CompletableFuture.supplyAsync(() -> storageService.store(fichero("coche.jpg", 100, (byte) 2)))
+				.get(10, TimeUnit.SECONDS);
+		CompletableFuture.runAsync(() -> storageService.delete(bici)).get(10, TimeUnit.SECONDS);
+		continuar.countDown();
+
+		assertArrayEquals(contenido(100, (byte) 3), leer(lenta.get(10, TimeUnit.SECONDS)));
+		assertArrayEquals(contenido(100, (byte) 2), leer(coche));
+		assertEquals(2, contar());
+	}
+
+	private PackFileStorageService arrancar() {
+		PackFileStorageService service = new PackFileStorageService(properties, event -> { });
+		service.init();
+		return service;
+	}
+
+	private byte[] leer(String nombre) throws Exception {
+		return StreamUtils.copyToByteArray(storageService.loadAsResource(nombre).getInputStream());
+	}
+
+	private long contar() {
+		try (Stream<Path> ficheros = storageService.loadAll()) {
+			return ficheros.count();
+		}
+	}
+
+	private List<Path> segmentos() throws Exception {
+		try (Stream<Path> ficheros = Files.list(directorio.resolve("pack"))) {
+			return ficheros.filter(fichero -> fichero.toString().endsWith(".pack")).sorted().collect(Collectors.toList());
+		}
+	}
+
+	private long tamanyoSegmentos() throws Exception {
+		long total = 0;
+		for (Path segmento : segmentos()) {
+			total += Files.size(segmento);
+		}
+		return total;
+	}
+
+	private static MockMultipartFile fichero(String nombre, int longitud, byte valor) {
+		return new MockMultipartFile("file", nombre, "image/jpeg", contenido(longitud, valor));
+	}
+
+	private static byte[] contenido(int longitud, byte valor) {
+		byte[] datos = new byte[longitud];
+		for (int i = 0; i < longitud; i++) {
+			datos[i] = (byte) (valor + i);
+		}
+		return datos;
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.TrabajoFactura;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.ICompraRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.ITrabajoFacturaRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+import com.victormoralesperez.wallaspring.storageservice.StorageService;
+
+/**
+ * Comprueba, sobre el esquema que crean las migraciones en H2, que la consulta SQL de
+ * cada metodo de los repositorios se resuelve con un indice y no recorriendo la tabla.
+ * Donde una clave ajena empieza igual que un indice compuesto (vendedor_id, comprador_id)
+ * el optimizador puede elegir cualquiera de los dos, asi que se admiten ambos.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+		+ "com.victormoralesperez.wallaspring.test.PlanesConsultaTests$ConsultasEjecutadas")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class PlanesConsultaTests {
+
+	/**
+	 * Guarda el SQL de las consultas que ejecuta Hibernate
+	 */
+	public static class ConsultasEjecutadas implements StatementInspector {
+
+		static final List<String> SQL = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public String inspect(String sql) {
+			SQL.add(sql);
+			return sql;
+		}
+
+	}
+
+	private static final String[] VENDEDOR = { "idx_producto_vendedor_nombre", "fk_producto_vendedor" };
+
+	private static final String[] COMPRA = { "idx_producto_compra_nombre", "fk_producto_compra" };
+
+	private static final String[] ESTADO = { "idx_producto_estado" };
+
+	private static final String[] COMPRADOR = { "idx_compra_comprador_fecha", "fk_compra_comprador" };
+
+	@MockBean
+	StorageService storageService;
+
+	@Autowired
+	IProductoRepositoryDAO productoRepositorio;
+
+	@Autowired
+	ICompraRepositoryDAO compraRepositorio;
+
+	@Autowired
+	IUsuarioRepositoryDAO usuarioRepositorio;
+
+	@Autowired
+	ITrabajoFacturaRepositoryDAO trabajoRepositorio;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	private Usuario usuario;
+
+	private Compra compra;
+
+	@BeforeEach
+	void setUp() {
+		usuario = usuarioRepositorio.save(new Usuario("Ana", "Garcia", "a.jpg", "ana@wallaspring.com", "secreto"));
+		compra = compraRepositorio.save(new Compra(usuario));
+		for (int i = 0; i < 20; i++) {
+			Producto producto = new Producto("Producto " + i, i, "p" + i + ".jpg", usuario);
+			producto.setCompra(i % 2 == 0 ? compra : null);
+			productoRepositorio.save(producto);
+		}
+		trabajoRepositorio.save(new TrabajoFactura(compra.getId(), TrabajoFactura.Generador.HTML));
+		productoRepositorio.flush();
+	}
+
+	@Test
+	void productos() {
+		assertUsaIndice(VENDEDOR, () -> productoRepositorio.findByVendedor(usuario));
+		assertUsaIndice(COMPRA, () -> productoRepositorio.findByCompra(compra));
+		assertUsaIndice(ESTADO, () -> productoRepositorio.findByEstadoOrderById(Producto.Estado.DISPONIBLE));
+		assertUsaIndice(ESTADO, () -> productoRepositorio
+				.findByNombreContainsIgnoreCaseAndEstadoOrderById("producto", Producto.Estado.DISPONIBLE));
+		assertUsaIndice(VENDEDOR,
+				() -> productoRepositorio.findByNombreContainsIgnoreCaseAndVendedor("producto", usuario));
+	}
+
+	@Test
+	void catalogoPorEstado() {
+		List<Producto> disponibles = productoRepositorio.findByEstadoOrderById(Producto.Estado.DISPONIBLE);
+		assertEquals(10, disponibles.size());
+		assertTrue(disponibles.stream().allMatch(p -> p.getCompra() == null));
+		assertEquals(10, jdbcTemplate.queryForObject(
+				"select count(*) from producto where estado = 'V' and compra_id is not null", Integer.class));
+	}
+
+	@Test
+	void compras() {
+		assertUsaIndice(COMPRADOR, () -> compraRepositorio.findByComprador(usuario));
+		assertUsaIndice(COMPRADOR,
+				() -> compraRepositorio.findIds(usuario, new Date(0), new Date(), 0, PageRequest.of(0, 100)));
+	}
+
+	@Test
+	void usuariosYTrabajos() {
+		assertUsaIndice(new String[] { "uk_usuario_email" }, () -> usuarioRepositorio.findByEmail("ana@wallaspring.com"));
+		assertUsaIndice(new String[] { "uk_trabajo_factura_compra_generador" },
+				() -> trabajoRepositorio.findByCompraIdAndGenerador(compra.getId(), TrabajoFactura.Generador.HTML));
+		assertUsaIndice(new String[] { "idx_trabajo_factura_estado" }, () -> trabajoRepositorio.findByEstadoIn(
+				Arrays.asList(TrabajoFactura.Estado.PENDIENTE, TrabajoFactura.Estado.EN_CURSO)));
+	}
+
+	/**
+	 * Ejecuta la consulta del repositorio y comprueba el plan (EXPLAIN) de la primera
+	 * sentencia SQL que lanza Hibernate
+	 */
+	private void assertUsaIndice(String[] indices, Runnable consulta) {
+		ConsultasEjecutadas.SQL.clear();
+		consulta.run();
+		String sql = ConsultasEjecutadas.SQL.get(0);
+		String plan = jdbcTemplate.queryForObject("explain " + sql, String.class).toLowerCase();
+		assertFalse(plan.contains("tablescan"), () -> "SE RECORRE UNA TABLA ENTERA:\n" + sql + "\n" + plan);
+		assertTrue(Arrays.stream(indices).anyMatch(plan::contains),
+				() -> "NO SE USA " + String.join(" NI ", indices) + ":\n" + sql + "\n" + plan);
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.victormoralesperez.wallaspring.consultas.ConsultasFilter;
+import com.victormoralesperez.wallaspring.models.Compra;
+import com.victormoralesperez.wallaspring.models.Producto;
+import com.victormoralesperez.wallaspring.models.Usuario;
+import com.victormoralesperez.wallaspring.repositories.ICompraRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IProductoRepositoryDAO;
+import com.victormoralesperez.wallaspring.repositories.IUsuarioRepositoryDAO;
+
+/**
+ * Presupuesto de sentencias SQL de las rutas principales, leido de la cabecera
+ * X-Consultas-SQL (consultas.header=true en el perfil "test"). Con 20 Productos, la
+ * mitad vendidos, un N+1 se pasa del presupuesto.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class PresupuestoConsultasTests {
+
+	private static final String EMAIL = "presupuesto@wallaspring.com";
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	IUsuarioRepositoryDAO usuarioRepositorio;
+
+	@Autowired
+	ICompraRepositoryDAO compraRepositorio;
+
+	@Autowired
+	IProductoRepositoryDAO productoRepositorio;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	private Producto producto;
+
+	@BeforeEach
+	void setUp() {
+		Usuario usuario = usuarioRepositorio.save(new Usuario("Ana", "Garcia", null, EMAIL, "secreto"));
+		Compra compra = compraRepositorio.save(new Compra(usuario));
+		for (int i = 0; i < 20; i++) {
+			Producto nuevo = new Producto("Producto " + i, i, null, usuario);
+			nuevo.setCompra(i % 2 == 0 ? compra : null);
+			producto = productoRepositorio.save(nuevo);
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		jdbcTemplate.update("delete from producto");
+		jdbcTemplate.update("delete from compra");
+		jdbcTemplate.update("delete from usuario where email = ?", EMAIL);
+	}
+
+	@Test
+	void catalogo() throws Exception {
+		assertPresupuesto(1, "/public/");
+		// el @ModelAttribute del catalogo y la busqueda
+		assertPresupuesto(2, "/public/?q=producto");
+		assertPresupuesto(2, "/public/producto/" + producto.getId());
+	}
+
+	@Test
+	@WithMockUser(username = EMAIL)
+	void zonaPrivada() throws Exception {
+		assertPresupuesto(2, "/app/mis_productos");
+		assertPresupuesto(5, "/app/mi_perfil");
+		assertPresupuesto(3, "/app/mis_compras");
+	}
+
+	private void assertPresupuesto(int maximo, String ruta) throws Exception {
+		MvcResult resultado = mockMvc.perform(get(ruta)).andExpect(status().isOk()).andReturn();
+		String sentencias = resultado.getResponse().getHeader(ConsultasFilter.CABECERA_SENTENCIAS);
+		assertNotNull(sentencias, () -> "SIN CABECERA " + ConsultasFilter.CABECERA_SENTENCIAS + " EN " + ruta);
+		assertTrue(Integer.parseInt(sentencias) <= maximo,
+				() -> ruta + " LANZA " + sentencias + " SENTENCIAS SQL (PRESUPUESTO: " + maximo + ")");
+	}
+
+}
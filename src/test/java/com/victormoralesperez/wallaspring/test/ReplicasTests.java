@@ -0,0 +1,137 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.victormoralesperez.wallaspring.replicas.ComprobadorReplicas;
+import com.victormoralesperez.wallaspring.replicas.DataSourceEnrutado;
+import com.victormoralesperez.wallaspring.replicas.ReplicasProperties;
+
+/**
+ * Comprueba a que Base de Datos manda DataSourceEnrutado cada transaccion, con una H2 como
+ * principal y otra como replica
+ */
+class ReplicasTests {
+
+	DataSource primario;
+
+	DataSource replica;
+
+	DataSourceEnrutado enrutado;
+
+	ComprobadorReplicas comprobador;
+
+	JdbcTemplate jdbc;
+
+	TransactionTemplate lectura;
+
+	TransactionTemplate escritura;
+
+	@BeforeEach
+	void preparar() {
+		primario = baseDeDatos("primario");
+		replica = baseDeDatos("replica-0");
+		enrutado = new DataSourceEnrutado(primario, Collections.singletonMap("replica-0", replica));
+		ReplicasProperties properties = new ReplicasProperties();
+		comprobador = new ComprobadorReplicas(primario, enrutado, properties);
+		DataSource dataSource = new LazyConnectionDataSourceProxy(enrutado);
+		jdbc = new JdbcTemplate(dataSource);
+		DataSourceTransactionManager transacciones = new DataSourceTransactionManager(dataSource);
+		lectura = new TransactionTemplate(transacciones);
+		lectura.setReadOnly(true);
+		escritura = new TransactionTemplate(transacciones);
+		DataSourceEnrutado.consumirEscritura();
+	}
+
+	@AfterEach
+	void limpiar() {
+		new JdbcTemplate(primario).execute("drop all objects");
+		new JdbcTemplate(replica).execute("drop all objects");
+	}
+
+	@Test
+	void sinComprobarLasReplicasTodoVaALaPrincipal() {
+		assertEquals("primario", leer());
+	}
+
+	@Test
+	void unaReplicaConElLatidoAntiguoNoRecibeLecturas() {
+		comprobador.comprobar();
+
+		assertTrue(enrutado.getSanas().isEmpty());
+		assertEquals("primario", leer());
+	}
+
+	@Test
+	void lasLecturasVanALaReplicaSanaYLasEscriturasALaPrincipal() {
+		comprobador.comprobar();
+		replicarLatido();
+		comprobador.comprobar();
+
+		assertEquals(Collections.singletonList("replica-0"), enrutado.getSanas());
+		assertEquals("replica-0", leer());
+		assertFalse(DataSourceEnrutado.consumirEscritura());
+
+		String escrito = escritura.execute(estado -> jdbc.queryForObject("select nombre from nodo", String.class));
+		assertEquals("primario", escrito);
+		assertTrue(DataSourceEnrutado.consumirEscritura());
+
+		boolean anterior = DataSourceEnrutado.forzarPrimario(true);
+		try {
+			assertEquals("primario", leer());
+		} finally {
+			DataSourceEnrutado.forzarPrimario(anterior);
+		}
+		assertEquals("replica-0", leer());
+	}
+
+	@Test
+	void unaReplicaQueNoRespondeDejaDeRecibirLecturas() {
+		comprobador.comprobar();
+		replicarLatido();
+		comprobador.comprobar();
+		assertEquals("replica-0", leer());
+
+		new JdbcTemplate(replica).execute("drop table latido_replicacion");
+		comprobador.comprobar();
+
+		assertTrue(enrutado.getSanas().isEmpty());
+		assertEquals("primario", leer());
+	}
+
+	private String leer() {
+		return lectura.execute(estado -> jdbc.queryForObject("select nombre from nodo", String.class));
+	}
+
+	/**
+	 * Hace lo que haria la replicacion: copia el latido de la principal a la replica
+	 */
+	private void replicarLatido() {
+		Long instante = new JdbcTemplate(primario).queryForObject("select instante from latido_replicacion where id = 1", Long.class);
+		new JdbcTemplate(replica).update("update latido_replicacion set instante = ? where id = 1", instante);
+	}
+
+	private static DataSource baseDeDatos(String nombre) {
+		DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + nombre + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		jdbc.execute("create table latido_replicacion (id integer not null primary key, instante bigint not null)");
+		jdbc.execute("insert into latido_replicacion (id, instante) values (1, 0)");
+		jdbc.execute("create table nodo (nombre varchar(20) not null)");
+		jdbc.update("insert into nodo (nombre) values (?)", nombre);
+		return dataSource;
+	}
+
+}
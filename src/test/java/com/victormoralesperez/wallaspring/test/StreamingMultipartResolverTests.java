@@ -0,0 +1,119 @@
+package com.victormoralesperez.wallaspring.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+
+import com.victormoralesperez.wallaspring.storageservice.FileSystemStorageService;
+import com.victormoralesperez.wallaspring.storageservice.StorageProperties;
+import com.victormoralesperez.wallaspring.storageservice.StreamingMultipartResolver;
+import com.victormoralesperez.wallaspring.storageservice.UploadProperties;
+
+class StreamingMultipartResolverTests {
+
+	private static final String BOUNDARY = "----frontera";
+
+	private static final byte[] PNG = { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 13, 'I', 'H', 'D', 'R' };
+
+	@TempDir
+	Path directorio;
+
+	private FileSystemStorageService storageService;
+
+	private UploadProperties uploadProperties;
+
+	private StreamingMultipartResolver resolver;
+
+	@BeforeEach
+	void setUp() {
+		StorageProperties properties = new StorageProperties();
+		properties.setLocation(directorio.toString());
+		storageService = new FileSystemStorageService(properties, event -> { });
+		storageService.init();
+		uploadProperties = new UploadProperties();
+		resolver = new StreamingMultipartResolver(storageService, uploadProperties);
+	}
+
+	@Test
+	void elFicheroSeAlmacenaMientrasSeLeeLaPeticion() throws Exception {
+		MultipartHttpServletRequest request = resolver.resolveMultipart(peticion("bici.png", PNG));
+
+		MultipartFile file = request.getFile("file");
+		assertEquals("Bicicleta", request.getParameter("nombre"));
+		assertEquals("image/png", file.getContentType());
+		assertEquals(PNG.length, file.getSize());
+		assertEquals(1, ficheros());
+
+		String storedFilename = storageService.store(file);
+		resolver.cleanupMultipart(request);
+
+		assertEquals(1, ficheros());
+		assertArrayEquals(PNG, Files.readAllBytes(storageService.load(storedFilename)));
+	}
+
+	@Test
+	void losFicherosNoReclamadosSeBorranAlTerminar() throws Exception {
+		MultipartHttpServletRequest request = resolver.resolveMultipart(peticion("bici.png", PNG));
+
+		resolver.cleanupMultipart(request);
+
+		assertEquals(0, ficheros());
+	}
+
+	@Test
+	void seRechazanLosTiposNoPermitidosYLosFicherosDemasiadoGrandes() throws Exception {
+		assertThrows(MultipartException.class,
+				() -> resolver.resolveMultipart(peticion("virus.png", "MZ no soy una imagen".getBytes(StandardCharsets.US_ASCII))));
+
+		uploadProperties.setMaxFileSize(DataSize.ofBytes(10));
+		assertThrows(MaxUploadSizeExceededException.class, () -> resolver.resolveMultipart(peticion("bici.png", PNG)));
+
+		assertEquals(0, ficheros());
+	}
+
+	@Test
+	void unCampoDeFicheroVacioNoAlmacenaNada() throws Exception {
+		MultipartHttpServletRequest request = resolver.resolveMultipart(peticion("", new byte[0]));
+
+		assertTrue(request.getFile("file").isEmpty());
+		assertEquals(0, ficheros());
+	}
+
+	private long ficheros() throws Exception {
+		return storageService.loadAll().collect(Collectors.toList()).size();
+	}
+
+	private static MockHttpServletRequest peticion(String filename, byte[] contenido) throws Exception {
+		ByteArrayOutputStream cuerpo = new ByteArrayOutputStream();
+		cuerpo.write(("--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"nombre\"\r\n\r\n"
+				+ "Bicicleta\r\n"
+				+ "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+				+ "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+		cuerpo.write(contenido);
+		cuerpo.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/mis_productos/nuevo/submit");
+		request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+		request.setCharacterEncoding("UTF-8");
+		request.setContent(cuerpo.toByteArray());
+		return request;
+	}
+
+}